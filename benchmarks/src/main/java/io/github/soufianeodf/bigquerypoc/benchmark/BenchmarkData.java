@@ -0,0 +1,49 @@
+package io.github.soufianeodf.bigquerypoc.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Synthetic inputs derived from the bundled card-transactions sample.
+ */
+final class BenchmarkData {
+
+    private static final String SAMPLE = "datasets/electronic-card-transactions.csv";
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * The sample with its body repeated {@code scale} times after a single header line.
+     */
+    static byte[] scaledCsv(int scale) throws IOException {
+        byte[] sample = readSample();
+        int headerEnd = 0;
+        while (sample[headerEnd++] != '\n') {
+            // header line
+        }
+
+        ByteArrayOutputStream scaled = new ByteArrayOutputStream(headerEnd + (sample.length - headerEnd) * scale);
+        scaled.write(sample, 0, headerEnd);
+        for (int i = 0; i < scale; i++) {
+            scaled.write(sample, headerEnd, sample.length - headerEnd);
+        }
+        return scaled.toByteArray();
+    }
+
+    private static byte[] readSample() throws IOException {
+        try (InputStream stream = BenchmarkData.class.getClassLoader().getResourceAsStream(SAMPLE)) {
+            if (stream == null) {
+                throw new IOException(SAMPLE + " is not on the classpath");
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+    }
+}
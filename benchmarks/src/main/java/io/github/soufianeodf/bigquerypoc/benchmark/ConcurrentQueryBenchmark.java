@@ -0,0 +1,123 @@
+package io.github.soufianeodf.bigquerypoc.benchmark;
+
+import com.google.cloud.NoCredentials;
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryOptions;
+import com.google.cloud.bigquery.DatasetInfo;
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.FieldValueList;
+import com.google.cloud.bigquery.InsertAllRequest;
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobInfo;
+import com.google.cloud.bigquery.QueryJobConfiguration;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.StandardSQLTypeName;
+import com.google.cloud.bigquery.StandardTableDefinition;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.TableInfo;
+import io.github.soufianeodf.bigquerypoc.job.IoExecutors;
+import io.github.soufianeodf.bigquerypoc.job.JobScheduler;
+import io.github.soufianeodf.bigquerypoc.local.LocalBigQueryRpc;
+import io.github.soufianeodf.bigquerypoc.service.BigQueryReactiveService;
+import org.openjdk.jmh.annotations.*;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many queries in flight against the local BigQuery stand-in with a fixed latency per call: the blocking model,
+ * a thread per query waiting in {@code Job.waitFor}, against the reactive service where waiting doesn't hold a thread.
+ * Both run their blocking calls on 16 platform threads, like the default {@code bigquery.jobs.io-threads},
+ * or on virtual threads when the JDK has them (otherwise the VIRTUAL runs fall back to platform threads).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConcurrentQueryBenchmark {
+
+    private static final int IO_THREADS = 16;
+    private static final String QUERY = "SELECT * FROM benchmark.card_transactions LIMIT 10";
+
+    @Param({"100", "1000"})
+    private int inFlight;
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    private String threads;
+
+    @Param({"20"})
+    private long latencyMillis;
+
+    private BigQuery bigquery;
+    private ExecutorService executor;
+    private JobScheduler jobScheduler;
+    private BigQueryReactiveService reactiveService;
+
+    @Setup
+    public void setUp() {
+        LocalBigQueryRpc rpc = new LocalBigQueryRpc("local", latencyMillis, 0, 0);
+        bigquery = BigQueryOptions.newBuilder()
+                .setProjectId("local")
+                .setCredentials(NoCredentials.getInstance())
+                .setServiceRpcFactory(options -> rpc.asRpc())
+                .build()
+                .getService();
+
+        TableId tableId = TableId.of("benchmark", "card_transactions");
+        bigquery.create(DatasetInfo.of("benchmark"));
+        bigquery.create(TableInfo.of(tableId, StandardTableDefinition.of(Schema.of(Field.of("Data_value", StandardSQLTypeName.FLOAT64)))));
+        InsertAllRequest.Builder rows = InsertAllRequest.newBuilder(tableId);
+        for (int i = 0; i < 100; i++) {
+            rows.addRow(Collections.<String, Object>singletonMap("Data_value", i));
+        }
+        bigquery.insertAll(rows.build());
+
+        boolean virtual = "VIRTUAL".equals(threads);
+        executor = IoExecutors.create(IO_THREADS, virtual);
+        jobScheduler = new JobScheduler(inFlight, 2, IoExecutors.create(IO_THREADS, virtual), 10, 200);
+        // Only loads go through the async service
+        reactiveService = new BigQueryReactiveService(jobScheduler, null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+        jobScheduler.shutdown();
+    }
+
+    @Benchmark
+    public long blocking() throws Exception {
+        List<Future<Long>> results = new ArrayList<>(inFlight);
+        for (int i = 0; i < inFlight; i++) {
+            results.add(executor.submit(() -> {
+                Job job = bigquery.create(JobInfo.of(QueryJobConfiguration.of(QUERY))).waitFor();
+                long rows = 0;
+                for (FieldValueList ignored : job.getQueryResults().iterateAll()) {
+                    rows++;
+                }
+                return rows;
+            }));
+        }
+        long rows = 0;
+        for (Future<Long> result : results) {
+            rows += result.get();
+        }
+        return rows;
+    }
+
+    @Benchmark
+    public long reactive() {
+        Long rows = Flux.range(0, inFlight)
+                .flatMap(i -> reactiveService.query(bigquery, QUERY, 1000).count(), inFlight)
+                .reduce(0L, Long::sum)
+                .block();
+        return rows == null ? 0 : rows;
+    }
+}
@@ -0,0 +1,84 @@
+package io.github.soufianeodf.bigquerypoc.benchmark;
+
+import com.google.cloud.bigquery.Schema;
+import io.github.soufianeodf.bigquerypoc.csv.CsvReader;
+import io.github.soufianeodf.bigquerypoc.csv.CsvRowIterator;
+import io.github.soufianeodf.bigquerypoc.csv.CsvSchemaInferrer;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding and encoding of the card-transactions CSV, one operation being the whole scaled file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CsvBenchmark {
+
+    @Param({"1", "10"})
+    private int scale;
+
+    private byte[] csv;
+    private Schema schema;
+
+    @Setup
+    public void setUp() throws IOException {
+        csv = BenchmarkData.scaledCsv(scale);
+        try (CsvReader reader = newReader()) {
+            schema = CsvSchemaInferrer.infer(reader, 1000);
+        }
+    }
+
+    @Benchmark
+    public double decodeNumericColumns() throws IOException {
+        double sum = 0;
+        try (CsvReader reader = newReader()) {
+            reader.next();
+            while (reader.next()) {
+                sum += reader.getDouble(1);
+                if (!reader.isEmpty(2)) {
+                    sum += reader.getDouble(2);
+                }
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public void decodeTypedRows(Blackhole blackhole) throws IOException {
+        try (CsvReader reader = newReader()) {
+            reader.next();
+            CsvRowIterator rows = new CsvRowIterator(reader, schema);
+            while (rows.hasNext()) {
+                blackhole.consume(rows.next());
+            }
+        }
+    }
+
+    @Benchmark
+    public void encodeJsonRows(Blackhole blackhole) throws IOException {
+        try (CsvReader reader = newReader()) {
+            reader.next();
+            CsvRowIterator rows = new CsvRowIterator(reader, schema);
+            while (rows.hasNext()) {
+                Map<String, Object> row = rows.next();
+                blackhole.consume(new JSONObject(row).toString());
+            }
+        }
+    }
+
+    private CsvReader newReader() {
+        return new CsvReader(new InputStreamReader(new ByteArrayInputStream(csv), StandardCharsets.UTF_8));
+    }
+}
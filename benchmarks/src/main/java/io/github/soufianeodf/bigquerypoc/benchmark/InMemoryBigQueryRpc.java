@@ -0,0 +1,50 @@
+package io.github.soufianeodf.bigquerypoc.benchmark;
+
+import com.google.cloud.NoCredentials;
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryOptions;
+import com.google.cloud.bigquery.spi.v2.BigQueryRpc;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link BigQueryRpc} that only implements resumable uploads, discarding the bytes it receives.
+ * Plugged under a real {@link BigQuery} client, it measures the client side cost of {@code TableDataWriteChannel}.
+ */
+final class InMemoryBigQueryRpc {
+
+    private InMemoryBigQueryRpc() {
+    }
+
+    static BigQuery newBigQuery(AtomicLong bytesReceived) {
+        BigQueryRpc rpc = (BigQueryRpc) Proxy.newProxyInstance(
+                BigQueryRpc.class.getClassLoader(),
+                new Class<?>[]{BigQueryRpc.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "open":
+                            return "in-memory-upload";
+                        case "write":
+                            // write(uploadId, toWrite, toWriteOffset, destOffset, length, last)
+                            bytesReceived.addAndGet((Integer) args[4]);
+                            return null;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "InMemoryBigQueryRpc";
+                        default:
+                            throw new UnsupportedOperationException(method.getName() + " is not supported in memory");
+                    }
+                });
+
+        return BigQueryOptions.newBuilder()
+                .setProjectId("in-memory")
+                .setCredentials(NoCredentials.getInstance())
+                .setServiceRpcFactory(options -> rpc)
+                .build()
+                .getService();
+    }
+}
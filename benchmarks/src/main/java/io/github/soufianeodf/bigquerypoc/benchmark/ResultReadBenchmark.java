@@ -0,0 +1,110 @@
+package io.github.soufianeodf.bigquerypoc.benchmark;
+
+import com.google.cloud.bigquery.FieldList;
+import com.google.cloud.bigquery.FieldValue;
+import com.google.cloud.bigquery.FieldValueList;
+import io.github.soufianeodf.bigquerypoc.csv.CsvReader;
+import io.github.soufianeodf.bigquerypoc.csv.CsvSchemaInferrer;
+import io.github.soufianeodf.bigquerypoc.read.ColumnarBatch;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the card-transactions rows once they are on the client: the row by row {@link FieldValue} iteration of
+ * {@code BigQueryTableService.browseTable} against the primitive accessors of a {@link ColumnarBatch}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResultReadBenchmark {
+
+    @Param({"1", "10"})
+    private int scale;
+
+    private List<FieldValueList> rows;
+    private int dataValueColumn;
+    private BufferAllocator allocator;
+    private ColumnarBatch batch;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] csv = BenchmarkData.scaledCsv(scale);
+        rows = new ArrayList<>();
+        List<Double> dataValues = new ArrayList<>();
+        try (CsvReader reader = new CsvReader(new InputStreamReader(new ByteArrayInputStream(csv), StandardCharsets.UTF_8))) {
+            // REST results carry every value as a string, an all STRING schema matches what browseTable receives
+            FieldList fields = CsvSchemaInferrer.infer(reader, 0).getFields();
+            dataValueColumn = fields.getIndex("Data_value");
+            while (reader.next()) {
+                List<FieldValue> values = new ArrayList<>(reader.getFieldCount());
+                for (int i = 0; i < reader.getFieldCount(); i++) {
+                    values.add(FieldValue.of(FieldValue.Attribute.PRIMITIVE, reader.isEmpty(i) ? null : reader.getString(i)));
+                }
+                rows.add(FieldValueList.of(values, fields));
+                dataValues.add(reader.isEmpty(dataValueColumn) ? null : reader.getDouble(dataValueColumn));
+            }
+        }
+
+        allocator = new RootAllocator(Long.MAX_VALUE);
+        Float8Vector vector = new Float8Vector("Data_value", allocator);
+        vector.allocateNew(dataValues.size());
+        for (int i = 0; i < dataValues.size(); i++) {
+            if (dataValues.get(i) == null) {
+                vector.setNull(i);
+            } else {
+                vector.set(i, dataValues.get(i));
+            }
+        }
+        vector.setValueCount(dataValues.size());
+        batch = new ColumnarBatch(VectorSchemaRoot.of(vector));
+    }
+
+    @TearDown
+    public void tearDown() {
+        batch.close();
+        allocator.close();
+    }
+
+    @Benchmark
+    public void browseTableStyle(Blackhole blackhole) {
+        rows.forEach(row -> row.forEach(fieldValue -> blackhole.consume(fieldValue.toString() + ", ")));
+    }
+
+    @Benchmark
+    public double fieldValueSum() {
+        double sum = 0;
+        for (FieldValueList row : rows) {
+            FieldValue value = row.get(dataValueColumn);
+            if (!value.isNull()) {
+                sum += value.getDoubleValue();
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double columnarSum() {
+        double sum = 0;
+        for (int row = 0; row < batch.getRowCount(); row++) {
+            if (!batch.isNull(0, row)) {
+                sum += batch.getDouble(0, row);
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,98 @@
+package io.github.soufianeodf.bigquerypoc.benchmark;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.FormatOptions;
+import com.google.cloud.bigquery.JobId;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.TableDataWriteChannel;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.WriteChannelConfiguration;
+import io.github.soufianeodf.bigquerypoc.csv.CsvReader;
+import io.github.soufianeodf.bigquerypoc.csv.CsvSchemaInferrer;
+import io.github.soufianeodf.bigquerypoc.upload.CsvTranscoders;
+import io.github.soufianeodf.bigquerypoc.upload.PipelinedUpload;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Upload time and bytes sent for the scaled card-transactions CSV sent as it is, gzipped or converted to Avro,
+ * against the in-memory upload endpoint. {@code bytesSent} is reported per operation next to the time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TranscodedUploadBenchmark {
+
+    @Param({"10"})
+    private int scale;
+
+    @Param({"CSV", "GZIP", "AVRO"})
+    private String encoding;
+
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong jobCounter = new AtomicLong();
+    private Path csvPath;
+    private BigQuery bigquery;
+    private WriteChannelConfiguration writeChannelConfiguration;
+    private PipelinedUpload.Transcoder transcoder;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Sent {
+        public long bytesSent;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        csvPath = Files.createTempFile("card-transactions", ".csv");
+        Files.write(csvPath, BenchmarkData.scaledCsv(scale));
+        bigquery = InMemoryBigQueryRpc.newBigQuery(bytesReceived);
+
+        FormatOptions formatOptions = FormatOptions.csv();
+        if ("GZIP".equals(encoding)) {
+            transcoder = CsvTranscoders.gzip(csvPath);
+        } else if ("AVRO".equals(encoding)) {
+            try (CsvReader reader = new CsvReader(Files.newBufferedReader(csvPath, StandardCharsets.UTF_8))) {
+                Schema schema = CsvSchemaInferrer.infer(reader, 1000);
+                transcoder = CsvTranscoders.avro(csvPath, schema, 1);
+            }
+            formatOptions = FormatOptions.avro();
+        }
+        writeChannelConfiguration = WriteChannelConfiguration.newBuilder(TableId.of("benchmark", "card_transactions"))
+                .setFormatOptions(formatOptions)
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(csvPath);
+    }
+
+    @Benchmark
+    public long upload(Sent sent) throws IOException, InterruptedException {
+        long before = bytesReceived.get();
+        JobId jobId = JobId.of("benchmark_" + jobCounter.incrementAndGet());
+        try (TableDataWriteChannel writer = bigquery.writer(jobId, writeChannelConfiguration)) {
+            if (transcoder != null) {
+                PipelinedUpload.transfer(transcoder, writer, 1024 * 1024, 8);
+            } else {
+                ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(csvPath));
+                while (buffer.hasRemaining()) {
+                    writer.write(buffer);
+                }
+            }
+        }
+        sent.bytesSent += bytesReceived.get() - before;
+        return bytesReceived.get();
+    }
+}
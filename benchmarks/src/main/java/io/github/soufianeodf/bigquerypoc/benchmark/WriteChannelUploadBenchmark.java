@@ -0,0 +1,63 @@
+package io.github.soufianeodf.bigquerypoc.benchmark;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.FormatOptions;
+import com.google.cloud.bigquery.JobId;
+import com.google.cloud.bigquery.TableDataWriteChannel;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.WriteChannelConfiguration;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client side cost of uploading the scaled card-transactions CSV through a {@link TableDataWriteChannel},
+ * the way {@code BigQueryTableService.loadLocalFile} does, against an in-memory upload endpoint.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteChannelUploadBenchmark {
+
+    @Param({"10"})
+    private int scale;
+
+    // Resumable upload chunks must be multiples of 256 KiB
+    @Param({"262144", "8388608"})
+    private int chunkSize;
+
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong jobCounter = new AtomicLong();
+    private byte[] csv;
+    private BigQuery bigquery;
+    private WriteChannelConfiguration writeChannelConfiguration;
+
+    @Setup
+    public void setUp() throws IOException {
+        csv = BenchmarkData.scaledCsv(scale);
+        bigquery = InMemoryBigQueryRpc.newBigQuery(bytesReceived);
+        writeChannelConfiguration = WriteChannelConfiguration.newBuilder(TableId.of("benchmark", "card_transactions"))
+                .setFormatOptions(FormatOptions.csv())
+                .setAutodetect(true)
+                .build();
+    }
+
+    @Benchmark
+    public long upload() throws IOException {
+        JobId jobId = JobId.of("benchmark_" + jobCounter.incrementAndGet());
+        try (TableDataWriteChannel writer = bigquery.writer(jobId, writeChannelConfiguration)) {
+            writer.setChunkSize(chunkSize);
+            ByteBuffer buffer = ByteBuffer.wrap(csv);
+            while (buffer.hasRemaining()) {
+                writer.write(buffer);
+            }
+        }
+        return bytesReceived.get();
+    }
+}
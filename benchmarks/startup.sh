@@ -0,0 +1,73 @@
+#!/usr/bin/env bash
+#
+# Startup time and peak RSS of BigQueryPocApplication running run() against the local BigQuery stand-in.
+#
+#   ./mvnw -DskipTests package && benchmarks/startup.sh [runs]
+#
+# Each variant runs the same flow, `runs` times (5 by default), and reports the median wall time and peak RSS:
+#   baseline     the current setup: eager context, devtools restart, JMX
+#   fast-start   the fast-start profile: lazy beans, no JMX, no devtools restart, exits once done
+#   fast-start+cds   same, with an application class data sharing archive (JDK 13 or later)
+#   native       the executable of ./mvnw -Pnative package, when it was built
+#
+# The application is run from target/classes and a plain classpath rather than the packaged jar: class data
+# sharing can't archive classes loaded from nested jars.
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+RUNS="${1:-5}"
+MAIN=io.github.soufianeodf.bigquerypoc.BigQueryPocApplication
+WORK=target/startup
+mkdir -p "$WORK"
+
+if [ ! -f "$WORK/classpath.txt" ]; then
+    ./mvnw -q dependency:build-classpath -Dmdep.outputFile="$WORK/classpath.txt" -Dmdep.includeScope=runtime
+fi
+CLASSPATH="target/classes:$(cat "$WORK/classpath.txt")"
+
+# Prints "<wall ms> <peak RSS KiB>" of one run of the command
+measure() {
+    local start end
+    start=$(date +%s%N)
+    /usr/bin/time -f "%M" -o "$WORK/rss.txt" "$@" > "$WORK/last-run.log" 2>&1
+    end=$(date +%s%N)
+    echo "$(( (end - start) / 1000000 )) $(cat "$WORK/rss.txt")"
+}
+
+median() {
+    sort -n | awk '{ values[NR] = $1 } END { print values[int((NR + 1) / 2)] }'
+}
+
+report() {
+    local name="$1"
+    shift
+    local results="$WORK/$name.txt"
+    : > "$results"
+    for _ in $(seq "$RUNS"); do
+        measure "$@" >> "$results"
+    done
+    printf "%-18s %8s ms %10s KiB\n" "$name" "$(cut -d' ' -f1 "$results" | median)" "$(cut -d' ' -f2 "$results" | median)"
+}
+
+printf "%-18s %11s %14s\n" "variant" "wall" "peak RSS"
+
+report baseline java -cp "$CLASSPATH" "$MAIN" \
+    --spring.profiles.active=local --bigquery.run.exit-when-done=true
+
+FAST_START=(-Dspring.devtools.restart.enabled=false -XX:TieredStopAtLevel=1 -cp "$CLASSPATH" "$MAIN"
+    --spring.profiles.active=local,fast-start)
+report fast-start java "${FAST_START[@]}"
+
+JAVA_MAJOR=$(java -XshowSettings:properties -version 2>&1 | awk -F'= ' '/java.specification.version/ { print $2 }' | cut -d. -f1)
+if [ "${JAVA_MAJOR:-8}" -ge 13 ] 2>/dev/null; then
+    java -XX:ArchiveClassesAtExit="$WORK/app.jsa" "${FAST_START[@]}" > "$WORK/cds-dump.log" 2>&1
+    report fast-start+cds java -XX:SharedArchiveFile="$WORK/app.jsa" "${FAST_START[@]}"
+else
+    echo "fast-start+cds     skipped, application class data sharing needs JDK 13 or later"
+fi
+
+if [ -x target/big-query-poc ]; then
+    report native target/big-query-poc --spring.profiles.active=local,fast-start
+else
+    echo "native             skipped, build it with ./mvnw -Pnative -DskipTests package"
+fi
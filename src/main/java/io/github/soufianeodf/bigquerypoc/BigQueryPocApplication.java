@@ -1,17 +1,50 @@
 package io.github.soufianeodf.bigquerypoc;
 
 import io.github.soufianeodf.bigquerypoc.service.BigQueryService;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.ConfigurableApplicationContext;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+@Slf4j
 @SpringBootApplication
 public class BigQueryPocApplication {
 
+    // Peak resident set size of the process, Linux only
+    private static final Path PROC_STATUS = Paths.get("/proc/self/status");
+
     public static void main(String[] args) {
         ConfigurableApplicationContext context = SpringApplication.run(BigQueryPocApplication.class, args);
+        long startedMillis = ManagementFactory.getRuntimeMXBean().getUptime();
         BigQueryService bigQueryService = context.getBean(BigQueryService.class);
         bigQueryService.run();
+        long doneMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        log.info("Context ready {} ms after JVM start, run done after {} ms, peak RSS {}", startedMillis, doneMillis, peakRss());
+
+        // Short runs started by cron exit once done instead of waiting for the pools of the context
+        if (context.getEnvironment().getProperty("bigquery.run.exit-when-done", Boolean.class, false)) {
+            System.exit(SpringApplication.exit(context));
+        }
     }
 
+    private static String peakRss() {
+        try {
+            if (Files.isReadable(PROC_STATUS)) {
+                for (String line : Files.readAllLines(PROC_STATUS)) {
+                    if (line.startsWith("VmHWM:")) {
+                        return line.substring("VmHWM:".length()).trim();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.info("Peak RSS not read, reason: {}", e.getMessage());
+        }
+        return "unknown";
+    }
 }
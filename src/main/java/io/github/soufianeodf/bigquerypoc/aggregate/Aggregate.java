@@ -0,0 +1,34 @@
+package io.github.soufianeodf.bigquerypoc.aggregate;
+
+import com.google.cloud.bigquery.StandardSQLTypeName;
+
+/**
+ * Aggregates a roll-up can compute. A roll-up row is a partial aggregate of the file it was computed from,
+ * rows of several loads are combined with SUM for SUM and COUNT, MIN for MIN and MAX for MAX.
+ */
+public enum Aggregate {
+
+    SUM("sum", StandardSQLTypeName.FLOAT64),
+    /**
+     * Rows per key, like {@code COUNT(*)}. The other aggregates skip empty and non numeric values.
+     */
+    COUNT("count", StandardSQLTypeName.INT64),
+    MIN("min", StandardSQLTypeName.FLOAT64),
+    MAX("max", StandardSQLTypeName.FLOAT64);
+
+    private final String suffix;
+    private final StandardSQLTypeName type;
+
+    Aggregate(String suffix, StandardSQLTypeName type) {
+        this.suffix = suffix;
+        this.type = type;
+    }
+
+    public String columnName(String valueColumn) {
+        return valueColumn + "_" + suffix;
+    }
+
+    public StandardSQLTypeName getType() {
+        return type;
+    }
+}
@@ -0,0 +1,169 @@
+package io.github.soufianeodf.bigquerypoc.aggregate;
+
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.FieldList;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.StandardSQLTypeName;
+import io.github.soufianeodf.bigquerypoc.csv.CsvReader;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The roll-up of a local CSV file, computed in a single pass. Key values are interned per column and the
+ * accumulators are primitive, so apart from the first occurrence of a key value, aggregating a row doesn't allocate.
+ */
+public class CsvRollup {
+
+    private final RollupSpec spec;
+    private final FieldInterner[] interners;
+    private final RollupTable table;
+    private long rowCount;
+
+    private CsvRollup(RollupSpec spec) {
+        this.spec = spec;
+        this.interners = new FieldInterner[spec.getKeyColumns().size()];
+        for (int i = 0; i < interners.length; i++) {
+            interners[i] = new FieldInterner();
+        }
+        this.table = new RollupTable(interners.length);
+    }
+
+    /**
+     * Columns are found by name in the header, the last of the {@code leadingRows}.
+     */
+    public static CsvRollup aggregate(Path csvPath, long leadingRows, RollupSpec spec) throws IOException {
+        if (leadingRows < 1) {
+            throw new IllegalArgumentException("A roll-up needs a header row to find its columns");
+        }
+        CsvRollup rollup = new CsvRollup(spec);
+        try (CsvReader reader = new CsvReader(Files.newBufferedReader(csvPath, StandardCharsets.UTF_8))) {
+            for (long i = 0; i < leadingRows; i++) {
+                if (!reader.next()) {
+                    return rollup;
+                }
+            }
+            List<String> header = new ArrayList<>(reader.getFieldCount());
+            for (int i = 0; i < reader.getFieldCount(); i++) {
+                header.add(reader.getString(i));
+            }
+            int[] keyFields = new int[spec.getKeyColumns().size()];
+            for (int i = 0; i < keyFields.length; i++) {
+                keyFields[i] = indexOf(header, spec.getKeyColumns().get(i));
+            }
+            int valueField = indexOf(header, spec.getValueColumn());
+
+            int[] key = new int[keyFields.length];
+            while (reader.next()) {
+                for (int i = 0; i < keyFields.length; i++) {
+                    key[i] = rollup.interners[i].intern(reader, keyFields[i]);
+                }
+                boolean hasValue = valueField < reader.getFieldCount() && reader.isDouble(valueField);
+                rollup.table.add(key, hasValue, hasValue ? reader.getDouble(valueField) : 0);
+                rollup.rowCount++;
+            }
+        }
+        return rollup;
+    }
+
+    /**
+     * Key columns keep their type in the raw table, STRING when it doesn't have them.
+     */
+    public Schema getSchema(Schema rawSchema) {
+        FieldList rawFields = rawSchema == null ? null : rawSchema.getFields();
+        List<Field> fields = new ArrayList<>();
+        for (String keyColumn : spec.getKeyColumns()) {
+            StandardSQLTypeName type = StandardSQLTypeName.STRING;
+            if (rawFields != null) {
+                for (Field rawField : rawFields) {
+                    if (rawField.getName().equalsIgnoreCase(keyColumn)) {
+                        type = rawField.getType().getStandardType();
+                    }
+                }
+            }
+            fields.add(Field.of(keyColumn, type));
+        }
+        for (Aggregate aggregate : spec.getAggregates()) {
+            fields.add(Field.of(aggregate.columnName(spec.getValueColumn()), aggregate.getType()));
+        }
+        return Schema.of(fields);
+    }
+
+    /**
+     * Writes the roll-up as CSV with a header, groups without any numeric value get empty MIN, MAX and SUM.
+     */
+    public void writeCsv(Path path) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            List<String> header = new ArrayList<>(spec.getKeyColumns());
+            for (Aggregate aggregate : spec.getAggregates()) {
+                header.add(aggregate.columnName(spec.getValueColumn()));
+            }
+            for (int i = 0; i < header.size(); i++) {
+                writeValue(writer, i, header.get(i));
+            }
+            writer.write('\n');
+
+            for (int group = 0; group < table.size(); group++) {
+                int column = 0;
+                for (; column < interners.length; column++) {
+                    writeValue(writer, column, interners[column].get(table.keyId(group, column)));
+                }
+                for (Aggregate aggregate : spec.getAggregates()) {
+                    writeValue(writer, column++, valueOf(aggregate, group));
+                }
+                writer.write('\n');
+            }
+        }
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public int getGroupCount() {
+        return table.size();
+    }
+
+    private String valueOf(Aggregate aggregate, int group) {
+        if (aggregate == Aggregate.COUNT) {
+            return Long.toString(table.rows(group));
+        } else if (!table.hasValues(group)) {
+            return "";
+        }
+        switch (aggregate) {
+            case SUM:
+                return Double.toString(table.sum(group));
+            case MIN:
+                return Double.toString(table.min(group));
+            default:
+                return Double.toString(table.max(group));
+        }
+    }
+
+    private static int indexOf(List<String> header, String column) {
+        for (int i = 0; i < header.size(); i++) {
+            if (header.get(i).equalsIgnoreCase(column)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Column " + column + " is not in the header " + header);
+    }
+
+    private static void writeValue(Writer writer, int column, String value) throws IOException {
+        if (column > 0) {
+            writer.write(',');
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+}
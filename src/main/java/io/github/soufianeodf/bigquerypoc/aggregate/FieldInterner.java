@@ -0,0 +1,81 @@
+package io.github.soufianeodf.bigquerypoc.aggregate;
+
+import io.github.soufianeodf.bigquerypoc.csv.CsvReader;
+
+import java.util.Arrays;
+
+/**
+ * Maps the distinct values of a CSV column to dense ids, by open addressing with linear probing. Values already
+ * seen are found from the reader's buffer, a string is only created the first time a value shows up.
+ */
+final class FieldInterner {
+
+    private int[] slots = new int[64];
+    private int[] hashes = new int[16];
+    private String[] values = new String[16];
+    private int size;
+
+    FieldInterner() {
+        Arrays.fill(slots, -1);
+    }
+
+    /**
+     * Fields missing from a short row are interned as the empty string.
+     */
+    int intern(CsvReader reader, int field) {
+        boolean missing = field >= reader.getFieldCount();
+        int hash = missing ? 0 : reader.hashField(field);
+        int mask = slots.length - 1;
+        for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            int id = slots[slot];
+            if (id < 0) {
+                id = add(hash, missing ? "" : reader.getString(field));
+                slots[slot] = id;
+                if (size * 2 > slots.length) {
+                    rehash();
+                }
+                return id;
+            }
+            if (hashes[id] == hash && (missing ? values[id].isEmpty() : reader.fieldEquals(field, values[id]))) {
+                return id;
+            }
+        }
+    }
+
+    String get(int id) {
+        return values[id];
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int add(int hash, String value) {
+        if (size == values.length) {
+            hashes = Arrays.copyOf(hashes, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        hashes[size] = hash;
+        values[size] = value;
+        return size++;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        Arrays.fill(slots, -1);
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(hashes[id]) & mask;
+            while (slots[slot] >= 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id;
+        }
+    }
+
+    // String hashes of similar keys differ in their low bits only, spread them before masking
+    static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,43 @@
+package io.github.soufianeodf.bigquerypoc.aggregate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Aggregates of a numeric column per distinct combination of the key columns, like
+ * {@code SELECT keys, SUM(value), COUNT(*), MIN(value), MAX(value) ... GROUP BY keys}.
+ */
+public class RollupSpec {
+
+    private final List<String> keyColumns;
+    private final String valueColumn;
+    private final Set<Aggregate> aggregates;
+
+    public RollupSpec(List<String> keyColumns, String valueColumn, Set<Aggregate> aggregates) {
+        if (keyColumns.isEmpty()) {
+            throw new IllegalArgumentException("A roll-up needs at least one key column");
+        }
+        this.keyColumns = Collections.unmodifiableList(new ArrayList<>(keyColumns));
+        this.valueColumn = valueColumn;
+        this.aggregates = Collections.unmodifiableSet(EnumSet.copyOf(aggregates));
+    }
+
+    public static RollupSpec of(List<String> keyColumns, String valueColumn) {
+        return new RollupSpec(keyColumns, valueColumn, EnumSet.allOf(Aggregate.class));
+    }
+
+    public List<String> getKeyColumns() {
+        return keyColumns;
+    }
+
+    public String getValueColumn() {
+        return valueColumn;
+    }
+
+    public Set<Aggregate> getAggregates() {
+        return aggregates;
+    }
+}
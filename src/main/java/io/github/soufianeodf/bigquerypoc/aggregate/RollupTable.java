@@ -0,0 +1,143 @@
+package io.github.soufianeodf.bigquerypoc.aggregate;
+
+import java.util.Arrays;
+
+/**
+ * Accumulators per key, a key being a tuple of interned ids. Open addressing with linear probing over the key
+ * hashes, the groups and their accumulators live in parallel primitive arrays indexed by group.
+ */
+final class RollupTable {
+
+    private final int width;
+    private int[] slots = new int[256];
+    private int[] keys;
+    private int[] keyHashes;
+    private long[] rows;
+    private long[] valueCounts;
+    private double[] sums;
+    private double[] mins;
+    private double[] maxs;
+    private int size;
+
+    RollupTable(int width) {
+        this.width = width;
+        Arrays.fill(slots, -1);
+        int groups = 64;
+        keys = new int[groups * width];
+        keyHashes = new int[groups];
+        rows = new long[groups];
+        valueCounts = new long[groups];
+        sums = new double[groups];
+        mins = new double[groups];
+        maxs = new double[groups];
+    }
+
+    void add(int[] key, boolean hasValue, double value) {
+        int group = groupOf(key);
+        rows[group]++;
+        if (hasValue) {
+            if (valueCounts[group]++ == 0) {
+                mins[group] = value;
+                maxs[group] = value;
+            } else {
+                mins[group] = Math.min(mins[group], value);
+                maxs[group] = Math.max(maxs[group], value);
+            }
+            sums[group] += value;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    int keyId(int group, int column) {
+        return keys[group * width + column];
+    }
+
+    long rows(int group) {
+        return rows[group];
+    }
+
+    boolean hasValues(int group) {
+        return valueCounts[group] > 0;
+    }
+
+    double sum(int group) {
+        return sums[group];
+    }
+
+    double min(int group) {
+        return mins[group];
+    }
+
+    double max(int group) {
+        return maxs[group];
+    }
+
+    private int groupOf(int[] key) {
+        int hash = hash(key);
+        int mask = slots.length - 1;
+        for (int slot = FieldInterner.mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            int group = slots[slot];
+            if (group < 0) {
+                group = addGroup(key, hash);
+                slots[slot] = group;
+                if (size * 2 > slots.length) {
+                    rehash();
+                }
+                return group;
+            }
+            if (keyHashes[group] == hash && sameKey(group, key)) {
+                return group;
+            }
+        }
+    }
+
+    private boolean sameKey(int group, int[] key) {
+        int offset = group * width;
+        for (int i = 0; i < width; i++) {
+            if (keys[offset + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int addGroup(int[] key, int hash) {
+        if (size == keyHashes.length) {
+            int groups = size * 2;
+            keys = Arrays.copyOf(keys, groups * width);
+            keyHashes = Arrays.copyOf(keyHashes, groups);
+            rows = Arrays.copyOf(rows, groups);
+            valueCounts = Arrays.copyOf(valueCounts, groups);
+            sums = Arrays.copyOf(sums, groups);
+            mins = Arrays.copyOf(mins, groups);
+            maxs = Arrays.copyOf(maxs, groups);
+        }
+        System.arraycopy(key, 0, keys, size * width, width);
+        keyHashes[size] = hash;
+        return size++;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        Arrays.fill(slots, -1);
+        int mask = slots.length - 1;
+        for (int group = 0; group < size; group++) {
+            int slot = FieldInterner.mix(keyHashes[group]) & mask;
+            while (slots[slot] >= 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = group;
+        }
+    }
+
+    private static int hash(int[] key) {
+        int hash = 1;
+        for (int id : key) {
+            hash = 31 * hash + id;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,31 @@
+package io.github.soufianeodf.bigquerypoc.cache;
+
+import com.google.cloud.bigquery.FieldValueList;
+import com.google.cloud.bigquery.Schema;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Fully materialized rows of a query, as kept by {@link QueryResultCache}.
+ */
+public class CachedQueryResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Schema schema;
+    private final List<FieldValueList> rows;
+
+    public CachedQueryResult(Schema schema, List<FieldValueList> rows) {
+        this.schema = schema;
+        this.rows = rows;
+    }
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    public List<FieldValueList> getRows() {
+        return rows;
+    }
+}
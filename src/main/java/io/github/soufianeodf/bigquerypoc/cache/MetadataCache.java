@@ -0,0 +1,139 @@
+package io.github.soufianeodf.bigquerypoc.cache;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.Dataset;
+import com.google.cloud.bigquery.DatasetId;
+import com.google.cloud.bigquery.Table;
+import com.google.cloud.bigquery.TableId;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Shared cache of dataset and table metadata, in front of {@link BigQuery#getDataset} and {@link BigQuery#getTable}.
+ * <p>
+ * Missing datasets and tables are cached too, for a shorter TTL. The least recently used entries are evicted
+ * beyond {@code maxEntries}. The services writing metadata keep the cache current through {@link #put} and
+ * the {@code invalidate} methods.
+ */
+public class MetadataCache {
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final LinkedHashMap<String, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public MetadataCache(int maxEntries, long ttlMillis, long negativeTtlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > MetadataCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the dataset, or null if it does not exist.
+     */
+    public Dataset getDataset(BigQuery bigquery, DatasetId datasetId) {
+        return (Dataset) get(key(bigquery, datasetId), () -> bigquery.getDataset(datasetId));
+    }
+
+    /**
+     * Returns the table, or null if it does not exist.
+     */
+    public Table getTable(BigQuery bigquery, TableId tableId) {
+        return (Table) get(key(bigquery, tableId), () -> bigquery.getTable(tableId));
+    }
+
+    public void put(BigQuery bigquery, Dataset dataset) {
+        store(key(bigquery, dataset.getDatasetId()), dataset);
+    }
+
+    public void put(BigQuery bigquery, Table table) {
+        store(key(bigquery, table.getTableId()), table);
+    }
+
+    /**
+     * Drops the dataset and every table of it.
+     */
+    public synchronized void invalidate(BigQuery bigquery, DatasetId datasetId) {
+        String datasetKey = key(bigquery, datasetId);
+        Iterator<String> keys = entries.keySet().iterator();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (key.equals(datasetKey) || key.startsWith(datasetKey + ".")) {
+                keys.remove();
+            }
+        }
+    }
+
+    public synchronized void invalidate(BigQuery bigquery, TableId tableId) {
+        entries.remove(key(bigquery, tableId));
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private Object get(String key, Supplier<Object> loader) {
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+                hits.incrementAndGet();
+                return entry.value;
+            }
+        }
+
+        // Loaded outside of the lock, concurrent misses on the same key just load it twice
+        misses.incrementAndGet();
+        Object value = loader.get();
+        store(key, value);
+        return value;
+    }
+
+    private synchronized void store(String key, Object value) {
+        long ttl = value == null ? negativeTtlMillis : ttlMillis;
+        entries.put(key, new Entry(value, System.currentTimeMillis() + ttl));
+    }
+
+    private static String key(BigQuery bigquery, DatasetId datasetId) {
+        String project = datasetId.getProject() != null ? datasetId.getProject() : bigquery.getOptions().getProjectId();
+        return project + ":" + datasetId.getDataset();
+    }
+
+    private static String key(BigQuery bigquery, TableId tableId) {
+        String project = tableId.getProject() != null ? tableId.getProject() : bigquery.getOptions().getProjectId();
+        return project + ":" + tableId.getDataset() + "." + tableId.getTable();
+    }
+
+    private static final class Entry {
+        private final Object value;
+        private final long expiresAt;
+
+        private Entry(Object value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
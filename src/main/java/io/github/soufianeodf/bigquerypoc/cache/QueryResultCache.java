@@ -0,0 +1,398 @@
+package io.github.soufianeodf.bigquerypoc.cache;
+
+import com.google.cloud.bigquery.*;
+import com.google.cloud.bigquery.JobStatistics.QueryStatistics;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client side cache of query results, keyed by the normalized SQL, its parameters and the settings that change how
+ * the SQL is resolved: the project of the client, the default dataset and the SQL dialect.
+ * <p>
+ * Entries are evicted least recently used first once the memory or disk budget is exceeded, and expire after the TTL.
+ * Results bigger than the per entry memory limit are spilled to disk when a spill directory is configured.
+ * An entry is dropped as soon as one of the tables the query referenced has a new {@code lastModifiedTime};
+ * this is checked at most once per freshness interval. Identical queries arriving while the first one is still
+ * running wait for its result instead of starting their own job.
+ */
+@Slf4j
+public class QueryResultCache {
+
+    // Same rule as the BigQuery cache: results of non deterministic queries are never reused
+    private static final String[] NON_DETERMINISTIC_FUNCTIONS = {
+            "CURRENT_", "RAND(", "GENERATE_UUID(", "SESSION_USER("
+    };
+
+    private final long maxMemoryBytes;
+    private final long maxEntryMemoryBytes;
+    private final long maxDiskBytes;
+    private final long ttlMillis;
+    private final long freshnessCheckMillis;
+    private final Path spillDirectory;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentHashMap<String, CompletableFuture<CachedQueryResult>> inflight = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private long memoryBytes;
+    private long diskBytes;
+
+    public QueryResultCache(long maxMemoryBytes,
+                            long maxEntryMemoryBytes,
+                            long ttlMillis,
+                            long freshnessCheckMillis,
+                            Path spillDirectory,
+                            long maxDiskBytes) {
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxEntryMemoryBytes = maxEntryMemoryBytes;
+        this.ttlMillis = ttlMillis;
+        this.freshnessCheckMillis = freshnessCheckMillis;
+        this.spillDirectory = spillDirectory;
+        this.maxDiskBytes = maxDiskBytes;
+    }
+
+    public CachedQueryResult get(BigQuery bigquery, QueryJobConfiguration queryConfig) throws InterruptedException {
+        String normalizedQuery = normalize(queryConfig.getQuery());
+        if (!isCacheable(normalizedQuery)) {
+            misses.incrementAndGet();
+            return execute(bigquery, queryConfig).result;
+        }
+
+        String key = key(bigquery, normalizedQuery, queryConfig);
+        CachedQueryResult cached = lookup(bigquery, key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+
+        CompletableFuture<CachedQueryResult> loading = new CompletableFuture<>();
+        CompletableFuture<CachedQueryResult> running = inflight.putIfAbsent(key, loading);
+        if (running != null) {
+            hits.incrementAndGet();
+            return await(running);
+        }
+
+        try {
+            // Another caller may have stored the result between the lookup and taking over the key
+            cached = lookup(bigquery, key);
+            if (cached == null) {
+                misses.incrementAndGet();
+                Loaded loaded = execute(bigquery, queryConfig);
+                store(key, loaded);
+                cached = loaded.result;
+            }
+            loading.complete(cached);
+            return cached;
+        } catch (InterruptedException | RuntimeException e) {
+            loading.completeExceptionally(e);
+            throw e;
+        } finally {
+            inflight.remove(key, loading);
+        }
+    }
+
+    // Unqualified table names resolve against the default dataset, then the project of the client
+    private static String key(BigQuery bigquery, String normalizedQuery, QueryJobConfiguration queryConfig) {
+        Map<String, QueryParameterValue> namedParameters = queryConfig.getNamedParameters();
+        return normalizedQuery
+                + '\u0000' + (namedParameters == null ? "" : new TreeMap<>(namedParameters))
+                + '\u0000' + queryConfig.getPositionalParameters()
+                + '\u0000' + bigquery.getOptions().getProjectId()
+                + '\u0000' + queryConfig.getDefaultDataset()
+                + '\u0000' + queryConfig.useLegacySql()
+                + '\u0000' + queryConfig.getTimePartitioning()
+                + '\u0000' + queryConfig.getConnectionProperties()
+                + '\u0000' + queryConfig.getUserDefinedFunctions();
+    }
+
+    /**
+     * Drops every entry whose query read the table, for callers that know they just changed it.
+     */
+    public synchronized void invalidate(TableId tableId) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.tableVersions.keySet().stream().anyMatch(referenced -> sameTable(referenced, tableId))) {
+                iterator.remove();
+                release(entry);
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        entries.values().forEach(this::release);
+        entries.clear();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    public synchronized long getDiskBytes() {
+        return diskBytes;
+    }
+
+    /**
+     * Collapses whitespace outside of quoted literals and identifiers, and drops trailing semicolons.
+     */
+    static String normalize(String sql) {
+        StringBuilder normalized = new StringBuilder(sql.length());
+        char quote = 0;
+        boolean pendingSpace = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote != 0) {
+                normalized.append(c);
+                if (c == '\\' && i + 1 < sql.length()) {
+                    normalized.append(sql.charAt(++i));
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (Character.isWhitespace(c)) {
+                pendingSpace = normalized.length() > 0;
+            } else {
+                if (pendingSpace) {
+                    normalized.append(' ');
+                    pendingSpace = false;
+                }
+                if (c == '\'' || c == '"' || c == '`') {
+                    quote = c;
+                }
+                normalized.append(c);
+            }
+        }
+        while (normalized.length() > 0 && normalized.charAt(normalized.length() - 1) == ';') {
+            normalized.setLength(normalized.length() - 1);
+        }
+        return normalized.toString().trim();
+    }
+
+    private static boolean isCacheable(String normalizedQuery) {
+        String upperCase = normalizedQuery.toUpperCase(Locale.ROOT);
+        return Arrays.stream(NON_DETERMINISTIC_FUNCTIONS).noneMatch(upperCase::contains);
+    }
+
+    private CachedQueryResult lookup(BigQuery bigquery, String key) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry == null) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - entry.createdAt > ttlMillis) {
+            remove(key, entry);
+            return null;
+        }
+        if (now - entry.validatedAt > freshnessCheckMillis) {
+            if (!isFresh(bigquery, entry)) {
+                log.info("Cached result dropped, a referenced table was modified");
+                remove(key, entry);
+                return null;
+            }
+            entry.validatedAt = now;
+        }
+
+        if (entry.result != null) {
+            return entry.result;
+        }
+        try {
+            return readSpilled(entry.spillFile);
+        } catch (IOException e) {
+            log.info("Spilled result {} could not be read, reason: {}", entry.spillFile, e.getMessage());
+            remove(key, entry);
+            return null;
+        }
+    }
+
+    private boolean isFresh(BigQuery bigquery, Entry entry) {
+        try {
+            for (Map.Entry<TableId, Long> tableVersion : entry.tableVersions.entrySet()) {
+                Table table = bigquery.getTable(tableVersion.getKey());
+                if (table == null || !Objects.equals(table.getLastModifiedTime(), tableVersion.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (BigQueryException e) {
+            log.info("Freshness of cached result not checked, reason: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private Loaded execute(BigQuery bigquery, QueryJobConfiguration queryConfig) throws InterruptedException {
+        Job completedJob = bigquery.create(JobInfo.of(queryConfig)).waitFor();
+        if (completedJob == null) {
+            throw new BigQueryException(BigQueryException.UNKNOWN_CODE, "Query job no longer exists");
+        } else if (completedJob.getStatus().getError() != null) {
+            throw new BigQueryException(BigQueryException.UNKNOWN_CODE, "Query failed", completedJob.getStatus().getError());
+        }
+
+        TableResult result = completedJob.getQueryResults();
+        List<FieldValueList> rows = new ArrayList<>();
+        result.iterateAll().forEach(rows::add);
+
+        // The versions are read after the results, so a concurrent write can only make the entry look stale
+        Map<TableId, Long> tableVersions = new HashMap<>();
+        QueryStatistics statistics = completedJob.getStatistics();
+        if (statistics.getReferencedTables() != null) {
+            for (TableId tableId : statistics.getReferencedTables()) {
+                Table table = bigquery.getTable(tableId);
+                tableVersions.put(tableId, table == null ? null : table.getLastModifiedTime());
+            }
+        }
+        return new Loaded(new CachedQueryResult(result.getSchema(), rows), tableVersions);
+    }
+
+    private void store(String key, Loaded loaded) {
+        long bytes = estimateBytes(loaded.result.getRows());
+        Entry entry = new Entry(loaded.tableVersions, bytes);
+        if (bytes <= maxEntryMemoryBytes) {
+            entry.result = loaded.result;
+        } else if (spillDirectory != null && bytes <= maxDiskBytes) {
+            try {
+                entry.spillFile = spill(loaded.result);
+            } catch (IOException e) {
+                log.info("Result of {} bytes not spilled to disk, reason: {}", bytes, e.getMessage());
+                return;
+            }
+        } else {
+            log.info("Result of {} bytes too large to be cached", bytes);
+            return;
+        }
+
+        synchronized (this) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                release(previous);
+            }
+            if (entry.spillFile != null) {
+                diskBytes += bytes;
+            } else {
+                memoryBytes += bytes;
+            }
+
+            Iterator<Entry> leastRecentlyUsed = entries.values().iterator();
+            while ((memoryBytes > maxMemoryBytes || diskBytes > maxDiskBytes) && leastRecentlyUsed.hasNext()) {
+                Entry evicted = leastRecentlyUsed.next();
+                leastRecentlyUsed.remove();
+                release(evicted);
+            }
+        }
+    }
+
+    private synchronized void remove(String key, Entry entry) {
+        if (entries.remove(key, entry)) {
+            release(entry);
+        }
+    }
+
+    // Called with the monitor held, once the entry is out of the map
+    private void release(Entry entry) {
+        if (entry.spillFile != null) {
+            diskBytes -= entry.bytes;
+            try {
+                Files.deleteIfExists(entry.spillFile);
+            } catch (IOException e) {
+                log.info("Spilled result {} not deleted, reason: {}", entry.spillFile, e.getMessage());
+            }
+        } else {
+            memoryBytes -= entry.bytes;
+        }
+    }
+
+    private Path spill(CachedQueryResult result) throws IOException {
+        Files.createDirectories(spillDirectory);
+        Path file = Files.createTempFile(spillDirectory, "query-result-", ".bin");
+        try (OutputStream stream = Files.newOutputStream(file);
+             ObjectOutputStream objects = new ObjectOutputStream(stream)) {
+            objects.writeObject(result);
+        }
+        return file;
+    }
+
+    private static CachedQueryResult readSpilled(Path file) throws IOException {
+        try (InputStream stream = Files.newInputStream(file);
+             ObjectInputStream objects = new ObjectInputStream(stream)) {
+            return (CachedQueryResult) objects.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static CachedQueryResult await(CompletableFuture<CachedQueryResult> running) throws InterruptedException {
+        try {
+            return running.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new UncheckedIOException(new IOException(e.getCause()));
+        }
+    }
+
+    private static boolean sameTable(TableId referenced, TableId tableId) {
+        return referenced.getDataset().equals(tableId.getDataset())
+                && referenced.getTable().equals(tableId.getTable())
+                && (tableId.getProject() == null || tableId.getProject().equals(referenced.getProject()));
+    }
+
+    private static long estimateBytes(List<FieldValueList> rows) {
+        long bytes = 0;
+        for (FieldValueList row : rows) {
+            bytes += 16;
+            for (FieldValue value : row) {
+                bytes += 32 + (value.isNull() || value.getAttribute() != FieldValue.Attribute.PRIMITIVE
+                        ? 0 : 2L * value.getStringValue().length());
+            }
+        }
+        return bytes;
+    }
+
+    private static final class Loaded {
+        private final CachedQueryResult result;
+        private final Map<TableId, Long> tableVersions;
+
+        private Loaded(CachedQueryResult result, Map<TableId, Long> tableVersions) {
+            this.result = result;
+            this.tableVersions = tableVersions;
+        }
+    }
+
+    private static final class Entry {
+        private final Map<TableId, Long> tableVersions;
+        private final long bytes;
+        private final long createdAt = System.currentTimeMillis();
+        private volatile long validatedAt = createdAt;
+        private CachedQueryResult result;
+        private Path spillFile;
+
+        private Entry(Map<TableId, Long> tableVersions, long bytes) {
+            this.tableVersions = tableVersions;
+            this.bytes = bytes;
+        }
+    }
+}
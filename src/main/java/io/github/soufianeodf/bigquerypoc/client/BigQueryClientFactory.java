@@ -0,0 +1,163 @@
+package io.github.soufianeodf.bigquerypoc.client;
+
+import com.google.api.client.http.apache.v2.ApacheHttpTransport;
+import com.google.api.gax.retrying.RetrySettings;
+import com.google.auth.Credentials;
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryOptions;
+import com.google.cloud.bigquery.JobId;
+import com.google.cloud.bigquery.TableDataWriteChannel;
+import com.google.cloud.bigquery.WriteChannelConfiguration;
+import com.google.cloud.bigquery.spi.v2.BigQueryRpc;
+import com.google.cloud.bigquery.spi.v2.HttpBigQueryRpc;
+import com.google.cloud.http.HttpTransportOptions;
+import com.google.cloud.spi.ServiceRpcFactory;
+import io.github.soufianeodf.bigquerypoc.config.BigQueryClientProperties;
+import io.github.soufianeodf.bigquerypoc.governance.GovernedBigQueryRpc;
+import io.github.soufianeodf.bigquerypoc.governance.RequestGovernor;
+import lombok.extern.slf4j.Slf4j;
+import org.threeten.bp.Duration;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds and keeps the named BigQuery clients of {@link BigQueryClientProperties}. Each one has its own pooled
+ * Apache HTTP transport, so that a workload holding connections, like bulk uploads, doesn't starve the others.
+ * <p>
+ * The upload chunk size is not a client option, writers have to be opened through {@link #writer} to get it.
+ * <p>
+ * With governance enabled, the calls of all the clients go through one {@link RequestGovernor}, and the retries
+ * of a client are made by its {@link GovernedBigQueryRpc} instead of the library, which would retry them again.
+ */
+@Slf4j
+public class BigQueryClientFactory {
+
+    private final String projectId;
+    private final Credentials credentials;
+    private final Map<String, BigQueryClientProperties.Client> settings;
+    private final ServiceRpcFactory<BigQueryOptions> rpcFactory;
+    private final RequestGovernor governor;
+    private final Map<String, BigQuery> clients = new ConcurrentHashMap<>();
+    private final Map<BigQuery, Integer> uploadChunkSizes = Collections.synchronizedMap(new IdentityHashMap<>());
+    private final List<ApacheHttpTransport> transports = new CopyOnWriteArrayList<>();
+
+    public BigQueryClientFactory(String projectId,
+                                 Credentials credentials,
+                                 Map<String, BigQueryClientProperties.Client> settings,
+                                 BigQueryClientProperties.Governance governance) {
+        this(projectId, credentials, settings, governance, null);
+    }
+
+    /**
+     * Clients built with an {@code rpcFactory} don't go through HTTP, only their retry settings apply.
+     */
+    public BigQueryClientFactory(String projectId,
+                                 Credentials credentials,
+                                 Map<String, BigQueryClientProperties.Client> settings,
+                                 BigQueryClientProperties.Governance governance,
+                                 ServiceRpcFactory<BigQueryOptions> rpcFactory) {
+        this.projectId = projectId;
+        this.credentials = credentials;
+        this.settings = settings;
+        this.rpcFactory = rpcFactory;
+        this.governor = governance.isEnabled() ? new RequestGovernor(governance) : null;
+    }
+
+    public BigQuery get(String name) {
+        return clients.computeIfAbsent(name, this::create);
+    }
+
+    /**
+     * Opens a writer with the upload chunk size of the client, the channel default for clients not built here.
+     */
+    public TableDataWriteChannel writer(BigQuery bigquery, JobId jobId, WriteChannelConfiguration writeChannelConfiguration) {
+        TableDataWriteChannel writer = bigquery.writer(jobId, writeChannelConfiguration);
+        Integer uploadChunkSize = uploadChunkSizes.get(bigquery);
+        if (uploadChunkSize != null) {
+            writer.setChunkSize(uploadChunkSize);
+        }
+        return writer;
+    }
+
+    /**
+     * The governor shared by the clients, null when governance is disabled.
+     */
+    public RequestGovernor getGovernor() {
+        return governor;
+    }
+
+    public void shutdown() {
+        for (ApacheHttpTransport transport : transports) {
+            try {
+                transport.shutdown();
+            } catch (IOException e) {
+                log.info("HTTP transport was not shut down, reason: {}", e.getMessage());
+            }
+        }
+    }
+
+    private BigQuery create(String name) {
+        BigQueryClientProperties.Client client = settings.get(name);
+        if (client == null) {
+            throw new IllegalArgumentException("No BigQuery client named " + name + ", configure bigquery.clients." + name + ".*");
+        }
+
+        RetrySettings retrySettings = RetrySettings.newBuilder()
+                .setMaxAttempts(governor == null ? client.getMaxAttempts() : 1)
+                .setInitialRetryDelay(Duration.ofMillis(client.getInitialRetryDelayMillis()))
+                .setRetryDelayMultiplier(client.getRetryDelayMultiplier())
+                .setMaxRetryDelay(Duration.ofMillis(client.getMaxRetryDelayMillis()))
+                .setTotalTimeout(Duration.ofSeconds(client.getTotalTimeoutSeconds()))
+                .setInitialRpcTimeout(Duration.ofMillis(client.getReadTimeoutMillis()))
+                .setRpcTimeoutMultiplier(1.0)
+                .setMaxRpcTimeout(Duration.ofMillis(client.getReadTimeoutMillis()))
+                .build();
+
+        BigQueryOptions.Builder options = BigQueryOptions.newBuilder()
+                .setProjectId(projectId)
+                .setCredentials(credentials)
+                .setRetrySettings(retrySettings);
+        if (rpcFactory != null) {
+            options.setServiceRpcFactory(governed(rpcFactory, client));
+        } else {
+            // The JDK transport keeps at most 5 idle connections per host, the Apache pool is sized for the client
+            ApacheHttpTransport transport = new ApacheHttpTransport(ApacheHttpTransport.newDefaultHttpClientBuilder()
+                    .setMaxConnTotal(client.getMaxConnections())
+                    .setMaxConnPerRoute(client.getMaxConnections())
+                    .setKeepAliveStrategy((response, context) -> TimeUnit.SECONDS.toMillis(client.getKeepAliveSeconds()))
+                    .evictIdleConnections(client.getKeepAliveSeconds(), TimeUnit.SECONDS)
+                    .build());
+            transports.add(transport);
+            options.setTransportOptions(HttpTransportOptions.newBuilder()
+                    .setHttpTransportFactory(() -> transport)
+                    .setConnectTimeout(client.getConnectTimeoutMillis())
+                    .setReadTimeout(client.getReadTimeoutMillis())
+                    .build());
+            if (governor != null) {
+                options.setServiceRpcFactory(governed(serviceOptions -> new HttpBigQueryRpc(serviceOptions), client));
+            }
+        }
+
+        BigQuery bigquery = options.build().getService();
+        uploadChunkSizes.put(bigquery, client.getUploadChunkSize());
+        log.info("BigQuery client {} created with {} connections and {} bytes upload chunks", name, client.getMaxConnections(), client.getUploadChunkSize());
+        return bigquery;
+    }
+
+    private ServiceRpcFactory<BigQueryOptions> governed(ServiceRpcFactory<BigQueryOptions> delegate, BigQueryClientProperties.Client client) {
+        if (governor == null) {
+            return delegate;
+        }
+        return serviceOptions -> {
+            BigQueryRpc rpc = (BigQueryRpc) delegate.create(serviceOptions);
+            return GovernedBigQueryRpc.wrap(rpc, governor, client.getMaxAttempts(), client.getInitialRetryDelayMillis(), client.getMaxRetryDelayMillis());
+        };
+    }
+}
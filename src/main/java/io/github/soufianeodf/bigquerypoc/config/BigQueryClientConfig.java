@@ -0,0 +1,28 @@
+package io.github.soufianeodf.bigquerypoc.config;
+
+import com.google.cloud.bigquery.BigQuery;
+import io.github.soufianeodf.bigquerypoc.client.BigQueryClientFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * The named clients, built by the {@link BigQueryClientFactory} of the active profile.
+ */
+@Configuration
+@EnableConfigurationProperties(BigQueryClientProperties.class)
+public class BigQueryClientConfig {
+
+    @Bean
+    @Qualifier("bigQueryBuilder")
+    public BigQuery getBigQuery(BigQueryClientFactory clientFactory) {
+        return clientFactory.get("interactive");
+    }
+
+    @Bean
+    @Qualifier("bulkBigQuery")
+    public BigQuery getBulkBigQuery(BigQueryClientFactory clientFactory) {
+        return clientFactory.get("bulk");
+    }
+}
@@ -0,0 +1,55 @@
+package io.github.soufianeodf.bigquerypoc.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The {@code bigquery.clients.<name>.*} properties, one entry per named client, and the
+ * {@code bigquery.governance.*} properties shared by all of them.
+ */
+@Data
+@ConfigurationProperties(prefix = "bigquery")
+public class BigQueryClientProperties {
+
+    private String projectId;
+    private Map<String, Client> clients = new HashMap<>();
+    private Governance governance = new Governance();
+
+    @Data
+    public static class Client {
+        // HTTP connection pool, every request goes to the same host
+        private int maxConnections = 20;
+        private long keepAliveSeconds = 60;
+        private int connectTimeoutMillis = 20_000;
+        private int readTimeoutMillis = 20_000;
+        // Resumable upload chunk of TableDataWriteChannel, rounded to a multiple of 256 KiB
+        private int uploadChunkSize = 8 * 1024 * 1024;
+        // Retries of the client, with exponential backoff, with full jitter when governance is enabled
+        private int maxAttempts = 6;
+        private long initialRetryDelayMillis = 1000;
+        private double retryDelayMultiplier = 2.0;
+        private long maxRetryDelayMillis = 32_000;
+        private long totalTimeoutSeconds = 50;
+    }
+
+    @Data
+    public static class Governance {
+        private boolean enabled = false;
+        // Token buckets per operation type, 0 means unlimited
+        private double metadataPerSecond = 50;
+        private double jobsPerSecond = 20;
+        private double readsPerSecond = 0;
+        private double writesPerSecond = 0;
+        // AIMD concurrency limit of all the calls in flight
+        private double initialConcurrency = 32;
+        private double minConcurrency = 1;
+        private double maxConcurrency = 256;
+        private double decreaseFactor = 0.5;
+        // Consecutive failures opening the circuit breaker, and how long it stays open
+        private int breakerFailureThreshold = 10;
+        private long breakerOpenMillis = 30_000;
+    }
+}
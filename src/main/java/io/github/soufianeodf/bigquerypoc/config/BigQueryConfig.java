@@ -1,35 +1,69 @@
 package io.github.soufianeodf.bigquerypoc.config;
 
+import com.google.api.gax.core.FixedCredentialsProvider;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.auth.oauth2.ServiceAccountCredentials;
-import com.google.cloud.bigquery.BigQuery;
-import com.google.cloud.bigquery.BigQueryOptions;
+import com.google.cloud.bigquery.storage.v1.BigQueryReadClient;
+import com.google.cloud.bigquery.storage.v1.BigQueryReadSettings;
+import com.google.cloud.bigquery.storage.v1.BigQueryWriteClient;
+import com.google.cloud.bigquery.storage.v1.BigQueryWriteSettings;
+import io.github.soufianeodf.bigquerypoc.client.BigQueryClientFactory;
 import lombok.SneakyThrows;
-import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
 import org.springframework.core.io.ClassPathResource;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 @Configuration
+@Profile("!local")
 public class BigQueryConfig {
 
+    @Bean(destroyMethod = "shutdown")
+    public BigQueryClientFactory getBigQueryClientFactory(BigQueryClientProperties properties, GoogleCredentials credentials) {
+        return new BigQueryClientFactory(properties.getProjectId(), credentials, properties.getClients(), properties.getGovernance());
+    }
+
     @SneakyThrows
     @Bean
-    @Qualifier("bigQueryBuilder")
-    public BigQuery getBigQuery() {
-        String projectId = "big-query-test-335715";
+    public BigQueryWriteClient getBigQueryWriteClient(GoogleCredentials credentials) {
+        BigQueryWriteSettings settings = BigQueryWriteSettings.newBuilder()
+                .setCredentialsProvider(FixedCredentialsProvider.create(credentials))
+                .build();
 
-        GoogleCredentials credentials;
-        try (InputStream credentialsPath = new ClassPathResource("big-query-service-account-credentials.json").getInputStream()) {
-            credentials = ServiceAccountCredentials.fromStream(credentialsPath);
-        }
+        return BigQueryWriteClient.create(settings);
+    }
+
+    @SneakyThrows
+    @Bean
+    public BigQueryReadClient getBigQueryReadClient(GoogleCredentials credentials) {
+        BigQueryReadSettings settings = BigQueryReadSettings.newBuilder()
+                .setCredentialsProvider(FixedCredentialsProvider.create(credentials))
+                .build();
+
+        return BigQueryReadClient.create(settings);
+    }
 
-        return BigQueryOptions.newBuilder()
-                .setProjectId(projectId)
-                .setCredentials(credentials)
-                .build()
-                .getService();
+    // Read once and shared by the clients: from the configured key file, else the key on the classpath of a JVM run,
+    // else the application default credentials. Native executables don't bundle the key, they use one of the others.
+    @Bean
+    public GoogleCredentials getCredentials(@Value("${bigquery.credentials-path}") String credentialsPath) throws IOException {
+        if (!credentialsPath.isEmpty()) {
+            try (InputStream credentials = Files.newInputStream(Paths.get(credentialsPath))) {
+                return ServiceAccountCredentials.fromStream(credentials);
+            }
+        }
+        ClassPathResource bundled = new ClassPathResource("big-query-service-account-credentials.json");
+        if (bundled.exists()) {
+            try (InputStream credentials = bundled.getInputStream()) {
+                return ServiceAccountCredentials.fromStream(credentials);
+            }
+        }
+        return GoogleCredentials.getApplicationDefault();
     }
 }
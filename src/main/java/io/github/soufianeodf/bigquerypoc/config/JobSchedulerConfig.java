@@ -0,0 +1,21 @@
+package io.github.soufianeodf.bigquerypoc.config;
+
+import io.github.soufianeodf.bigquerypoc.job.IoExecutors;
+import io.github.soufianeodf.bigquerypoc.job.JobScheduler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class JobSchedulerConfig {
+
+    @Bean(destroyMethod = "shutdown")
+    public JobScheduler getJobScheduler(@Value("${bigquery.jobs.max-concurrent-per-project}") int maxConcurrentJobsPerProject,
+                                        @Value("${bigquery.jobs.poll-threads}") int pollThreads,
+                                        @Value("${bigquery.jobs.io-threads}") int ioThreads,
+                                        @Value("${bigquery.jobs.initial-poll-millis}") long initialPollMillis,
+                                        @Value("${bigquery.jobs.max-poll-millis}") long maxPollMillis,
+                                        @Value("${bigquery.jobs.virtual-threads}") boolean virtualThreads) {
+        return new JobScheduler(maxConcurrentJobsPerProject, pollThreads, IoExecutors.create(ioThreads, virtualThreads), initialPollMillis, maxPollMillis);
+    }
+}
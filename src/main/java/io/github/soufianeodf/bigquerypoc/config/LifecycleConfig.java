@@ -0,0 +1,22 @@
+package io.github.soufianeodf.bigquerypoc.config;
+
+import io.github.soufianeodf.bigquerypoc.cache.MetadataCache;
+import io.github.soufianeodf.bigquerypoc.lifecycle.LifecycleExecutor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class LifecycleConfig {
+
+    @Bean(destroyMethod = "shutdown")
+    public LifecycleExecutor getLifecycleExecutor(MetadataCache metadataCache,
+                                                  BigQueryClientProperties properties,
+                                                  @Value("${bigquery.lifecycle.max-concurrent-operations}") int maxConcurrentOperations,
+                                                  @Value("${bigquery.lifecycle.operations-per-second}") double operationsPerSecond,
+                                                  @Value("${bigquery.lifecycle.max-attempts}") int maxAttempts) {
+        // The governed clients retry throttled and transient calls themselves, retrying here too multiplies the attempts
+        int attempts = properties.getGovernance().isEnabled() ? 1 : maxAttempts;
+        return new LifecycleExecutor(metadataCache, maxConcurrentOperations, operationsPerSecond, attempts);
+    }
+}
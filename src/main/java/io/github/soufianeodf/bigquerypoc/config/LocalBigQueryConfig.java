@@ -0,0 +1,30 @@
+package io.github.soufianeodf.bigquerypoc.config;
+
+import com.google.cloud.NoCredentials;
+import com.google.cloud.bigquery.spi.v2.BigQueryRpc;
+import io.github.soufianeodf.bigquerypoc.client.BigQueryClientFactory;
+import io.github.soufianeodf.bigquerypoc.local.LocalBigQueryRpc;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+/**
+ * Replaces {@link BigQueryConfig} when the {@code local} profile is active, the client then talks to an
+ * in-memory BigQuery instead of the real service, no credentials or network needed.
+ */
+@Configuration
+@Profile("local")
+public class LocalBigQueryConfig {
+
+    // All the named clients share the same in-memory BigQuery
+    @Bean(destroyMethod = "shutdown")
+    public BigQueryClientFactory getBigQueryClientFactory(BigQueryClientProperties properties,
+                                                          @Value("${bigquery.local.project-id}") String projectId,
+                                                          @Value("${bigquery.local.latency-millis}") long latencyMillis,
+                                                          @Value("${bigquery.local.upload-bytes-per-second}") long uploadBytesPerSecond,
+                                                          @Value("${bigquery.local.read-rows-per-second}") long readRowsPerSecond) {
+        BigQueryRpc rpc = new LocalBigQueryRpc(projectId, latencyMillis, uploadBytesPerSecond, readRowsPerSecond).asRpc();
+        return new BigQueryClientFactory(projectId, NoCredentials.getInstance(), properties.getClients(), properties.getGovernance(), options -> rpc);
+    }
+}
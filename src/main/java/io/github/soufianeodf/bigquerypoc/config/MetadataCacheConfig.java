@@ -0,0 +1,17 @@
+package io.github.soufianeodf.bigquerypoc.config;
+
+import io.github.soufianeodf.bigquerypoc.cache.MetadataCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class MetadataCacheConfig {
+
+    @Bean
+    public MetadataCache getMetadataCache(@Value("${bigquery.metadata-cache.max-entries}") int maxEntries,
+                                          @Value("${bigquery.metadata-cache.ttl-seconds}") long ttlSeconds,
+                                          @Value("${bigquery.metadata-cache.negative-ttl-seconds}") long negativeTtlSeconds) {
+        return new MetadataCache(maxEntries, ttlSeconds * 1000, negativeTtlSeconds * 1000);
+    }
+}
@@ -0,0 +1,27 @@
+package io.github.soufianeodf.bigquerypoc.config;
+
+import io.github.soufianeodf.bigquerypoc.cache.QueryResultCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Paths;
+
+@Configuration
+public class QueryCacheConfig {
+
+    @Bean
+    public QueryResultCache getQueryResultCache(@Value("${bigquery.query-cache.max-memory-bytes}") long maxMemoryBytes,
+                                                @Value("${bigquery.query-cache.max-entry-memory-bytes}") long maxEntryMemoryBytes,
+                                                @Value("${bigquery.query-cache.ttl-seconds}") long ttlSeconds,
+                                                @Value("${bigquery.query-cache.freshness-check-seconds}") long freshnessCheckSeconds,
+                                                @Value("${bigquery.query-cache.spill-directory:}") String spillDirectory,
+                                                @Value("${bigquery.query-cache.max-disk-bytes}") long maxDiskBytes) {
+        return new QueryResultCache(maxMemoryBytes,
+                maxEntryMemoryBytes,
+                ttlSeconds * 1000,
+                freshnessCheckSeconds * 1000,
+                spillDirectory.isEmpty() ? null : Paths.get(spillDirectory),
+                maxDiskBytes);
+    }
+}
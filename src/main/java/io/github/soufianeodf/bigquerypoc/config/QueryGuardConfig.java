@@ -0,0 +1,18 @@
+package io.github.soufianeodf.bigquerypoc.config;
+
+import io.github.soufianeodf.bigquerypoc.query.QueryCostGuard;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class QueryGuardConfig {
+
+    @Bean
+    public QueryCostGuard getQueryCostGuard(@Value("${bigquery.query-guard.reroute-above-bytes}") long rerouteAboveBytes,
+                                            @Value("${bigquery.query-guard.reject-above-bytes}") long rejectAboveBytes,
+                                            @Value("${bigquery.query-guard.estimate-ttl-seconds}") long estimateTtlSeconds,
+                                            @Value("${bigquery.query-guard.max-entries}") int maxEntries) {
+        return new QueryCostGuard(rerouteAboveBytes, rejectAboveBytes, estimateTtlSeconds * 1000, maxEntries);
+    }
+}
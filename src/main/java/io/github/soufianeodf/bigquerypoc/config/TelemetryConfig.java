@@ -0,0 +1,32 @@
+package io.github.soufianeodf.bigquerypoc.config;
+
+import com.google.cloud.bigquery.BigQuery;
+import io.github.soufianeodf.bigquerypoc.telemetry.InformationSchemaPoller;
+import io.github.soufianeodf.bigquerypoc.telemetry.JobTelemetry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class TelemetryConfig {
+
+    @Bean
+    public JobTelemetry getJobTelemetry(@Value("${bigquery.telemetry.capacity}") int capacity,
+                                        @Value("${bigquery.telemetry.max-shapes}") int maxShapes,
+                                        @Value("${bigquery.telemetry.min-samples}") int minSamples,
+                                        @Value("${bigquery.telemetry.regression-factor}") double regressionFactor,
+                                        @Value("${bigquery.telemetry.min-regression-millis}") long minRegressionMillis) {
+        return new JobTelemetry(capacity, maxShapes, minSamples, regressionFactor, minRegressionMillis);
+    }
+
+    // Not referenced by any other bean, so it doesn't poll with the lazy beans of the fast-start profile
+    @Bean(initMethod = "start", destroyMethod = "close")
+    public InformationSchemaPoller getInformationSchemaPoller(@Qualifier("bigQueryBuilder") BigQuery bigQuery,
+                                                              JobTelemetry telemetry,
+                                                              @Value("${bigquery.telemetry.poll.region}") String region,
+                                                              @Value("${bigquery.telemetry.poll.interval-seconds}") long intervalSeconds,
+                                                              @Value("${bigquery.telemetry.poll.lookback-minutes}") long lookbackMinutes) {
+        return new InformationSchemaPoller(bigQuery, telemetry, region, intervalSeconds * 1000, lookbackMinutes * 60_000);
+    }
+}
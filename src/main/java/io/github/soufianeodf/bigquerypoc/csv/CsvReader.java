@@ -0,0 +1,326 @@
+package io.github.soufianeodf.bigquerypoc.csv;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streaming RFC 4180 CSV reader.
+ * The current record is decoded into a reused char buffer, and numeric fields are parsed straight from it,
+ * so iterating over records and reading numeric columns does not allocate.
+ */
+public class CsvReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    // Mantissas up to 2^53 are exact doubles, so mantissa / 10^n is correctly rounded
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int bufferPosition;
+    private int bufferLimit;
+    private long charsRead;
+
+    private char[] record = new char[1024];
+    private int recordLength;
+    private int[] fieldStarts = new int[32];
+    private int[] fieldEnds = new int[32];
+    private int fieldCount;
+
+    public CsvReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Moves to the next record, returns false at the end of the input.
+     */
+    public boolean next() throws IOException {
+        recordLength = 0;
+        fieldCount = 0;
+
+        int c = read();
+        if (c == -1) {
+            return false;
+        }
+
+        int fieldStart = 0;
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    throw new IOException("Unterminated quoted field in record ending at char " + charsRead);
+                }
+                if (c == '"') {
+                    int following = read();
+                    if (following == '"') {
+                        append('"');
+                    } else {
+                        quoted = false;
+                        c = following;
+                        continue;
+                    }
+                } else {
+                    append((char) c);
+                }
+            } else if (c == ',') {
+                endField(fieldStart);
+                fieldStart = recordLength;
+            } else if (c == '\n' || c == -1) {
+                break;
+            } else if (c == '\r') {
+                int following = read();
+                if (following != '\n' && following != -1) {
+                    bufferPosition--;
+                    charsRead--;
+                }
+                break;
+            } else if (c == '"' && recordLength == fieldStart) {
+                quoted = true;
+            } else {
+                append((char) c);
+            }
+            c = read();
+        }
+        endField(fieldStart);
+        return true;
+    }
+
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    public long getCharsRead() {
+        return charsRead;
+    }
+
+    public boolean isEmpty(int field) {
+        return fieldEnds[field] == fieldStarts[field];
+    }
+
+    public String getString(int field) {
+        return new String(record, fieldStarts[field], fieldEnds[field] - fieldStarts[field]);
+    }
+
+    /**
+     * Same value as {@code getString(field).hashCode()}, without creating the string.
+     */
+    public int hashField(int field) {
+        int hash = 0;
+        for (int i = fieldStarts[field]; i < fieldEnds[field]; i++) {
+            hash = 31 * hash + record[i];
+        }
+        return hash;
+    }
+
+    /**
+     * Same as {@code getString(field).equals(value)}, without creating the string.
+     */
+    public boolean fieldEquals(int field, String value) {
+        int start = fieldStarts[field];
+        int length = fieldEnds[field] - start;
+        if (length != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (record[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isLong(int field) {
+        int position = fieldStarts[field];
+        int end = fieldEnds[field];
+        if (position < end && (record[position] == '-' || record[position] == '+')) {
+            position++;
+        }
+        // 18 digits always fit in a long
+        if (position == end || end - position > 18) {
+            return false;
+        }
+        for (; position < end; position++) {
+            if (record[position] < '0' || record[position] > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getLong(int field) {
+        int position = fieldStarts[field];
+        int end = fieldEnds[field];
+        boolean negative = false;
+        if (position < end && (record[position] == '-' || record[position] == '+')) {
+            negative = record[position] == '-';
+            position++;
+        }
+        if (position == end) {
+            throw new NumberFormatException("Empty number in field " + field);
+        }
+
+        long value = 0;
+        for (; position < end; position++) {
+            char c = record[position];
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("Invalid digit '" + c + "' in field " + field);
+            }
+            value = Math.addExact(Math.multiplyExact(value, 10), c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    public boolean isDouble(int field) {
+        int position = fieldStarts[field];
+        int end = fieldEnds[field];
+        if (position < end && (record[position] == '-' || record[position] == '+')) {
+            position++;
+        }
+
+        int digits = 0;
+        boolean dot = false;
+        for (; position < end; position++) {
+            char c = record[position];
+            if (c >= '0' && c <= '9') {
+                digits++;
+            } else if (c == '.' && !dot) {
+                dot = true;
+            } else if ((c == 'e' || c == 'E') && digits > 0) {
+                return isExponent(position + 1, end);
+            } else {
+                return false;
+            }
+        }
+        return digits > 0;
+    }
+
+    public double getDouble(int field) {
+        int start = fieldStarts[field];
+        int end = fieldEnds[field];
+        int position = start;
+        boolean negative = false;
+        if (position < end && (record[position] == '-' || record[position] == '+')) {
+            negative = record[position] == '-';
+            position++;
+        }
+
+        long mantissa = 0;
+        int fractionDigits = 0;
+        boolean dot = false;
+        boolean digits = false;
+        for (; position < end; position++) {
+            char c = record[position];
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                digits = true;
+                if (dot) {
+                    fractionDigits++;
+                }
+                if (mantissa >= MAX_EXACT_MANTISSA) {
+                    return slowDouble(start, end);
+                }
+            } else if (c == '.' && !dot) {
+                dot = true;
+            } else {
+                return slowDouble(start, end);
+            }
+        }
+        if (!digits || fractionDigits >= POWERS_OF_TEN.length) {
+            return slowDouble(start, end);
+        }
+
+        double value = mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    public boolean isBoolean(int field) {
+        return equalsIgnoreCase(field, "true") || equalsIgnoreCase(field, "false");
+    }
+
+    public boolean getBoolean(int field) {
+        if (equalsIgnoreCase(field, "true")) {
+            return true;
+        } else if (equalsIgnoreCase(field, "false")) {
+            return false;
+        }
+        throw new IllegalArgumentException("Field " + field + " is not a boolean: " + getString(field));
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private boolean equalsIgnoreCase(int field, String expected) {
+        int start = fieldStarts[field];
+        if (fieldEnds[field] - start != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            if (Character.toLowerCase(record[start + i]) != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isExponent(int position, int end) {
+        if (position < end && (record[position] == '-' || record[position] == '+')) {
+            position++;
+        }
+        if (position == end) {
+            return false;
+        }
+        for (; position < end; position++) {
+            if (record[position] < '0' || record[position] > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Exponents and long mantissas are rare in our feeds, they take the allocating JDK path
+    private double slowDouble(int start, int end) {
+        return Double.parseDouble(new String(record, start, end - start));
+    }
+
+    private int read() throws IOException {
+        if (bufferPosition == bufferLimit) {
+            bufferLimit = reader.read(buffer, 0, buffer.length);
+            bufferPosition = 0;
+            if (bufferLimit <= 0) {
+                bufferLimit = 0;
+                return -1;
+            }
+        }
+        charsRead++;
+        return buffer[bufferPosition++];
+    }
+
+    private void append(char c) {
+        if (recordLength == record.length) {
+            char[] grown = new char[record.length * 2];
+            System.arraycopy(record, 0, grown, 0, recordLength);
+            record = grown;
+        }
+        record[recordLength++] = c;
+    }
+
+    private void endField(int fieldStart) {
+        if (fieldCount == fieldStarts.length) {
+            int[] grownStarts = new int[fieldCount * 2];
+            int[] grownEnds = new int[fieldCount * 2];
+            System.arraycopy(fieldStarts, 0, grownStarts, 0, fieldCount);
+            System.arraycopy(fieldEnds, 0, grownEnds, 0, fieldCount);
+            fieldStarts = grownStarts;
+            fieldEnds = grownEnds;
+        }
+        fieldStarts[fieldCount] = fieldStart;
+        fieldEnds[fieldCount] = recordLength;
+        fieldCount++;
+    }
+}
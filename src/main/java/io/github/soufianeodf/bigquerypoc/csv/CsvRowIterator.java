@@ -0,0 +1,87 @@
+package io.github.soufianeodf.bigquerypoc.csv;
+
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.FieldList;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.StandardSQLTypeName;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Turns CSV records into typed rows, ready for any ingestion path taking {@code Map<String, Object>} rows.
+ * The header record must already have been consumed from the reader.
+ */
+public class CsvRowIterator implements Iterator<Map<String, Object>>, Closeable {
+
+    private final CsvReader reader;
+    private final String[] names;
+    private final StandardSQLTypeName[] types;
+    private boolean fetched;
+    private boolean hasNext;
+
+    public CsvRowIterator(CsvReader reader, Schema schema) {
+        this.reader = reader;
+        FieldList fields = schema.getFields();
+        this.names = new String[fields.size()];
+        this.types = new StandardSQLTypeName[fields.size()];
+        for (int i = 0; i < fields.size(); i++) {
+            Field field = fields.get(i);
+            names[i] = field.getName();
+            types[i] = field.getType().getStandardType();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!fetched) {
+            try {
+                hasNext = reader.next();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            fetched = true;
+        }
+        return hasNext;
+    }
+
+    @Override
+    public Map<String, Object> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        fetched = false;
+
+        int fieldCount = Math.min(names.length, reader.getFieldCount());
+        Map<String, Object> row = new HashMap<>(fieldCount * 2);
+        for (int i = 0; i < fieldCount; i++) {
+            if (!reader.isEmpty(i)) {
+                row.put(names[i], value(i));
+            }
+        }
+        return row;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private Object value(int field) {
+        switch (types[field]) {
+            case INT64:
+                return reader.getLong(field);
+            case FLOAT64:
+                return reader.getDouble(field);
+            case BOOL:
+                return reader.getBoolean(field);
+            default:
+                return reader.getString(field);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package io.github.soufianeodf.bigquerypoc.csv;
+
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.StandardSQLTypeName;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Infers a {@link Schema} from the header and a bounded sample of records, the way BigQuery autodetect would:
+ * a column is INT64, FLOAT64 or BOOL only if every non-empty sampled value parses as such, STRING otherwise.
+ */
+public final class CsvSchemaInferrer {
+
+    private CsvSchemaInferrer() {
+    }
+
+    public static Schema infer(CsvReader reader, int sampleRows) throws IOException {
+        if (!reader.next()) {
+            throw new IOException("CSV input is empty, no header to infer the schema from");
+        }
+
+        int columnCount = reader.getFieldCount();
+        String[] names = new String[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            names[i] = toFieldName(reader.getString(i), i);
+        }
+
+        boolean[] seen = new boolean[columnCount];
+        boolean[] allLong = new boolean[columnCount];
+        boolean[] allDouble = new boolean[columnCount];
+        boolean[] allBoolean = new boolean[columnCount];
+        Arrays.fill(allLong, true);
+        Arrays.fill(allDouble, true);
+        Arrays.fill(allBoolean, true);
+
+        for (int row = 0; row < sampleRows && reader.next(); row++) {
+            int fields = Math.min(columnCount, reader.getFieldCount());
+            for (int i = 0; i < fields; i++) {
+                if (reader.isEmpty(i)) {
+                    continue;
+                }
+                seen[i] = true;
+                allLong[i] = allLong[i] && reader.isLong(i);
+                allDouble[i] = allDouble[i] && reader.isDouble(i);
+                allBoolean[i] = allBoolean[i] && reader.isBoolean(i);
+            }
+        }
+
+        List<Field> fields = new ArrayList<>(columnCount);
+        for (int i = 0; i < columnCount; i++) {
+            StandardSQLTypeName type = StandardSQLTypeName.STRING;
+            if (seen[i] && allLong[i]) {
+                type = StandardSQLTypeName.INT64;
+            } else if (seen[i] && allDouble[i]) {
+                type = StandardSQLTypeName.FLOAT64;
+            } else if (seen[i] && allBoolean[i]) {
+                type = StandardSQLTypeName.BOOL;
+            }
+            fields.add(Field.newBuilder(names[i], type).setMode(Field.Mode.NULLABLE).build());
+        }
+        return Schema.of(fields);
+    }
+
+    // BigQuery column names only allow letters, digits and underscores, and can't start with a digit
+    private static String toFieldName(String header, int index) {
+        StringBuilder name = new StringBuilder(header.length());
+        for (char c : header.trim().toCharArray()) {
+            name.append(Character.isLetterOrDigit(c) && c < 128 ? c : '_');
+        }
+        if (name.length() == 0) {
+            return "string_field_" + index;
+        }
+        if (Character.isDigit(name.charAt(0))) {
+            name.insert(0, '_');
+        }
+        return name.toString();
+    }
+}
@@ -0,0 +1,124 @@
+package io.github.soufianeodf.bigquerypoc.export;
+
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.FieldValue;
+import com.google.cloud.bigquery.FieldValueList;
+import com.google.cloud.bigquery.Schema;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.TimeStampMicroTZVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowFileWriter;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Buffers rows into record batches of {@code batchRows}, the vectors are reused from one batch to the next.
+ */
+class ArrowPartWriter implements PartWriter {
+
+    private final BufferAllocator allocator;
+    private final Field[] fields;
+    private final FieldVector[] vectors;
+    private final VectorSchemaRoot root;
+    private final FileChannel channel;
+    private final ArrowFileWriter writer;
+    private final int batchRows;
+    private int rows;
+
+    ArrowPartWriter(Path path, Schema schema, BufferAllocator parent, int batchRows) throws IOException {
+        this.allocator = parent.newChildAllocator(path.getFileName().toString(), 0, Long.MAX_VALUE);
+        this.fields = schema.getFields().toArray(new Field[0]);
+        List<FieldVector> fieldVectors = new ArrayList<>();
+        for (Field field : schema.getFields()) {
+            fieldVectors.add(vectorOf(field));
+        }
+        this.vectors = fieldVectors.toArray(new FieldVector[0]);
+        for (FieldVector vector : vectors) {
+            vector.allocateNew();
+        }
+        this.root = new VectorSchemaRoot(fieldVectors);
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.writer = new ArrowFileWriter(root, null, channel);
+        this.batchRows = batchRows;
+        writer.start();
+    }
+
+    @Override
+    public void write(FieldValueList row) throws IOException {
+        for (int i = 0; i < vectors.length; i++) {
+            FieldValue value = row.get(i);
+            if (value.isNull()) {
+                // Validity bits start cleared, values never set are null
+                continue;
+            }
+            if (vectors[i] instanceof BigIntVector) {
+                ((BigIntVector) vectors[i]).setSafe(rows, value.getLongValue());
+            } else if (vectors[i] instanceof Float8Vector) {
+                ((Float8Vector) vectors[i]).setSafe(rows, value.getDoubleValue());
+            } else if (vectors[i] instanceof BitVector) {
+                ((BitVector) vectors[i]).setSafe(rows, value.getBooleanValue() ? 1 : 0);
+            } else if (vectors[i] instanceof TimeStampMicroTZVector) {
+                ((TimeStampMicroTZVector) vectors[i]).setSafe(rows, value.getTimestampValue());
+            } else {
+                ((VarCharVector) vectors[i]).setSafe(rows, ValueFormatter.format(fields[i], value).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        if (++rows == batchRows) {
+            flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (rows > 0) {
+                flush();
+            }
+            writer.end();
+        } finally {
+            writer.close();
+            root.close();
+            channel.close();
+            allocator.close();
+        }
+    }
+
+    private void flush() throws IOException {
+        root.setRowCount(rows);
+        writer.writeBatch();
+        for (FieldVector vector : vectors) {
+            vector.reset();
+        }
+        rows = 0;
+    }
+
+    private FieldVector vectorOf(Field field) {
+        // Repeated and record columns are written as JSON text
+        if (ValueFormatter.isNested(field)) {
+            return new VarCharVector(field.getName(), allocator);
+        }
+        switch (field.getType().getStandardType()) {
+            case INT64:
+                return new BigIntVector(field.getName(), allocator);
+            case FLOAT64:
+                return new Float8Vector(field.getName(), allocator);
+            case BOOL:
+                return new BitVector(field.getName(), allocator);
+            case TIMESTAMP:
+                return new TimeStampMicroTZVector(field.getName(), allocator, "UTC");
+            default:
+                return new VarCharVector(field.getName(), allocator);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package io.github.soufianeodf.bigquerypoc.export;
+
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.FieldList;
+import com.google.cloud.bigquery.FieldValue;
+import com.google.cloud.bigquery.FieldValueList;
+import com.google.cloud.bigquery.Schema;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+class CsvGzipPartWriter implements PartWriter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Writer writer;
+    private final FieldList fields;
+    private final int columns;
+
+    CsvGzipPartWriter(Path path, Schema schema) throws IOException {
+        this.writer = new BufferedWriter(new OutputStreamWriter(new FastGzipOutputStream(Files.newOutputStream(path)), StandardCharsets.UTF_8), BUFFER_SIZE);
+        this.fields = schema.getFields();
+        this.columns = fields.size();
+        for (int i = 0; i < columns; i++) {
+            Field field = schema.getFields().get(i);
+            writeValue(i, field.getName());
+        }
+        writer.write("\r\n");
+    }
+
+    @Override
+    public void write(FieldValueList row) throws IOException {
+        for (int i = 0; i < columns; i++) {
+            FieldValue value = row.get(i);
+            writeValue(i, value.isNull() ? null : ValueFormatter.format(fields.get(i), value));
+        }
+        writer.write("\r\n");
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private void writeValue(int column, String value) throws IOException {
+        if (column > 0) {
+            writer.write(',');
+        }
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    private static final class FastGzipOutputStream extends GZIPOutputStream {
+
+        private FastGzipOutputStream(OutputStream out) throws IOException {
+            super(out, BUFFER_SIZE);
+            def.setLevel(Deflater.BEST_SPEED);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package io.github.soufianeodf.bigquerypoc.export;
+
+/**
+ * File formats results can be exported to.
+ */
+public enum ExportFormat {
+
+    /**
+     * RFC 4180 CSV with a header line, gzipped at the fastest level.
+     */
+    CSV_GZIP(".csv.gz"),
+
+    /**
+     * Arrow IPC files, columnar and readable by pandas, DuckDB or Spark without parsing.
+     * INT64, FLOAT64 and BOOL columns keep their type, the other columns are written as strings.
+     */
+    ARROW(".arrow");
+
+    private final String extension;
+
+    ExportFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+}
@@ -0,0 +1,16 @@
+package io.github.soufianeodf.bigquerypoc.export;
+
+import com.google.cloud.bigquery.FieldValueList;
+
+import java.io.IOException;
+
+/**
+ * Writes the rows of one part file.
+ */
+interface PartWriter extends AutoCloseable {
+
+    void write(FieldValueList row) throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
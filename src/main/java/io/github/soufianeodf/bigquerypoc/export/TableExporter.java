@@ -0,0 +1,188 @@
+package io.github.soufianeodf.bigquerypoc.export;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQuery.TableDataListOption;
+import com.google.cloud.bigquery.FieldValueList;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.StandardTableDefinition;
+import com.google.cloud.bigquery.Table;
+import com.google.cloud.bigquery.TableDefinition;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.TableResult;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exports a table to part files of {@code partRows} rows in a local directory, written in parallel. Each part
+ * reads its row range through {@code tabledata.list} one page at a time, so at most {@code parallelism} pages
+ * are held in memory.
+ * <p>
+ * A part is written to a temporary file and renamed once complete, and the directory keeps a manifest of the
+ * exported table. Exporting again to the same directory only writes the missing parts, as long as the table
+ * wasn't modified in between; the {@code _SUCCESS} file marks a finished export.
+ */
+@Slf4j
+public class TableExporter {
+
+    static final String MANIFEST = "_manifest.properties";
+    static final String SUCCESS = "_SUCCESS";
+    private static final int ARROW_BATCH_ROWS = 8192;
+
+    private final BigQuery bigquery;
+    private final ExportFormat format;
+    private final long partRows;
+    private final int pageRows;
+    private final int parallelism;
+
+    public TableExporter(BigQuery bigquery, ExportFormat format, long partRows, int pageRows, int parallelism) {
+        this.bigquery = bigquery;
+        this.format = format;
+        this.partRows = partRows;
+        this.pageRows = pageRows;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return the rows written by this call, parts left from a previous export are not counted
+     */
+    public long export(Table table, Path directory) throws IOException, InterruptedException {
+        TableDefinition definition = table.getDefinition();
+        if (!(definition instanceof StandardTableDefinition)) {
+            throw new IllegalArgumentException("Only tables can be exported, " + table.getTableId().getTable() + " is a " + definition.getType());
+        }
+        Schema schema = definition.getSchema();
+        Long numRows = ((StandardTableDefinition) definition).getNumRows();
+        long totalRows = numRows == null ? 0 : numRows;
+
+        Files.createDirectories(directory);
+        Files.deleteIfExists(directory.resolve(SUCCESS));
+        checkManifest(directory, manifestOf(table, totalRows));
+
+        List<Future<Long>> parts = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism));
+        try (BufferAllocator allocator = new RootAllocator(Long.MAX_VALUE)) {
+            try {
+                int skipped = 0;
+                for (long start = 0, part = 0; start < totalRows; start += partRows, part++) {
+                    Path partFile = directory.resolve(String.format("part-%05d%s", part, format.getExtension()));
+                    if (Files.exists(partFile)) {
+                        skipped++;
+                        continue;
+                    }
+                    long partStart = start;
+                    long count = Math.min(partRows, totalRows - start);
+                    parts.add(executor.submit(() -> writePart(table.getTableId(), schema, partStart, count, partFile, allocator)));
+                }
+                if (skipped > 0) {
+                    log.info("Resuming the export of table {}, {} parts already written", table.getTableId().getTable(), skipped);
+                }
+
+                long rows = 0;
+                for (Future<Long> part : parts) {
+                    rows += part.get();
+                }
+                Files.createFile(directory.resolve(SUCCESS));
+                return rows;
+            } finally {
+                // The part writers must be done with the allocator before it is closed
+                executor.shutdownNow();
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Export failed, reason: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private long writePart(TableId tableId, Schema schema, long start, long count, Path partFile, BufferAllocator allocator) throws IOException {
+        Path temporary = partFile.resolveSibling(partFile.getFileName() + ".tmp");
+        long written = 0;
+        try (PartWriter writer = open(temporary, schema, allocator)) {
+            // A response is capped in bytes, a page can hold fewer rows than asked for
+            while (written < count) {
+                TableResult page = bigquery.listTableData(tableId, schema,
+                        TableDataListOption.startIndex(start + written),
+                        TableDataListOption.pageSize(Math.min(pageRows, count - written)));
+                long fetched = written;
+                for (FieldValueList row : page.getValues()) {
+                    writer.write(row);
+                    written++;
+                }
+                if (written == fetched) {
+                    // The table shrank since its metadata was read
+                    break;
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new IOException("Export of " + partFile.getFileName() + " interrupted");
+                }
+            }
+        }
+        Files.move(temporary, partFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return written;
+    }
+
+    private PartWriter open(Path path, Schema schema, BufferAllocator allocator) throws IOException {
+        switch (format) {
+            case ARROW:
+                return new ArrowPartWriter(path, schema, allocator, ARROW_BATCH_ROWS);
+            case CSV_GZIP:
+            default:
+                return new CsvGzipPartWriter(path, schema);
+        }
+    }
+
+    private Properties manifestOf(Table table, long totalRows) {
+        Properties manifest = new Properties();
+        manifest.setProperty("table", table.getTableId().getProject() + ":" + table.getTableId().getDataset() + "." + table.getTableId().getTable());
+        manifest.setProperty("lastModifiedTime", Objects.toString(table.getLastModifiedTime()));
+        manifest.setProperty("rows", Long.toString(totalRows));
+        manifest.setProperty("partRows", Long.toString(partRows));
+        manifest.setProperty("format", format.name());
+        return manifest;
+    }
+
+    private static void checkManifest(Path directory, Properties manifest) throws IOException {
+        Path manifestFile = directory.resolve(MANIFEST);
+        if (Files.exists(manifestFile)) {
+            Properties previous = new Properties();
+            try (InputStream in = Files.newInputStream(manifestFile)) {
+                previous.load(in);
+            }
+            if (previous.equals(manifest)) {
+                return;
+            }
+            throw new IllegalStateException("Directory " + directory + " holds another export (" + previous
+                    + "), export to an empty directory instead");
+        }
+        try (DirectoryStream<Path> parts = Files.newDirectoryStream(directory, "part-*")) {
+            if (parts.iterator().hasNext()) {
+                throw new IllegalStateException("Directory " + directory + " holds part files without a manifest, export to an empty directory instead");
+            }
+        }
+        try (OutputStream out = Files.newOutputStream(manifestFile)) {
+            manifest.store(out, null);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package io.github.soufianeodf.bigquerypoc.export;
+
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.FieldList;
+import com.google.cloud.bigquery.FieldValue;
+import com.google.cloud.bigquery.FieldValueList;
+import com.google.cloud.bigquery.StandardSQLTypeName;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Text form of the values of a column: timestamps as ISO-8601 instants instead of the epoch seconds the API answers
+ * with, repeated and record columns as JSON, other values as BigQuery returns them.
+ */
+final class ValueFormatter {
+
+    private ValueFormatter() {
+    }
+
+    static boolean isNested(Field field) {
+        return field.getMode() == Field.Mode.REPEATED || field.getType().getStandardType() == StandardSQLTypeName.STRUCT;
+    }
+
+    static boolean isTimestamp(Field field) {
+        return field.getType().getStandardType() == StandardSQLTypeName.TIMESTAMP;
+    }
+
+    /**
+     * The text of a value that isn't null.
+     */
+    static String format(Field field, FieldValue value) {
+        if (isNested(field)) {
+            StringBuilder json = new StringBuilder();
+            appendJson(json, field, value, field.getMode() == Field.Mode.REPEATED);
+            return json.toString();
+        }
+        return formatScalar(field, value);
+    }
+
+    static String formatTimestamp(long micros) {
+        return Instant.ofEpochSecond(Math.floorDiv(micros, 1_000_000L), Math.floorMod(micros, 1_000_000L) * 1000).toString();
+    }
+
+    private static String formatScalar(Field field, FieldValue value) {
+        return isTimestamp(field) ? formatTimestamp(value.getTimestampValue()) : value.getStringValue();
+    }
+
+    private static void appendJson(StringBuilder json, Field field, FieldValue value, boolean repeated) {
+        if (value.isNull()) {
+            json.append("null");
+        } else if (repeated) {
+            json.append('[');
+            List<FieldValue> elements = value.getRepeatedValue();
+            for (int i = 0; i < elements.size(); i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                appendJson(json, field, elements.get(i), false);
+            }
+            json.append(']');
+        } else if (field.getType().getStandardType() == StandardSQLTypeName.STRUCT) {
+            FieldList subFields = field.getSubFields();
+            FieldValueList record = value.getRecordValue();
+            json.append('{');
+            for (int i = 0; i < subFields.size(); i++) {
+                Field subField = subFields.get(i);
+                if (i > 0) {
+                    json.append(',');
+                }
+                appendString(json, subField.getName());
+                json.append(':');
+                appendJson(json, subField, record.get(i), subField.getMode() == Field.Mode.REPEATED);
+            }
+            json.append('}');
+        } else {
+            switch (field.getType().getStandardType()) {
+                case INT64:
+                case BOOL:
+                    json.append(value.getStringValue());
+                    break;
+                case FLOAT64:
+                    // NaN and infinities aren't JSON numbers, they are kept as strings
+                    if (Double.isFinite(value.getDoubleValue())) {
+                        json.append(value.getStringValue());
+                    } else {
+                        appendString(json, value.getStringValue());
+                    }
+                    break;
+                default:
+                    appendString(json, formatScalar(field, value));
+            }
+        }
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}
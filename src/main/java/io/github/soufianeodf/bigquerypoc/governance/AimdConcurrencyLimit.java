@@ -0,0 +1,64 @@
+package io.github.soufianeodf.bigquerypoc.governance;
+
+/**
+ * A concurrency limit adjusted by additive increase, multiplicative decrease: every success raises the limit by
+ * {@code 1 / limit}, about one more call per round of calls, every throttled call cuts it by {@code decreaseFactor}.
+ * Calls started before the last cut were sent at the old limit, their throttling doesn't cut it again.
+ */
+final class AimdConcurrencyLimit {
+
+    private final double minLimit;
+    private final double maxLimit;
+    private final double decreaseFactor;
+    private double limit;
+    private int inFlight;
+    private long lastDecreaseNanos;
+
+    AimdConcurrencyLimit(double initialLimit, double minLimit, double maxLimit, double decreaseFactor) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.decreaseFactor = decreaseFactor;
+        this.lastDecreaseNanos = System.nanoTime();
+    }
+
+    /**
+     * Waits for a free slot, returns the start time to hand back to {@link #release}.
+     */
+    synchronized long acquire() throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            wait();
+        }
+        inFlight++;
+        return System.nanoTime();
+    }
+
+    synchronized void release(long startNanos, boolean throttled) {
+        inFlight--;
+        if (throttled) {
+            if (startNanos - lastDecreaseNanos > 0) {
+                limit = Math.max(minLimit, limit * decreaseFactor);
+                lastDecreaseNanos = System.nanoTime();
+            }
+        } else {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Returns the slot of a call that failed for another reason than throttling, the limit is left as it is.
+     */
+    synchronized void releaseUnchanged() {
+        inFlight--;
+        notifyAll();
+    }
+
+    synchronized double getLimit() {
+        return limit;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+}
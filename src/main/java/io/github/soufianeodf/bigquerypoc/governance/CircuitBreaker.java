@@ -0,0 +1,67 @@
+package io.github.soufianeodf.bigquerypoc.governance;
+
+/**
+ * Opens after {@code failureThreshold} consecutive failures, calls then fail fast for {@code openMillis}.
+ * After that a single trial call goes through: it closes the breaker when it succeeds, opens it again when it fails.
+ */
+final class CircuitBreaker {
+
+    private enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtNanos;
+
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openMillis * 1_000_000;
+    }
+
+    synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - openedAtNanos < openNanos) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                return true;
+            default:
+                // The trial call of the half open breaker is still running
+                return false;
+        }
+    }
+
+    /**
+     * Any call that got an answer from BigQuery, even an error.
+     */
+    synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+    }
+
+    synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAtNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * A call that ended without an answer or a failure of BigQuery, such as an interrupted call. When it was the trial
+     * call the breaker opens again, its open time already elapsed so the next call becomes the trial.
+     */
+    synchronized void onAbandoned() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+        }
+    }
+
+    synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+}
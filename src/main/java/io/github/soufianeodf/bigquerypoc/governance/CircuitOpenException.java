@@ -0,0 +1,13 @@
+package io.github.soufianeodf.bigquerypoc.governance;
+
+import com.google.cloud.bigquery.BigQueryException;
+
+/**
+ * A call refused by the open circuit breaker without being sent, it is safe to retry whatever the operation.
+ */
+public class CircuitOpenException extends BigQueryException {
+
+    CircuitOpenException() {
+        super(503, "BigQuery calls are suspended after repeated failures, the circuit breaker is open");
+    }
+}
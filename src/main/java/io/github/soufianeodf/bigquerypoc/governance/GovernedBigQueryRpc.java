@@ -0,0 +1,102 @@
+package io.github.soufianeodf.bigquerypoc.governance;
+
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.spi.v2.BigQueryRpc;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sends the calls of a client through the {@link RequestGovernor} and retries them with full jitter backoff:
+ * a random wait between 0 and an exponentially growing bound, so throttled callers don't come back in lockstep.
+ * <p>
+ * Calls BigQuery refused without running them, throttled or stopped by the breaker, are retried whatever the
+ * operation. Server errors and lost answers are only retried for idempotent operations, a job or an insert that may
+ * have been executed is left to the caller.
+ */
+@Slf4j
+public class GovernedBigQueryRpc implements InvocationHandler {
+
+    private final BigQueryRpc delegate;
+    private final RequestGovernor governor;
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+
+    private GovernedBigQueryRpc(BigQueryRpc delegate, RequestGovernor governor, int maxAttempts, long initialBackoffMillis, long maxBackoffMillis) {
+        this.delegate = delegate;
+        this.governor = governor;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    public static BigQueryRpc wrap(BigQueryRpc delegate, RequestGovernor governor, int maxAttempts, long initialBackoffMillis, long maxBackoffMillis) {
+        return (BigQueryRpc) Proxy.newProxyInstance(BigQueryRpc.class.getClassLoader(), new Class<?>[]{BigQueryRpc.class},
+                new GovernedBigQueryRpc(delegate, governor, maxAttempts, initialBackoffMillis, maxBackoffMillis));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return "GovernedBigQueryRpc(" + delegate + ")";
+            default:
+                break;
+        }
+
+        OperationType type = OperationType.of(method.getName(), args);
+        boolean idempotent = OperationType.isIdempotent(method.getName());
+        long backoffBound = initialBackoffMillis;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return governor.attempt(type, () -> invokeDelegate(method, args));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new BigQueryException(BigQueryException.UNKNOWN_CODE, "Interrupted while waiting for a call slot", e);
+            } catch (BigQueryException e) {
+                if (attempt >= maxAttempts || !isRetryable(e, idempotent)) {
+                    throw e;
+                }
+                long backoffMillis = ThreadLocalRandom.current().nextLong(backoffBound + 1);
+                log.info("Retrying {} in {} ms after attempt {} failed, reason: {}", method.getName(), backoffMillis, attempt, e.getMessage());
+                sleep(backoffMillis);
+                backoffBound = Math.min(maxBackoffMillis, backoffBound * 2);
+            }
+        }
+    }
+
+    private static boolean isRetryable(BigQueryException e, boolean idempotent) {
+        return e instanceof CircuitOpenException
+                || RequestGovernor.isRetryableThrottle(e)
+                || idempotent && RequestGovernor.isTransient(e);
+    }
+
+    private Object invokeDelegate(Method method, Object[] args) throws Exception {
+        try {
+            return method.invoke(delegate, args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw (Exception) e.getCause();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BigQueryException(BigQueryException.UNKNOWN_CODE, "Interrupted while backing off", e);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package io.github.soufianeodf.bigquerypoc.governance;
+
+import com.google.api.services.bigquery.model.Job;
+
+/**
+ * Kinds of BigQuery API calls, each with its own token bucket: their quotas are separate.
+ */
+public enum OperationType {
+
+    /**
+     * Datasets, tables and job status, limited to a few requests per second per table for updates.
+     */
+    METADATA,
+    /**
+     * Starting and cancelling jobs, limited by the concurrent jobs and jobs per second quotas.
+     */
+    JOB,
+    /**
+     * Reading table data and query results.
+     */
+    READ,
+    /**
+     * Streaming inserts and upload chunks.
+     */
+    WRITE;
+
+    static OperationType of(String method, Object[] args) {
+        switch (method) {
+            case "create":
+                return args[0] instanceof Job ? JOB : METADATA;
+            case "queryRpc":
+            case "cancel":
+                return JOB;
+            case "listTableData":
+            case "getQueryResults":
+                return READ;
+            case "insertAll":
+            case "open":
+            case "write":
+                return WRITE;
+            default:
+                return METADATA;
+        }
+    }
+
+    /**
+     * Calls that can be repeated without changing the outcome, even when the first one was executed but its
+     * answer got lost. Creating a job or a table, inserting rows and writing upload chunks are not.
+     */
+    static boolean isIdempotent(String method) {
+        return method.startsWith("get")
+                || method.startsWith("list")
+                || method.startsWith("delete")
+                || method.equals("patch")
+                || method.equals("cancel")
+                || method.equals("testIamPermissions");
+    }
+}
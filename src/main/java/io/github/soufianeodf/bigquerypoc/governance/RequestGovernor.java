@@ -0,0 +1,151 @@
+package io.github.soufianeodf.bigquerypoc.governance;
+
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.common.util.concurrent.RateLimiter;
+import io.github.soufianeodf.bigquerypoc.config.BigQueryClientProperties;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control shared by every call of every client of a project, the quotas being per project.
+ * <p>
+ * A call first passes the circuit breaker, then takes a token of its {@link OperationType} bucket and a slot of the
+ * AIMD concurrency limit. Throttling answers lower the limit, successes raise it back, so the number of calls
+ * in flight settles just under what the quotas allow instead of bursting into errors and backing off.
+ * Server errors and lost answers count towards opening the breaker, throttling doesn't.
+ */
+@Slf4j
+public class RequestGovernor {
+
+    private final Map<OperationType, RateLimiter> rateLimiters = new EnumMap<>(OperationType.class);
+    private final AimdConcurrencyLimit concurrency;
+    private final CircuitBreaker circuitBreaker;
+    private final AtomicLong throttledCalls = new AtomicLong();
+    private final AtomicLong rejectedCalls = new AtomicLong();
+
+    public RequestGovernor(BigQueryClientProperties.Governance settings) {
+        putRateLimiter(OperationType.METADATA, settings.getMetadataPerSecond());
+        putRateLimiter(OperationType.JOB, settings.getJobsPerSecond());
+        putRateLimiter(OperationType.READ, settings.getReadsPerSecond());
+        putRateLimiter(OperationType.WRITE, settings.getWritesPerSecond());
+        this.concurrency = new AimdConcurrencyLimit(settings.getInitialConcurrency(), settings.getMinConcurrency(),
+                settings.getMaxConcurrency(), settings.getDecreaseFactor());
+        this.circuitBreaker = new CircuitBreaker(settings.getBreakerFailureThreshold(), settings.getBreakerOpenMillis());
+    }
+
+    /**
+     * Makes a single attempt of the call once admitted, and learns from its outcome.
+     */
+    public <T> T attempt(OperationType type, Callable<T> call) throws Exception {
+        if (!circuitBreaker.tryAcquire()) {
+            rejectedCalls.incrementAndGet();
+            throw new CircuitOpenException();
+        }
+        // Once admitted the breaker must hear how the call ended, a half open breaker waits for its trial call forever
+        boolean answered = false;
+        try {
+            RateLimiter rateLimiter = rateLimiters.get(type);
+            if (rateLimiter != null) {
+                rateLimiter.acquire();
+            }
+
+            long startNanos = concurrency.acquire();
+            boolean released = false;
+            try {
+                T result = call.call();
+                concurrency.release(startNanos, false);
+                released = true;
+                circuitBreaker.onSuccess();
+                answered = true;
+                return result;
+            } catch (BigQueryException e) {
+                if (isThrottled(e)) {
+                    throttledCalls.incrementAndGet();
+                    concurrency.release(startNanos, true);
+                    released = true;
+                    circuitBreaker.onSuccess();
+                    log.info("{} call throttled, concurrency limit now {}, reason: {}", type, String.format("%.1f", concurrency.getLimit()), e.getMessage());
+                } else if (isTransient(e)) {
+                    circuitBreaker.onFailure();
+                } else {
+                    circuitBreaker.onSuccess();
+                }
+                answered = true;
+                throw e;
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                circuitBreaker.onFailure();
+                answered = true;
+                throw e;
+            } finally {
+                if (!released) {
+                    concurrency.releaseUnchanged();
+                }
+            }
+        } finally {
+            // Interrupted, or an Error: says nothing about BigQuery
+            if (!answered) {
+                circuitBreaker.onAbandoned();
+            }
+        }
+    }
+
+    /**
+     * Rate limits and too many concurrent jobs or queries: BigQuery refused the call before running it.
+     */
+    public static boolean isThrottled(BigQueryException e) {
+        return e.getCode() == 429
+                || "rateLimitExceeded".equals(e.getReason())
+                || "jobRateLimitExceeded".equals(e.getReason())
+                || "quotaExceeded".equals(e.getReason());
+    }
+
+    /**
+     * Throttling that goes away within seconds, unlike exhausted daily quotas which also answer quotaExceeded.
+     */
+    public static boolean isRetryableThrottle(BigQueryException e) {
+        return isThrottled(e) && !"quotaExceeded".equals(e.getReason());
+    }
+
+    /**
+     * Server errors and calls without an answer, the call may or may not have been executed.
+     */
+    public static boolean isTransient(BigQueryException e) {
+        return e.isRetryable()
+                || e.getCode() >= 500
+                || e.getCode() == BigQueryException.UNKNOWN_CODE
+                || "backendError".equals(e.getReason());
+    }
+
+    public double getConcurrencyLimit() {
+        return concurrency.getLimit();
+    }
+
+    public int getInFlight() {
+        return concurrency.getInFlight();
+    }
+
+    public long getThrottledCalls() {
+        return throttledCalls.get();
+    }
+
+    public long getRejectedCalls() {
+        return rejectedCalls.get();
+    }
+
+    public boolean isCircuitOpen() {
+        return circuitBreaker.isOpen();
+    }
+
+    // 0 leaves the operation type without a rate limit
+    private void putRateLimiter(OperationType type, double permitsPerSecond) {
+        if (permitsPerSecond > 0) {
+            rateLimiters.put(type, RateLimiter.create(permitsPerSecond));
+        }
+    }
+}
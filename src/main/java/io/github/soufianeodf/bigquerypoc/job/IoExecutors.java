@@ -0,0 +1,48 @@
+package io.github.soufianeodf.bigquerypoc.job;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executors for blocking BigQuery calls. The application is built for Java 8, virtual threads are looked up at
+ * runtime so a JDK 21 or later can run every blocking call on its own virtual thread.
+ */
+@Slf4j
+public final class IoExecutors {
+
+    private IoExecutors() {
+    }
+
+    /**
+     * A virtual thread per task when asked for and available, a pool of {@code threads} platform threads otherwise.
+     */
+    public static ExecutorService create(int threads, boolean virtualThreads) {
+        if (virtualThreads) {
+            ExecutorService executor = virtualThreadPerTask();
+            if (executor != null) {
+                return executor;
+            }
+            log.info("Virtual threads are not available on Java {}, using {} platform threads", System.getProperty("java.version"), threads);
+        }
+        return Executors.newFixedThreadPool(threads);
+    }
+
+    public static boolean virtualThreadsAvailable() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static ExecutorService virtualThreadPerTask() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
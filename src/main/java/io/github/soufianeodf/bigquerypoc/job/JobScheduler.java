@@ -0,0 +1,215 @@
+package io.github.soufianeodf.bigquerypoc.job;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobId;
+import com.google.cloud.bigquery.JobInfo;
+import com.google.cloud.bigquery.JobStatus;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs BigQuery jobs without parking a thread per job.
+ * <p>
+ * At most {@code maxConcurrentJobsPerProject} jobs of a project are running, the others wait in a FIFO queue.
+ * Running jobs are polled with a backoff doubling from the initial to the maximum poll interval. A small shared
+ * scheduled pool only keeps the time, the polls themselves run on the I/O pool: a governed client may back off for
+ * seconds within a call, which would hold up the polls of every other job. Cancelling the returned future cancels
+ * the BigQuery job as well.
+ */
+@Slf4j
+public class JobScheduler {
+
+    private final int maxConcurrentJobsPerProject;
+    private final long initialPollMillis;
+    private final long maxPollMillis;
+    private final ScheduledExecutorService poller;
+    private final ExecutorService ioExecutor;
+    private final ConcurrentHashMap<String, ProjectSlots> projects = new ConcurrentHashMap<>();
+
+    public JobScheduler(int maxConcurrentJobsPerProject, int pollThreads, int ioThreads, long initialPollMillis, long maxPollMillis) {
+        this(maxConcurrentJobsPerProject, pollThreads, Executors.newFixedThreadPool(ioThreads), initialPollMillis, maxPollMillis);
+    }
+
+    /**
+     * @param ioExecutor runs job starters and blocking calls, see {@link IoExecutors}
+     */
+    public JobScheduler(int maxConcurrentJobsPerProject, int pollThreads, ExecutorService ioExecutor, long initialPollMillis, long maxPollMillis) {
+        this.maxConcurrentJobsPerProject = maxConcurrentJobsPerProject;
+        this.initialPollMillis = initialPollMillis;
+        this.maxPollMillis = maxPollMillis;
+        this.poller = Executors.newScheduledThreadPool(pollThreads);
+        this.ioExecutor = ioExecutor;
+    }
+
+    /**
+     * Creates the job once a slot of its project is free and completes with the finished job,
+     * or exceptionally with a {@link BigQueryException} if the job failed.
+     */
+    public CompletableFuture<Job> submit(BigQuery bigquery, JobInfo jobInfo) {
+        return schedule(bigquery, projectOf(bigquery, jobInfo.getJobId()), () -> bigquery.create(jobInfo).getJobId());
+    }
+
+    /**
+     * Same as {@link #submit}, for jobs started by something else than {@link BigQuery#create},
+     * like an upload through a {@link com.google.cloud.bigquery.TableDataWriteChannel}.
+     * The starter runs on the I/O pool and returns the id of the job it started.
+     */
+    public CompletableFuture<Job> schedule(BigQuery bigquery, String projectId, Callable<JobId> starter) {
+        CompletableFuture<Job> result = new CompletableFuture<>();
+        ProjectSlots slots = projects.computeIfAbsent(projectId, project -> new ProjectSlots());
+        slots.acquire(() -> {
+            if (result.isDone()) {
+                // Cancelled while waiting for a slot
+                slots.release();
+                return;
+            }
+            result.whenComplete((job, failure) -> slots.release());
+            ioExecutor.execute(() -> start(bigquery, starter, result));
+        });
+        return result;
+    }
+
+    /**
+     * Runs a blocking call, like a metadata request or fetching query results, on the I/O pool.
+     */
+    public <T> CompletableFuture<T> supplyAsync(Callable<T> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        ioExecutor.execute(() -> {
+            try {
+                result.complete(call.call());
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * The pool blocking calls run on, for callers that schedule them themselves.
+     */
+    public Executor getIoExecutor() {
+        return ioExecutor;
+    }
+
+    public void shutdown() {
+        poller.shutdownNow();
+        ioExecutor.shutdownNow();
+    }
+
+    private void start(BigQuery bigquery, Callable<JobId> starter, CompletableFuture<Job> result) {
+        try {
+            JobId jobId = starter.call();
+            result.whenComplete((job, failure) -> {
+                if (result.isCancelled()) {
+                    cancel(bigquery, jobId);
+                }
+            });
+            schedulePoll(bigquery, jobId, result, initialPollMillis);
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    private void poll(BigQuery bigquery, JobId jobId, CompletableFuture<Job> result, long delayMillis) {
+        if (result.isDone()) {
+            return;
+        }
+
+        try {
+            Job job = bigquery.getJob(jobId);
+            if (job == null) {
+                result.completeExceptionally(new BigQueryException(BigQueryException.UNKNOWN_CODE,
+                        "Job " + jobId.getJob() + " no longer exists"));
+            } else if (!JobStatus.State.DONE.equals(job.getStatus().getState())) {
+                reschedule(bigquery, jobId, result, delayMillis);
+            } else if (job.getStatus().getError() != null) {
+                result.completeExceptionally(new BigQueryException(BigQueryException.UNKNOWN_CODE,
+                        "Job " + jobId.getJob() + " failed", job.getStatus().getError()));
+            } else {
+                result.complete(job);
+            }
+        } catch (BigQueryException e) {
+            if (e.isRetryable()) {
+                reschedule(bigquery, jobId, result, delayMillis);
+            } else {
+                result.completeExceptionally(e);
+            }
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    private void reschedule(BigQuery bigquery, JobId jobId, CompletableFuture<Job> result, long delayMillis) {
+        schedulePoll(bigquery, jobId, result, Math.min(maxPollMillis, delayMillis * 2));
+    }
+
+    private void schedulePoll(BigQuery bigquery, JobId jobId, CompletableFuture<Job> result, long delayMillis) {
+        poller.schedule(() -> {
+            try {
+                ioExecutor.execute(() -> poll(bigquery, jobId, result, delayMillis));
+            } catch (RejectedExecutionException e) {
+                result.completeExceptionally(e);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancel(BigQuery bigquery, JobId jobId) {
+        ioExecutor.execute(() -> {
+            try {
+                bigquery.cancel(jobId);
+                log.info("Job {} cancelled", jobId.getJob());
+            } catch (BigQueryException e) {
+                log.info("Job {} was not cancelled, reason: {}", jobId.getJob(), e.getMessage());
+            }
+        });
+    }
+
+    private static String projectOf(BigQuery bigquery, JobId jobId) {
+        if (jobId != null && jobId.getProject() != null) {
+            return jobId.getProject();
+        }
+        return bigquery.getOptions().getProjectId();
+    }
+
+    private final class ProjectSlots {
+        private final Deque<Runnable> waiting = new ArrayDeque<>();
+        private int running;
+
+        private void acquire(Runnable task) {
+            synchronized (this) {
+                if (running >= maxConcurrentJobsPerProject) {
+                    waiting.addLast(task);
+                    return;
+                }
+                running++;
+            }
+            task.run();
+        }
+
+        // The slot is handed over to the next waiting task, if any
+        private void release() {
+            Runnable next;
+            synchronized (this) {
+                next = waiting.pollFirst();
+                if (next == null) {
+                    running--;
+                    return;
+                }
+            }
+            next.run();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package io.github.soufianeodf.bigquerypoc.lifecycle;
+
+import com.google.cloud.bigquery.DatasetId;
+import com.google.cloud.bigquery.DatasetInfo;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.TableInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Datasets and tables that must exist, with their schema, labels, description and ACLs, and the ones that must not.
+ * Only the fields set on the desired infos are compared and patched, anything left unset is kept as it is.
+ */
+public class DesiredState {
+
+    private final List<DatasetInfo> datasets = new ArrayList<>();
+    private final List<DatasetInfo> recreatedDatasets = new ArrayList<>();
+    private final Set<DatasetId> droppedDatasets = new LinkedHashSet<>();
+    private final List<TableInfo> tables = new ArrayList<>();
+    private final List<TableInfo> recreatedTables = new ArrayList<>();
+    private final Set<TableId> droppedTables = new LinkedHashSet<>();
+    private boolean recreateOnIncompatibleSchema;
+
+    public DesiredState dataset(DatasetInfo dataset) {
+        datasets.add(dataset);
+        return this;
+    }
+
+    /**
+     * The dataset is deleted with its contents and created again, even if it already matches.
+     */
+    public DesiredState recreateDataset(DatasetInfo dataset) {
+        recreatedDatasets.add(dataset);
+        return this;
+    }
+
+    public DesiredState dropDataset(DatasetId datasetId) {
+        droppedDatasets.add(datasetId);
+        return this;
+    }
+
+    public DesiredState table(TableInfo table) {
+        tables.add(table);
+        return this;
+    }
+
+    /**
+     * The table is deleted and created again, even if it already matches.
+     */
+    public DesiredState recreateTable(TableInfo table) {
+        recreatedTables.add(table);
+        return this;
+    }
+
+    public DesiredState dropTable(TableId tableId) {
+        droppedTables.add(tableId);
+        return this;
+    }
+
+    /**
+     * Columns can only be added in place, a removed column or changed type needs the table to be recreated,
+     * which loses its rows. Off by default, such tables are reported and left alone.
+     */
+    public DesiredState recreateOnIncompatibleSchema(boolean recreate) {
+        this.recreateOnIncompatibleSchema = recreate;
+        return this;
+    }
+
+    public List<DatasetInfo> getDatasets() {
+        return Collections.unmodifiableList(datasets);
+    }
+
+    public List<DatasetInfo> getRecreatedDatasets() {
+        return Collections.unmodifiableList(recreatedDatasets);
+    }
+
+    public Set<DatasetId> getDroppedDatasets() {
+        return Collections.unmodifiableSet(droppedDatasets);
+    }
+
+    public List<TableInfo> getTables() {
+        return Collections.unmodifiableList(tables);
+    }
+
+    public List<TableInfo> getRecreatedTables() {
+        return Collections.unmodifiableList(recreatedTables);
+    }
+
+    public Set<TableId> getDroppedTables() {
+        return Collections.unmodifiableSet(droppedTables);
+    }
+
+    public boolean isRecreateOnIncompatibleSchema() {
+        return recreateOnIncompatibleSchema;
+    }
+}
@@ -0,0 +1,363 @@
+package io.github.soufianeodf.bigquerypoc.lifecycle;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQuery.DatasetDeleteOption;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.Dataset;
+import com.google.cloud.bigquery.DatasetId;
+import com.google.cloud.bigquery.DatasetInfo;
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.FieldList;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.Table;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.TableInfo;
+import com.google.common.util.concurrent.RateLimiter;
+import io.github.soufianeodf.bigquerypoc.cache.MetadataCache;
+import io.github.soufianeodf.bigquerypoc.lifecycle.LifecycleOperation.Kind;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * Turns a {@link DesiredState} into the smallest list of metadata calls and runs them concurrently.
+ * <p>
+ * Every call, reads included, goes through a shared rate limiter and a bounded pool, and is retried up to
+ * {@code maxAttempts} times with exponential backoff when BigQuery answers with a rate limit or a transient error.
+ * Governed clients already retry, they are used with a single attempt. Datasets are planned and applied
+ * before tables, so tables are diffed against datasets that already exist.
+ */
+@Slf4j
+public class LifecycleExecutor {
+
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 32_000;
+
+    private final MetadataCache metadataCache;
+    private final ExecutorService executor;
+    private final RateLimiter rateLimiter;
+    private final int maxAttempts;
+
+    public LifecycleExecutor(MetadataCache metadataCache, int maxConcurrentOperations, double operationsPerSecond, int maxAttempts) {
+        this.metadataCache = metadataCache;
+        this.executor = Executors.newFixedThreadPool(maxConcurrentOperations);
+        this.rateLimiter = RateLimiter.create(operationsPerSecond);
+        this.maxAttempts = maxAttempts;
+    }
+
+    public List<LifecycleOperation> planDatasets(BigQuery bigquery, DesiredState state) throws InterruptedException {
+        List<LifecycleOperation> plan = new ArrayList<>();
+
+        List<DatasetInfo> dropped = new ArrayList<>();
+        for (DatasetId datasetId : state.getDroppedDatasets()) {
+            dropped.add(DatasetInfo.of(datasetId));
+        }
+        List<Dataset> droppedCurrent = readAll(dropped, dataset -> bigquery.getDataset(dataset.getDatasetId()));
+        for (int i = 0; i < dropped.size(); i++) {
+            if (droppedCurrent.get(i) != null) {
+                plan.add(new LifecycleOperation(Kind.DELETE_DATASET, dropped.get(i)));
+            }
+        }
+
+        for (DatasetInfo dataset : state.getRecreatedDatasets()) {
+            plan.add(new LifecycleOperation(Kind.RECREATE_DATASET, dataset));
+        }
+
+        List<DatasetInfo> desired = state.getDatasets();
+        List<Dataset> current = readAll(desired, dataset -> bigquery.getDataset(dataset.getDatasetId()));
+        for (int i = 0; i < desired.size(); i++) {
+            if (current.get(i) == null) {
+                plan.add(new LifecycleOperation(Kind.CREATE_DATASET, desired.get(i)));
+            } else if (!matches(desired.get(i), current.get(i))) {
+                plan.add(new LifecycleOperation(Kind.UPDATE_DATASET, desired.get(i)));
+            }
+        }
+        return plan;
+    }
+
+    public List<LifecycleOperation> planTables(BigQuery bigquery, DesiredState state) throws InterruptedException {
+        List<LifecycleOperation> plan = new ArrayList<>();
+
+        List<TableId> dropped = new ArrayList<>(state.getDroppedTables());
+        List<Table> droppedCurrent = readAll(dropped, tableId -> bigquery.getTable(tableId));
+        for (int i = 0; i < dropped.size(); i++) {
+            if (droppedCurrent.get(i) != null) {
+                plan.add(new LifecycleOperation(Kind.DELETE_TABLE, dropped.get(i)));
+            }
+        }
+
+        List<TableInfo> recreated = state.getRecreatedTables();
+        List<Table> recreatedCurrent = readAll(recreated, table -> bigquery.getTable(table.getTableId()));
+        for (int i = 0; i < recreated.size(); i++) {
+            plan.add(new LifecycleOperation(recreatedCurrent.get(i) == null ? Kind.CREATE_TABLE : Kind.RECREATE_TABLE, recreated.get(i)));
+        }
+
+        List<TableInfo> desired = state.getTables();
+        List<Table> current = readAll(desired, table -> bigquery.getTable(table.getTableId()));
+        for (int i = 0; i < desired.size(); i++) {
+            TableInfo table = desired.get(i);
+            if (current.get(i) == null) {
+                plan.add(new LifecycleOperation(Kind.CREATE_TABLE, table));
+                continue;
+            }
+
+            SchemaChange schemaChange = compare(schemaOf(table), schemaOf(current.get(i)));
+            if (schemaChange == SchemaChange.INCOMPATIBLE) {
+                if (state.isRecreateOnIncompatibleSchema()) {
+                    plan.add(new LifecycleOperation(Kind.RECREATE_TABLE, table));
+                } else {
+                    log.info("Table {} has an incompatible schema and is left as it is", table.getTableId().getTable());
+                }
+            } else if (schemaChange == SchemaChange.ADDITIVE || !matches(table, current.get(i))) {
+                plan.add(new LifecycleOperation(Kind.UPDATE_TABLE, table));
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Runs the operations concurrently and returns how many of them failed, failures are logged one by one.
+     */
+    public int apply(BigQuery bigquery, List<LifecycleOperation> plan) throws InterruptedException {
+        long startedAt = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>(plan.size());
+        for (LifecycleOperation operation : plan) {
+            futures.add(executor.submit(() -> execute(bigquery, operation)));
+        }
+
+        int failed = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (ExecutionException e) {
+                failed++;
+                log.info("{} failed, reason: {}", plan.get(i), e.getCause().getMessage());
+            }
+        }
+        log.info("Applied {} operations in {} ms, {} failed", plan.size(), (System.nanoTime() - startedAt) / 1_000_000, failed);
+        return failed;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void execute(BigQuery bigquery, LifecycleOperation operation) {
+        DatasetInfo dataset = operation.getDataset();
+        TableInfo table = operation.getTable();
+        switch (operation.getKind()) {
+            case CREATE_DATASET:
+                metadataCache.put(bigquery, createDataset(bigquery, dataset));
+                break;
+            case UPDATE_DATASET:
+                metadataCache.put(bigquery, call(() -> bigquery.update(dataset)));
+                break;
+            case RECREATE_DATASET:
+                call(() -> bigquery.delete(dataset.getDatasetId(), DatasetDeleteOption.deleteContents()));
+                metadataCache.invalidate(bigquery, dataset.getDatasetId());
+                metadataCache.put(bigquery, createDataset(bigquery, dataset));
+                break;
+            case DELETE_DATASET:
+                call(() -> bigquery.delete(dataset.getDatasetId(), DatasetDeleteOption.deleteContents()));
+                metadataCache.invalidate(bigquery, dataset.getDatasetId());
+                break;
+            case CREATE_TABLE:
+                metadataCache.put(bigquery, createTable(bigquery, table));
+                break;
+            case UPDATE_TABLE:
+                metadataCache.put(bigquery, call(() -> bigquery.update(table)));
+                break;
+            case RECREATE_TABLE:
+                call(() -> bigquery.delete(table.getTableId()));
+                metadataCache.invalidate(bigquery, table.getTableId());
+                metadataCache.put(bigquery, createTable(bigquery, table));
+                break;
+            case DELETE_TABLE:
+                call(() -> bigquery.delete(operation.getTableId()));
+                metadataCache.invalidate(bigquery, operation.getTableId());
+                break;
+            default:
+                throw new IllegalStateException("Unknown operation " + operation.getKind());
+        }
+        log.info("{} done", operation);
+    }
+
+    // A create retried after a timeout may find what its first attempt created
+    private Dataset createDataset(BigQuery bigquery, DatasetInfo dataset) {
+        return call(() -> {
+            try {
+                return bigquery.create(dataset);
+            } catch (BigQueryException e) {
+                if (e.getCode() != 409) {
+                    throw e;
+                }
+                return bigquery.getDataset(dataset.getDatasetId());
+            }
+        });
+    }
+
+    private Table createTable(BigQuery bigquery, TableInfo table) {
+        return call(() -> {
+            try {
+                return bigquery.create(table);
+            } catch (BigQueryException e) {
+                if (e.getCode() != 409) {
+                    throw e;
+                }
+                return bigquery.getTable(table.getTableId());
+            }
+        });
+    }
+
+    private <T, R> List<R> readAll(List<T> items, Function<T, R> read) throws InterruptedException {
+        List<Future<R>> futures = new ArrayList<>(items.size());
+        for (T item : items) {
+            futures.add(executor.submit(() -> call(() -> read.apply(item))));
+        }
+
+        List<R> results = new ArrayList<>(items.size());
+        for (Future<R> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof BigQueryException) {
+                    throw (BigQueryException) e.getCause();
+                }
+                throw new BigQueryException(BigQueryException.UNKNOWN_CODE, e.getCause().getMessage(), e.getCause());
+            }
+        }
+        return results;
+    }
+
+    private <T> T call(Callable<T> action) {
+        long backoffMillis = INITIAL_BACKOFF_MILLIS;
+        for (int attempt = 1; ; attempt++) {
+            rateLimiter.acquire();
+            try {
+                return action.call();
+            } catch (BigQueryException e) {
+                if (attempt >= maxAttempts || !isRetryable(e)) {
+                    throw e;
+                }
+                log.info("Retrying in {} ms after attempt {} failed, reason: {}", backoffMillis, attempt, e.getMessage());
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new BigQueryException(BigQueryException.UNKNOWN_CODE, e.getMessage(), e);
+            }
+
+            try {
+                Thread.sleep(backoffMillis + ThreadLocalRandom.current().nextLong(backoffMillis / 2 + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new BigQueryException(BigQueryException.UNKNOWN_CODE, "Interrupted while backing off", e);
+            }
+            backoffMillis = Math.min(MAX_BACKOFF_MILLIS, backoffMillis * 2);
+        }
+    }
+
+    // Metadata updates are limited per table and per dataset, BigQuery answers 403 rateLimitExceeded
+    private static boolean isRetryable(BigQueryException e) {
+        return e.isRetryable()
+                || e.getCode() == 429
+                || e.getCode() >= 500
+                || "rateLimitExceeded".equals(e.getReason())
+                || "backendError".equals(e.getReason());
+    }
+
+    private static boolean matches(DatasetInfo desired, Dataset current) {
+        return containsLabels(current.getLabels(), desired.getLabels())
+                && (desired.getDescription() == null || desired.getDescription().equals(current.getDescription()))
+                && (desired.getDefaultTableLifetime() == null || desired.getDefaultTableLifetime().equals(current.getDefaultTableLifetime()))
+                && (desired.getAcl() == null || current.getAcl() != null && new HashSet<>(desired.getAcl()).equals(new HashSet<>(current.getAcl())));
+    }
+
+    private static boolean matches(TableInfo desired, Table current) {
+        return containsLabels(current.getLabels(), desired.getLabels())
+                && (desired.getDescription() == null || desired.getDescription().equals(current.getDescription()))
+                && (desired.getExpirationTime() == null || desired.getExpirationTime().equals(current.getExpirationTime()));
+    }
+
+    private static boolean containsLabels(Map<String, String> current, Map<String, String> desired) {
+        if (desired == null || desired.isEmpty()) {
+            return true;
+        }
+        Map<String, String> currentLabels = current == null ? Collections.<String, String>emptyMap() : current;
+        return currentLabels.entrySet().containsAll(desired.entrySet());
+    }
+
+    private enum SchemaChange {
+        NONE, ADDITIVE, INCOMPATIBLE
+    }
+
+    private static Schema schemaOf(TableInfo table) {
+        return table.getDefinition() == null ? null : table.getDefinition().getSchema();
+    }
+
+    private static SchemaChange compare(Schema desired, Schema current) {
+        if (desired == null) {
+            return SchemaChange.NONE;
+        }
+        if (current == null) {
+            return SchemaChange.INCOMPATIBLE;
+        }
+        return compare(desired.getFields(), current.getFields());
+    }
+
+    // Columns can be appended as long as they are not REQUIRED, anything else needs the table to be recreated
+    private static SchemaChange compare(FieldList desired, FieldList current) {
+        SchemaChange change = SchemaChange.NONE;
+        for (Field currentField : current) {
+            Field desiredField = find(desired, currentField.getName());
+            if (desiredField == null
+                    || !desiredField.getType().equals(currentField.getType())
+                    || modeOf(desiredField) != modeOf(currentField)) {
+                return SchemaChange.INCOMPATIBLE;
+            }
+            if (currentField.getSubFields() != null) {
+                SchemaChange nested = compare(desiredField.getSubFields(), currentField.getSubFields());
+                if (nested == SchemaChange.INCOMPATIBLE) {
+                    return nested;
+                } else if (nested == SchemaChange.ADDITIVE) {
+                    change = nested;
+                }
+            }
+        }
+        for (Field desiredField : desired) {
+            if (find(current, desiredField.getName()) == null) {
+                if (modeOf(desiredField) == Field.Mode.REQUIRED) {
+                    return SchemaChange.INCOMPATIBLE;
+                }
+                change = SchemaChange.ADDITIVE;
+            }
+        }
+        return change;
+    }
+
+    private static Field find(FieldList fields, String name) {
+        if (fields == null) {
+            return null;
+        }
+        for (Field field : fields) {
+            if (field.getName().equalsIgnoreCase(name)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    private static Field.Mode modeOf(Field field) {
+        return field.getMode() == null ? Field.Mode.NULLABLE : field.getMode();
+    }
+}
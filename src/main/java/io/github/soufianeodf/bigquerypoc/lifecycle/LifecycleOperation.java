@@ -0,0 +1,70 @@
+package io.github.soufianeodf.bigquerypoc.lifecycle;
+
+import com.google.cloud.bigquery.DatasetInfo;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.TableInfo;
+
+/**
+ * One metadata call of a plan, computed by {@link LifecycleExecutor} from the difference between the desired and
+ * the current state.
+ */
+public class LifecycleOperation {
+
+    public enum Kind {
+        CREATE_DATASET, UPDATE_DATASET, RECREATE_DATASET, DELETE_DATASET,
+        CREATE_TABLE, UPDATE_TABLE, RECREATE_TABLE, DELETE_TABLE
+    }
+
+    private final Kind kind;
+    private final DatasetInfo dataset;
+    private final TableId tableId;
+    private final TableInfo table;
+
+    LifecycleOperation(Kind kind, DatasetInfo dataset) {
+        this.kind = kind;
+        this.dataset = dataset;
+        this.tableId = null;
+        this.table = null;
+    }
+
+    LifecycleOperation(Kind kind, TableInfo table) {
+        this.kind = kind;
+        this.dataset = null;
+        this.tableId = table.getTableId();
+        this.table = table;
+    }
+
+    // Deleting a table only needs its id
+    LifecycleOperation(Kind kind, TableId tableId) {
+        this.kind = kind;
+        this.dataset = null;
+        this.tableId = tableId;
+        this.table = null;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public DatasetInfo getDataset() {
+        return dataset;
+    }
+
+    public TableId getTableId() {
+        return tableId;
+    }
+
+    /**
+     * Null for {@link Kind#DELETE_TABLE}.
+     */
+    public TableInfo getTable() {
+        return table;
+    }
+
+    @Override
+    public String toString() {
+        return kind + " " + (dataset != null
+                ? dataset.getDatasetId().getDataset()
+                : tableId.getDataset() + "." + tableId.getTable());
+    }
+}
@@ -0,0 +1,462 @@
+package io.github.soufianeodf.bigquerypoc.local;
+
+import com.google.api.client.util.Data;
+import com.google.api.services.bigquery.model.*;
+import com.google.cloud.Tuple;
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.spi.v2.BigQueryRpc;
+import io.github.soufianeodf.bigquerypoc.csv.CsvReader;
+import io.github.soufianeodf.bigquerypoc.csv.CsvSchemaInferrer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * In-process stand-in for the BigQuery REST API, plugged under the real {@link BigQuery} client so that
+ * writer channels, paging and {@code Job.waitFor} behave as they do against the service.
+ * <p>
+ * It keeps datasets and tables in memory, loads plain or gzipped CSV uploads, serves {@code listTableData} pages
+ * and runs the queries {@link LocalQueryEngine} understands. Every call waits for the configured latency, uploads
+ * and reads are slowed down to the configured throughput (0 means unlimited).
+ */
+@Slf4j
+public class LocalBigQueryRpc implements InvocationHandler {
+
+    private static final String RESULTS_DATASET = "_local_query_results";
+    private static final int DEFAULT_PAGE_ROWS = 10_000;
+    private static final int AUTODETECT_SAMPLE_ROWS = 1000;
+
+    private final String projectId;
+    private final long latencyMillis;
+    private final long uploadBytesPerSecond;
+    private final long readRowsPerSecond;
+    private final LocalTableStore store = new LocalTableStore();
+    private final LocalQueryEngine queryEngine = new LocalQueryEngine(store);
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+    private final Set<String> insertIds = ConcurrentHashMap.newKeySet();
+
+    public LocalBigQueryRpc(String projectId, long latencyMillis, long uploadBytesPerSecond, long readRowsPerSecond) {
+        this.projectId = projectId;
+        this.latencyMillis = latencyMillis;
+        this.uploadBytesPerSecond = uploadBytesPerSecond;
+        this.readRowsPerSecond = readRowsPerSecond;
+    }
+
+    public BigQueryRpc asRpc() {
+        return (BigQueryRpc) Proxy.newProxyInstance(
+                BigQueryRpc.class.getClassLoader(), new Class<?>[]{BigQueryRpc.class}, this);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return "LocalBigQueryRpc(" + projectId + ")";
+            default:
+                break;
+        }
+
+        pause(latencyMillis);
+        switch (method.getName()) {
+            case "create":
+                return create(args[0]);
+            case "getDataset":
+                return store.getDataset((String) args[0], (String) args[1]);
+            case "listDatasets":
+                return Tuple.of(null, store.listDatasets((String) args[0]));
+            case "deleteDataset":
+                return store.deleteDataset((String) args[0], (String) args[1],
+                        Boolean.TRUE.equals(option(args[2], "DELETE_CONTENTS")));
+            case "patch":
+                return patch(args[0]);
+            case "getTable":
+                LocalTable table = store.getTable((String) args[0], (String) args[1], (String) args[2]);
+                return table == null ? null : table.toModel();
+            case "listTables":
+                return Tuple.of(null, store.listTables((String) args[0], (String) args[1]));
+            case "deleteTable":
+                return store.deleteTable((String) args[0], (String) args[1], (String) args[2]);
+            case "insertAll":
+                return insertAll((String) args[0], (String) args[1], (String) args[2], (TableDataInsertAllRequest) args[3]);
+            case "listTableData":
+                return listTableData((String) args[0], (String) args[1], (String) args[2], args[3]);
+            case "getJob":
+                Job job = jobs.get((String) args[1]);
+                return job == null ? null : job.clone();
+            case "cancel":
+                return jobs.containsKey((String) args[1]);
+            case "getQueryResults":
+                return getQueryResults((String) args[1]);
+            case "queryRpc":
+                return queryRpc((QueryRequest) args[1]);
+            case "open":
+                return open((Job) args[0]);
+            case "write":
+                return write((String) args[0], (byte[]) args[1], (Integer) args[2], (Integer) args[4], (Boolean) args[5]);
+            default:
+                throw new UnsupportedOperationException(method.getName() + " is not supported by the local BigQuery");
+        }
+    }
+
+    private Object create(Object model) {
+        if (model instanceof Dataset) {
+            return store.createDataset(withProject((Dataset) model));
+        } else if (model instanceof Table) {
+            Table table = (Table) model;
+            if (table.getTableReference().getProjectId() == null) {
+                table.getTableReference().setProjectId(projectId);
+            }
+            return store.createTable(table).toModel();
+        } else if (model instanceof Job) {
+            Job job = (Job) model;
+            if (job.getConfiguration().getQuery() == null) {
+                throw new BigQueryException(400, "Only query jobs can be created locally, loads go through the writer");
+            }
+            return runQuery(job).clone();
+        }
+        throw new UnsupportedOperationException(model.getClass().getSimpleName() + " can't be created locally");
+    }
+
+    private Object patch(Object model) {
+        if (model instanceof Dataset) {
+            return store.patchDataset(withProject((Dataset) model));
+        }
+        Table patch = (Table) model;
+        TableReference reference = patch.getTableReference();
+        LocalTable table = store.requireTable(projectOf(reference.getProjectId()), reference.getDatasetId(), reference.getTableId());
+        table.patch(patch);
+        return table.toModel();
+    }
+
+    private TableDataInsertAllResponse insertAll(String project, String dataset, String tableName, TableDataInsertAllRequest request) {
+        LocalTable table = store.requireTable(project, dataset, tableName);
+        List<TableFieldSchema> fields = table.getFields();
+        List<String[]> rows = new ArrayList<>();
+        for (TableDataInsertAllRequest.Rows row : request.getRows()) {
+            // Insert ids de-duplicate retried rows, like the best effort de-duplication of the service
+            if (row.getInsertId() != null && !insertIds.add(project + ":" + dataset + "." + tableName + "/" + row.getInsertId())) {
+                continue;
+            }
+            String[] values = new String[fields.size()];
+            for (int i = 0; i < values.length; i++) {
+                Object value = row.getJson().get(fields.get(i).getName());
+                values[i] = value == null ? null : String.valueOf(value);
+            }
+            rows.add(values);
+        }
+        table.append(rows);
+        return new TableDataInsertAllResponse();
+    }
+
+    private TableDataList listTableData(String project, String dataset, String tableName, Object options) {
+        LocalTable table = store.requireTable(project, dataset, tableName);
+        Object pageToken = option(options, "PAGE_TOKEN");
+        Object startIndex = option(options, "START_INDEX");
+        Object maxResults = option(options, "MAX_RESULTS");
+
+        int start = pageToken != null ? Integer.parseInt(pageToken.toString())
+                : startIndex != null ? ((Number) startIndex).intValue() : 0;
+        int pageRows = maxResults != null ? ((Number) maxResults).intValue() : DEFAULT_PAGE_ROWS;
+        List<String[]> rows = table.readRows(start, pageRows);
+        throttle(rows.size(), readRowsPerSecond);
+
+        TableDataList page = new TableDataList()
+                .setRows(toTableRows(rows))
+                .setTotalRows((long) table.getRowCount());
+        if (start + rows.size() < table.getRowCount()) {
+            page.setPageToken(String.valueOf(start + rows.size()));
+        }
+        return page;
+    }
+
+    private GetQueryResultsResponse getQueryResults(String jobId) {
+        Job job = jobs.get(jobId);
+        if (job == null || job.getConfiguration().getQuery() == null) {
+            throw new BigQueryException(404, "Not found: Query job " + jobId);
+        }
+        TableReference destination = job.getConfiguration().getQuery().getDestinationTable();
+        LocalTable table = store.requireTable(destination.getProjectId(), destination.getDatasetId(), destination.getTableId());
+        return new GetQueryResultsResponse()
+                .setJobReference(job.getJobReference())
+                .setJobComplete(true)
+                .setCacheHit(false)
+                .setSchema(new TableSchema().setFields(table.getFields()))
+                .setTotalRows(BigInteger.valueOf(table.getRowCount()))
+                .setRows(Collections.emptyList());
+    }
+
+    private QueryResponse queryRpc(QueryRequest request) {
+        Job job = runQuery(new Job().setConfiguration(new JobConfiguration()
+                .setQuery(new JobConfigurationQuery().setQuery(request.getQuery()))));
+        TableReference destination = job.getConfiguration().getQuery().getDestinationTable();
+        LocalTable table = store.requireTable(destination.getProjectId(), destination.getDatasetId(), destination.getTableId());
+        List<String[]> rows = table.readRows(0, table.getRowCount());
+        throttle(rows.size(), readRowsPerSecond);
+
+        return new QueryResponse()
+                .setJobReference(job.getJobReference())
+                .setJobComplete(true)
+                .setCacheHit(false)
+                .setSchema(new TableSchema().setFields(table.getFields()))
+                .setRows(toTableRows(rows))
+                .setTotalRows(BigInteger.valueOf(rows.size()))
+                .setTotalBytesProcessed(job.getStatistics().getQuery().getTotalBytesProcessed());
+    }
+
+    private Job runQuery(Job job) {
+        JobReference reference = jobReference(job);
+        JobConfigurationQuery query = job.getConfiguration().getQuery();
+        LocalQueryEngine.Result result = queryEngine.execute(query.getQuery(), projectId);
+        if (Boolean.TRUE.equals(job.getConfiguration().getDryRun())) {
+            // Dry runs only report what the query would process
+            return job.clone().setJobReference(reference).setStatus(new JobStatus().setState("DONE"))
+                    .setStatistics(new JobStatistics().setQuery(new JobStatistics2()
+                            .setTotalBytesProcessed(result.bytesProcessed)
+                            .setReferencedTables(Collections.singletonList(result.source))));
+        }
+
+        TableReference destination = query.getDestinationTable();
+        if (destination == null) {
+            store.ensureDataset(projectId, RESULTS_DATASET);
+            destination = new TableReference().setProjectId(projectId).setDatasetId(RESULTS_DATASET).setTableId("anon_" + reference.getJobId());
+        }
+        LocalTable table = store.getTable(projectOf(destination.getProjectId()), destination.getDatasetId(), destination.getTableId());
+        if (table == null) {
+            table = store.createTable(new Table().setTableReference(destination).setSchema(result.schema));
+        } else if ("WRITE_TRUNCATE".equals(query.getWriteDisposition())) {
+            table.truncate();
+        }
+        table.append(result.rows);
+
+        long now = System.currentTimeMillis();
+        Job done = job.clone().setJobReference(reference).setStatus(new JobStatus().setState("DONE"));
+        done.getConfiguration().getQuery().setDestinationTable(destination);
+        done.setStatistics(new JobStatistics()
+                .setCreationTime(now)
+                .setStartTime(now)
+                .setEndTime(now)
+                .setQuery(new JobStatistics2()
+                        .setStatementType("SELECT")
+                        .setCacheHit(false)
+                        .setTotalBytesProcessed(result.bytesProcessed)
+                        .setTotalBytesBilled(result.bytesProcessed)
+                        .setTotalSlotMs(0L)
+                        .setReferencedTables(Collections.singletonList(result.source))));
+        jobs.put(reference.getJobId(), done);
+        return done;
+    }
+
+    private String open(Job job) {
+        String uploadId = UUID.randomUUID().toString();
+        uploads.put(uploadId, new Upload(job));
+        return uploadId;
+    }
+
+    private Job write(String uploadId, byte[] toWrite, int toWriteOffset, int length, boolean last) {
+        Upload upload = uploads.get(uploadId);
+        if (upload == null) {
+            throw new BigQueryException(404, "Upload " + uploadId + " does not exist");
+        }
+        upload.bytes.write(toWrite, toWriteOffset, length);
+        throttle(length, uploadBytesPerSecond);
+        if (!last) {
+            return null;
+        }
+
+        uploads.remove(uploadId);
+        Job done = runLoad(upload);
+        jobs.put(done.getJobReference().getJobId(), done);
+        return done.clone();
+    }
+
+    private Job runLoad(Upload upload) {
+        JobReference reference = jobReference(upload.job);
+        JobConfigurationLoad load = upload.job.getConfiguration().getLoad();
+        TableReference destination = load.getDestinationTable();
+        destination.setProjectId(projectOf(destination.getProjectId()));
+        long now = System.currentTimeMillis();
+        Job done = upload.job.clone().setJobReference(reference);
+        done.setStatistics(new JobStatistics().setCreationTime(now).setStartTime(now));
+
+        try {
+            List<String[]> rows = loadRows(load, destination, upload.bytes.toByteArray());
+            done.setStatus(new JobStatus().setState("DONE"));
+            done.getStatistics()
+                    .setEndTime(System.currentTimeMillis())
+                    .setLoad(new JobStatistics3()
+                            .setInputFiles(1L)
+                            .setInputFileBytes((long) upload.bytes.size())
+                            .setOutputRows((long) rows.size())
+                            .setBadRecords(0L));
+        } catch (IOException | RuntimeException e) {
+            log.info("Local load job {} failed, reason: {}", reference.getJobId(), e.getMessage());
+            done.setStatus(new JobStatus().setState("DONE").setErrorResult(new ErrorProto()
+                    .setReason("invalid")
+                    .setMessage(e.getMessage())));
+            done.getStatistics().setEndTime(System.currentTimeMillis()).setLoad(new JobStatistics3().setOutputRows(0L));
+        }
+        return done;
+    }
+
+    private List<String[]> loadRows(JobConfigurationLoad load, TableReference destination, byte[] bytes) throws IOException {
+        if (load.getSourceFormat() != null && !"CSV".equals(load.getSourceFormat())) {
+            throw new IOException("Only CSV is loaded locally, not " + load.getSourceFormat());
+        }
+        if (bytes.length > 1 && (bytes[0] & 0xff) == 0x1f && (bytes[1] & 0xff) == 0x8b) {
+            bytes = gunzip(bytes);
+        }
+
+        boolean autodetect = Boolean.TRUE.equals(load.getAutodetect());
+        int leadingRows = load.getSkipLeadingRows() != null ? load.getSkipLeadingRows() : autodetect ? 1 : 0;
+        LocalTable table = store.getTable(destination.getProjectId(), destination.getDatasetId(), destination.getTableId());
+
+        if (table == null) {
+            if ("CREATE_NEVER".equals(load.getCreateDisposition())) {
+                throw new IOException("Table " + destination.getTableId() + " does not exist");
+            }
+            TableSchema schema = load.getSchema() != null ? load.getSchema() : inferSchema(bytes, leadingRows);
+            table = store.createTable(new Table().setTableReference(destination).setSchema(schema));
+        } else if ("WRITE_TRUNCATE".equals(load.getWriteDisposition())) {
+            table.truncate();
+        } else if ("WRITE_EMPTY".equals(load.getWriteDisposition()) && table.getRowCount() > 0) {
+            throw new IOException("Table " + destination.getTableId() + " is not empty");
+        }
+
+        List<String[]> rows = new ArrayList<>();
+        int columnCount = table.getFields().size();
+        try (CsvReader reader = reader(bytes)) {
+            for (int i = 0; i < leadingRows && reader.next(); i++) {
+                // header lines
+            }
+            while (reader.next()) {
+                String[] row = new String[columnCount];
+                for (int i = 0; i < Math.min(columnCount, reader.getFieldCount()); i++) {
+                    row[i] = reader.isEmpty(i) ? null : reader.getString(i);
+                }
+                rows.add(row);
+            }
+        }
+        table.append(rows);
+        return rows;
+    }
+
+    private static TableSchema inferSchema(byte[] bytes, int leadingRows) throws IOException {
+        try (CsvReader reader = reader(bytes)) {
+            // The header is the last of the leading rows
+            for (int i = 1; i < leadingRows; i++) {
+                reader.next();
+            }
+            Schema schema = CsvSchemaInferrer.infer(reader, AUTODETECT_SAMPLE_ROWS);
+            List<TableFieldSchema> fields = new ArrayList<>();
+            for (Field field : schema.getFields()) {
+                fields.add(new TableFieldSchema().setName(field.getName()).setType(field.getType().name()).setMode("NULLABLE"));
+            }
+            return new TableSchema().setFields(fields);
+        }
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 4);
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static CsvReader reader(byte[] bytes) {
+        return new CsvReader(new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8));
+    }
+
+    private static List<TableRow> toTableRows(List<String[]> rows) {
+        List<TableRow> tableRows = new ArrayList<>(rows.size());
+        for (String[] row : rows) {
+            List<TableCell> cells = new ArrayList<>(row.length);
+            for (String value : row) {
+                cells.add(new TableCell().setV(value == null ? Data.nullOf(Object.class) : value));
+            }
+            tableRows.add(new TableRow().setF(cells));
+        }
+        return tableRows;
+    }
+
+    private JobReference jobReference(Job job) {
+        JobReference reference = job.getJobReference() != null ? job.getJobReference().clone() : new JobReference();
+        if (reference.getJobId() == null) {
+            reference.setJobId("job_" + UUID.randomUUID());
+        }
+        return reference.setProjectId(projectOf(reference.getProjectId()));
+    }
+
+    private Dataset withProject(Dataset dataset) {
+        DatasetReference reference = dataset.getDatasetReference();
+        reference.setProjectId(projectOf(reference.getProjectId()));
+        return dataset;
+    }
+
+    private String projectOf(String project) {
+        return project != null ? project : projectId;
+    }
+
+    private static Object option(Object options, String name) {
+        if (!(options instanceof Map)) {
+            return null;
+        }
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) options).entrySet()) {
+            Object key = entry.getKey();
+            String keyName = key instanceof Enum ? ((Enum<?>) key).name() : String.valueOf(key);
+            if (name.equals(keyName)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static void throttle(long units, long unitsPerSecond) {
+        if (unitsPerSecond > 0) {
+            pause(units * 1000 / unitsPerSecond);
+        }
+    }
+
+    private static void pause(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Upload {
+        private final Job job;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        private Upload(Job job) {
+            this.job = job;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package io.github.soufianeodf.bigquerypoc.local;
+
+import com.google.api.services.bigquery.model.TableFieldSchema;
+import com.google.api.services.bigquery.model.TableReference;
+import com.google.api.services.bigquery.model.TableSchema;
+import com.google.cloud.bigquery.BigQueryError;
+import com.google.cloud.bigquery.BigQueryException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the small SQL subset the services send: {@code SELECT *}, a column list or {@code COUNT(*)}
+ * from a single table, with an optional {@code LIMIT}.
+ */
+class LocalQueryEngine {
+
+    private static final Pattern SELECT = Pattern.compile(
+            "(?is)^\\s*SELECT\\s+(.+?)\\s+FROM\\s+`?([\\w.:-]+)`?(?:\\s+LIMIT\\s+(\\d+))?\\s*;?\\s*$");
+    private static final Pattern COUNT = Pattern.compile("(?i)COUNT\\s*\\(\\s*\\*\\s*\\)");
+
+    private final LocalTableStore store;
+
+    LocalQueryEngine(LocalTableStore store) {
+        this.store = store;
+    }
+
+    Result execute(String sql, String defaultProjectId) {
+        Matcher matcher = SELECT.matcher(sql);
+        if (!matcher.matches()) {
+            throw invalidQuery("Only SELECT <columns> FROM <table> [LIMIT n] is supported locally: " + sql);
+        }
+
+        TableReference source = tableReference(matcher.group(2), defaultProjectId);
+        LocalTable table = store.requireTable(source.getProjectId(), source.getDatasetId(), source.getTableId());
+        int limit = matcher.group(3) == null ? Integer.MAX_VALUE : Integer.parseInt(matcher.group(3));
+        String projection = matcher.group(1).trim();
+        List<String[]> tableRows = table.readRows(0, table.getRowCount());
+
+        if (COUNT.matcher(projection).matches()) {
+            TableSchema schema = new TableSchema().setFields(Collections.singletonList(
+                    new TableFieldSchema().setName("f0_").setType("INTEGER").setMode("NULLABLE")));
+            List<String[]> rows = Collections.singletonList(new String[]{String.valueOf(tableRows.size())});
+            return new Result(schema, rows, source, 0);
+        }
+
+        List<TableFieldSchema> fields = table.getFields();
+        List<Integer> columns = new ArrayList<>();
+        List<TableFieldSchema> selectedFields = new ArrayList<>();
+        if (projection.equals("*")) {
+            for (int i = 0; i < fields.size(); i++) {
+                columns.add(i);
+            }
+            selectedFields.addAll(fields);
+        } else {
+            for (String column : projection.split(",")) {
+                int index = indexOf(fields, column.trim());
+                columns.add(index);
+                selectedFields.add(fields.get(index));
+            }
+        }
+
+        List<String[]> rows = new ArrayList<>();
+        long bytesProcessed = 0;
+        for (String[] tableRow : tableRows) {
+            String[] row = new String[columns.size()];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = tableRow[columns.get(i)];
+                bytesProcessed += row[i] == null ? 0 : row[i].length();
+            }
+            if (rows.size() < limit) {
+                rows.add(row);
+            }
+        }
+        return new Result(new TableSchema().setFields(selectedFields), rows, source, bytesProcessed);
+    }
+
+    private static int indexOf(List<TableFieldSchema> fields, String column) {
+        String name = column.replace("`", "");
+        for (int i = 0; i < fields.size(); i++) {
+            if (fields.get(i).getName().equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        throw invalidQuery("Unrecognized name: " + name);
+    }
+
+    private static TableReference tableReference(String name, String defaultProjectId) {
+        String[] parts = name.replace(':', '.').split("\\.");
+        if (parts.length == 3) {
+            return new TableReference().setProjectId(parts[0]).setDatasetId(parts[1]).setTableId(parts[2]);
+        } else if (parts.length == 2) {
+            return new TableReference().setProjectId(defaultProjectId).setDatasetId(parts[0]).setTableId(parts[1]);
+        }
+        throw invalidQuery("Table name " + name + " is missing the dataset");
+    }
+
+    private static BigQueryException invalidQuery(String message) {
+        return new BigQueryException(400, message, new BigQueryError("invalidQuery", null, message));
+    }
+
+    static final class Result {
+        final TableSchema schema;
+        final List<String[]> rows;
+        final TableReference source;
+        final long bytesProcessed;
+
+        Result(TableSchema schema, List<String[]> rows, TableReference source, long bytesProcessed) {
+            this.schema = schema;
+            this.rows = rows;
+            this.source = source;
+            this.bytesProcessed = bytesProcessed;
+        }
+    }
+}
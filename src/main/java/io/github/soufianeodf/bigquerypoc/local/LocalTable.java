@@ -0,0 +1,109 @@
+package io.github.soufianeodf.bigquerypoc.local;
+
+import com.google.api.services.bigquery.model.Table;
+import com.google.api.services.bigquery.model.TableFieldSchema;
+import com.google.api.services.bigquery.model.TableSchema;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Rows of a local table, stored column by column as the string values the REST API would return.
+ */
+class LocalTable {
+
+    private Table metadata;
+    private final List<List<String>> columns = new ArrayList<>();
+    private int rowCount;
+
+    LocalTable(Table metadata) {
+        this.metadata = metadata;
+        long now = System.currentTimeMillis();
+        metadata.setCreationTime(now);
+        metadata.setLastModifiedTime(BigInteger.valueOf(now));
+        metadata.setType("TABLE");
+        if (metadata.getSchema() == null) {
+            metadata.setSchema(new TableSchema().setFields(new ArrayList<>()));
+        }
+        metadata.getSchema().getFields().forEach(field -> columns.add(new ArrayList<>()));
+    }
+
+    synchronized Table toModel() {
+        return metadata.clone()
+                .setNumRows(BigInteger.valueOf(rowCount))
+                .setNumBytes(estimateBytes());
+    }
+
+    synchronized List<TableFieldSchema> getFields() {
+        return Collections.unmodifiableList(new ArrayList<>(metadata.getSchema().getFields()));
+    }
+
+    synchronized int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Replaces the updatable metadata, keeping the data and the schema when the patch has none.
+     */
+    synchronized void patch(Table patch) {
+        TableSchema schema = patch.getSchema() != null ? patch.getSchema() : metadata.getSchema();
+        metadata = metadata.clone()
+                .setDescription(patch.getDescription())
+                .setLabels(patch.getLabels())
+                .setExpirationTime(patch.getExpirationTime())
+                .setSchema(schema);
+        while (columns.size() < schema.getFields().size()) {
+            columns.add(new ArrayList<>(Collections.nCopies(rowCount, null)));
+        }
+        touch();
+    }
+
+    /**
+     * Appends rows whose values follow the order of the schema fields, missing values being null.
+     */
+    synchronized void append(List<String[]> rows) {
+        for (String[] row : rows) {
+            for (int i = 0; i < columns.size(); i++) {
+                columns.get(i).add(i < row.length ? row[i] : null);
+            }
+        }
+        rowCount += rows.size();
+        touch();
+    }
+
+    synchronized void truncate() {
+        columns.forEach(List::clear);
+        rowCount = 0;
+        touch();
+    }
+
+    synchronized List<String[]> readRows(int start, int count) {
+        int end = Math.min(rowCount, start + count);
+        List<String[]> rows = new ArrayList<>(Math.max(0, end - start));
+        for (int row = start; row < end; row++) {
+            String[] values = new String[columns.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = columns.get(i).get(row);
+            }
+            rows.add(values);
+        }
+        return rows;
+    }
+
+    private void touch() {
+        metadata.setLastModifiedTime(BigInteger.valueOf(Math.max(System.currentTimeMillis(),
+                metadata.getLastModifiedTime().longValue() + 1)));
+    }
+
+    private long estimateBytes() {
+        long bytes = 0;
+        for (List<String> column : columns) {
+            for (String value : column) {
+                bytes += value == null ? 0 : value.length();
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,148 @@
+package io.github.soufianeodf.bigquerypoc.local;
+
+import com.google.api.services.bigquery.model.Dataset;
+import com.google.api.services.bigquery.model.DatasetReference;
+import com.google.api.services.bigquery.model.Table;
+import com.google.api.services.bigquery.model.TableReference;
+import com.google.cloud.bigquery.BigQueryException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Datasets and tables of the local stand-in, addressed by project, dataset and table name.
+ */
+class LocalTableStore {
+
+    private static final int NOT_FOUND = 404;
+    private static final int CONFLICT = 409;
+
+    private final Map<String, Dataset> datasets = new TreeMap<>();
+    private final Map<String, LocalTable> tables = new TreeMap<>();
+
+    synchronized Dataset createDataset(Dataset dataset) {
+        DatasetReference reference = dataset.getDatasetReference();
+        String key = key(reference.getProjectId(), reference.getDatasetId());
+        if (datasets.containsKey(key)) {
+            throw new BigQueryException(CONFLICT, "Already Exists: Dataset " + key);
+        }
+        long now = System.currentTimeMillis();
+        Dataset created = dataset.clone()
+                .setId(reference.getProjectId() + ":" + reference.getDatasetId())
+                .setCreationTime(now)
+                .setLastModifiedTime(now);
+        datasets.put(key, created);
+        return created.clone();
+    }
+
+    synchronized Dataset getDataset(String projectId, String datasetId) {
+        Dataset dataset = datasets.get(key(projectId, datasetId));
+        return dataset == null ? null : dataset.clone();
+    }
+
+    synchronized Dataset patchDataset(Dataset patch) {
+        DatasetReference reference = patch.getDatasetReference();
+        String key = key(reference.getProjectId(), reference.getDatasetId());
+        Dataset dataset = datasets.get(key);
+        if (dataset == null) {
+            throw new BigQueryException(NOT_FOUND, "Not found: Dataset " + key);
+        }
+        Dataset patched = dataset.clone()
+                .setDescription(patch.getDescription())
+                .setLabels(patch.getLabels())
+                .setAccess(patch.getAccess())
+                .setLastModifiedTime(System.currentTimeMillis());
+        datasets.put(key, patched);
+        return patched.clone();
+    }
+
+    synchronized boolean deleteDataset(String projectId, String datasetId, boolean deleteContents) {
+        String key = key(projectId, datasetId);
+        if (!datasets.containsKey(key)) {
+            return false;
+        }
+        String tablePrefix = key + ".";
+        boolean hasTables = tables.keySet().stream().anyMatch(table -> table.startsWith(tablePrefix));
+        if (hasTables && !deleteContents) {
+            throw new BigQueryException(400, "Dataset " + key + " is still in use");
+        }
+        tables.keySet().removeIf(table -> table.startsWith(tablePrefix));
+        datasets.remove(key);
+        return true;
+    }
+
+    synchronized List<Dataset> listDatasets(String projectId) {
+        List<Dataset> result = new ArrayList<>();
+        datasets.forEach((key, dataset) -> {
+            if (key.startsWith(projectId + ":")) {
+                result.add(dataset.clone());
+            }
+        });
+        return result;
+    }
+
+    synchronized LocalTable createTable(Table table) {
+        TableReference reference = table.getTableReference();
+        requireDataset(reference.getProjectId(), reference.getDatasetId());
+        String key = key(reference);
+        if (tables.containsKey(key)) {
+            throw new BigQueryException(CONFLICT, "Already Exists: Table " + key);
+        }
+        LocalTable created = new LocalTable(table.clone().setId(reference.getProjectId() + ":"
+                + reference.getDatasetId() + "." + reference.getTableId()));
+        tables.put(key, created);
+        return created;
+    }
+
+    synchronized LocalTable getTable(String projectId, String datasetId, String tableId) {
+        return tables.get(key(projectId, datasetId) + "." + tableId);
+    }
+
+    synchronized LocalTable requireTable(String projectId, String datasetId, String tableId) {
+        LocalTable table = getTable(projectId, datasetId, tableId);
+        if (table == null) {
+            throw new BigQueryException(NOT_FOUND, "Not found: Table " + key(projectId, datasetId) + "." + tableId);
+        }
+        return table;
+    }
+
+    synchronized boolean deleteTable(String projectId, String datasetId, String tableId) {
+        return tables.remove(key(projectId, datasetId) + "." + tableId) != null;
+    }
+
+    synchronized List<Table> listTables(String projectId, String datasetId) {
+        String prefix = key(projectId, datasetId) + ".";
+        List<Table> result = new ArrayList<>();
+        tables.forEach((key, table) -> {
+            if (key.startsWith(prefix)) {
+                result.add(table.toModel());
+            }
+        });
+        return result;
+    }
+
+    synchronized void requireDataset(String projectId, String datasetId) {
+        if (!datasets.containsKey(key(projectId, datasetId))) {
+            throw new BigQueryException(NOT_FOUND, "Not found: Dataset " + key(projectId, datasetId));
+        }
+    }
+
+    synchronized void ensureDataset(String projectId, String datasetId) {
+        String key = key(projectId, datasetId);
+        if (!datasets.containsKey(key)) {
+            createDataset(new Dataset().setDatasetReference(new DatasetReference()
+                    .setProjectId(projectId)
+                    .setDatasetId(datasetId)));
+        }
+    }
+
+    private static String key(TableReference reference) {
+        return key(reference.getProjectId(), reference.getDatasetId()) + "." + reference.getTableId();
+    }
+
+    private static String key(String projectId, String datasetId) {
+        return projectId + ":" + datasetId;
+    }
+}
@@ -0,0 +1,137 @@
+package io.github.soufianeodf.bigquerypoc.metrics;
+
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.JobStatistics.LoadStatistics;
+import com.google.cloud.bigquery.JobStatistics.QueryStatistics;
+import io.github.soufianeodf.bigquerypoc.cache.MetadataCache;
+import io.github.soufianeodf.bigquerypoc.cache.QueryResultCache;
+import io.github.soufianeodf.bigquerypoc.client.BigQueryClientFactory;
+import io.github.soufianeodf.bigquerypoc.governance.RequestGovernor;
+import io.github.soufianeodf.bigquerypoc.telemetry.JobTelemetry;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Micrometer meters of the BigQuery services:
+ * <ul>
+ *     <li>{@code bigquery.operation}: latency of every service operation, tagged by operation</li>
+ *     <li>{@code bigquery.operation.errors}: failed operations, tagged by operation and BigQuery error reason</li>
+ *     <li>{@code bigquery.load.*}: bytes uploaded and rows loaded per load job</li>
+ *     <li>{@code bigquery.query.*}: bytes processed and billed, slot-ms and server cache hits per query job</li>
+ *     <li>{@code bigquery.query.guard}: prepared queries run, rerouted or rejected by the cost guard</li>
+ *     <li>{@code bigquery.client.cache.*}: hits, misses and size of the client side caches</li>
+ *     <li>{@code bigquery.governance.*}: concurrency limit, calls in flight, throttled calls and calls refused
+ *     by the circuit breaker, when governance is enabled</li>
+ *     <li>{@code bigquery.telemetry.*}: jobs profiled and jobs flagged as regressions of their shape</li>
+ * </ul>
+ */
+@Component
+public class BigQueryMetrics {
+
+    private static final double[] PERCENTILES = {0.5, 0.95, 0.99};
+
+    private final MeterRegistry registry;
+    private final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final DistributionSummary bytesUploaded;
+    private final DistributionSummary rowsLoaded;
+    private final DistributionSummary bytesProcessed;
+    private final DistributionSummary bytesBilled;
+    private final DistributionSummary slotMillis;
+
+    public BigQueryMetrics(MeterRegistry registry, QueryResultCache queryResultCache, MetadataCache metadataCache, BigQueryClientFactory clientFactory, JobTelemetry telemetry) {
+        this.registry = registry;
+        this.bytesUploaded = summary("bigquery.load.bytes.uploaded", "bytes");
+        this.rowsLoaded = summary("bigquery.load.rows", "rows");
+        this.bytesProcessed = summary("bigquery.query.bytes.processed", "bytes");
+        this.bytesBilled = summary("bigquery.query.bytes.billed", "bytes");
+        this.slotMillis = summary("bigquery.query.slot", "milliseconds");
+
+        FunctionCounter.builder("bigquery.client.cache.hits", queryResultCache, QueryResultCache::getHitCount)
+                .tag("cache", "query-result").register(registry);
+        FunctionCounter.builder("bigquery.client.cache.misses", queryResultCache, QueryResultCache::getMissCount)
+                .tag("cache", "query-result").register(registry);
+        Gauge.builder("bigquery.client.cache.size", queryResultCache, QueryResultCache::getMemoryBytes)
+                .tag("cache", "query-result").tag("storage", "memory").baseUnit("bytes").register(registry);
+        Gauge.builder("bigquery.client.cache.size", queryResultCache, QueryResultCache::getDiskBytes)
+                .tag("cache", "query-result").tag("storage", "disk").baseUnit("bytes").register(registry);
+        FunctionCounter.builder("bigquery.client.cache.hits", metadataCache, MetadataCache::getHitCount)
+                .tag("cache", "metadata").register(registry);
+        FunctionCounter.builder("bigquery.client.cache.misses", metadataCache, MetadataCache::getMissCount)
+                .tag("cache", "metadata").register(registry);
+        FunctionCounter.builder("bigquery.telemetry.jobs", telemetry, JobTelemetry::getRecordedCount).register(registry);
+        FunctionCounter.builder("bigquery.telemetry.regressions", telemetry, JobTelemetry::getRegressionCount).register(registry);
+
+        RequestGovernor governor = clientFactory.getGovernor();
+        if (governor != null) {
+            Gauge.builder("bigquery.governance.concurrency.limit", governor, RequestGovernor::getConcurrencyLimit).register(registry);
+            Gauge.builder("bigquery.governance.in.flight", governor, RequestGovernor::getInFlight).register(registry);
+            Gauge.builder("bigquery.governance.circuit.open", governor, g -> g.isCircuitOpen() ? 1 : 0).register(registry);
+            FunctionCounter.builder("bigquery.governance.throttled", governor, RequestGovernor::getThrottledCalls).register(registry);
+            FunctionCounter.builder("bigquery.governance.rejected", governor, RequestGovernor::getRejectedCalls).register(registry);
+        }
+    }
+
+    public Timer.Sample start() {
+        return Timer.start(registry);
+    }
+
+    public void stop(Timer.Sample sample, String operation) {
+        sample.stop(timers.computeIfAbsent(operation, name -> Timer.builder("bigquery.operation")
+                .tag("operation", name)
+                .publishPercentiles(PERCENTILES)
+                .publishPercentileHistogram()
+                .register(registry)));
+    }
+
+    public void error(String operation, Exception e) {
+        registry.counter("bigquery.operation.errors", "operation", operation, "reason", reasonOf(e)).increment();
+    }
+
+    public void recordLoad(long bytes, LoadStatistics stats) {
+        bytesUploaded.record(bytes);
+        if (stats != null && stats.getOutputRows() != null) {
+            rowsLoaded.record(stats.getOutputRows());
+        }
+    }
+
+    public void recordQuery(QueryStatistics stats) {
+        if (stats == null) {
+            return;
+        }
+        if (stats.getTotalBytesProcessed() != null) {
+            bytesProcessed.record(stats.getTotalBytesProcessed());
+        }
+        if (stats.getTotalBytesBilled() != null) {
+            bytesBilled.record(stats.getTotalBytesBilled());
+        }
+        if (stats.getTotalSlotMs() != null) {
+            slotMillis.record(stats.getTotalSlotMs());
+        }
+        registry.counter("bigquery.query.server.cache", "hit", String.valueOf(Boolean.TRUE.equals(stats.getCacheHit()))).increment();
+    }
+
+    public void recordGuardDecision(String decision) {
+        registry.counter("bigquery.query.guard", "decision", decision).increment();
+    }
+
+    private DistributionSummary summary(String name, String baseUnit) {
+        return DistributionSummary.builder(name)
+                .baseUnit(baseUnit)
+                .publishPercentiles(PERCENTILES)
+                .register(registry);
+    }
+
+    private static String reasonOf(Exception e) {
+        if (e instanceof BigQueryException) {
+            BigQueryException bigQueryException = (BigQueryException) e;
+            return bigQueryException.getReason() != null ? bigQueryException.getReason() : "code_" + bigQueryException.getCode();
+        }
+        return e.getClass().getSimpleName();
+    }
+}
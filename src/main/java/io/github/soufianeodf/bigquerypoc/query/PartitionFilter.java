@@ -0,0 +1,106 @@
+package io.github.soufianeodf.bigquerypoc.query;
+
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.QueryParameterValue;
+import com.google.cloud.bigquery.RangePartitioning;
+import com.google.cloud.bigquery.StandardTableDefinition;
+import com.google.cloud.bigquery.Table;
+import com.google.cloud.bigquery.TableDefinition;
+import com.google.cloud.bigquery.TimePartitioning;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A predicate on the partitioning column of a table, written from its metadata, that restricts a query to the
+ * partitions of a half-open range [from, to). The bounds are parameters compared against constants only,
+ * so BigQuery prunes the other partitions before the query runs.
+ */
+public class PartitionFilter {
+
+    public static final String FROM_PARAMETER = "partition_from";
+    public static final String TO_PARAMETER = "partition_to";
+
+    private final String predicate;
+    private final Map<String, QueryParameterValue> parameters;
+
+    private PartitionFilter(String predicate, QueryParameterValue from, QueryParameterValue to) {
+        this.predicate = predicate;
+        Map<String, QueryParameterValue> bounds = new HashMap<>();
+        bounds.put(FROM_PARAMETER, from);
+        bounds.put(TO_PARAMETER, to);
+        this.parameters = Collections.unmodifiableMap(bounds);
+    }
+
+    /**
+     * For time partitioned tables, on the partitioning column or {@code _PARTITIONTIME}.
+     */
+    public static PartitionFilter between(Table table, LocalDate from, LocalDate to) {
+        TimePartitioning timePartitioning = definitionOf(table).getTimePartitioning();
+        if (timePartitioning == null) {
+            throw new IllegalArgumentException("Table " + table.getTableId().getTable() + " is not partitioned by time");
+        }
+
+        String column = "_PARTITIONTIME";
+        String type = "TIMESTAMP";
+        if (timePartitioning.getField() != null) {
+            column = "`" + timePartitioning.getField() + "`";
+            type = typeOf(table, timePartitioning.getField());
+        }
+        String predicate = column + " >= CAST(@" + FROM_PARAMETER + " AS " + type + ")"
+                + " AND " + column + " < CAST(@" + TO_PARAMETER + " AS " + type + ")";
+        return new PartitionFilter(predicate, QueryParameterValue.date(from.toString()), QueryParameterValue.date(to.toString()));
+    }
+
+    /**
+     * For integer range partitioned tables.
+     */
+    public static PartitionFilter between(Table table, long from, long to) {
+        RangePartitioning rangePartitioning = definitionOf(table).getRangePartitioning();
+        if (rangePartitioning == null) {
+            throw new IllegalArgumentException("Table " + table.getTableId().getTable() + " is not partitioned by range");
+        }
+
+        String column = "`" + rangePartitioning.getField() + "`";
+        String predicate = column + " >= @" + FROM_PARAMETER + " AND " + column + " < @" + TO_PARAMETER;
+        return new PartitionFilter(predicate, QueryParameterValue.int64(from), QueryParameterValue.int64(to));
+    }
+
+    /**
+     * {@code SELECT <selectList> FROM <table> WHERE <partition predicate>}, with the bounds counted in the cost
+     * estimate shape since they decide how many partitions are read.
+     */
+    public PreparedQuery select(Table table, String selectList) {
+        String sql = "SELECT " + selectList
+                + " FROM `" + table.getTableId().getProject() + "." + table.getTableId().getDataset() + "." + table.getTableId().getTable() + "`"
+                + " WHERE " + predicate;
+        return new PreparedQuery(sql, null, getParameters().keySet());
+    }
+
+    public String getPredicate() {
+        return predicate;
+    }
+
+    public Map<String, QueryParameterValue> getParameters() {
+        return parameters;
+    }
+
+    private static StandardTableDefinition definitionOf(Table table) {
+        TableDefinition definition = table.getDefinition();
+        if (!(definition instanceof StandardTableDefinition)) {
+            throw new IllegalArgumentException(table.getTableId().getTable() + " is a " + definition.getType() + ", not a table");
+        }
+        return (StandardTableDefinition) definition;
+    }
+
+    private static String typeOf(Table table, String fieldName) {
+        for (Field field : definitionOf(table).getSchema().getFields()) {
+            if (field.getName().equalsIgnoreCase(fieldName)) {
+                return field.getType().getStandardType().name();
+            }
+        }
+        throw new IllegalArgumentException("Partitioning column " + fieldName + " is not in the schema of " + table.getTableId().getTable());
+    }
+}
@@ -0,0 +1,69 @@
+package io.github.soufianeodf.bigquerypoc.query;
+
+import com.google.cloud.bigquery.DatasetId;
+import com.google.cloud.bigquery.QueryJobConfiguration;
+import com.google.cloud.bigquery.QueryParameterValue;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A standard SQL statement whose values are bound as named parameters ({@code @name}) instead of being
+ * concatenated into the text. Table names can't be parameters, unqualified ones resolve against the default dataset.
+ */
+public class PreparedQuery {
+
+    private final String sql;
+    private final DatasetId defaultDataset;
+    private final Set<String> costParameters;
+
+    public PreparedQuery(String sql, DatasetId defaultDataset) {
+        this(sql, defaultDataset, Collections.<String>emptySet());
+    }
+
+    /**
+     * @param costParameters parameters whose values change the bytes scanned, like partition bounds,
+     *                       their values are part of the shape
+     */
+    public PreparedQuery(String sql, DatasetId defaultDataset, Set<String> costParameters) {
+        this.sql = sql;
+        this.defaultDataset = defaultDataset;
+        this.costParameters = costParameters;
+    }
+
+    public QueryJobConfiguration bind(Map<String, QueryParameterValue> parameters) {
+        QueryJobConfiguration.Builder queryConfig = QueryJobConfiguration.newBuilder(sql)
+                .setUseLegacySql(false)
+                .setNamedParameters(parameters);
+        if (defaultDataset != null) {
+            queryConfig.setDefaultDataset(defaultDataset);
+        }
+        return queryConfig.build();
+    }
+
+    /**
+     * The statement and the names and types of its parameters, without their values except for the cost
+     * parameters: executions of the same shape are expected to scan about the same bytes.
+     */
+    public String getShape(Map<String, QueryParameterValue> parameters) {
+        StringBuilder shape = new StringBuilder(sql.trim().replaceAll("\\s+", " "));
+        if (defaultDataset != null) {
+            shape.append('\u0000').append(defaultDataset.getProject()).append(':').append(defaultDataset.getDataset());
+        }
+        if (parameters != null) {
+            for (Map.Entry<String, QueryParameterValue> parameter : new TreeMap<>(parameters).entrySet()) {
+                shape.append('\u0000').append(parameter.getKey()).append(':').append(parameter.getValue().getType());
+                if (costParameters.contains(parameter.getKey())) {
+                    shape.append('=').append(parameter.getValue().getValue());
+                }
+            }
+        }
+        return shape.toString();
+    }
+
+    public String getSql() {
+        return sql;
+    }
+}
@@ -0,0 +1,91 @@
+package io.github.soufianeodf.bigquerypoc.query;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobInfo;
+import com.google.cloud.bigquery.JobStatistics.QueryStatistics;
+import com.google.cloud.bigquery.QueryJobConfiguration;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Estimates what a query would scan with a dry run, which is free, and decides whether it may run on the
+ * interactive path. Estimates are cached per {@link PreparedQuery#getShape statement shape} for the TTL.
+ */
+@Slf4j
+public class QueryCostGuard {
+
+    public enum Decision {
+        RUN, REROUTE, REJECT
+    }
+
+    private final long rerouteAboveBytes;
+    private final long rejectAboveBytes;
+    private final long estimateTtlMillis;
+    private final int maxEntries;
+    private final AtomicLong dryRuns = new AtomicLong();
+    private final LinkedHashMap<String, Estimate> estimates;
+
+    public QueryCostGuard(long rerouteAboveBytes, long rejectAboveBytes, long estimateTtlMillis, int maxEntries) {
+        this.rerouteAboveBytes = rerouteAboveBytes;
+        this.rejectAboveBytes = rejectAboveBytes;
+        this.estimateTtlMillis = estimateTtlMillis;
+        this.maxEntries = maxEntries;
+        this.estimates = new LinkedHashMap<String, Estimate>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Estimate> eldest) {
+                return size() > QueryCostGuard.this.maxEntries;
+            }
+        };
+    }
+
+    public long estimate(BigQuery bigquery, String shape, QueryJobConfiguration queryConfig) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Estimate cached = estimates.get(shape);
+            if (cached != null && now - cached.estimatedAt < estimateTtlMillis) {
+                return cached.bytes;
+            }
+        }
+
+        // A concurrent miss on the same shape runs its own dry run, it costs nothing but a round trip
+        Job dryRun = bigquery.create(JobInfo.of(queryConfig.toBuilder().setDryRun(true).setUseQueryCache(false).build()));
+        dryRuns.incrementAndGet();
+        QueryStatistics stats = dryRun.getStatistics();
+        long bytes = stats.getTotalBytesProcessed() == null ? 0 : stats.getTotalBytesProcessed();
+        synchronized (this) {
+            estimates.put(shape, new Estimate(bytes, now));
+        }
+        return bytes;
+    }
+
+    public Decision check(long estimatedBytes) {
+        if (estimatedBytes > rejectAboveBytes) {
+            return Decision.REJECT;
+        } else if (estimatedBytes > rerouteAboveBytes) {
+            return Decision.REROUTE;
+        }
+        return Decision.RUN;
+    }
+
+    public long getRejectAboveBytes() {
+        return rejectAboveBytes;
+    }
+
+    public long getDryRunCount() {
+        return dryRuns.get();
+    }
+
+    private static final class Estimate {
+        private final long bytes;
+        private final long estimatedAt;
+
+        private Estimate(long bytes, long estimatedAt) {
+            this.bytes = bytes;
+            this.estimatedAt = estimatedAt;
+        }
+    }
+}
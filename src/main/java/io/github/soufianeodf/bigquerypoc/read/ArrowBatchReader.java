@@ -0,0 +1,201 @@
+package io.github.soufianeodf.bigquerypoc.read;
+
+import com.google.api.gax.rpc.ServerStream;
+import com.google.cloud.bigquery.storage.v1.BigQueryReadClient;
+import com.google.cloud.bigquery.storage.v1.ReadRowsRequest;
+import com.google.cloud.bigquery.storage.v1.ReadRowsResponse;
+import com.google.cloud.bigquery.storage.v1.ReadSession;
+import com.google.cloud.bigquery.storage.v1.ReadStream;
+import com.google.protobuf.ByteString;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.VectorLoader;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ReadChannel;
+import org.apache.arrow.vector.ipc.message.ArrowRecordBatch;
+import org.apache.arrow.vector.ipc.message.MessageSerializer;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.apache.arrow.vector.util.ByteArrayReadableSeekableByteChannel;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reads all the streams of a Storage Read API session in parallel and hands the decoded Arrow batches out
+ * as they arrive, so batches of different streams interleave and no row order is kept.
+ * A returned batch stays valid until the next call to {@link #next()}, at most {@code 2 * streams} decoded batches
+ * are buffered ahead of the consumer.
+ */
+@Slf4j
+public class ArrowBatchReader implements Iterator<ColumnarBatch>, AutoCloseable {
+
+    private static final ColumnarBatch END_OF_STREAM = new ColumnarBatch(null);
+
+    private final BufferAllocator allocator = new RootAllocator(Long.MAX_VALUE);
+    private final ExecutorService executor;
+    private final BlockingQueue<ColumnarBatch> batches;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final Set<ServerStream<ReadRowsResponse>> openStreams = ConcurrentHashMap.newKeySet();
+    private final Schema schema;
+    private final int streamCount;
+    private int finishedStreams;
+    private ColumnarBatch nextBatch;
+    private ColumnarBatch currentBatch;
+    private volatile boolean closed;
+
+    public ArrowBatchReader(BigQueryReadClient client, ReadSession session) throws IOException {
+        this.schema = MessageSerializer.deserializeSchema(channel(session.getArrowSchema().getSerializedSchema()));
+
+        List<ReadStream> streams = session.getStreamsList();
+        this.streamCount = streams.size();
+        this.batches = new ArrayBlockingQueue<>(Math.max(2, 2 * streamCount));
+        this.executor = Executors.newFixedThreadPool(Math.max(1, streamCount));
+        for (ReadStream stream : streams) {
+            executor.submit(() -> readStream(client, stream.getName()));
+        }
+    }
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (nextBatch == null && finishedStreams < streamCount) {
+            ColumnarBatch batch;
+            try {
+                batch = batches.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the next batch", e);
+            }
+            if (batch == END_OF_STREAM) {
+                finishedStreams++;
+            } else {
+                nextBatch = batch;
+            }
+        }
+
+        Throwable error = failure.get();
+        if (nextBatch == null && error != null) {
+            throw new IllegalStateException("Read session failed, reason: " + error.getMessage(), error);
+        }
+        return nextBatch != null;
+    }
+
+    @Override
+    public ColumnarBatch next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        closeCurrentBatch();
+        currentBatch = nextBatch;
+        nextBatch = null;
+        return currentBatch;
+    }
+
+    @Override
+    public void close() {
+        // A thread waiting for the next response isn't woken up by an interrupt, only by cancelling its stream
+        closed = true;
+        for (ServerStream<ReadRowsResponse> stream : openStreams) {
+            stream.cancel();
+        }
+        executor.shutdownNow();
+        boolean terminated = false;
+        try {
+            terminated = executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        closeCurrentBatch();
+        if (nextBatch != null) {
+            nextBatch.close();
+            nextBatch = null;
+        }
+        ColumnarBatch batch;
+        while ((batch = batches.poll()) != null) {
+            if (batch != END_OF_STREAM) {
+                batch.close();
+            }
+        }
+        // Closing the allocator while a stream still decodes into it throws, its memory is left to the stream instead
+        if (terminated) {
+            allocator.close();
+        } else {
+            log.info("Read streams still running after close, {} bytes of Arrow memory not released", allocator.getAllocatedMemory());
+        }
+    }
+
+    private void readStream(BigQueryReadClient client, String streamName) {
+        try {
+            long rows = 0;
+            ReadRowsRequest request = ReadRowsRequest.newBuilder().setReadStream(streamName).build();
+            ServerStream<ReadRowsResponse> responses = client.readRowsCallable().call(request);
+            openStreams.add(responses);
+            if (closed) {
+                responses.cancel();
+            }
+            for (ReadRowsResponse response : responses) {
+                if (!response.hasArrowRecordBatch()) {
+                    continue;
+                }
+                ColumnarBatch batch = decode(response.getArrowRecordBatch().getSerializedRecordBatch());
+                try {
+                    batches.put(batch);
+                } catch (InterruptedException e) {
+                    batch.close();
+                    responses.cancel();
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                rows += response.getRowCount();
+            }
+            log.info("Stream {} read {} rows", streamName, rows);
+        } catch (RuntimeException | IOException e) {
+            failure.compareAndSet(null, e);
+            log.info("Stream {} was not read, reason: {}", streamName, e.getMessage());
+        } finally {
+            try {
+                batches.put(END_OF_STREAM);
+            } catch (InterruptedException e) {
+                // The reader is being closed, nobody waits for the end marker anymore
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private ColumnarBatch decode(ByteString serializedRecordBatch) throws IOException {
+        VectorSchemaRoot root = VectorSchemaRoot.create(schema, allocator);
+        try (ArrowRecordBatch recordBatch = MessageSerializer.deserializeRecordBatch(channel(serializedRecordBatch), allocator)) {
+            new VectorLoader(root).load(recordBatch);
+        } catch (IOException | RuntimeException e) {
+            root.close();
+            throw e;
+        }
+        return new ColumnarBatch(root);
+    }
+
+    private void closeCurrentBatch() {
+        if (currentBatch != null) {
+            currentBatch.close();
+            currentBatch = null;
+        }
+    }
+
+    private static ReadChannel channel(ByteString bytes) {
+        return new ReadChannel(new ByteArrayReadableSeekableByteChannel(bytes.toByteArray()));
+    }
+}
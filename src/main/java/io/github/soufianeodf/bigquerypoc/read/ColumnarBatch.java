@@ -0,0 +1,84 @@
+package io.github.soufianeodf.bigquerypoc.read;
+
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.types.pojo.Field;
+
+import java.util.List;
+
+/**
+ * One Arrow record batch of a result, read column by column with primitive accessors.
+ * The off-heap buffers are released by {@link #close()}.
+ */
+public class ColumnarBatch implements AutoCloseable {
+
+    private final VectorSchemaRoot root;
+
+    public ColumnarBatch(VectorSchemaRoot root) {
+        this.root = root;
+    }
+
+    public int getRowCount() {
+        return root.getRowCount();
+    }
+
+    public int getColumnCount() {
+        return root.getFieldVectors().size();
+    }
+
+    public int getColumnIndex(String name) {
+        List<Field> fields = root.getSchema().getFields();
+        for (int i = 0; i < fields.size(); i++) {
+            if (fields.get(i).getName().equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Column " + name + " is not part of the result");
+    }
+
+    public FieldVector getVector(int column) {
+        return root.getVector(column);
+    }
+
+    public boolean isNull(int column, int row) {
+        return root.getVector(column).isNull(row);
+    }
+
+    /**
+     * Reads an INT64 column.
+     */
+    public long getLong(int column, int row) {
+        return ((BigIntVector) root.getVector(column)).get(row);
+    }
+
+    /**
+     * Reads a FLOAT64 column, INT64 columns are widened.
+     */
+    public double getDouble(int column, int row) {
+        FieldVector vector = root.getVector(column);
+        if (vector instanceof BigIntVector) {
+            return ((BigIntVector) vector).get(row);
+        }
+        return ((Float8Vector) vector).get(row);
+    }
+
+    public boolean getBoolean(int column, int row) {
+        return ((BitVector) root.getVector(column)).get(row) == 1;
+    }
+
+    /**
+     * Materializes any column as text, this allocates and is meant for the non numeric columns.
+     */
+    public String getString(int column, int row) {
+        Object value = root.getVector(column).getObject(row);
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public void close() {
+        root.close();
+    }
+}
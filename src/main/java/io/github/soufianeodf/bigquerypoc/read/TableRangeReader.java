@@ -0,0 +1,166 @@
+package io.github.soufianeodf.bigquerypoc.read;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQuery.TableDataListOption;
+import com.google.cloud.bigquery.FieldValueList;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.StandardTableDefinition;
+import com.google.cloud.bigquery.Table;
+import com.google.cloud.bigquery.TableDefinition;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.TableResult;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a table through {@code tabledata.list}, split in row ranges fetched concurrently by random access
+ * ({@code startIndex}) instead of following the page tokens one round trip at a time.
+ * <p>
+ * Ranges are fetched ahead of the consumer while the buffered pages fit in {@code maxBufferedBytes}, estimated
+ * from the table's stored bytes per row. Rows come out in table order, or in the order their page arrives when
+ * {@code ordered} is false. The row count is read from the table metadata, rows still in the streaming buffer
+ * are not part of the scan.
+ */
+public class TableRangeReader implements Iterator<FieldValueList>, AutoCloseable {
+
+    private static final long UNKNOWN_ROW_BYTES = 1024;
+
+    private final BigQuery bigquery;
+    private final TableId tableId;
+    private final Schema schema;
+    private final long totalRows;
+    private final int pageRows;
+    private final int maxPagesAhead;
+    private final boolean ordered;
+    private final ExecutorService executor;
+    private final CompletionService<List<FieldValueList>> arrivals;
+    private final Deque<Future<List<FieldValueList>>> pending = new ArrayDeque<>();
+    private long nextRangeStart;
+    private int pagesAhead;
+    private Iterator<FieldValueList> currentPage = Collections.emptyIterator();
+
+    public TableRangeReader(BigQuery bigquery, Table table, int pageRows, int parallelism, long maxBufferedBytes, boolean ordered) {
+        TableDefinition definition = table.getDefinition();
+        if (!(definition instanceof StandardTableDefinition)) {
+            throw new IllegalArgumentException("Only tables can be read by range, " + table.getTableId().getTable() + " is a " + definition.getType());
+        }
+        StandardTableDefinition standardDefinition = (StandardTableDefinition) definition;
+        Long numRows = standardDefinition.getNumRows();
+        Long numBytes = standardDefinition.getNumBytes();
+        long rowBytes = numRows != null && numRows > 0 && numBytes != null ? Math.max(1, numBytes / numRows) : UNKNOWN_ROW_BYTES;
+
+        this.bigquery = bigquery;
+        this.tableId = table.getTableId();
+        this.schema = standardDefinition.getSchema();
+        this.totalRows = numRows == null ? 0 : numRows;
+        this.pageRows = pageRows;
+        this.maxPagesAhead = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxBufferedBytes / (rowBytes * pageRows)));
+        this.ordered = ordered;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, parallelism));
+        this.arrivals = new ExecutorCompletionService<>(executor);
+        fetchAhead();
+    }
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    public long getTotalRows() {
+        return totalRows;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!currentPage.hasNext()) {
+            if (pagesAhead == 0) {
+                return false;
+            }
+            List<FieldValueList> page = takePage();
+            pagesAhead--;
+            fetchAhead();
+            currentPage = page.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public FieldValueList next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return currentPage.next();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pending.clear();
+    }
+
+    private void fetchAhead() {
+        while (pagesAhead < maxPagesAhead && nextRangeStart < totalRows) {
+            long start = nextRangeStart;
+            int count = (int) Math.min(pageRows, totalRows - start);
+            // In order mode the futures are waited on one by one, the completion queue is only drained out of order
+            Future<List<FieldValueList>> page = ordered
+                    ? executor.submit(() -> fetchRange(start, count))
+                    : arrivals.submit(() -> fetchRange(start, count));
+            if (ordered) {
+                pending.add(page);
+            }
+            nextRangeStart += count;
+            pagesAhead++;
+        }
+    }
+
+    private List<FieldValueList> takePage() {
+        try {
+            return ordered ? pending.poll().get() : arrivals.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the next page", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Page was not read, reason: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    // A response is capped in bytes, so a range can take more than one call
+    private List<FieldValueList> fetchRange(long start, int count) {
+        List<FieldValueList> rows = new ArrayList<>(count);
+        while (rows.size() < count) {
+            TableResult result = bigquery.listTableData(tableId, schema,
+                    TableDataListOption.startIndex(start + rows.size()),
+                    TableDataListOption.pageSize(count - rows.size()));
+            int fetched = rows.size();
+            for (FieldValueList row : result.getValues()) {
+                rows.add(row);
+            }
+            if (rows.size() == fetched) {
+                // The table shrank since its metadata was read
+                break;
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,114 @@
+package io.github.soufianeodf.bigquerypoc.service;
+
+import com.google.cloud.bigquery.*;
+import com.google.cloud.bigquery.JobStatistics.LoadStatistics;
+import io.github.soufianeodf.bigquerypoc.client.BigQueryClientFactory;
+import io.github.soufianeodf.bigquerypoc.job.JobScheduler;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non blocking counterpart of {@link BigQueryService}, {@link BigQueryTableService} and {@link BigQueryDataSetService}.
+ * Jobs go through the {@link JobScheduler}, metadata calls run on its I/O pool.
+ */
+@Slf4j
+@Service
+public class BigQueryAsyncService {
+
+    private final JobScheduler jobScheduler;
+    private final BigQueryDataSetService bigQueryDataSetService;
+    private final BigQueryTableService bigQueryTableService;
+    private final BigQueryClientFactory clientFactory;
+
+    @Autowired
+    public BigQueryAsyncService(JobScheduler jobScheduler, BigQueryDataSetService bigQueryDataSetService, BigQueryTableService bigQueryTableService, BigQueryClientFactory clientFactory) {
+        this.jobScheduler = jobScheduler;
+        this.bigQueryDataSetService = bigQueryDataSetService;
+        this.bigQueryTableService = bigQueryTableService;
+        this.clientFactory = clientFactory;
+    }
+
+    public CompletableFuture<TableResult> query(BigQuery bigquery, String query) {
+        QueryJobConfiguration queryConfig = QueryJobConfiguration.newBuilder(query).build();
+        JobId jobId = JobId.of("jobId_" + UUID.randomUUID());
+
+        return jobScheduler.submit(bigquery, JobInfo.newBuilder(queryConfig).setJobId(jobId).build())
+                .thenCompose(job -> jobScheduler.supplyAsync(() -> job.getQueryResults()));
+    }
+
+    public CompletableFuture<LoadStatistics> loadLocalFile(BigQuery bigquery,
+                                                           String datasetName,
+                                                           String tableName,
+                                                           Path csvPath,
+                                                           FormatOptions formatOptions,
+                                                           boolean autodetectSchema,
+                                                           String location
+    ) {
+        TableId tableId = TableId.of(datasetName, tableName);
+
+        WriteChannelConfiguration writeChannelConfiguration = WriteChannelConfiguration.newBuilder(tableId)
+                                                                .setFormatOptions(formatOptions)
+                                                                .setAutodetect(autodetectSchema)
+                                                                .build();
+
+        String jobName = "jobId_" + UUID.randomUUID();
+        JobId jobId = JobId.newBuilder().setLocation(location).setJob(jobName).build();
+
+        // The upload runs on the I/O pool, only the polling of the load job is shared
+        return jobScheduler.schedule(bigquery, bigquery.getOptions().getProjectId(), () -> {
+                    // Closing the writer commits the upload, a failed copy leaves it uncommitted so no job starts
+                    TableDataWriteChannel writer = clientFactory.writer(bigquery, jobId, writeChannelConfiguration);
+                    Files.copy(csvPath, Channels.newOutputStream(writer));
+                    writer.close();
+                    return jobId;
+                })
+                .thenApply(job -> {
+                    LoadStatistics stats = job.getStatistics();
+                    log.info("Successfully loaded {} rows into table {}", stats.getOutputRows(), tableName);
+                    return stats;
+                });
+    }
+
+    public CompletableFuture<Boolean> datasetExists(BigQuery bigquery, String datasetName) {
+        return jobScheduler.supplyAsync(() -> bigQueryDataSetService.datasetExists(bigquery, datasetName));
+    }
+
+    public CompletableFuture<Void> createDataSet(BigQuery bigquery, String datasetName) {
+        return jobScheduler.supplyAsync(() -> {
+            bigQueryDataSetService.createDataSet(bigquery, datasetName);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> deleteDataset(BigQuery bigquery, String projectId, String datasetName) {
+        return jobScheduler.supplyAsync(() -> {
+            bigQueryDataSetService.deleteDataset(bigquery, projectId, datasetName);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Boolean> tableExists(BigQuery bigquery, String datasetName, String tableName) {
+        return jobScheduler.supplyAsync(() -> bigQueryTableService.tableExists(bigquery, datasetName, tableName));
+    }
+
+    public CompletableFuture<Void> createTable(BigQuery bigquery, String datasetName, String tableName, Schema schema) {
+        return jobScheduler.supplyAsync(() -> {
+            bigQueryTableService.createTable(bigquery, datasetName, tableName, schema);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> deleteTable(BigQuery bigquery, String datasetName, String tableName) {
+        return jobScheduler.supplyAsync(() -> {
+            bigQueryTableService.deleteTable(bigquery, datasetName, tableName);
+            return null;
+        });
+    }
+}
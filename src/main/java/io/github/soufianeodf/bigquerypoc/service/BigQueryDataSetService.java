@@ -4,10 +4,18 @@ import com.google.api.gax.paging.Page;
 import com.google.cloud.bigquery.*;
 import com.google.cloud.bigquery.BigQuery.DatasetDeleteOption;
 import com.google.cloud.bigquery.BigQuery.DatasetListOption;
+import io.github.soufianeodf.bigquerypoc.cache.MetadataCache;
+import io.github.soufianeodf.bigquerypoc.lifecycle.DesiredState;
+import io.github.soufianeodf.bigquerypoc.lifecycle.LifecycleExecutor;
+import io.github.soufianeodf.bigquerypoc.lifecycle.LifecycleOperation;
+import io.github.soufianeodf.bigquerypoc.metrics.BigQueryMetrics;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import static com.google.cloud.bigquery.BigQuery.TableListOption.*;
@@ -16,60 +24,96 @@ import static com.google.cloud.bigquery.BigQuery.TableListOption.*;
 @Service
 public class BigQueryDataSetService {
 
+    private final MetadataCache metadataCache;
+    private final BigQueryMetrics metrics;
+    private final LifecycleExecutor lifecycleExecutor;
+
+    @Autowired
+    public BigQueryDataSetService(MetadataCache metadataCache, BigQueryMetrics metrics, LifecycleExecutor lifecycleExecutor) {
+        this.metadataCache = metadataCache;
+        this.metrics = metrics;
+        this.lifecycleExecutor = lifecycleExecutor;
+    }
+
     public void createDataSet(BigQuery bigquery, String datasetName) {
+        Timer.Sample sample = metrics.start();
         try {
             DatasetInfo datasetInfo = DatasetInfo.newBuilder(datasetName).build();
 
             Dataset newDataset = bigquery.create(datasetInfo);
+            metadataCache.put(bigquery, newDataset);
             String newDatasetName = newDataset.getDatasetId().getDataset();
             log.info("Dataset {} created successfully", newDatasetName);
         } catch (BigQueryException e) {
+            metrics.error("createDataSet", e);
             log.info("Dataset was not created, reason: {}", e.getMessage());
+        } finally {
+            metrics.stop(sample, "createDataSet");
         }
     }
 
     public void deleteDataset(BigQuery bigquery, String projectId, String datasetName) {
+        Timer.Sample sample = metrics.start();
         try {
             DatasetId datasetId = DatasetId.of(projectId, datasetName);
             boolean success = bigquery.delete(datasetId, DatasetDeleteOption.deleteContents());
+            metadataCache.invalidate(bigquery, datasetId);
             if (success) {
                 log.info("Dataset {} deleted successfully", datasetName);
             } else {
                 log.info("Dataset {} was not found", datasetName);
             }
         } catch (BigQueryException e) {
+            metrics.error("deleteDataset", e);
             log.info("Dataset {} was not deleted, reason: {}", datasetName, e.getMessage());
+        } finally {
+            metrics.stop(sample, "deleteDataset");
         }
     }
 
     public void deleteDatasetAndContents(BigQuery bigquery, String projectId, String datasetName) {
+        Timer.Sample sample = metrics.start();
         try {
             DatasetId datasetId = DatasetId.of(projectId, datasetName);
             // Use the force parameter to delete a dataset and its contents
             boolean success = bigquery.delete(datasetId, BigQuery.DatasetDeleteOption.deleteContents());
+            metadataCache.invalidate(bigquery, datasetId);
             if (success) {
                 log.info("Dataset {} deleted with contents successfully", datasetName);
             } else {
                 log.info("Dataset {} was not found", datasetName);
             }
         } catch (BigQueryException e) {
+            metrics.error("deleteDatasetAndContents", e);
             log.info("Dataset {} was not deleted with contents, reason: {}", datasetName, e.getMessage());
+        } finally {
+            metrics.stop(sample, "deleteDatasetAndContents");
         }
     }
 
     public void deleteLabelDataset(BigQuery bigquery, String datasetName, Map<String, String> labels) {
+        Timer.Sample sample = metrics.start();
         try {
-            Dataset dataset = bigquery.getDataset(datasetName);
-            dataset.toBuilder().setLabels(labels).build().update();
+            // The whole dataset is written back, it is read fresh rather than from the cache
+            Dataset dataset = bigquery.getDataset(DatasetId.of(datasetName));
+            if (dataset == null) {
+                log.info("Dataset {} label was not deleted, it was not found", datasetName);
+                return;
+            }
+            metadataCache.put(bigquery, dataset.toBuilder().setLabels(labels).build().update());
             log.info("Dataset {} label deleted successfully", datasetName);
         } catch (BigQueryException e) {
+            metrics.error("deleteLabelDataset", e);
             log.info("Dataset {} label was not deleted, reason: {}", datasetName, e.getMessage());
+        } finally {
+            metrics.stop(sample, "deleteLabelDataset");
         }
     }
 
     public boolean datasetExists(BigQuery bigquery, String datasetName) {
+        Timer.Sample sample = metrics.start();
         try {
-            Dataset dataset = bigquery.getDataset(DatasetId.of(datasetName));
+            Dataset dataset = metadataCache.getDataset(bigquery, DatasetId.of(datasetName));
 
             if (dataset != null) {
                 log.info("Dataset {} already exists", datasetName);
@@ -79,27 +123,35 @@ public class BigQueryDataSetService {
                 return false;
             }
         } catch (BigQueryException e) {
+            metrics.error("datasetExists", e);
             log.info("Something went wrong, reason: {}", e.getMessage());
             return false;
+        } finally {
+            metrics.stop(sample, "datasetExists");
         }
     }
 
     public void getDatasetLabels(BigQuery bigquery, String datasetName) {
+        Timer.Sample sample = metrics.start();
         try {
-            Dataset dataset = bigquery.getDataset(datasetName);
+            Dataset dataset = metadataCache.getDataset(bigquery, DatasetId.of(datasetName));
 
             dataset.getLabels()
                     .forEach((key, value) -> System.out.println("Retrieved labels successfully"));
 
         } catch (BigQueryException e) {
-            log.info("Label was not found, reason: {}" + e.getMessage());
+            metrics.error("getDatasetLabels", e);
+            log.info("Label was not found, reason: {}", e.getMessage());
+        } finally {
+            metrics.stop(sample, "getDatasetLabels");
         }
     }
 
     public void getDatasetInfo(BigQuery bigquery, String projectId, String datasetName, int pageSize) {
+        Timer.Sample sample = metrics.start();
         try {
             DatasetId datasetId = DatasetId.of(projectId, datasetName);
-            Dataset dataset = bigquery.getDataset(datasetId);
+            Dataset dataset = metadataCache.getDataset(bigquery, datasetId);
 
             // View dataset properties
             String description = dataset.getDescription();
@@ -114,11 +166,15 @@ public class BigQueryDataSetService {
 
             log.info("Dataset info retrieved successfully for dataset: {}", datasetName);
         } catch (BigQueryException e) {
+            metrics.error("getDatasetInfo", e);
             log.info("Dataset info not retrieved for dataset: {}", e.getMessage());
+        } finally {
+            metrics.stop(sample, "getDatasetInfo");
         }
     }
 
     public void listDatasets(BigQuery bigquery, String projectId, int pageSize) {
+        Timer.Sample sample = metrics.start();
         try {
             Page<Dataset> datasets = bigquery.listDatasets(projectId, DatasetListOption.pageSize(pageSize));
 
@@ -131,22 +187,53 @@ public class BigQueryDataSetService {
                     .forEach(dataset -> System.out.printf("Success! Dataset ID: %s ", dataset.getDatasetId()));
 
         } catch (BigQueryException e) {
+            metrics.error("listDatasets", e);
             log.info("Project does not contain any datasets");
+        } finally {
+            metrics.stop(sample, "listDatasets");
         }
     }
 
     public void updateDatasetAccess(BigQuery bigquery, String datasetName, Acl newEntry) {
+        Timer.Sample sample = metrics.start();
         try {
-            Dataset dataset = bigquery.getDataset(datasetName);
+            // Read fresh, a cached copy written back would revert ACL entries added since it was cached
+            Dataset dataset = bigquery.getDataset(DatasetId.of(datasetName));
+            if (dataset == null) {
+                log.info("Dataset Access control was not updated, dataset {} was not found", datasetName);
+                return;
+            }
 
             // Get a copy of the ACLs list from the dataset and append the new entry
             ArrayList<Acl> acls = new ArrayList<>(dataset.getAcl());
             acls.add(newEntry);
 
-            bigquery.update(dataset.toBuilder().setAcl(acls).build());
+            metadataCache.put(bigquery, bigquery.update(dataset.toBuilder().setAcl(acls).build()));
             log.info("Dataset Access Control updated successfully for dataset: {}", datasetName);
         } catch (BigQueryException e) {
+            metrics.error("updateDatasetAccess", e);
             log.info("Dataset Access control was not updated for dataset: {}", datasetName);
+        } finally {
+            metrics.stop(sample, "updateDatasetAccess");
+        }
+    }
+
+    /**
+     * Brings the datasets of {@code state} to their desired state with the fewest calls, applied concurrently.
+     * Returns true when every operation succeeded.
+     */
+    public boolean applyDatasets(BigQuery bigquery, DesiredState state) throws InterruptedException {
+        Timer.Sample sample = metrics.start();
+        try {
+            List<LifecycleOperation> plan = lifecycleExecutor.planDatasets(bigquery, state);
+            log.info("Dataset plan: {}", plan.isEmpty() ? "nothing to do" : plan);
+            return lifecycleExecutor.apply(bigquery, plan) == 0;
+        } catch (BigQueryException e) {
+            metrics.error("applyDatasets", e);
+            log.info("Datasets were not applied, reason: {}", e.getMessage());
+            return false;
+        } finally {
+            metrics.stop(sample, "applyDatasets");
         }
     }
 }
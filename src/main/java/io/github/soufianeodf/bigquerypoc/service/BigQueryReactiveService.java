@@ -0,0 +1,105 @@
+package io.github.soufianeodf.bigquerypoc.service;
+
+import com.google.api.gax.paging.Page;
+import com.google.cloud.bigquery.*;
+import com.google.cloud.bigquery.BigQuery.QueryResultsOption;
+import com.google.cloud.bigquery.BigQuery.TableDataListOption;
+import com.google.cloud.bigquery.JobStatistics.LoadStatistics;
+import io.github.soufianeodf.bigquerypoc.job.JobScheduler;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reactor variants of {@code query}, {@code browseTable} and {@code loadLocalFile}. Nothing runs before subscription,
+ * waiting for jobs doesn't hold a thread and rows are streamed with backpressure: a result page is only fetched
+ * once the subscriber asked for more rows than the pages already fetched hold, at most one page ahead.
+ * Blocking calls run on the I/O pool of the {@link JobScheduler}, virtual threads when it is configured so.
+ */
+@Slf4j
+@Service
+public class BigQueryReactiveService {
+
+    private final JobScheduler jobScheduler;
+    private final BigQueryAsyncService bigQueryAsyncService;
+    private final Scheduler ioScheduler;
+
+    @Autowired
+    public BigQueryReactiveService(JobScheduler jobScheduler, BigQueryAsyncService bigQueryAsyncService) {
+        this.jobScheduler = jobScheduler;
+        this.bigQueryAsyncService = bigQueryAsyncService;
+        this.ioScheduler = Schedulers.fromExecutor(jobScheduler.getIoExecutor());
+    }
+
+    public Flux<FieldValueList> query(BigQuery bigquery, String query, long pageSize) {
+        QueryJobConfiguration queryConfig = QueryJobConfiguration.newBuilder(query).build();
+
+        return fromFuture(() -> jobScheduler.submit(bigquery, JobInfo.newBuilder(queryConfig).setJobId(JobId.of("jobId_" + UUID.randomUUID())).build()))
+                .flatMapMany(job -> rows(() -> job.getQueryResults(QueryResultsOption.pageSize(pageSize))));
+    }
+
+    public Flux<FieldValueList> browseTable(BigQuery bigquery, String dataset, String table, long pageSize) {
+        TableId tableId = TableId.of(dataset, table);
+        return rows(() -> bigquery.listTableData(tableId, TableDataListOption.pageSize(pageSize)));
+    }
+
+    public Mono<LoadStatistics> loadLocalFile(BigQuery bigquery,
+                                              String datasetName,
+                                              String tableName,
+                                              Path csvPath,
+                                              FormatOptions formatOptions,
+                                              boolean autodetectSchema,
+                                              String location
+    ) {
+        return fromFuture(() -> bigQueryAsyncService.loadLocalFile(bigquery, datasetName, tableName, csvPath, formatOptions, autodetectSchema, location));
+    }
+
+    /**
+     * Starts the operation on subscription, cancelling the subscription cancels it, and the BigQuery job with it.
+     */
+    private static <T> Mono<T> fromFuture(Callable<CompletableFuture<T>> start) {
+        return Mono.defer(() -> {
+            CompletableFuture<T> future;
+            try {
+                future = start.call();
+            } catch (Exception e) {
+                return Mono.error(e);
+            }
+            return Mono.fromFuture(future).doOnCancel(() -> future.cancel(true));
+        });
+    }
+
+    private Flux<FieldValueList> rows(Callable<? extends Page<FieldValueList>> firstPage) {
+        // Pages are generated on demand only, from the I/O pool since fetching them blocks
+        Flux<Page<FieldValueList>> pages = Flux.<Page<FieldValueList>, AtomicReference<Page<FieldValueList>>>generate(
+                AtomicReference::new,
+                (current, sink) -> {
+                    try {
+                        Page<FieldValueList> page = current.get();
+                        Page<FieldValueList> next = page == null ? firstPage.call() : page.getNextPage();
+                        if (next == null) {
+                            sink.complete();
+                        } else {
+                            current.set(next);
+                            sink.next(next);
+                        }
+                    } catch (Exception e) {
+                        sink.error(e);
+                    }
+                    return current;
+                });
+        return pages
+                .subscribeOn(ioScheduler)
+                .concatMapIterable(Page::getValues, 1);
+    }
+}
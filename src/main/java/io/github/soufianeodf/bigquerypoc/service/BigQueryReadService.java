@@ -0,0 +1,81 @@
+package io.github.soufianeodf.bigquerypoc.service;
+
+import com.google.cloud.bigquery.*;
+import com.google.cloud.bigquery.storage.v1.BigQueryReadClient;
+import com.google.cloud.bigquery.storage.v1.CreateReadSessionRequest;
+import com.google.cloud.bigquery.storage.v1.DataFormat;
+import com.google.cloud.bigquery.storage.v1.ReadSession;
+import io.github.soufianeodf.bigquerypoc.read.ArrowBatchReader;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Reads query results and tables over parallel Storage Read API streams in Arrow format,
+ * instead of paging through {@link TableResult#iterateAll()} one boxed {@link FieldValue} at a time.
+ */
+@Slf4j
+@Service
+public class BigQueryReadService {
+
+    /**
+     * Runs the query and opens a columnar reader over its destination table, or returns null if the query failed.
+     * The caller closes the reader.
+     */
+    public ArrowBatchReader readQuery(BigQuery bigquery, BigQueryReadClient client, String query, int maxStreams)
+            throws InterruptedException, IOException {
+        try {
+            QueryJobConfiguration queryConfig = QueryJobConfiguration.newBuilder(query).build();
+            Job completedJob = bigquery.create(JobInfo.of(queryConfig)).waitFor();
+            if (completedJob == null) {
+                log.info("Query job not executed since it no longer exists");
+                return null;
+            } else if (completedJob.getStatus().getError() != null) {
+                log.info("Query not performed, reason: {}", completedJob.getStatus().getError());
+                return null;
+            }
+
+            QueryJobConfiguration completedConfig = completedJob.getConfiguration();
+            TableId destination = completedConfig.getDestinationTable();
+            return readTable(client, destination.getProject(), destination.getDataset(), destination.getTable(), null, maxStreams);
+        } catch (BigQueryException e) {
+            log.info("Query not performed, reason: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Opens a columnar reader over the table, restricted to the selected fields when some are given.
+     * The caller closes the reader.
+     */
+    public ArrowBatchReader readTable(BigQueryReadClient client,
+                                      String projectId,
+                                      String datasetName,
+                                      String tableName,
+                                      List<String> selectedFields,
+                                      int maxStreams
+    )
+            throws IOException {
+        ReadSession.TableReadOptions.Builder readOptions = ReadSession.TableReadOptions.newBuilder();
+        if (selectedFields != null) {
+            readOptions.addAllSelectedFields(selectedFields);
+        }
+
+        ReadSession sessionConfig = ReadSession.newBuilder()
+                .setTable(String.format("projects/%s/datasets/%s/tables/%s", projectId, datasetName, tableName))
+                .setDataFormat(DataFormat.ARROW)
+                .setReadOptions(readOptions)
+                .build();
+
+        ReadSession session = client.createReadSession(CreateReadSessionRequest.newBuilder()
+                .setParent("projects/" + projectId)
+                .setReadSession(sessionConfig)
+                .setMaxStreamCount(maxStreams)
+                .build());
+        log.info("Read session opened on table {} with {} streams", tableName, session.getStreamsCount());
+
+        return new ArrowBatchReader(client, session);
+    }
+}
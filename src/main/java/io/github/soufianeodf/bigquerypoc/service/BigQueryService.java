@@ -1,28 +1,61 @@
 package io.github.soufianeodf.bigquerypoc.service;
 
 import com.google.cloud.bigquery.*;
+import io.github.soufianeodf.bigquerypoc.cache.CachedQueryResult;
+import io.github.soufianeodf.bigquerypoc.cache.MetadataCache;
+import io.github.soufianeodf.bigquerypoc.cache.QueryResultCache;
+import io.github.soufianeodf.bigquerypoc.export.ExportFormat;
+import io.github.soufianeodf.bigquerypoc.lifecycle.DesiredState;
+import io.github.soufianeodf.bigquerypoc.metrics.BigQueryMetrics;
+import io.github.soufianeodf.bigquerypoc.query.PartitionFilter;
+import io.github.soufianeodf.bigquerypoc.query.PreparedQuery;
+import io.github.soufianeodf.bigquerypoc.query.QueryCostGuard;
+import io.github.soufianeodf.bigquerypoc.telemetry.JobTelemetry;
+import io.micrometer.core.instrument.Timer;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
 
 @Slf4j
 @Service
 public class BigQueryService {
 
     private final BigQuery bigQuery;
+    private final BigQuery bulkBigQuery;
     private final BigQueryDataSetService bigQueryDataSetService;
     private final BigQueryTableService bigQueryTableService;
+    private final QueryResultCache queryResultCache;
+    private final BigQueryMetrics metrics;
+    private final QueryCostGuard queryCostGuard;
+    private final MetadataCache metadataCache;
+    private final JobTelemetry telemetry;
 
     @Autowired
-    public BigQueryService(@Qualifier("bigQueryBuilder") BigQuery bigQuery, BigQueryDataSetService bigQueryDataSetService, BigQueryTableService bigQueryTableService) {
+    public BigQueryService(@Qualifier("bigQueryBuilder") BigQuery bigQuery, @Qualifier("bulkBigQuery") BigQuery bulkBigQuery, BigQueryDataSetService bigQueryDataSetService, BigQueryTableService bigQueryTableService, QueryResultCache queryResultCache, BigQueryMetrics metrics, QueryCostGuard queryCostGuard, MetadataCache metadataCache, JobTelemetry telemetry) {
         this.bigQuery = bigQuery;
+        this.bulkBigQuery = bulkBigQuery;
         this.bigQueryDataSetService = bigQueryDataSetService;
         this.bigQueryTableService = bigQueryTableService;
+        this.queryResultCache = queryResultCache;
+        this.metrics = metrics;
+        this.queryCostGuard = queryCostGuard;
+        this.metadataCache = metadataCache;
+        this.telemetry = telemetry;
     }
 
     @SneakyThrows
@@ -31,26 +64,22 @@ public class BigQueryService {
         String datasetName = "dataset_test";
         String tableName = "annual_enterprise_survey";
 
-        String query =
-                "SELECT *"
-                        + " FROM `"
-                        + projectId
-                        + "."
-                        + datasetName
-                        + "."
-                        + tableName
-                        + "`"
-                        + " LIMIT 20";
+        // Identifiers can't be parameters, the table resolves against the default dataset and the values are bound
+        PreparedQuery query = new PreparedQuery(
+                "SELECT * FROM " + tableName + " LIMIT @row_limit",
+                DatasetId.of(projectId, datasetName));
+        Map<String, QueryParameterValue> parameters = Collections.singletonMap("row_limit", QueryParameterValue.int64(20));
 
-//        query(query);
+//        preparedQuery(query, parameters);
 
         String temporary_dataset = "temporary_dataset";
 
-        if(bigQueryDataSetService.datasetExists(bigQuery, temporary_dataset)) {
-            bigQueryDataSetService.deleteDataset(bigQuery, projectId, temporary_dataset);
-        }
+        String temporary_table = "temporary_table";
 
-        bigQueryDataSetService.createDataSet(bigQuery, temporary_dataset);
+        // Only the calls needed to get the dataset in place are made
+        DesiredState staging = new DesiredState()
+                .dataset(DatasetInfo.newBuilder(temporary_dataset).build());
+        bigQueryDataSetService.applyDatasets(bigQuery, staging);
 //        bigQueryDataSet.deleteDataset(bigQuery, projectId, "temporary_dataset");
 
 //        Schema schema = Schema.of(
@@ -58,38 +87,191 @@ public class BigQueryService {
 //                        Field.of("booleanField", StandardSQLTypeName.BOOL)
 //        );
 
-        String temporary_table = "temporary_table";
-
-        if(bigQueryTableService.tableExists(bigQuery, temporary_dataset, temporary_table)) {
-            bigQueryTableService.deleteTable(bigQuery, temporary_dataset, temporary_table);
-        }
 //        bigQueryTableService.createTable(bigQuery, temporary_dataset, temporary_table, schema);
 
 //        Path jsonPath = FileSystems.getDefault().getPath(".", "my-data.csv");
-        Path jsonPath = Paths.get(ClassLoader.getSystemResource("datasets/electronic-card-transactions.csv").toURI());
-        bigQueryTableService.loadLocalFile(bigQuery,
+        Path jsonPath = resourcePath("datasets/electronic-card-transactions.csv");
+        // Only the rows appended to the file since the previous run are loaded, merged on the series and period.
+        // The upload goes through the bulk client so it doesn't hold the connections of interactive queries.
+        bigQueryTableService.loadLocalFileIncrementally(bulkBigQuery,
                 temporary_dataset,
                 temporary_table,
                 jsonPath,
-                FormatOptions.csv(),
+                CsvOptions.newBuilder().setSkipLeadingRows(1).build(),
                 true,
-                "us");
+                "us",
+                Arrays.asList("Series_reference", "Period"));
     }
 
     @SneakyThrows
     public void query(String query) {
+        Timer.Sample sample = metrics.start();
         try {
 
             QueryJobConfiguration queryConfig = QueryJobConfiguration.newBuilder(query).build();
 
-            TableResult results = bigQuery.query(queryConfig);
+            // Run through a job rather than bigQuery.query so its statistics can be recorded
+            Job completedJob = bigQuery.create(JobInfo.of(queryConfig)).waitFor();
+            if (completedJob == null) {
+                log.info("Query job not executed since it no longer exists");
+                return;
+            }
+            telemetry.record(completedJob);
+            if (completedJob.getStatus().getError() != null) {
+                metrics.error("query", new BigQueryException(BigQueryException.UNKNOWN_CODE, "Query failed", completedJob.getStatus().getError()));
+                log.info("Query not performed, reason: {}", completedJob.getStatus().getError());
+                return;
+            }
+            metrics.recordQuery(completedJob.getStatistics());
+
+            TableResult results = completedJob.getQueryResults();
 
             results.iterateAll()
                     .forEach(row -> row.forEach(val -> System.out.printf("%s\n", val.toString())));
 
             log.info("Query performed successfully.");
         } catch (BigQueryException | InterruptedException e) {
+            metrics.error("query", e);
             log.info("Query not performed, reason: {}", e.getMessage());
+        } finally {
+            metrics.stop(sample, "query");
+        }
+    }
+
+    public void cachedQuery(String query, Map<String, QueryParameterValue> namedParameters) {
+        Timer.Sample sample = metrics.start();
+        try {
+
+            QueryJobConfiguration queryConfig = QueryJobConfiguration.newBuilder(query)
+                    .setNamedParameters(namedParameters)
+                    .build();
+
+            CachedQueryResult results = queryResultCache.get(bigQuery, queryConfig);
+
+            results.getRows()
+                    .forEach(row -> row.forEach(val -> System.out.printf("%s\n", val.toString())));
+
+            log.info("Query performed successfully, cache hits: {}, misses: {}",
+                    queryResultCache.getHitCount(), queryResultCache.getMissCount());
+        } catch (BigQueryException | InterruptedException e) {
+            metrics.error("cachedQuery", e);
+            log.info("Query not performed, reason: {}", e.getMessage());
+        } finally {
+            metrics.stop(sample, "cachedQuery");
+        }
+    }
+
+    /**
+     * Runs a prepared query once its dry run estimate passed the {@link QueryCostGuard}: queries above the reroute
+     * budget run with batch priority on the bulk client, queries above the reject budget don't run at all.
+     */
+    public void preparedQuery(PreparedQuery preparedQuery, Map<String, QueryParameterValue> parameters) {
+        Timer.Sample sample = metrics.start();
+        try {
+            QueryJobConfiguration queryConfig = preparedQuery.bind(parameters);
+            long estimatedBytes = queryCostGuard.estimate(bigQuery, preparedQuery.getShape(parameters), queryConfig);
+            QueryCostGuard.Decision decision = queryCostGuard.check(estimatedBytes);
+            metrics.recordGuardDecision(decision.name());
+
+            BigQuery client = bigQuery;
+            if (decision == QueryCostGuard.Decision.REJECT) {
+                log.info("Query rejected, it would process {} bytes, above the {} bytes budget", estimatedBytes, queryCostGuard.getRejectAboveBytes());
+                return;
+            } else if (decision == QueryCostGuard.Decision.REROUTE) {
+                log.info("Query would process {} bytes, running it as a batch query on the bulk client", estimatedBytes);
+                queryConfig = queryConfig.toBuilder().setPriority(QueryJobConfiguration.Priority.BATCH).build();
+                client = bulkBigQuery;
+            }
+
+            // The estimate is per shape, other parameter values may scan more: the job itself is capped too
+            queryConfig = queryConfig.toBuilder().setMaximumBytesBilled(queryCostGuard.getRejectAboveBytes()).build();
+            Job completedJob = client.create(JobInfo.of(queryConfig)).waitFor();
+            if (completedJob == null) {
+                log.info("Query job not executed since it no longer exists");
+                return;
+            }
+            telemetry.record(completedJob, preparedQuery.getShape(parameters));
+            if (completedJob.getStatus().getError() != null) {
+                metrics.error("preparedQuery", new BigQueryException(BigQueryException.UNKNOWN_CODE, "Query failed", completedJob.getStatus().getError()));
+                log.info("Query not performed, reason: {}", completedJob.getStatus().getError());
+                return;
+            }
+            metrics.recordQuery(completedJob.getStatistics());
+
+            completedJob.getQueryResults().iterateAll()
+                    .forEach(row -> row.forEach(val -> System.out.printf("%s\n", val.toString())));
+
+            log.info("Query performed successfully, estimated {} bytes, {} dry runs so far", estimatedBytes, queryCostGuard.getDryRunCount());
+        } catch (BigQueryException | InterruptedException e) {
+            metrics.error("preparedQuery", e);
+            log.info("Query not performed, reason: {}", e.getMessage());
+        } finally {
+            metrics.stop(sample, "preparedQuery");
+        }
+    }
+
+    /**
+     * Selects the rows of the partitions covering [from, to) of a time partitioned table, the filter on the
+     * partitioning column is added from the table metadata so the other partitions are never read.
+     */
+    public void queryPartitions(String projectId, String datasetName, String tableName, String selectList, LocalDate from, LocalDate to) {
+        Table table = metadataCache.getTable(bigQuery, TableId.of(projectId, datasetName, tableName));
+        if (table == null) {
+            log.info("Query not performed, table {} not found", tableName);
+            return;
+        }
+        PartitionFilter filter = PartitionFilter.between(table, from, to);
+        preparedQuery(filter.select(table, selectList), filter.getParameters());
+    }
+
+    /**
+     * Exports the results of a query to part files of {@code directory} instead of printing them. The results are
+     * read from the anonymous table of the job: a query answered from the cache reuses the same table, so an
+     * interrupted export of the same query resumes where it stopped.
+     */
+    public void exportQuery(String query, Path directory, ExportFormat format, int parallelism) {
+        Timer.Sample sample = metrics.start();
+        try {
+            Job completedJob = bigQuery.create(JobInfo.of(QueryJobConfiguration.newBuilder(query).build())).waitFor();
+            if (completedJob == null) {
+                log.info("Query job not executed since it no longer exists");
+                return;
+            }
+            telemetry.record(completedJob);
+            if (completedJob.getStatus().getError() != null) {
+                metrics.error("exportQuery", new BigQueryException(BigQueryException.UNKNOWN_CODE, "Query failed", completedJob.getStatus().getError()));
+                log.info("Query not performed, reason: {}", completedJob.getStatus().getError());
+                return;
+            }
+            metrics.recordQuery(completedJob.getStatistics());
+
+            TableId results = completedJob.<QueryJobConfiguration>getConfiguration().getDestinationTable();
+            bigQueryTableService.exportTable(bigQuery, results.getDataset(), results.getTable(), directory, format, parallelism);
+        } catch (BigQueryException | InterruptedException | IOException e) {
+            metrics.error("exportQuery", e);
+            log.info("Query results not exported, reason: {}", e.getMessage());
+        } finally {
+            metrics.stop(sample, "exportQuery");
+        }
+    }
+
+    /**
+     * The resource as a file: in place when run from the classpath, copied to a temporary file when it is inside
+     * the packaged jar or a native image.
+     */
+    private static Path resourcePath(String resource) throws IOException, URISyntaxException {
+        URL url = BigQueryService.class.getClassLoader().getResource(resource);
+        if (url == null) {
+            throw new IOException("Resource " + resource + " not found");
+        }
+        if ("file".equals(url.getProtocol())) {
+            return Paths.get(url.toURI());
+        }
+        Path copy = Files.createTempFile("bigquery-poc-", "-" + Paths.get(resource).getFileName());
+        copy.toFile().deleteOnExit();
+        try (InputStream in = url.openStream()) {
+            Files.copy(in, copy, StandardCopyOption.REPLACE_EXISTING);
         }
+        return copy;
     }
 }
@@ -0,0 +1,244 @@
+package io.github.soufianeodf.bigquerypoc.service;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.storage.v1.BigQueryWriteClient;
+import com.google.cloud.bigquery.storage.v1.TableName;
+import io.github.soufianeodf.bigquerypoc.streaming.InflightBytesLimiter;
+import io.github.soufianeodf.bigquerypoc.streaming.InsertAllStreamAppender;
+import io.github.soufianeodf.bigquerypoc.streaming.StreamAppender;
+import io.github.soufianeodf.bigquerypoc.streaming.WriteApiStreamAppender;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Low latency ingestion next to the load job path of {@link BigQueryTableService}.
+ * Rows are spread in batches over several streams, each batch is appended at an explicit offset and the producer
+ * blocks once too many bytes are waiting for an acknowledgement.
+ */
+@Slf4j
+@Service
+public class BigQueryStreamingService {
+
+    private static final int MAX_APPEND_ATTEMPTS = 3;
+
+    public long appendRows(BigQueryWriteClient client,
+                           String projectId,
+                           String datasetName,
+                           String tableName,
+                           Iterator<Map<String, Object>> rows,
+                           int streamCount,
+                           int batchSize,
+                           long maxInflightBytes
+    )
+            throws InterruptedException {
+        List<StreamAppender> appenders = new ArrayList<>();
+        try {
+            TableName table = TableName.of(projectId, datasetName, tableName);
+            for (int i = 0; i < streamCount; i++) {
+                appenders.add(new WriteApiStreamAppender(client, table));
+            }
+            return appendRows(appenders, rows, batchSize, maxInflightBytes);
+        } catch (IOException | RuntimeException e) {
+            log.info("Rows were not appended to table {}, reason: {}", tableName, e.getMessage());
+            return 0;
+        } finally {
+            appenders.forEach(StreamAppender::close);
+        }
+    }
+
+    public long insertRows(BigQuery bigquery,
+                           String datasetName,
+                           String tableName,
+                           Iterator<Map<String, Object>> rows,
+                           int streamCount,
+                           int batchSize,
+                           long maxInflightBytes
+    )
+            throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(streamCount);
+        try {
+            TableId tableId = TableId.of(datasetName, tableName);
+            List<StreamAppender> appenders = new ArrayList<>();
+            for (int i = 0; i < streamCount; i++) {
+                appenders.add(new InsertAllStreamAppender(bigquery, tableId, executor));
+            }
+            return appendRows(appenders, rows, batchSize, maxInflightBytes);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Appends all the rows over the given streams and returns how many of them were committed.
+     */
+    public long appendRows(List<StreamAppender> appenders,
+                           Iterator<Map<String, Object>> rows,
+                           int batchSize,
+                           long maxInflightBytes
+    )
+            throws InterruptedException {
+        InflightBytesLimiter limiter = new InflightBytesLimiter(maxInflightBytes);
+        AtomicLong committedRows = new AtomicLong();
+        List<StreamState> streams = new ArrayList<>();
+        appenders.forEach(appender -> streams.add(new StreamState(appender)));
+
+        long startedAt = System.nanoTime();
+        int nextStream = 0;
+        List<Map<String, Object>> batch = new ArrayList<>(batchSize);
+        while (rows.hasNext()) {
+            batch.add(rows.next());
+            if (batch.size() < batchSize && rows.hasNext()) {
+                continue;
+            }
+
+            StreamState stream = streams.get(nextStream++ % streams.size());
+            if (!send(stream, batch, limiter, committedRows)) {
+                log.info("Stream {} could not recover, no more rows are sent", stream.appender.getStreamName());
+                break;
+            }
+            batch = new ArrayList<>(batchSize);
+        }
+
+        for (StreamState stream : streams) {
+            if (!recover(stream, limiter, committedRows)) {
+                log.info("Stream {} left {} batches not committed", stream.appender.getStreamName(), stream.inflight.size());
+            }
+        }
+
+        long elapsedMillis = Math.max(1, (System.nanoTime() - startedAt) / 1_000_000);
+        log.info("Committed {} rows over {} streams in {} ms ({} rows/s)",
+                committedRows.get(), streams.size(), elapsedMillis, committedRows.get() * 1000 / elapsedMillis);
+        return committedRows.get();
+    }
+
+    private boolean send(StreamState stream, List<Map<String, Object>> rows, InflightBytesLimiter limiter, AtomicLong committedRows)
+            throws InterruptedException {
+        if (stream.failed && !recover(stream, limiter, committedRows)) {
+            return false;
+        }
+
+        Batch batch = new Batch(rows, estimateBytes(rows));
+        limiter.acquire(batch.bytes);
+
+        long offset = stream.nextOffset;
+        stream.nextOffset += rows.size();
+        stream.inflight.put(offset, batch);
+        batch.done = stream.appender.append(rows, offset).handle((ignored, failure) -> {
+            if (failure == null || stream.appender.isAlreadyCommitted(failure)) {
+                acknowledge(stream, offset, batch, limiter, committedRows);
+            } else {
+                // Every later offset of this stream fails too, they are all re-sent in order by recover. The bytes
+                // are released now: recover only runs when the producer gets back to this stream, and the producer
+                // may be blocked on the limiter meanwhile.
+                batch.release(limiter);
+                stream.failed = true;
+                log.info("Append at offset {} of stream {} failed, reason: {}", offset, stream.appender.getStreamName(), failure.getMessage());
+            }
+            return null;
+        });
+        return true;
+    }
+
+    /**
+     * Waits for the in-flight appends of the stream, then re-sends the failed batches at their original offsets.
+     */
+    private boolean recover(StreamState stream, InflightBytesLimiter limiter, AtomicLong committedRows) {
+        stream.inflight.values().forEach(batch -> batch.done.join());
+        if (stream.inflight.isEmpty()) {
+            stream.failed = false;
+            return true;
+        }
+
+        for (Map.Entry<Long, Batch> entry : stream.inflight.entrySet()) {
+            if (!resend(stream, entry.getKey(), entry.getValue())) {
+                return false;
+            }
+            acknowledge(stream, entry.getKey(), entry.getValue(), limiter, committedRows);
+        }
+        stream.failed = false;
+        return true;
+    }
+
+    private boolean resend(StreamState stream, long offset, Batch batch) {
+        for (int attempt = 1; attempt <= MAX_APPEND_ATTEMPTS; attempt++) {
+            try {
+                stream.appender.reconnect();
+                stream.appender.append(batch.rows, offset).get();
+                return true;
+            } catch (ExecutionException e) {
+                if (stream.appender.isAlreadyCommitted(e.getCause())) {
+                    return true;
+                }
+                log.info("Attempt {} to append offset {} of stream {} failed, reason: {}",
+                        attempt, offset, stream.appender.getStreamName(), e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (Exception e) {
+                log.info("Stream {} could not reconnect, reason: {}", stream.appender.getStreamName(), e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    private void acknowledge(StreamState stream, long offset, Batch batch, InflightBytesLimiter limiter, AtomicLong committedRows) {
+        if (stream.inflight.remove(offset) != null) {
+            batch.release(limiter);
+            committedRows.addAndGet(batch.rows.size());
+        }
+    }
+
+    private static long estimateBytes(List<Map<String, Object>> rows) {
+        long bytes = 0;
+        for (Map<String, Object> row : rows) {
+            for (Map.Entry<String, Object> field : row.entrySet()) {
+                bytes += field.getKey().length() + String.valueOf(field.getValue()).length() + 4;
+            }
+        }
+        return bytes;
+    }
+
+    private static final class StreamState {
+        private final StreamAppender appender;
+        private final ConcurrentSkipListMap<Long, Batch> inflight = new ConcurrentSkipListMap<>();
+        private long nextOffset;
+        private volatile boolean failed;
+
+        private StreamState(StreamAppender appender) {
+            this.appender = appender;
+        }
+    }
+
+    private static final class Batch {
+        private final List<Map<String, Object>> rows;
+        private final long bytes;
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile CompletableFuture<?> done;
+
+        private Batch(List<Map<String, Object>> rows, long bytes) {
+            this.rows = rows;
+            this.bytes = bytes;
+        }
+
+        // Once, either when the append failed or when the batch is acknowledged
+        private void release(InflightBytesLimiter limiter) {
+            if (released.compareAndSet(false, true)) {
+                limiter.release(bytes);
+            }
+        }
+    }
+}
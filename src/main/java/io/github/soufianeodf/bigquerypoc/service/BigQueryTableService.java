@@ -4,17 +4,52 @@ import com.google.api.gax.paging.Page;
 import com.google.cloud.bigquery.*;
 import com.google.cloud.bigquery.BigQuery.TableDataListOption;
 import com.google.cloud.bigquery.JobStatistics.LoadStatistics;
+import io.github.soufianeodf.bigquerypoc.aggregate.CsvRollup;
+import io.github.soufianeodf.bigquerypoc.aggregate.RollupSpec;
+import io.github.soufianeodf.bigquerypoc.cache.MetadataCache;
+import io.github.soufianeodf.bigquerypoc.client.BigQueryClientFactory;
+import io.github.soufianeodf.bigquerypoc.lifecycle.DesiredState;
+import io.github.soufianeodf.bigquerypoc.lifecycle.LifecycleExecutor;
+import io.github.soufianeodf.bigquerypoc.lifecycle.LifecycleOperation;
+import io.github.soufianeodf.bigquerypoc.csv.CsvReader;
+import io.github.soufianeodf.bigquerypoc.csv.CsvSchemaInferrer;
+import io.github.soufianeodf.bigquerypoc.export.ExportFormat;
+import io.github.soufianeodf.bigquerypoc.export.TableExporter;
+import io.github.soufianeodf.bigquerypoc.metrics.BigQueryMetrics;
+import io.github.soufianeodf.bigquerypoc.read.TableRangeReader;
+import io.github.soufianeodf.bigquerypoc.table.TableLayout;
+import io.github.soufianeodf.bigquerypoc.telemetry.JobTelemetry;
+import io.github.soufianeodf.bigquerypoc.upload.CoalescingLoader;
+import io.github.soufianeodf.bigquerypoc.upload.CsvTranscoders;
+import io.github.soufianeodf.bigquerypoc.upload.IncrementalWatermark;
+import io.github.soufianeodf.bigquerypoc.upload.PipelinedUpload;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.nio.channels.Channels;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 
 import static com.google.cloud.bigquery.BigQuery.TableListOption.pageSize;
@@ -23,62 +58,129 @@ import static com.google.cloud.bigquery.BigQuery.TableListOption.pageSize;
 @Service
 public class BigQueryTableService {
 
-    public void createTable(BigQuery bigquery, String datasetName, String tableName, Schema schema) {
+    private static final int MAX_CHUNK_ATTEMPTS = 3;
+    private static final long CHUNK_RETRY_DELAY_MILLIS = 2_000;
+    private static final long MAX_CHUNK_RETRY_DELAY_MILLIS = 30_000;
+    private static final long MAX_CHUNK_BYTES = Integer.MAX_VALUE;
+    private static final long BOUNDARY_SCAN_WINDOW = 64 * 1024;
+    private static final int UPLOAD_BLOCK_BYTES = 1024 * 1024;
+    private static final int UPLOAD_BLOCKS_IN_FLIGHT = 8;
+    private static final int AUTODETECT_SAMPLE_ROWS = 1000;
+    private static final long EXPORT_PART_ROWS = 1_000_000;
+    private static final int EXPORT_PAGE_ROWS = 10_000;
+    private static final long COALESCE_MAX_BATCH_BYTES = 256L * 1024 * 1024;
+    private static final long COALESCE_MAX_DELAY_MILLIS = 10_000;
+    private static final long COALESCE_CLOSE_TIMEOUT_SECONDS = 3600;
+
+    private final MetadataCache metadataCache;
+    private final BigQueryMetrics metrics;
+    private final LifecycleExecutor lifecycleExecutor;
+    private final BigQueryClientFactory clientFactory;
+    private final JobTelemetry telemetry;
+
+    @Autowired
+    public BigQueryTableService(MetadataCache metadataCache, BigQueryMetrics metrics, LifecycleExecutor lifecycleExecutor, BigQueryClientFactory clientFactory, JobTelemetry telemetry) {
+        this.metadataCache = metadataCache;
+        this.metrics = metrics;
+        this.lifecycleExecutor = lifecycleExecutor;
+        this.clientFactory = clientFactory;
+        this.telemetry = telemetry;
+    }
+
+    public boolean createTable(BigQuery bigquery, String datasetName, String tableName, Schema schema) {
+        return createTable(bigquery, datasetName, tableName, schema, TableLayout.unpartitioned());
+    }
+
+    /**
+     * Creates a table partitioned and clustered as described by the layout.
+     *
+     * @return true once the table was created
+     */
+    public boolean createTable(BigQuery bigquery, String datasetName, String tableName, Schema schema, TableLayout layout) {
+        Timer.Sample sample = metrics.start();
         try {
             TableId tableId = TableId.of(datasetName, tableName);
-            TableDefinition tableDefinition = StandardTableDefinition.of(schema);
-            TableInfo tableInfo = TableInfo.newBuilder(tableId, tableDefinition).build();
-            bigquery.create(tableInfo);
+            TableInfo tableInfo = layout.toTableInfo(tableId, schema);
+            metadataCache.put(bigquery, bigquery.create(tableInfo));
             log.info("Table {} created successfully", tableName);
+            return true;
         } catch (BigQueryException e) {
+            metrics.error("createTable", e);
             log.info("Table {} was not created, reason: {}", tableName, e.getMessage());
+            return false;
+        } finally {
+            metrics.stop(sample, "createTable");
         }
     }
 
     public void deleteLabelTable(BigQuery bigquery, String datasetName, String tableName, Map<String, String> labels) {
+        Timer.Sample sample = metrics.start();
         try {
+            // The whole table is written back, it is read fresh rather than from the cache
             Table table = bigquery.getTable(TableId.of(datasetName, tableName));
-            table.toBuilder().setLabels(labels).build().update();
+            if (table == null) {
+                log.info("Table label was not deleted for table: {}, it was not found", tableName);
+                return;
+            }
+            metadataCache.put(bigquery, table.toBuilder().setLabels(labels).build().update());
             log.info("Table label deleted successfully for table: {}", tableName);
         } catch (BigQueryException e) {
+            metrics.error("deleteLabelTable", e);
             log.info("Table label was not deleted for table: {}, reason: {}", tableName, e.getMessage());
+        } finally {
+            metrics.stop(sample, "deleteLabelTable");
         }
     }
 
     public void deleteTable(BigQuery bigquery, String datasetName, String tableName) {
+        Timer.Sample sample = metrics.start();
         try {
-            boolean success = bigquery.delete(TableId.of(datasetName, tableName));
+            TableId tableId = TableId.of(datasetName, tableName);
+            boolean success = bigquery.delete(tableId);
+            metadataCache.invalidate(bigquery, tableId);
             if (success) {
                 log.info("Table {} deleted successfully", tableName);
             } else {
                 log.info("Table {} was not found", tableName);
             }
         } catch (BigQueryException e) {
+            metrics.error("deleteTable", e);
             log.info("Table {} was not deleted, reason: {}", tableName, e.getMessage());
+        } finally {
+            metrics.stop(sample, "deleteTable");
         }
     }
 
     public void getTableLabels(BigQuery bigquery, String datasetName, String tableName) {
+        Timer.Sample sample = metrics.start();
         try {
-            Table table = bigquery.getTable(TableId.of(datasetName, tableName));
+            Table table = metadataCache.getTable(bigquery, TableId.of(datasetName, tableName));
             table.getLabels()
                     .forEach((key, value) -> System.out.println("Retrieved labels successfully"));
         } catch (BigQueryException e) {
-            log.info("Label was not deleted, reason: {}" + e.getMessage());
+            metrics.error("getTableLabels", e);
+            log.info("Label was not deleted, reason: {}", e.getMessage());
+        } finally {
+            metrics.stop(sample, "getTableLabels");
         }
     }
 
     public void getTableInfo(BigQuery bigquery, String projectId, String datasetName, String tableName) {
+        Timer.Sample sample = metrics.start();
         try {
             TableId tableId = TableId.of(projectId, datasetName, tableName);
-            Table table = bigquery.getTable(tableId);
+            Table table = metadataCache.getTable(bigquery, tableId);
             log.info("Table info: " + table.getDescription());
         } catch (BigQueryException e) {
+            metrics.error("getTableInfo", e);
             log.info("Table {} not retrieved, reason: {}", tableName, e.getMessage());
+        } finally {
+            metrics.stop(sample, "getTableInfo");
         }
     }
 
     public void listTables(BigQuery bigquery, String projectId, String datasetName, int pageSize) {
+        Timer.Sample sample = metrics.start();
         try {
             DatasetId datasetId = DatasetId.of(projectId, datasetName);
             Page<Table> tables = bigquery.listTables(datasetId, pageSize(pageSize));
@@ -86,11 +188,15 @@ public class BigQueryTableService {
 
             log.info("Tables listed successfully of dataset: {}", datasetName);
         } catch (BigQueryException e) {
+            metrics.error("listTables", e);
             log.info("Tables were not listed. Error occurred: " + e.getMessage());
+        } finally {
+            metrics.stop(sample, "listTables");
         }
     }
 
     public void browseTable(BigQuery bigquery, String dataset, String table, int pageSize) {
+        Timer.Sample sample = metrics.start();
         try {
             // Identify the table itself
             TableId tableId = TableId.of(dataset, table);
@@ -106,14 +212,86 @@ public class BigQueryTableService {
 
             log.info("Query ran successfully");
         } catch (BigQueryException e) {
+            metrics.error("browseTable", e);
             log.info("Query failed to run, reason: {}", e.getMessage());
+        } finally {
+            metrics.stop(sample, "browseTable");
+        }
+    }
+
+    /**
+     * Same output as {@link #browseTable(BigQuery, String, String, int)}, with the pages fetched by {@code parallelism}
+     * threads and read ahead while they fit in {@code maxBufferedBytes}. See {@link TableRangeReader}.
+     */
+    public void browseTableInParallel(BigQuery bigquery,
+                                      String dataset,
+                                      String table,
+                                      int pageSize,
+                                      int parallelism,
+                                      long maxBufferedBytes,
+                                      boolean ordered
+    ) {
+        Timer.Sample sample = metrics.start();
+        try {
+            // The row count splits the table into ranges, it is read fresh rather than from the cache
+            Table tableInfo = bigquery.getTable(TableId.of(dataset, table));
+            if (tableInfo == null) {
+                log.info("Table {} not found", table);
+                return;
+            }
+            metadataCache.put(bigquery, tableInfo);
+
+            long startedAt = System.nanoTime();
+            long rows = 0;
+            try (TableRangeReader reader = new TableRangeReader(bigquery, tableInfo, pageSize, parallelism, maxBufferedBytes, ordered)) {
+                while (reader.hasNext()) {
+                    reader.next().forEach(fieldValue -> System.out.println(fieldValue.toString() + ", "));
+                    rows++;
+                }
+            }
+            long elapsedMillis = Math.max(1, (System.nanoTime() - startedAt) / 1_000_000);
+            log.info("Browsed {} rows of table {} in {} ms ({} rows/s)", rows, table, elapsedMillis, rows * 1000 / elapsedMillis);
+        } catch (BigQueryException e) {
+            metrics.error("browseTableInParallel", e);
+            log.info("Table {} was not browsed, reason: {}", table, e.getMessage());
+        } finally {
+            metrics.stop(sample, "browseTableInParallel");
+        }
+    }
+
+    /**
+     * Exports the table to part files of {@code directory}, see {@link TableExporter}: an interrupted export
+     * resumes from the missing parts when run again with the same directory.
+     */
+    public void exportTable(BigQuery bigquery, String dataset, String table, Path directory, ExportFormat format, int parallelism)
+            throws IOException, InterruptedException {
+        Timer.Sample sample = metrics.start();
+        try {
+            // The manifest records the row count and last modification, they are read fresh rather than from the cache
+            Table tableInfo = bigquery.getTable(TableId.of(dataset, table));
+            if (tableInfo == null) {
+                log.info("Table {} not found", table);
+                return;
+            }
+            metadataCache.put(bigquery, tableInfo);
+
+            long startedAt = System.nanoTime();
+            long rows = new TableExporter(bigquery, format, EXPORT_PART_ROWS, EXPORT_PAGE_ROWS, parallelism).export(tableInfo, directory);
+            long elapsedMillis = Math.max(1, (System.nanoTime() - startedAt) / 1_000_000);
+            log.info("Exported {} rows of table {} to {} in {} ms ({} rows/s)", rows, table, directory, elapsedMillis, rows * 1000 / elapsedMillis);
+        } catch (BigQueryException e) {
+            metrics.error("exportTable", e);
+            log.info("Table {} was not exported, reason: {}", table, e.getMessage());
+        } finally {
+            metrics.stop(sample, "exportTable");
         }
     }
 
     public boolean tableExists(BigQuery bigquery, String datasetName, String tableName) {
+        Timer.Sample sample = metrics.start();
         try {
-            Table table = bigquery.getTable(TableId.of(datasetName, tableName));
-            if (Optional.ofNullable(table).isPresent() && table.exists()) {
+            Table table = metadataCache.getTable(bigquery, TableId.of(datasetName, tableName));
+            if (Optional.ofNullable(table).isPresent()) {
                 log.info("Table {} already exist", tableName);
                 return true;
             } else {
@@ -121,74 +299,850 @@ public class BigQueryTableService {
                 return false;
             }
         } catch (BigQueryException e) {
+            metrics.error("tableExists", e);
             log.info("Table {} not found, reason: {}", tableName, e.getMessage());
             return false;
+        } finally {
+            metrics.stop(sample, "tableExists");
         }
     }
 
     public void updateTable(BigQuery bigquery, String datasetName, String tableName) {
+        Timer.Sample sample = metrics.start();
         try {
+            // Read fresh, a cached copy written back would revert changes made since it was cached
             Table table = bigquery.getTable(TableId.of(datasetName, tableName));
-            bigquery.update(table.toBuilder().build());
+            if (table == null) {
+                log.info("Table {} was not updated, it was not found", tableName);
+                return;
+            }
+            metadataCache.put(bigquery, bigquery.update(table.toBuilder().build()));
             log.info("Table {} updated successfully", tableName);
         } catch (BigQueryException e) {
+            metrics.error("updateTable", e);
             log.info("Table {} was not updated, reason: {}", tableName, e.getMessage());
+        } finally {
+            metrics.stop(sample, "updateTable");
         }
     }
 
     public void updateTableDescription(BigQuery bigquery, String datasetName, String tableName, String newDescription) {
+        Timer.Sample sample = metrics.start();
         try {
-            Table table = bigquery.getTable(datasetName, tableName);
-            bigquery.update(table.toBuilder().setDescription(newDescription).build());
+            Table table = bigquery.getTable(TableId.of(datasetName, tableName));
+            if (table == null) {
+                log.info("Table description was not updated for table: {}, it was not found", tableName);
+                return;
+            }
+            metadataCache.put(bigquery, bigquery.update(table.toBuilder().setDescription(newDescription).build()));
             log.info("Table description updated successfully to {} for table: {}", newDescription, tableName);
         } catch (BigQueryException e) {
+            metrics.error("updateTableDescription", e);
             log.info("Table description was not updated for table: {}, reason: {}", tableName, e.getMessage());
+        } finally {
+            metrics.stop(sample, "updateTableDescription");
         }
     }
 
-    public void loadLocalFile(BigQuery bigquery,
-                              String datasetName,
-                              String tableName,
-                              Path csvPath,
-                              FormatOptions formatOptions,
-                              boolean autodetectSchema,
-                              String location
+    public boolean loadLocalFile(BigQuery bigquery,
+                                 String datasetName,
+                                 String tableName,
+                                 Path csvPath,
+                                 FormatOptions formatOptions,
+                                 boolean autodetectSchema,
+                                 String location
     )
             throws IOException, InterruptedException {
+        return loadLocalFile(bigquery, datasetName, tableName, csvPath, formatOptions, autodetectSchema, location, formatOptions, false);
+    }
+
+    /**
+     * Loads a local file into a table laid out as described, the table is created first when it doesn't exist
+     * since a load can't set partitioning on its own. Its schema is then inferred from the CSV file when
+     * {@code autodetectSchema} is set, the file then starts with a header row unless the options say otherwise.
+     * The layout of an existing table is left as it is.
+     *
+     * @return true once the load job completed without error
+     */
+    public boolean loadLocalFile(BigQuery bigquery,
+                                 String datasetName,
+                                 String tableName,
+                                 Path csvPath,
+                                 FormatOptions formatOptions,
+                                 boolean autodetectSchema,
+                                 String location,
+                                 TableLayout layout
+    )
+            throws IOException, InterruptedException {
+        FormatOptions loadOptions = formatOptions;
+        if (autodetectSchema && formatOptions instanceof CsvOptions) {
+            // The load itself doesn't autodetect, the leading rows the schema was inferred past must be skipped
+            loadOptions = ((CsvOptions) formatOptions).toBuilder().setSkipLeadingRows(leadingRows(formatOptions, true)).build();
+        }
+        if (!tableExists(bigquery, datasetName, tableName)) {
+            if (!autodetectSchema || !(formatOptions instanceof CsvOptions)) {
+                throw new IllegalArgumentException("Table " + tableName + " does not exist, its schema can only be inferred from a CSV file");
+            }
+            if (!createTable(bigquery, datasetName, tableName, inferSchema(csvPath, leadingRows(formatOptions, true)), layout)) {
+                log.info("Local file not loaded since table {} could not be created", tableName);
+                return false;
+            }
+        }
+        return loadLocalFile(bigquery, datasetName, tableName, csvPath, loadOptions, false, location);
+    }
+
+    /**
+     * Loads a local file, optionally re-encoded while it is uploaded: a CSV file is converted to Avro with
+     * deflate blocks when {@code uploadFormat} is Avro, a CSV or JSON file is gzipped when {@code compress} is set.
+     * Encoding runs on a background thread, pipelined with the upload. Files sent as they are get memory-mapped
+     * and written to the channel without going through a stream.
+     *
+     * @return true once the load job completed without error
+     */
+    public boolean loadLocalFile(BigQuery bigquery,
+                                 String datasetName,
+                                 String tableName,
+                                 Path csvPath,
+                                 FormatOptions formatOptions,
+                                 boolean autodetectSchema,
+                                 String location,
+                                 FormatOptions uploadFormat,
+                                 boolean compress
+    )
+            throws IOException, InterruptedException {
+        Timer.Sample sample = metrics.start();
         try {
             TableId tableId = TableId.of(datasetName, tableName);
 
-            WriteChannelConfiguration writeChannelConfiguration = WriteChannelConfiguration.newBuilder(tableId)
-                                                                    .setFormatOptions(formatOptions)
-                                                                    .setAutodetect(autodetectSchema)
-                                                                    .build();
+            WriteChannelConfiguration.Builder writeChannelConfiguration = WriteChannelConfiguration.newBuilder(tableId);
+            PipelinedUpload.Transcoder transcoder = null;
+            if (uploadFormat.getType().equals(formatOptions.getType())) {
+                writeChannelConfiguration.setFormatOptions(formatOptions).setAutodetect(autodetectSchema);
+                if (compress) {
+                    if (!isLineDelimited(formatOptions)) {
+                        throw new IllegalArgumentException(formatOptions.getType() + " files can't be loaded gzipped");
+                    }
+                    transcoder = CsvTranscoders.gzip(csvPath);
+                }
+            } else if (FormatOptions.CSV.equals(formatOptions.getType()) && FormatOptions.AVRO.equals(uploadFormat.getType())) {
+                // Avro files carry their schema, it has to be known before the first row is encoded
+                long leadingRows = leadingRows(formatOptions, autodetectSchema);
+                Schema schema = autodetectSchema ? inferSchema(csvPath, leadingRows) : existingSchema(bigquery, tableId);
+                writeChannelConfiguration.setFormatOptions(FormatOptions.avro());
+                transcoder = CsvTranscoders.avro(csvPath, schema, leadingRows);
+            } else {
+                throw new IllegalArgumentException(formatOptions.getType() + " files can't be uploaded as " + uploadFormat.getType());
+            }
 
             // The location and JobName must be specified; other fields can be auto-detected.
             String jobName = "jobId_" + UUID.randomUUID();
             JobId jobId = JobId.newBuilder().setLocation(location).setJob(jobName).build();
 
             // Imports a local file into a table.
-            try (TableDataWriteChannel writer = bigquery.writer(jobId, writeChannelConfiguration);
-                 OutputStream stream = Channels.newOutputStream(writer)) {
-                Files.copy(csvPath, stream);
+            long startedAt = System.nanoTime();
+            long bytesSent;
+            // Only a complete upload is committed, a failed one must not start a job on the truncated file
+            TableDataWriteChannel writer = clientFactory.writer(bigquery, jobId, writeChannelConfiguration.build());
+            if (transcoder == null) {
+                bytesSent = writeMapped(writer, csvPath);
+                writer.close();
+            } else {
+                bytesSent = PipelinedUpload.transferAndClose(transcoder, writer, UPLOAD_BLOCK_BYTES, UPLOAD_BLOCKS_IN_FLIGHT);
             }
-
+            long uploadNanos = System.nanoTime() - startedAt;
+            long fileSize = Files.size(csvPath);
+            log.info("Uploaded {} bytes of {} as {} {} bytes in {} ms ({} MB/s of source data)",
+                    fileSize,
+                    formatOptions.getType(),
+                    compress && transcoder != null ? "gzipped" : uploadFormat.getType(),
+                    bytesSent,
+                    uploadNanos / 1_000_000,
+                    String.format("%.2f", fileSize / 1_048_576d / Math.max(uploadNanos / 1_000_000_000d, 1e-9)));
             // Get the Job created by the TableDataWriteChannel and wait for it to complete.
             Job job = bigquery.getJob(jobId);
-            Job completedJob = job.waitFor();
+            Job completedJob = job == null ? null : job.waitFor();
+            // The load may have created the table or changed its schema, lookups made while it ran are stale
+            metadataCache.invalidate(bigquery, tableId);
             if (completedJob == null) {
                 log.info("Job not executed since it no longer exists");
-                return;
-            } else if (completedJob.getStatus().getError() != null) {
-                log.info("BigQuery was unable to load local file to the table due to an error: {}", job.getStatus().getError());
-                return;
+                return false;
+            }
+            telemetry.record(completedJob);
+            if (completedJob.getStatus().getError() != null) {
+                metrics.error("loadLocalFile", new BigQueryException(BigQueryException.UNKNOWN_CODE, "Load failed", completedJob.getStatus().getError()));
+                log.info("BigQuery was unable to load local file to the table due to an error: {}", completedJob.getStatus().getError());
+                return false;
             }
 
             // Get output status
-            LoadStatistics stats = job.getStatistics();
+            LoadStatistics stats = completedJob.getStatistics();
+            metrics.recordLoad(bytesSent, stats);
             log.info("Successfully loaded {} rows", stats.getOutputRows());
+            return true;
         } catch (BigQueryException e) {
-            log.info("Local file not loaded, reason: {}" + e.getMessage());
+            metrics.error("loadLocalFile", e);
+            log.info("Local file not loaded, reason: {}", e.getMessage());
+            return false;
+        } finally {
+            metrics.stop(sample, "loadLocalFile");
+        }
+    }
+
+    /**
+     * Loads a local CSV file and its roll-up: the aggregates of {@code rollup} are computed on the client while the
+     * raw file uploads, then appended to {@code rollupTableName}, created when missing. Roll-up rows are per loaded
+     * file, queries combine them with SUM, MIN and MAX per key instead of scanning the raw table. The roll-up is
+     * only appended once the raw file loaded, so it never holds aggregates of rows missing from the raw table.
+     *
+     * @return true once both the raw file and its roll-up loaded
+     */
+    public boolean loadLocalFileWithRollup(BigQuery bigquery,
+                                        String datasetName,
+                                        String tableName,
+                                        Path csvPath,
+                                        CsvOptions csvOptions,
+                                        boolean autodetectSchema,
+                                        String location,
+                                        RollupSpec rollup,
+                                        String rollupTableName
+    )
+            throws IOException, InterruptedException {
+        // Roll-up columns are found by name in the header, checked before anything is uploaded
+        long leadingRows = leadingRows(csvOptions, autodetectSchema);
+        if (leadingRows < 1) {
+            throw new IllegalArgumentException("Rolling up needs a header row to find the columns, set skipLeadingRows");
+        }
+        Timer.Sample sample = metrics.start();
+        ExecutorService aggregator = Executors.newSingleThreadExecutor();
+        Path rollupCsv = null;
+        try {
+            Future<CsvRollup> aggregated = aggregator.submit(() -> CsvRollup.aggregate(csvPath, leadingRows, rollup));
+
+            if (!loadLocalFile(bigquery, datasetName, tableName, csvPath, csvOptions, autodetectSchema, location)) {
+                log.info("Roll-up of {} not loaded since the raw file was not loaded", csvPath.getFileName());
+                return false;
+            }
+
+            CsvRollup rolledUp;
+            try {
+                rolledUp = aggregated.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IllegalStateException("Roll-up failed, reason: " + e.getCause().getMessage(), e.getCause());
+            }
+            rollupCsv = Files.createTempFile(rollupTableName, ".csv");
+            rolledUp.writeCsv(rollupCsv);
+            log.info("Rolled up {} rows of {} into {} rows, {} bytes instead of {}",
+                    rolledUp.getRowCount(), csvPath.getFileName(), rolledUp.getGroupCount(), Files.size(rollupCsv), Files.size(csvPath));
+
+            if (!tableExists(bigquery, datasetName, rollupTableName)) {
+                Schema rawSchema = autodetectSchema ? inferSchema(csvPath, leadingRows) : existingSchema(bigquery, TableId.of(datasetName, tableName));
+                if (!createTable(bigquery, datasetName, rollupTableName, rolledUp.getSchema(rawSchema))) {
+                    return rollupFailed(csvPath, "its table " + rollupTableName + " was not created");
+                }
+            }
+            if (!loadLocalFile(bigquery, datasetName, rollupTableName, rollupCsv, CsvOptions.newBuilder().setSkipLeadingRows(1).build(), false, location)) {
+                return rollupFailed(csvPath, "its load job failed");
+            }
+            return true;
+        } catch (BigQueryException e) {
+            metrics.error("loadLocalFileWithRollup", e);
+            log.info("Local file not loaded with its roll-up, reason: {}", e.getMessage());
+            return false;
+        } finally {
+            aggregator.shutdownNow();
+            if (rollupCsv != null) {
+                Files.deleteIfExists(rollupCsv);
+            }
+            metrics.stop(sample, "loadLocalFileWithRollup");
+        }
+    }
+
+    // The raw table is loaded but has no roll-up for the file, queries on the roll-up miss its rows
+    private boolean rollupFailed(Path csvPath, String reason) {
+        metrics.error("loadLocalFileWithRollup", new BigQueryException(BigQueryException.UNKNOWN_CODE, "Roll-up not loaded, " + reason));
+        log.info("Raw file {} loaded but not its roll-up, reason: {}", csvPath.getFileName(), reason);
+        return false;
+    }
+
+    /**
+     * A loader appending CSV sources to an existing table with one load job per batch of sources, instead of one
+     * per file. Close it to load what it still buffers.
+     */
+    public CoalescingLoader coalescingLoader(BigQuery bigquery,
+                                             String datasetName,
+                                             String tableName,
+                                             CsvOptions csvOptions,
+                                             String location,
+                                             long maxBatchBytes,
+                                             long maxDelayMillis) {
+        return new CoalescingLoader(bigquery, clientFactory, metrics, telemetry, TableId.of(datasetName, tableName), csvOptions, location, maxBatchBytes, maxDelayMillis);
+    }
+
+    /**
+     * Loads many small local files into an existing table, coalesced into as few load jobs as the batch size allows,
+     * and logs the outcome of every file.
+     */
+    public void loadLocalFiles(BigQuery bigquery,
+                               String datasetName,
+                               String tableName,
+                               List<Path> csvPaths,
+                               CsvOptions csvOptions,
+                               String location
+    )
+            throws IOException, InterruptedException {
+        Timer.Sample sample = metrics.start();
+        List<CompletableFuture<CoalescingLoader.Receipt>> receipts = new ArrayList<>(csvPaths.size());
+        CoalescingLoader loader = coalescingLoader(bigquery, datasetName, tableName, csvOptions, location, COALESCE_MAX_BATCH_BYTES, COALESCE_MAX_DELAY_MILLIS);
+        try {
+            for (Path csvPath : csvPaths) {
+                receipts.add(loader.submit(csvPath));
+            }
+        } finally {
+            // Fails the futures of the files still not loaded after the timeout
+            loader.close(COALESCE_CLOSE_TIMEOUT_SECONDS);
+            metrics.stop(sample, "loadLocalFiles");
+        }
+
+        int failed = 0;
+        for (int i = 0; i < receipts.size(); i++) {
+            try {
+                CoalescingLoader.Receipt receipt = receipts.get(i).get(COALESCE_CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                log.info("File {} loaded by job {} with {} other files", csvPaths.get(i).getFileName(), receipt.getJobId().getJob(), receipt.getBatchSources() - 1);
+            } catch (ExecutionException e) {
+                failed++;
+                log.info("File {} not loaded, reason: {}", csvPaths.get(i).getFileName(), e.getCause().getMessage());
+            } catch (TimeoutException e) {
+                failed++;
+                log.info("File {} not loaded after {} s", csvPaths.get(i).getFileName(), COALESCE_CLOSE_TIMEOUT_SECONDS);
+            }
+        }
+        log.info("Loaded {} of {} files into table {}", csvPaths.size() - failed, csvPaths.size(), tableName);
+    }
+
+    public void loadLocalFileInParallel(BigQuery bigquery,
+                                        String datasetName,
+                                        String tableName,
+                                        Path csvPath,
+                                        FormatOptions formatOptions,
+                                        boolean autodetectSchema,
+                                        String location,
+                                        int parallelism
+    )
+            throws IOException, InterruptedException {
+        // Columnar formats can't be split on line boundaries, hand them over to the single stream loader
+        if (!isLineDelimited(formatOptions) || parallelism <= 1) {
+            loadLocalFile(bigquery, datasetName, tableName, csvPath, formatOptions, autodetectSchema, location);
+            return;
+        }
+
+        Timer.Sample sample = metrics.start();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try (FileChannel fileChannel = FileChannel.open(csvPath, StandardOpenOption.READ)) {
+            TableId tableId = TableId.of(datasetName, tableName);
+            long fileSize = fileChannel.size();
+
+            // The header lines are replayed at the start of every chunk, so each load job sees a well-formed file
+            long leadingRows = leadingRows(formatOptions, autodetectSchema);
+            long headerEnd = 0;
+            for (long row = 0; row < leadingRows && headerEnd < fileSize; row++) {
+                headerEnd = nextLineStart(fileChannel, headerEnd, fileSize);
+            }
+            ByteBuffer header = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, headerEnd);
+            if (leadingRows > 0) {
+                formatOptions = ((CsvOptions) formatOptions).toBuilder().setSkipLeadingRows(leadingRows).build();
+            }
+
+            List<long[]> chunks = splitOnLineBoundaries(fileChannel, headerEnd, fileSize, parallelism);
+            log.info("File {} of {} bytes split into {} chunks", csvPath.getFileName(), fileSize, chunks.size());
+            if (chunks.isEmpty()) {
+                log.info("File {} has no rows past its leading rows, nothing to load", csvPath.getFileName());
+                return;
+            }
+
+            WriteChannelConfiguration writeChannelConfiguration = WriteChannelConfiguration.newBuilder(tableId)
+                                                                    .setFormatOptions(formatOptions)
+                                                                    .setAutodetect(autodetectSchema)
+                                                                    .build();
+
+            List<Integer> pending = new ArrayList<>();
+            for (int i = 0; i < chunks.size(); i++) {
+                pending.add(i);
+            }
+
+            // Autodetect runs per load job, so the first chunk alone decides the schema the other chunks are loaded with
+            if (autodetectSchema) {
+                List<Integer> first = loadChunksWithRetries(bigquery, executor, fileChannel, header, chunks,
+                        pending.subList(0, 1), writeChannelConfiguration, location);
+                if (!first.isEmpty()) {
+                    log.info("First chunk of file {} was not loaded after {} attempts, skipping the remaining chunks",
+                            csvPath.getFileName(), MAX_CHUNK_ATTEMPTS);
+                    return;
+                }
+                pending = new ArrayList<>(pending.subList(1, pending.size()));
+                metadataCache.invalidate(bigquery, tableId);
+                Schema schema = metadataCache.getTable(bigquery, tableId).getDefinition().getSchema();
+                writeChannelConfiguration = writeChannelConfiguration.toBuilder()
+                                                .setAutodetect(false)
+                                                .setSchema(schema)
+                                                .build();
+            }
+
+            pending = loadChunksWithRetries(bigquery, executor, fileChannel, header, chunks, pending, writeChannelConfiguration, location);
+
+            metadataCache.invalidate(bigquery, tableId);
+            if (pending.isEmpty()) {
+                log.info("Successfully loaded all {} chunks of file {}", chunks.size(), csvPath.getFileName());
+            } else {
+                log.info("Chunks {} of file {} were not loaded after {} attempts", pending, csvPath.getFileName(), MAX_CHUNK_ATTEMPTS);
+            }
+        } catch (BigQueryException e) {
+            metrics.error("loadLocalFileInParallel", e);
+            log.info("Local file not loaded in parallel, reason: {}", e.getMessage());
+        } finally {
+            executor.shutdownNow();
+            metrics.stop(sample, "loadLocalFileInParallel");
+        }
+    }
+
+    /**
+     * Loads only what was appended to the file since the previous call, tracked by an {@link IncrementalWatermark}
+     * on the table. Complete lines are appended with WRITE_APPEND, a partially written last line waits for the next
+     * call. The whole file is loaded with WRITE_TRUNCATE when the table has no watermark or the file was rewritten.
+     * <p>
+     * With {@code dedupeKeys}, null or empty for none, the new rows go through a staging table and are merged on those columns, rows already
+     * in the table are updated instead of duplicated. This also makes a retry after a lost watermark update harmless.
+     */
+    public void loadLocalFileIncrementally(BigQuery bigquery,
+                                           String datasetName,
+                                           String tableName,
+                                           Path csvPath,
+                                           CsvOptions csvOptions,
+                                           boolean autodetectSchema,
+                                           String location,
+                                           List<String> dedupeKeys
+    )
+            throws IOException, InterruptedException {
+        Timer.Sample sample = metrics.start();
+        try (FileChannel fileChannel = FileChannel.open(csvPath, StandardOpenOption.READ)) {
+            TableId tableId = TableId.of(datasetName, tableName);
+            Table table = metadataCache.getTable(bigquery, tableId);
+            IncrementalWatermark watermark = table == null ? null : IncrementalWatermark.fromLabels(table.getLabels());
+            long fileSize = fileChannel.size();
+
+            boolean append = watermark != null && watermark.matches(fileChannel);
+            long start = append ? watermark.getOffset() : 0;
+            long end = lastLineEnd(fileChannel, start, fileSize);
+            if (end <= start) {
+                log.info("No new lines in {} for table {}", csvPath.getFileName(), tableName);
+                return;
+            }
+            if (watermark != null && !append) {
+                log.info("{} was rewritten since the last load, reloading table {}", csvPath.getFileName(), tableName);
+            }
+
+            Job completedJob;
+            if (append && dedupeKeys != null && !dedupeKeys.isEmpty()) {
+                completedJob = mergeRange(bigquery, table, fileChannel, start, end, csvOptions, location, dedupeKeys);
+            } else {
+                // The tail has no header, the rows are matched by position against the existing schema
+                WriteChannelConfiguration writeChannelConfiguration = WriteChannelConfiguration.newBuilder(tableId)
+                        .setFormatOptions(append ? csvOptions.toBuilder().setSkipLeadingRows(0).build() : csvOptions)
+                        .setAutodetect(!append && autodetectSchema)
+                        .setWriteDisposition(append ? JobInfo.WriteDisposition.WRITE_APPEND : JobInfo.WriteDisposition.WRITE_TRUNCATE)
+                        .build();
+                completedJob = loadRange(bigquery, writeChannelConfiguration, location, fileChannel, start, end, null);
+            }
+            metadataCache.invalidate(bigquery, tableId);
+            if (completedJob == null) {
+                return;
+            }
+
+            // Moved only once the rows are in, a failure in between replays the same tail on the next call
+            LoadStatistics stats = completedJob.getStatistics();
+            long lines = (append ? watermark.getLines() : leadingRows(csvOptions, autodetectSchema)) + stats.getOutputRows();
+            Table loaded = bigquery.getTable(tableId);
+            Map<String, String> labels = IncrementalWatermark.at(fileChannel, end, lines).toLabels(loaded.getLabels());
+            metadataCache.put(bigquery, loaded.toBuilder().setLabels(labels).build().update());
+            log.info("Loaded {} new rows into table {}, {} bytes of {} are now loaded", stats.getOutputRows(), tableName, end, csvPath.getFileName());
+        } catch (BigQueryException e) {
+            metrics.error("loadLocalFileIncrementally", e);
+            log.info("Local file not loaded incrementally, reason: {}", e.getMessage());
+        } finally {
+            metrics.stop(sample, "loadLocalFileIncrementally");
+        }
+    }
+
+    /**
+     * A load job that completed with an error leaves the table untouched, so only those chunks are sent again, after
+     * a growing delay. When an attempt ends without knowing how its job ended, such as an upload that timed out
+     * once the job was created, the next attempt waits for that same job instead of uploading the chunk again,
+     * and uploads it only when the job failed or was never created.
+     * Returns the chunks still not loaded after the last attempt.
+     */
+    private List<Integer> loadChunksWithRetries(BigQuery bigquery,
+                                                ExecutorService executor,
+                                                FileChannel fileChannel,
+                                                ByteBuffer header,
+                                                List<long[]> chunks,
+                                                List<Integer> chunkIndexes,
+                                                WriteChannelConfiguration writeChannelConfiguration,
+                                                String location
+    )
+            throws InterruptedException {
+        List<Integer> pending = chunkIndexes;
+        // Job of each chunk whose last attempt ended without an outcome
+        Map<Integer, JobId> unsettled = new ConcurrentHashMap<>();
+        for (int attempt = 1; attempt <= MAX_CHUNK_ATTEMPTS && !pending.isEmpty(); attempt++) {
+            if (attempt > 1) {
+                Thread.sleep(Math.min(MAX_CHUNK_RETRY_DELAY_MILLIS, CHUNK_RETRY_DELAY_MILLIS << (attempt - 2)));
+            }
+            pending = loadChunks(bigquery, executor, fileChannel, header, chunks, pending, writeChannelConfiguration, location, unsettled);
+            if (!pending.isEmpty()) {
+                log.info("Attempt {} left {} chunks not loaded", attempt, pending.size());
+            }
+        }
+        return pending;
+    }
+
+    private List<Integer> loadChunks(BigQuery bigquery,
+                                     ExecutorService executor,
+                                     FileChannel fileChannel,
+                                     ByteBuffer header,
+                                     List<long[]> chunks,
+                                     List<Integer> chunkIndexes,
+                                     WriteChannelConfiguration writeChannelConfiguration,
+                                     String location,
+                                     Map<Integer, JobId> unsettled
+    )
+            throws InterruptedException {
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (Integer index : chunkIndexes) {
+            long[] chunk = chunks.get(index);
+            futures.add(executor.submit(() ->
+                    loadChunk(bigquery, fileChannel, header, index, chunk[0], chunk[1], writeChannelConfiguration, location, unsettled)));
+        }
+
+        // Wait for all the load jobs together and collect the chunks that have to be retried
+        List<Integer> failed = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                if (!futures.get(i).get()) {
+                    failed.add(chunkIndexes.get(i));
+                }
+            } catch (ExecutionException e) {
+                log.info("Chunk {} was not loaded, reason: {}", chunkIndexes.get(i), e.getCause().getMessage());
+                failed.add(chunkIndexes.get(i));
+            }
+        }
+        return failed;
+    }
+
+    private boolean loadChunk(BigQuery bigquery,
+                              FileChannel fileChannel,
+                              ByteBuffer header,
+                              int index,
+                              long start,
+                              long end,
+                              WriteChannelConfiguration writeChannelConfiguration,
+                              String location,
+                              Map<Integer, JobId> unsettled
+    )
+            throws IOException, InterruptedException {
+        long bytes = header.remaining() + (end - start);
+        JobId previousJobId = unsettled.get(index);
+        if (previousJobId != null) {
+            // A failure while polling leaves the chunk unsettled, this attempt polls the same job again
+            Job previousJob = bigquery.getJob(previousJobId);
+            Job completedJob = previousJob == null ? null : previousJob.waitFor();
+            unsettled.remove(index);
+            if (completedJob != null && completedJob.getStatus().getError() == null) {
+                telemetry.record(completedJob);
+                metrics.recordLoad(bytes, completedJob.getStatistics());
+                log.info("Chunk {} was loaded by job {} of the previous attempt", index, previousJobId.getJob());
+                return true;
+            }
+            log.info("Chunk {} job {} of the previous attempt {}, uploading the chunk again", index, previousJobId.getJob(),
+                    completedJob == null ? "was never created" : "failed");
+        }
+
+        String jobName = "jobId_" + UUID.randomUUID();
+        JobId jobId = JobId.newBuilder().setLocation(location).setJob(jobName).build();
+        // Until the job is known to have completed, a retry must not upload the chunk under another job
+        unsettled.put(index, jobId);
+
+        long startedAt = System.nanoTime();
+        MappedByteBuffer chunk = fileChannel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        // Closed only once the whole chunk is written, closing commits the upload and starts the job
+        TableDataWriteChannel writer = clientFactory.writer(bigquery, jobId, writeChannelConfiguration);
+        writeFully(writer, header.duplicate());
+        writeFully(writer, chunk);
+        writer.close();
+        long uploadNanos = System.nanoTime() - startedAt;
+
+        Job job = bigquery.getJob(jobId);
+        Job completedJob = job == null ? null : job.waitFor();
+        unsettled.remove(index);
+        if (completedJob == null) {
+            log.info("Chunk {} job not executed since it no longer exists", index);
+            return false;
+        }
+        telemetry.record(completedJob);
+        if (completedJob.getStatus().getError() != null) {
+            metrics.error("loadChunk", new BigQueryException(BigQueryException.UNKNOWN_CODE, "Load failed", completedJob.getStatus().getError()));
+            log.info("Chunk {} was not loaded due to an error: {}", index, completedJob.getStatus().getError());
+            return false;
+        }
+
+        LoadStatistics stats = completedJob.getStatistics();
+        metrics.recordLoad(bytes, stats);
+        log.info("Chunk {} loaded {} rows, uploaded {} bytes in {} ms ({} MB/s)",
+                index,
+                stats.getOutputRows(),
+                bytes,
+                uploadNanos / 1_000_000,
+                String.format("%.2f", bytes / 1_048_576d / Math.max(uploadNanos / 1_000_000_000d, 1e-9)));
+        return true;
+    }
+
+    private Schema existingSchema(BigQuery bigquery, TableId tableId) {
+        Table table = metadataCache.getTable(bigquery, tableId);
+        if (table == null) {
+            throw new BigQueryException(404, "Table " + tableId.getTable() + " does not exist, autodetect the schema to create it");
+        }
+        return table.getDefinition().getSchema();
+    }
+
+    private static Schema inferSchema(Path csvPath, long leadingRows) throws IOException {
+        if (leadingRows < 1) {
+            throw new IllegalArgumentException("Autodetecting the schema needs a header row to name the columns");
+        }
+        try (CsvReader reader = new CsvReader(Files.newBufferedReader(csvPath, StandardCharsets.UTF_8))) {
+            // The header is the last of the leading rows
+            for (long i = 1; i < leadingRows; i++) {
+                reader.next();
+            }
+            return CsvSchemaInferrer.infer(reader, AUTODETECT_SAMPLE_ROWS);
+        }
+    }
+
+    private static long writeMapped(WritableByteChannel channel, Path path) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = fileChannel.size();
+            for (long position = 0; position < fileSize; position += MAX_CHUNK_BYTES) {
+                writeFully(channel, fileChannel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAX_CHUNK_BYTES, fileSize - position)));
+            }
+            return fileSize;
+        }
+    }
+
+    /**
+     * Loads the range into a staging table that expires on its own, then merges it into the table on the keys.
+     * Rows repeated within the range are merged once, which of their occurrences is kept is unspecified.
+     */
+    private Job mergeRange(BigQuery bigquery,
+                           Table table,
+                           FileChannel fileChannel,
+                           long start,
+                           long end,
+                           CsvOptions csvOptions,
+                           String location,
+                           List<String> dedupeKeys
+    )
+            throws IOException, InterruptedException {
+        TableId tableId = table.getTableId();
+        Schema schema = table.getDefinition().getSchema();
+        TableId stagingId = TableId.of(tableId.getProject(), tableId.getDataset(), tableId.getTable() + "_staging_" + UUID.randomUUID().toString().replace("-", ""));
+        bigquery.create(TableInfo.newBuilder(stagingId, StandardTableDefinition.of(schema))
+                .setExpirationTime(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1))
+                .build());
+        try {
+            WriteChannelConfiguration writeChannelConfiguration = WriteChannelConfiguration.newBuilder(stagingId)
+                    .setFormatOptions(csvOptions.toBuilder().setSkipLeadingRows(0).build())
+                    .setWriteDisposition(JobInfo.WriteDisposition.WRITE_TRUNCATE)
+                    .build();
+            // The staging table has a new name every time, the jobs are profiled under the name of the table
+            Job loadJob = loadRange(bigquery, writeChannelConfiguration, location, fileChannel, start, end,
+                    JobTelemetry.loadShape(tableId, "CSV staging", end - start));
+            if (loadJob == null) {
+                return null;
+            }
+
+            // Both tables are named with their project, the merge job may run under another default project
+            String project = tableId.getProject() != null ? tableId.getProject() : bigquery.getOptions().getProjectId();
+            QueryJobConfiguration merge = QueryJobConfiguration.newBuilder(mergeStatement(project, tableId, stagingId, schema, dedupeKeys)).build();
+            Job mergeJob = bigquery.create(JobInfo.newBuilder(merge).setJobId(JobId.newBuilder().setLocation(location).setRandomJob().build()).build()).waitFor();
+            if (mergeJob != null) {
+                telemetry.record(mergeJob, "MERGE " + tableId.getDataset() + "." + tableId.getTable() + " " + String.join(",", dedupeKeys));
+            }
+            if (mergeJob == null || mergeJob.getStatus().getError() != null) {
+                BigQueryError error = mergeJob == null ? null : mergeJob.getStatus().getError();
+                metrics.error("mergeRange", new BigQueryException(BigQueryException.UNKNOWN_CODE, "Merge failed", error));
+                log.info("Staged rows were not merged into table {}, reason: {}", tableId.getTable(), error);
+                return null;
+            }
+            metrics.recordQuery(mergeJob.getStatistics());
+            log.info("Merged staged rows into table {}, {} rows affected", tableId.getTable(),
+                    ((JobStatistics.QueryStatistics) mergeJob.getStatistics()).getNumDmlAffectedRows());
+            return loadJob;
+        } finally {
+            // The staging table expires anyway, a failed delete mustn't hide the outcome of the load and merge
+            try {
+                bigquery.delete(stagingId);
+            } catch (BigQueryException e) {
+                log.info("Staging table {} was not deleted, reason: {}", stagingId.getTable(), e.getMessage());
+            }
+        }
+    }
+
+    private static String mergeStatement(String project, TableId tableId, TableId stagingId, Schema schema, List<String> keys) {
+        StringBuilder on = new StringBuilder();
+        StringBuilder partition = new StringBuilder();
+        for (String key : keys) {
+            // Keys may be NULL in the file, = would never match them and insert the row again on every load
+            on.append(on.length() == 0 ? "" : " AND ").append("T.`").append(key).append("` IS NOT DISTINCT FROM S.`").append(key).append('`');
+            partition.append(partition.length() == 0 ? "" : ", ").append('`').append(key).append('`');
+        }
+        StringBuilder set = new StringBuilder();
+        for (Field field : schema.getFields()) {
+            if (!keys.contains(field.getName())) {
+                set.append(set.length() == 0 ? "" : ", ").append('`').append(field.getName()).append("` = S.`").append(field.getName()).append('`');
+            }
+        }
+
+        // ROW_NUMBER without an order keeps an arbitrary row among duplicates of the same range
+        return "MERGE `" + project + "." + tableId.getDataset() + "." + tableId.getTable() + "` T"
+                + " USING (SELECT * EXCEPT(_row) FROM (SELECT *, ROW_NUMBER() OVER (PARTITION BY " + partition + ") AS _row"
+                + " FROM `" + project + "." + stagingId.getDataset() + "." + stagingId.getTable() + "`) WHERE _row = 1) S"
+                + " ON " + on
+                + (set.length() == 0 ? "" : " WHEN MATCHED THEN UPDATE SET " + set)
+                + " WHEN NOT MATCHED THEN INSERT ROW";
+    }
+
+    private Job loadRange(BigQuery bigquery,
+                          WriteChannelConfiguration writeChannelConfiguration,
+                          String location,
+                          FileChannel fileChannel,
+                          long start,
+                          long end,
+                          String shape
+    )
+            throws IOException, InterruptedException {
+        String jobName = "jobId_" + UUID.randomUUID();
+        JobId jobId = JobId.newBuilder().setLocation(location).setJob(jobName).build();
+
+        // Closed only once the whole range is written, closing commits the upload and starts the job
+        TableDataWriteChannel writer = clientFactory.writer(bigquery, jobId, writeChannelConfiguration);
+        for (long position = start; position < end; position += MAX_CHUNK_BYTES) {
+            writeFully(writer, fileChannel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAX_CHUNK_BYTES, end - position)));
+        }
+        writer.close();
+
+        Job completedJob = bigquery.getJob(jobId).waitFor();
+        if (completedJob == null) {
+            log.info("Job not executed since it no longer exists");
+            return null;
+        }
+        telemetry.record(completedJob, shape);
+        if (completedJob.getStatus().getError() != null) {
+            metrics.error("loadRange", new BigQueryException(BigQueryException.UNKNOWN_CODE, "Load failed", completedJob.getStatus().getError()));
+            log.info("BigQuery was unable to load the range due to an error: {}", completedJob.getStatus().getError());
+            return null;
+        }
+        metrics.recordLoad(end - start, completedJob.getStatistics());
+        return completedJob;
+    }
+
+    // The position right after the last newline of [from, fileSize), or from when there is none
+    static long lastLineEnd(FileChannel fileChannel, long from, long fileSize) throws IOException {
+        long windowEnd = fileSize;
+        while (windowEnd > from) {
+            long windowStart = Math.max(from, windowEnd - BOUNDARY_SCAN_WINDOW);
+            MappedByteBuffer window = fileChannel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+            for (int i = (int) (windowEnd - windowStart) - 1; i >= 0; i--) {
+                if (window.get(i) == '\n') {
+                    return windowStart + i + 1;
+                }
+            }
+            windowEnd = windowStart;
+        }
+        return from;
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static boolean isLineDelimited(FormatOptions formatOptions) {
+        return FormatOptions.CSV.equals(formatOptions.getType())
+                || FormatOptions.JSON.equals(formatOptions.getType());
+    }
+
+    private static long leadingRows(FormatOptions formatOptions, boolean autodetectSchema) {
+        if (!(formatOptions instanceof CsvOptions)) {
+            return 0;
+        }
+        Long skipLeadingRows = ((CsvOptions) formatOptions).getSkipLeadingRows();
+        if (skipLeadingRows != null) {
+            return skipLeadingRows;
+        }
+        return autodetectSchema ? 1 : 0;
+    }
+
+    /**
+     * Splits [dataStart, fileSize) into ranges that end right after a newline, so no row is cut in two.
+     * Rows with quoted newlines are not supported by the parallel loader.
+     */
+    private static List<long[]> splitOnLineBoundaries(FileChannel fileChannel, long dataStart, long fileSize, int parallelism)
+            throws IOException {
+        long dataSize = fileSize - dataStart;
+        long chunkCount = Math.max(parallelism, (dataSize + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES);
+        long targetSize = Math.max(1, dataSize / chunkCount);
+
+        List<long[]> chunks = new ArrayList<>();
+        long start = dataStart;
+        while (start < fileSize) {
+            long end = start + targetSize >= fileSize ? fileSize : nextLineStart(fileChannel, start + targetSize, fileSize);
+            chunks.add(new long[]{start, end});
+            start = end;
+        }
+        return chunks;
+    }
+
+    private static long nextLineStart(FileChannel fileChannel, long position, long fileSize) throws IOException {
+        while (position < fileSize) {
+            long windowSize = Math.min(BOUNDARY_SCAN_WINDOW, fileSize - position);
+            MappedByteBuffer window = fileChannel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+            for (int i = 0; i < windowSize; i++) {
+                if (window.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += windowSize;
+        }
+        return fileSize;
+    }
+
+    /**
+     * Brings the tables of {@code state} to their desired state with the fewest calls, applied concurrently.
+     * Returns true when every operation succeeded.
+     */
+    public boolean applyTables(BigQuery bigquery, DesiredState state) throws InterruptedException {
+        Timer.Sample sample = metrics.start();
+        try {
+            List<LifecycleOperation> plan = lifecycleExecutor.planTables(bigquery, state);
+            log.info("Table plan: {}", plan.isEmpty() ? "nothing to do" : plan);
+            return lifecycleExecutor.apply(bigquery, plan) == 0;
+        } catch (BigQueryException e) {
+            metrics.error("applyTables", e);
+            log.info("Tables were not applied, reason: {}", e.getMessage());
+            return false;
+        } finally {
+            metrics.stop(sample, "applyTables");
         }
     }
 }
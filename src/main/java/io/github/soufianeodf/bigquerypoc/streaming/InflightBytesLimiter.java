@@ -0,0 +1,34 @@
+package io.github.soufianeodf.bigquerypoc.streaming;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Blocks producers once the bytes sent but not yet acknowledged pass the configured limit.
+ */
+public class InflightBytesLimiter {
+
+    private final int maxInflightBytes;
+    private final Semaphore permits;
+
+    public InflightBytesLimiter(long maxInflightBytes) {
+        this.maxInflightBytes = (int) Math.min(Integer.MAX_VALUE, Math.max(1, maxInflightBytes));
+        this.permits = new Semaphore(this.maxInflightBytes);
+    }
+
+    public void acquire(long bytes) throws InterruptedException {
+        permits.acquire(permitsFor(bytes));
+    }
+
+    public void release(long bytes) {
+        permits.release(permitsFor(bytes));
+    }
+
+    public long getInflightBytes() {
+        return maxInflightBytes - permits.availablePermits();
+    }
+
+    // A batch bigger than the whole limit is still let through, alone
+    private int permitsFor(long bytes) {
+        return (int) Math.min(maxInflightBytes, Math.max(1, bytes));
+    }
+}
@@ -0,0 +1,65 @@
+package io.github.soufianeodf.bigquerypoc.streaming;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.InsertAllRequest;
+import com.google.cloud.bigquery.InsertAllResponse;
+import com.google.cloud.bigquery.TableId;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Appends rows through {@link BigQuery#insertAll}, so it works against any implementation of the {@link BigQuery}
+ * interface, including in-process fakes. The insert id of a row is derived from the stream name and its offset,
+ * which lets BigQuery de-duplicate rows sent again after a failure on a best-effort basis.
+ */
+public class InsertAllStreamAppender implements StreamAppender {
+
+    private final BigQuery bigquery;
+    private final TableId tableId;
+    private final Executor executor;
+    private final String streamName = "stream_" + UUID.randomUUID();
+
+    public InsertAllStreamAppender(BigQuery bigquery, TableId tableId, Executor executor) {
+        this.bigquery = bigquery;
+        this.tableId = tableId;
+        this.executor = executor;
+    }
+
+    @Override
+    public String getStreamName() {
+        return streamName;
+    }
+
+    @Override
+    public CompletableFuture<Void> append(List<Map<String, Object>> rows, long offset) {
+        return CompletableFuture.runAsync(() -> {
+            InsertAllRequest.Builder request = InsertAllRequest.newBuilder(tableId);
+            for (int i = 0; i < rows.size(); i++) {
+                request.addRow(streamName + ":" + (offset + i), rows.get(i));
+            }
+
+            InsertAllResponse response = bigquery.insertAll(request.build());
+            if (response.hasErrors()) {
+                throw new IllegalStateException("Rows at offset " + offset + " were rejected: " + response.getInsertErrors());
+            }
+        }, executor);
+    }
+
+    @Override
+    public boolean isAlreadyCommitted(Throwable failure) {
+        return false;
+    }
+
+    @Override
+    public void reconnect() {
+        // insertAll is stateless, there is no connection to re-open
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,33 @@
+package io.github.soufianeodf.bigquerypoc.streaming;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A single ordered write stream into a table.
+ * Rows are appended at an explicit offset, so re-sending a batch at the same offset never duplicates rows.
+ */
+public interface StreamAppender extends AutoCloseable {
+
+    String getStreamName();
+
+    /**
+     * Appends the rows at the given offset. The future completes once the rows are committed,
+     * or exceptionally if they were rejected.
+     */
+    CompletableFuture<Void> append(List<Map<String, Object>> rows, long offset);
+
+    /**
+     * Returns true when the failure means the rows at that offset were already committed by a previous attempt.
+     */
+    boolean isAlreadyCommitted(Throwable failure);
+
+    /**
+     * Re-opens the connection to the same stream after a failure, keeping the committed offsets.
+     */
+    void reconnect() throws Exception;
+
+    @Override
+    void close();
+}
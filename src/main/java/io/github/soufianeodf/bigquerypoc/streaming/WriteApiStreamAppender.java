@@ -0,0 +1,107 @@
+package io.github.soufianeodf.bigquerypoc.streaming;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.bigquery.storage.v1.AppendRowsResponse;
+import com.google.cloud.bigquery.storage.v1.BigQueryWriteClient;
+import com.google.cloud.bigquery.storage.v1.CreateWriteStreamRequest;
+import com.google.cloud.bigquery.storage.v1.JsonStreamWriter;
+import com.google.cloud.bigquery.storage.v1.TableName;
+import com.google.cloud.bigquery.storage.v1.WriteStream;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.Descriptors.DescriptorValidationException;
+import io.grpc.Status;
+import lombok.extern.slf4j.Slf4j;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Appends rows over a COMMITTED stream of the Storage Write API.
+ * Rows are encoded to protobuf by the {@link JsonStreamWriter} using the table schema returned with the stream.
+ */
+@Slf4j
+public class WriteApiStreamAppender implements StreamAppender {
+
+    private final BigQueryWriteClient client;
+    private final WriteStream writeStream;
+    private JsonStreamWriter writer;
+
+    public WriteApiStreamAppender(BigQueryWriteClient client, TableName tableName) throws IOException, InterruptedException {
+        this.client = client;
+        this.writeStream = client.createWriteStream(CreateWriteStreamRequest.newBuilder()
+                .setParent(tableName.toString())
+                .setWriteStream(WriteStream.newBuilder().setType(WriteStream.Type.COMMITTED).build())
+                .build());
+        this.writer = newWriter();
+    }
+
+    @Override
+    public String getStreamName() {
+        return writeStream.getName();
+    }
+
+    @Override
+    public CompletableFuture<Void> append(List<Map<String, Object>> rows, long offset) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+
+        JSONArray jsonRows = new JSONArray();
+        rows.forEach(row -> jsonRows.put(new JSONObject(row)));
+
+        ApiFuture<AppendRowsResponse> response;
+        try {
+            response = writer.append(jsonRows, offset);
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+
+        ApiFutures.addCallback(response, new ApiFutureCallback<AppendRowsResponse>() {
+            @Override
+            public void onSuccess(AppendRowsResponse appendRowsResponse) {
+                if (appendRowsResponse.hasError()) {
+                    result.completeExceptionally(new IllegalStateException(appendRowsResponse.getError().getMessage()));
+                } else {
+                    result.complete(null);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                result.completeExceptionally(throwable);
+            }
+        }, MoreExecutors.directExecutor());
+        return result;
+    }
+
+    @Override
+    public boolean isAlreadyCommitted(Throwable failure) {
+        return Status.fromThrowable(failure).getCode() == Status.Code.ALREADY_EXISTS;
+    }
+
+    @Override
+    public void reconnect() throws IOException, InterruptedException {
+        writer.close();
+        writer = newWriter();
+    }
+
+    @Override
+    public void close() {
+        writer.close();
+        long rowCount = client.finalizeWriteStream(writeStream.getName()).getRowCount();
+        log.info("Write stream {} finalized with {} rows", writeStream.getName(), rowCount);
+    }
+
+    private JsonStreamWriter newWriter() throws IOException, InterruptedException {
+        try {
+            return JsonStreamWriter.newBuilder(writeStream.getName(), writeStream.getTableSchema(), client).build();
+        } catch (DescriptorValidationException e) {
+            throw new IOException("Table schema of stream " + writeStream.getName() + " can't be encoded", e);
+        }
+    }
+}
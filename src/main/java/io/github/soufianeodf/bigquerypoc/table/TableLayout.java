@@ -0,0 +1,96 @@
+package io.github.soufianeodf.bigquerypoc.table;
+
+import com.google.cloud.bigquery.Clustering;
+import com.google.cloud.bigquery.RangePartitioning;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.StandardTableDefinition;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.TableInfo;
+import com.google.cloud.bigquery.TimePartitioning;
+
+import java.util.Arrays;
+
+/**
+ * How the rows of a table are laid out: time or integer range partitioning and clustering columns.
+ * Queries filtering on the partitioning column only read the matching partitions, and within a partition
+ * filters on the clustering columns skip the blocks that can't match.
+ * <p>
+ * Partitioning columns are DATE, TIMESTAMP or DATETIME for time and INT64 for integer ranges. Clustering columns
+ * can't be FLOAT64.
+ */
+public class TableLayout {
+
+    private final TimePartitioning timePartitioning;
+    private final RangePartitioning rangePartitioning;
+    private Clustering clustering;
+    private boolean requirePartitionFilter;
+
+    private TableLayout(TimePartitioning timePartitioning, RangePartitioning rangePartitioning) {
+        this.timePartitioning = timePartitioning;
+        this.rangePartitioning = rangePartitioning;
+    }
+
+    public static TableLayout unpartitioned() {
+        return new TableLayout(null, null);
+    }
+
+    /**
+     * Partitions of {@code type} granularity on the column, dropped {@code expirationMs} after their end when not null.
+     */
+    public static TableLayout partitionedByTime(String field, TimePartitioning.Type type, Long expirationMs) {
+        return new TableLayout(TimePartitioning.newBuilder(type).setField(field).setExpirationMs(expirationMs).build(), null);
+    }
+
+    /**
+     * Partitions on the load or insert time, exposed as the {@code _PARTITIONTIME} pseudo column.
+     */
+    public static TableLayout partitionedByIngestionTime(TimePartitioning.Type type, Long expirationMs) {
+        return new TableLayout(TimePartitioning.newBuilder(type).setExpirationMs(expirationMs).build(), null);
+    }
+
+    /**
+     * One partition per {@code interval} wide bucket of [start, end), rows outside go to the unpartitioned partition.
+     */
+    public static TableLayout partitionedByRange(String field, long start, long end, long interval) {
+        RangePartitioning.Range range = RangePartitioning.Range.newBuilder()
+                .setStart(start)
+                .setEnd(end)
+                .setInterval(interval)
+                .build();
+        return new TableLayout(null, RangePartitioning.newBuilder().setField(field).setRange(range).build());
+    }
+
+    /**
+     * At most four columns, the order matters: rows are sorted by the first one, then the next.
+     */
+    public TableLayout clusteredBy(String... fields) {
+        this.clustering = Clustering.newBuilder().setFields(Arrays.asList(fields)).build();
+        return this;
+    }
+
+    /**
+     * Queries without a filter on the partitioning column are refused by BigQuery instead of scanning everything.
+     */
+    public TableLayout requirePartitionFilter() {
+        this.requirePartitionFilter = true;
+        return this;
+    }
+
+    public TableInfo toTableInfo(TableId tableId, Schema schema) {
+        StandardTableDefinition definition = StandardTableDefinition.newBuilder()
+                .setSchema(schema)
+                .setTimePartitioning(timePartitioning)
+                .setRangePartitioning(rangePartitioning)
+                .setClustering(clustering)
+                .build();
+        TableInfo.Builder tableInfo = TableInfo.newBuilder(tableId, definition);
+        if (requirePartitionFilter) {
+            tableInfo.setRequirePartitionFilter(true);
+        }
+        return tableInfo.build();
+    }
+
+    public boolean isPartitioned() {
+        return timePartitioning != null || rangePartitioning != null;
+    }
+}
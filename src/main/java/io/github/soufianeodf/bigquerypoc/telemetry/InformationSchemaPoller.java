@@ -0,0 +1,139 @@
+package io.github.soufianeodf.bigquerypoc.telemetry;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.FieldValue;
+import com.google.cloud.bigquery.FieldValueList;
+import com.google.cloud.bigquery.QueryJobConfiguration;
+import com.google.cloud.bigquery.QueryParameterValue;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically records the query jobs of the project from {@code INFORMATION_SCHEMA.JOBS_BY_PROJECT}, which also
+ * covers jobs run by other processes and jobs whose process stopped before it recorded them. Jobs already recorded
+ * by the services are skipped.
+ * <p>
+ * Jobs are picked up by their end time, so a long job created before a poll is recorded once it finishes. Each poll
+ * reads again the last minute before the newest end time seen, for the jobs the view listed late; those already
+ * recorded are skipped.
+ * <p>
+ * The view lags the jobs by a few seconds and a poll is a query billed for at least 10 MB, the interval is meant to
+ * be minutes.
+ */
+@Slf4j
+public class InformationSchemaPoller {
+
+    // Lets the poller recognize its own jobs in the view
+    private static final String MARKER = "-- job telemetry poll";
+    private static final long OVERLAP_MICROS = 60_000_000L;
+    private static final String QUERY = MARKER + "\n"
+            + "SELECT job_id, query, creation_time, start_time, end_time, total_slot_ms, total_bytes_processed,\n"
+            + "  total_bytes_billed, cache_hit, error_result.reason AS error_reason,\n"
+            + "  ARRAY(SELECT AS STRUCT s.name, s.compute_ms_max, s.wait_ms_max, s.read_ms_max, s.write_ms_max,\n"
+            + "    s.shuffle_output_bytes_spilled, s.records_read, s.records_written FROM UNNEST(job_stages) AS s) AS stages\n"
+            + "FROM `region-%s`.INFORMATION_SCHEMA.JOBS_BY_PROJECT\n"
+            // Jobs run for at most 6 hours, the bound on creation_time only prunes the partitions read
+            + "WHERE end_time > @since AND creation_time > TIMESTAMP_SUB(@since, INTERVAL 6 HOUR)\n"
+            + "  AND state = 'DONE' AND job_type = 'QUERY'\n"
+            + "  AND statement_type != 'SCRIPT' AND NOT STARTS_WITH(query, '" + MARKER + "')\n"
+            + "ORDER BY end_time";
+
+    private final BigQuery bigquery;
+    private final JobTelemetry telemetry;
+    private final String sql;
+    private final long intervalMillis;
+    private ScheduledExecutorService scheduler;
+    // End time, in microseconds, of the newest job seen by the previous polls
+    private long newestEndMicros;
+
+    public InformationSchemaPoller(BigQuery bigquery, JobTelemetry telemetry, String region, long intervalMillis, long lookbackMillis) {
+        this.bigquery = bigquery;
+        this.telemetry = telemetry;
+        this.sql = String.format(QUERY, region);
+        this.intervalMillis = intervalMillis;
+        this.newestEndMicros = (System.currentTimeMillis() - lookbackMillis) * 1000 + OVERLAP_MICROS;
+    }
+
+    /**
+     * Starts polling, unless the interval is 0.
+     */
+    public synchronized void start() {
+        if (intervalMillis <= 0 || scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bigquery-telemetry-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::poll, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records the jobs finished since the previous poll.
+     *
+     * @return the number of jobs recorded
+     */
+    public synchronized int poll() {
+        int recorded = 0;
+        try {
+            QueryJobConfiguration queryConfig = QueryJobConfiguration.newBuilder(sql)
+                    .addNamedParameter("since", QueryParameterValue.timestamp(newestEndMicros - OVERLAP_MICROS))
+                    .build();
+            for (FieldValueList row : bigquery.query(queryConfig).iterateAll()) {
+                newestEndMicros = Math.max(newestEndMicros, row.get("end_time").getTimestampValue());
+                if (telemetry.record(toProfile(row)) != null) {
+                    recorded++;
+                }
+            }
+            log.info("Polled INFORMATION_SCHEMA.JOBS_BY_PROJECT, {} new jobs recorded", recorded);
+        } catch (BigQueryException e) {
+            log.info("INFORMATION_SCHEMA.JOBS_BY_PROJECT not polled, reason: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return recorded;
+    }
+
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private static JobProfile toProfile(FieldValueList row) {
+        List<StageProfile> stages = new ArrayList<>();
+        for (FieldValue value : row.get("stages").getRepeatedValue()) {
+            FieldValueList stage = value.getRecordValue();
+            stages.add(new StageProfile(stage.get(0).getStringValue(), longOf(stage.get(1)), longOf(stage.get(2)),
+                    longOf(stage.get(3)), longOf(stage.get(4)), longOf(stage.get(5)), longOf(stage.get(6)), longOf(stage.get(7))));
+        }
+        return new JobProfile(row.get("job_id").getStringValue(), "QUERY", JobProfile.SOURCE_INFORMATION_SCHEMA,
+                JobTelemetry.queryShape(row.get("query").getStringValue()),
+                millisOf(row.get("creation_time")), millisOf(row.get("start_time")), millisOf(row.get("end_time")),
+                nullableLongOf(row.get("total_slot_ms")), nullableLongOf(row.get("total_bytes_processed")),
+                nullableLongOf(row.get("total_bytes_billed")),
+                row.get("cache_hit").isNull() ? null : row.get("cache_hit").getBooleanValue(),
+                null, null,
+                row.get("error_reason").isNull() ? null : row.get("error_reason").getStringValue(),
+                stages);
+    }
+
+    private static Long millisOf(FieldValue value) {
+        return value.isNull() ? null : value.getTimestampValue() / 1000;
+    }
+
+    private static Long nullableLongOf(FieldValue value) {
+        return value.isNull() ? null : value.getLongValue();
+    }
+
+    private static long longOf(FieldValue value) {
+        return value.isNull() ? 0 : value.getLongValue();
+    }
+}
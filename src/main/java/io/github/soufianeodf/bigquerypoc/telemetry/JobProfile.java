@@ -0,0 +1,184 @@
+package io.github.soufianeodf.bigquerypoc.telemetry;
+
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobStatistics;
+import com.google.cloud.bigquery.JobStatistics.LoadStatistics;
+import com.google.cloud.bigquery.JobStatistics.QueryStatistics;
+import com.google.cloud.bigquery.QueryStage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a finished job cost and where its time went, as kept by {@link JobTelemetry}. Statistics BigQuery didn't
+ * report for the job, such as the slot time of a load, are null.
+ */
+public class JobProfile {
+
+    public static final String SOURCE_CLIENT = "client";
+    public static final String SOURCE_INFORMATION_SCHEMA = "information_schema";
+
+    private final String jobId;
+    private final String type;
+    private final String source;
+    private final String shape;
+    private final Long creationTime;
+    private final Long pendingMs;
+    private final Long elapsedMs;
+    private final Long slotMs;
+    private final Long bytesProcessed;
+    private final Long bytesBilled;
+    private final Boolean cacheHit;
+    private final Long inputBytes;
+    private final Long outputRows;
+    private final String error;
+    private final List<StageProfile> stages;
+    private final String regression;
+
+    public JobProfile(String jobId, String type, String source, String shape, Long creationTime, Long startTime, Long endTime,
+                      Long slotMs, Long bytesProcessed, Long bytesBilled, Boolean cacheHit, Long inputBytes, Long outputRows,
+                      String error, List<StageProfile> stages) {
+        this(jobId, type, source, shape, creationTime,
+                creationTime != null && startTime != null ? startTime - creationTime : null,
+                startTime != null && endTime != null ? endTime - startTime : null,
+                slotMs, bytesProcessed, bytesBilled, cacheHit, inputBytes, outputRows, error, stages, null);
+    }
+
+    private JobProfile(String jobId, String type, String source, String shape, Long creationTime, Long pendingMs, Long elapsedMs,
+                       Long slotMs, Long bytesProcessed, Long bytesBilled, Boolean cacheHit, Long inputBytes, Long outputRows,
+                       String error, List<StageProfile> stages, String regression) {
+        this.jobId = jobId;
+        this.type = type;
+        this.source = source;
+        this.shape = shape;
+        this.creationTime = creationTime;
+        this.pendingMs = pendingMs;
+        this.elapsedMs = elapsedMs;
+        this.slotMs = slotMs;
+        this.bytesProcessed = bytesProcessed;
+        this.bytesBilled = bytesBilled;
+        this.cacheHit = cacheHit;
+        this.inputBytes = inputBytes;
+        this.outputRows = outputRows;
+        this.error = error;
+        this.stages = stages;
+        this.regression = regression;
+    }
+
+    static JobProfile of(Job job, String shape) {
+        JobStatistics statistics = job.getStatistics();
+        Long slotMs = null;
+        Long bytesProcessed = null;
+        Long bytesBilled = null;
+        Boolean cacheHit = null;
+        Long inputBytes = null;
+        Long outputRows = null;
+        List<StageProfile> stages = Collections.emptyList();
+        if (statistics instanceof QueryStatistics) {
+            QueryStatistics queryStatistics = (QueryStatistics) statistics;
+            slotMs = queryStatistics.getTotalSlotMs();
+            bytesProcessed = queryStatistics.getTotalBytesProcessed();
+            bytesBilled = queryStatistics.getTotalBytesBilled();
+            cacheHit = queryStatistics.getCacheHit();
+            if (queryStatistics.getQueryPlan() != null) {
+                stages = new ArrayList<>(queryStatistics.getQueryPlan().size());
+                for (QueryStage stage : queryStatistics.getQueryPlan()) {
+                    stages.add(StageProfile.of(stage));
+                }
+            }
+        } else if (statistics instanceof LoadStatistics) {
+            inputBytes = ((LoadStatistics) statistics).getInputBytes();
+            outputRows = ((LoadStatistics) statistics).getOutputRows();
+        }
+        String error = job.getStatus() != null && job.getStatus().getError() != null ? job.getStatus().getError().getReason() : null;
+        return new JobProfile(job.getJobId().getJob(), job.getConfiguration().getType().name(), SOURCE_CLIENT, shape,
+                statistics == null ? null : statistics.getCreationTime(),
+                statistics == null ? null : statistics.getStartTime(),
+                statistics == null ? null : statistics.getEndTime(),
+                slotMs, bytesProcessed, bytesBilled, cacheHit, inputBytes, outputRows, error, stages);
+    }
+
+    JobProfile withRegression(String regression) {
+        return new JobProfile(jobId, type, source, shape, creationTime, pendingMs, elapsedMs, slotMs, bytesProcessed, bytesBilled,
+                cacheHit, inputBytes, outputRows, error, stages, regression);
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getShape() {
+        return shape;
+    }
+
+    public Long getCreationTime() {
+        return creationTime;
+    }
+
+    /**
+     * Time the job waited in the queue before it started, mostly waiting for slots.
+     */
+    public Long getPendingMs() {
+        return pendingMs;
+    }
+
+    public Long getElapsedMs() {
+        return elapsedMs;
+    }
+
+    public Long getSlotMs() {
+        return slotMs;
+    }
+
+    public Long getBytesProcessed() {
+        return bytesProcessed;
+    }
+
+    public Long getBytesBilled() {
+        return bytesBilled;
+    }
+
+    public Boolean getCacheHit() {
+        return cacheHit;
+    }
+
+    public Long getInputBytes() {
+        return inputBytes;
+    }
+
+    public Long getOutputRows() {
+        return outputRows;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public List<StageProfile> getStages() {
+        return stages;
+    }
+
+    public long getShuffleOutputBytesSpilled() {
+        long spilled = 0;
+        for (StageProfile stage : stages) {
+            spilled += stage.getShuffleOutputBytesSpilled();
+        }
+        return spilled;
+    }
+
+    /**
+     * Why the job was flagged as slower or more expensive than the previous jobs of the same shape, null if it wasn't.
+     */
+    public String getRegression() {
+        return regression;
+    }
+}
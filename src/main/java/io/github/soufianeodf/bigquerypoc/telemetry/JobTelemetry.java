@@ -0,0 +1,224 @@
+package io.github.soufianeodf.bigquerypoc.telemetry;
+
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobConfiguration;
+import com.google.cloud.bigquery.JobStatistics.LoadStatistics;
+import com.google.cloud.bigquery.LoadJobConfiguration;
+import com.google.cloud.bigquery.QueryJobConfiguration;
+import com.google.cloud.bigquery.TableId;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Profiles of the last {@code capacity} finished jobs, oldest overwritten first, and a baseline per job shape.
+ * <p>
+ * The baseline of a shape is a moving average of the elapsed time, slot time and bytes processed of its previous
+ * jobs. Once a shape has {@code minSamples} jobs, a job above {@code regressionFactor} times the baseline on any
+ * of them is flagged as a regression. Failed jobs and jobs answered from the cache are kept but don't move the
+ * baseline, and baselines of the least recently seen shapes are dropped past {@code maxShapes}.
+ */
+@Slf4j
+public class JobTelemetry {
+
+    // Weight of the newest job in the baseline of its shape
+    private static final double BASELINE_WEIGHT = 0.2;
+    // Literals are replaced so the same query with other values has the same shape, quoted identifiers are kept
+    private static final Pattern LITERALS = Pattern.compile("(`[^`]*`)|'(?:[^'\\\\]|\\\\.)*'|\"(?:[^\"\\\\]|\\\\.)*\"|\\b\\d+(?:\\.\\d+)?\\b");
+
+    private final JobProfile[] profiles;
+    private final Map<String, Baseline> baselines;
+    private final int minSamples;
+    private final double regressionFactor;
+    private final long minRegressionMillis;
+    private int next;
+    private int size;
+    private long recordedCount;
+    private long regressionCount;
+
+    /**
+     * @param minRegressionMillis how much slower than the baseline a job must also be to be flagged, so that
+     *                            queries of a few hundred milliseconds aren't flagged for noise
+     */
+    public JobTelemetry(int capacity, final int maxShapes, int minSamples, double regressionFactor, long minRegressionMillis) {
+        this.profiles = new JobProfile[capacity];
+        this.baselines = new LinkedHashMap<String, Baseline>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Baseline> eldest) {
+                return size() > maxShapes;
+            }
+        };
+        this.minSamples = minSamples;
+        this.regressionFactor = regressionFactor;
+        this.minRegressionMillis = minRegressionMillis;
+    }
+
+    /**
+     * Records a finished job, its shape derived from the SQL of a query or the destination of a load.
+     */
+    public JobProfile record(Job job) {
+        return record(job, null);
+    }
+
+    /**
+     * Records a finished job under the given shape, such as the one of its {@code PreparedQuery}.
+     */
+    public JobProfile record(Job job, String shape) {
+        return record(JobProfile.of(job, shape != null ? shape.replace('\u0000', '|') : shapeOf(job)));
+    }
+
+    /**
+     * Records the profile unless a profile of the same job is already kept.
+     *
+     * @return the profile as kept, flagged when it is a regression, null if the job was already recorded
+     */
+    public synchronized JobProfile record(JobProfile profile) {
+        if (getProfile(profile.getJobId()) != null) {
+            return null;
+        }
+        if (profile.getError() == null && !Boolean.TRUE.equals(profile.getCacheHit())) {
+            Baseline baseline = baselines.get(profile.getShape());
+            if (baseline == null) {
+                baseline = new Baseline();
+                baselines.put(profile.getShape(), baseline);
+            }
+            String regression = baseline.samples >= minSamples ? regressionOf(profile, baseline) : null;
+            baseline.add(profile);
+            if (regression != null) {
+                profile = profile.withRegression(regression);
+                regressionCount++;
+                log.info("Job {} of shape {} regressed, {}", profile.getJobId(), profile.getShape(), regression);
+            }
+        }
+        profiles[next] = profile;
+        next = (next + 1) % profiles.length;
+        size = Math.min(size + 1, profiles.length);
+        recordedCount++;
+        return profile;
+    }
+
+    /**
+     * The kept profiles, newest first.
+     */
+    public synchronized List<JobProfile> getProfiles() {
+        List<JobProfile> recent = new ArrayList<>(size);
+        for (int i = 1; i <= size; i++) {
+            recent.add(profiles[(next - i + profiles.length) % profiles.length]);
+        }
+        return recent;
+    }
+
+    public synchronized List<JobProfile> getRegressions() {
+        List<JobProfile> regressions = new ArrayList<>();
+        for (JobProfile profile : getProfiles()) {
+            if (profile.getRegression() != null) {
+                regressions.add(profile);
+            }
+        }
+        return regressions;
+    }
+
+    public synchronized JobProfile getProfile(String jobId) {
+        for (int i = 0; i < size; i++) {
+            if (profiles[i].getJobId().equals(jobId)) {
+                return profiles[i];
+            }
+        }
+        return null;
+    }
+
+    public int getCapacity() {
+        return profiles.length;
+    }
+
+    public synchronized long getRecordedCount() {
+        return recordedCount;
+    }
+
+    public synchronized long getRegressionCount() {
+        return regressionCount;
+    }
+
+    /**
+     * The SQL with its literals replaced and its whitespace collapsed.
+     */
+    public static String queryShape(String sql) {
+        Matcher matcher = LITERALS.matcher(sql);
+        StringBuffer shape = new StringBuffer();
+        while (matcher.find()) {
+            matcher.appendReplacement(shape, matcher.group(1) != null ? Matcher.quoteReplacement(matcher.group(1)) : "?");
+        }
+        matcher.appendTail(shape);
+        return shape.toString().trim().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * The destination and format of a load. Load times grow with the input, so loads are only compared with loads
+     * of the same power of two of bytes.
+     */
+    public static String loadShape(TableId table, String format, long inputBytes) {
+        StringBuilder shape = new StringBuilder("LOAD ").append(table.getDataset()).append('.').append(table.getTable())
+                .append(' ').append(format);
+        if (inputBytes > 0) {
+            shape.append(" <2^").append(64 - Long.numberOfLeadingZeros(inputBytes)).append(" bytes");
+        }
+        return shape.toString();
+    }
+
+    private static String shapeOf(Job job) {
+        JobConfiguration configuration = job.getConfiguration();
+        if (configuration instanceof QueryJobConfiguration) {
+            return queryShape(((QueryJobConfiguration) configuration).getQuery());
+        } else if (configuration instanceof LoadJobConfiguration) {
+            LoadJobConfiguration load = (LoadJobConfiguration) configuration;
+            Long inputBytes = job.getStatistics() instanceof LoadStatistics ? ((LoadStatistics) job.getStatistics()).getInputBytes() : null;
+            return loadShape(load.getDestinationTable(), load.getFormat(), inputBytes == null ? 0 : inputBytes);
+        }
+        return configuration.getType().name();
+    }
+
+    private String regressionOf(JobProfile profile, Baseline baseline) {
+        StringBuilder regression = new StringBuilder();
+        appendIfRegressed(regression, "elapsed_ms", profile.getElapsedMs(), baseline.elapsedMs, minRegressionMillis);
+        appendIfRegressed(regression, "slot_ms", profile.getSlotMs(), baseline.slotMs, minRegressionMillis);
+        appendIfRegressed(regression, "bytes_processed", profile.getBytesProcessed(), baseline.bytesProcessed, 0);
+        return regression.length() == 0 ? null : regression.toString();
+    }
+
+    private void appendIfRegressed(StringBuilder regression, String name, Long value, double baseline, long minDelta) {
+        if (value == null || baseline <= 0 || value <= baseline * regressionFactor || value - baseline < minDelta) {
+            return;
+        }
+        if (regression.length() > 0) {
+            regression.append(", ");
+        }
+        regression.append(name).append(' ').append(value).append(" against ").append(Math.round(baseline)).append(" usually");
+    }
+
+    private static final class Baseline {
+
+        private int samples;
+        private double elapsedMs;
+        private double slotMs;
+        private double bytesProcessed;
+
+        void add(JobProfile profile) {
+            elapsedMs = average(elapsedMs, profile.getElapsedMs());
+            slotMs = average(slotMs, profile.getSlotMs());
+            bytesProcessed = average(bytesProcessed, profile.getBytesProcessed());
+            samples++;
+        }
+
+        private double average(double average, Long value) {
+            if (value == null) {
+                return average;
+            }
+            return samples == 0 ? value : average + BASELINE_WEIGHT * (value - average);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package io.github.soufianeodf.bigquerypoc.telemetry;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Actuator endpoint {@code bigqueryjobs} over the profiles kept by {@link JobTelemetry}: the recent jobs newest
+ * first with the regressions among them, or the profile of a single job.
+ */
+@Component
+@Endpoint(id = "bigqueryjobs")
+public class JobTelemetryEndpoint {
+
+    private final JobTelemetry telemetry;
+
+    public JobTelemetryEndpoint(JobTelemetry telemetry) {
+        this.telemetry = telemetry;
+    }
+
+    @ReadOperation
+    public Map<String, Object> jobs() {
+        Map<String, Object> jobs = new LinkedHashMap<>();
+        jobs.put("capacity", telemetry.getCapacity());
+        jobs.put("recorded", telemetry.getRecordedCount());
+        jobs.put("regressed", telemetry.getRegressionCount());
+        jobs.put("regressions", telemetry.getRegressions());
+        jobs.put("jobs", telemetry.getProfiles());
+        return jobs;
+    }
+
+    @ReadOperation
+    public JobProfile job(@Selector String jobId) {
+        return telemetry.getProfile(jobId);
+    }
+}
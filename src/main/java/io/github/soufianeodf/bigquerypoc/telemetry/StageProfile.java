@@ -0,0 +1,67 @@
+package io.github.soufianeodf.bigquerypoc.telemetry;
+
+import com.google.cloud.bigquery.QueryStage;
+
+/**
+ * Timings of a stage of the query plan, the slowest worker of the stage for each step.
+ */
+public class StageProfile {
+
+    private final String name;
+    private final long computeMsMax;
+    private final long waitMsMax;
+    private final long readMsMax;
+    private final long writeMsMax;
+    private final long shuffleOutputBytesSpilled;
+    private final long recordsRead;
+    private final long recordsWritten;
+
+    public StageProfile(String name, long computeMsMax, long waitMsMax, long readMsMax, long writeMsMax,
+                        long shuffleOutputBytesSpilled, long recordsRead, long recordsWritten) {
+        this.name = name;
+        this.computeMsMax = computeMsMax;
+        this.waitMsMax = waitMsMax;
+        this.readMsMax = readMsMax;
+        this.writeMsMax = writeMsMax;
+        this.shuffleOutputBytesSpilled = shuffleOutputBytesSpilled;
+        this.recordsRead = recordsRead;
+        this.recordsWritten = recordsWritten;
+    }
+
+    static StageProfile of(QueryStage stage) {
+        return new StageProfile(stage.getName(), stage.getComputeMsMax(), stage.getWaitMsMax(), stage.getReadMsMax(),
+                stage.getWriteMsMax(), stage.getShuffleOutputBytesSpilled(), stage.getRecordsRead(), stage.getRecordsWritten());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getComputeMsMax() {
+        return computeMsMax;
+    }
+
+    public long getWaitMsMax() {
+        return waitMsMax;
+    }
+
+    public long getReadMsMax() {
+        return readMsMax;
+    }
+
+    public long getWriteMsMax() {
+        return writeMsMax;
+    }
+
+    public long getShuffleOutputBytesSpilled() {
+        return shuffleOutputBytesSpilled;
+    }
+
+    public long getRecordsRead() {
+        return recordsRead;
+    }
+
+    public long getRecordsWritten() {
+        return recordsWritten;
+    }
+}
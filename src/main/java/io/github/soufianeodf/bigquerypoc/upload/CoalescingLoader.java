@@ -0,0 +1,373 @@
+package io.github.soufianeodf.bigquerypoc.upload;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryError;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.CsvOptions;
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobId;
+import com.google.cloud.bigquery.JobInfo;
+import com.google.cloud.bigquery.JobStatistics.LoadStatistics;
+import com.google.cloud.bigquery.TableDataWriteChannel;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.WriteChannelConfiguration;
+import io.github.soufianeodf.bigquerypoc.client.BigQueryClientFactory;
+import io.github.soufianeodf.bigquerypoc.metrics.BigQueryMetrics;
+import io.github.soufianeodf.bigquerypoc.telemetry.JobTelemetry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Appends many small CSV sources to a table with few load jobs: sources are buffered and uploaded together as one
+ * load job once they add up to {@code maxBatchBytes}, or {@code maxDelayMillis} after the first of them arrived.
+ * The leading rows of every source are dropped, the rows are matched by position against the table schema.
+ * <p>
+ * Each source gets its own future, completed with the job that loaded it. A failed job loads nothing: the sources
+ * its errors point to (by their byte location in the upload) fail, the others are queued again once for the next
+ * batch. Batches are uploaded one after the other on a single thread. Sources not loaded when {@link #close(long)}
+ * gives up fail, whether they were still buffered, queued or being uploaded.
+ */
+@Slf4j
+public class CoalescingLoader implements AutoCloseable {
+
+    // Load errors of CSV files point to the byte offset of the bad row: "... starting at location 1234 ..."
+    private static final Pattern ERROR_LOCATION = Pattern.compile("starting at location (\\d+)");
+    private static final int UPLOAD_BLOCK_BYTES = 1024 * 1024;
+    private static final int UPLOAD_BLOCKS_IN_FLIGHT = 4;
+
+    private final BigQuery bigquery;
+    private final BigQueryClientFactory clientFactory;
+    private final BigQueryMetrics metrics;
+    private final JobTelemetry telemetry;
+    private final TableId tableId;
+    private final CsvOptions csvOptions;
+    private final long leadingRows;
+    private final String location;
+    private final long maxBatchBytes;
+    private final long maxDelayMillis;
+    private final ScheduledExecutorService flusher;
+    // Sources whose future isn't completed yet
+    private final Set<Source> unfinished = ConcurrentHashMap.newKeySet();
+    private List<Source> pending = new ArrayList<>();
+    private long pendingBytes;
+    private ScheduledFuture<?> scheduledFlush;
+
+    public CoalescingLoader(BigQuery bigquery,
+                            BigQueryClientFactory clientFactory,
+                            BigQueryMetrics metrics,
+                            JobTelemetry telemetry,
+                            TableId tableId,
+                            CsvOptions csvOptions,
+                            String location,
+                            long maxBatchBytes,
+                            long maxDelayMillis) {
+        this.bigquery = bigquery;
+        this.clientFactory = clientFactory;
+        this.metrics = metrics;
+        this.telemetry = telemetry;
+        this.tableId = tableId;
+        this.csvOptions = csvOptions;
+        this.leadingRows = csvOptions.getSkipLeadingRows() == null ? 0 : csvOptions.getSkipLeadingRows();
+        this.location = location;
+        this.maxBatchBytes = maxBatchBytes;
+        this.maxDelayMillis = maxDelayMillis;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "coalescing-loader-" + tableId.getTable());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * A receipt of a source loaded as part of a batch.
+     */
+    public static final class Receipt {
+        private final String source;
+        private final JobId jobId;
+        private final int batchSources;
+        private final long batchRows;
+
+        private Receipt(String source, JobId jobId, int batchSources, long batchRows) {
+            this.source = source;
+            this.jobId = jobId;
+            this.batchSources = batchSources;
+            this.batchRows = batchRows;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public JobId getJobId() {
+            return jobId;
+        }
+
+        public int getBatchSources() {
+            return batchSources;
+        }
+
+        public long getBatchRows() {
+            return batchRows;
+        }
+    }
+
+    public CompletableFuture<Receipt> submit(Path csvFile) throws IOException {
+        return track(new Source(csvFile.toString(), Files.size(csvFile), csvFile, null));
+    }
+
+    /**
+     * Rows received in memory, in the same CSV layout as the files.
+     */
+    public CompletableFuture<Receipt> submit(String name, byte[] csv) {
+        return track(new Source(name, csv.length, null, csv));
+    }
+
+    /**
+     * Uploads the buffered sources now, without waiting for the thresholds.
+     */
+    public void flush() {
+        List<Source> batch = takePending();
+        if (!batch.isEmpty()) {
+            flusher.execute(() -> load(batch));
+        }
+    }
+
+    /**
+     * Flushes the buffered sources and waits for their load, including the sources queued again after a failed
+     * batch, at most {@code timeoutSeconds} seconds. The futures of the sources not loaded by then fail.
+     */
+    public void close(long timeoutSeconds) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        try {
+            do {
+                flush();
+                // Batches run one after the other, once this no-op ran the batches flushed before it are done
+                flusher.submit(() -> {
+                }).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } while (hasPending());
+        } catch (ExecutionException | TimeoutException e) {
+            log.info("Loads into table {} still running after {} s", tableId.getTable(), timeoutSeconds);
+        } finally {
+            // Dropped from the queue or interrupted, these batches never complete their futures on their own
+            flusher.shutdownNow();
+            failUnfinished();
+        }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        close(TimeUnit.DAYS.toSeconds(1));
+    }
+
+    private CompletableFuture<Receipt> track(Source source) {
+        unfinished.add(source);
+        source.result.whenComplete((receipt, failure) -> unfinished.remove(source));
+        return submit(source);
+    }
+
+    private CompletableFuture<Receipt> submit(Source source) {
+        List<Source> batch = null;
+        synchronized (this) {
+            pending.add(source);
+            pendingBytes += source.size;
+            if (pendingBytes >= maxBatchBytes) {
+                batch = takePending();
+            } else if (scheduledFlush == null) {
+                scheduledFlush = flusher.schedule(this::flush, maxDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (batch != null) {
+            List<Source> full = batch;
+            flusher.execute(() -> load(full));
+        }
+        return source.result;
+    }
+
+    private synchronized boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    private synchronized List<Source> takePending() {
+        List<Source> batch = pending;
+        pending = new ArrayList<>();
+        pendingBytes = 0;
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        return batch;
+    }
+
+    private void load(List<Source> batch) {
+        JobId jobId = JobId.newBuilder().setLocation(location).setJob("jobId_" + UUID.randomUUID()).build();
+        WriteChannelConfiguration writeChannelConfiguration = WriteChannelConfiguration.newBuilder(tableId)
+                .setFormatOptions(csvOptions.toBuilder().setSkipLeadingRows(0).build())
+                .setWriteDisposition(JobInfo.WriteDisposition.WRITE_APPEND)
+                .build();
+        try {
+            // A failed upload is never committed, so no job loads part of the batch
+            TableDataWriteChannel writer = clientFactory.writer(bigquery, jobId, writeChannelConfiguration);
+            long bytesSent = PipelinedUpload.transferAndClose(out -> concatenate(batch, out), writer, UPLOAD_BLOCK_BYTES, UPLOAD_BLOCKS_IN_FLIGHT);
+            Job completedJob = bigquery.getJob(jobId).waitFor();
+            if (completedJob == null) {
+                fail(batch, new BigQueryException(BigQueryException.UNKNOWN_CODE, "Load job " + jobId.getJob() + " no longer exists"));
+                return;
+            }
+            telemetry.record(completedJob);
+            if (completedJob.getStatus().getError() != null) {
+                metrics.error("coalescedLoad", new BigQueryException(BigQueryException.UNKNOWN_CODE, "Load failed", completedJob.getStatus().getError()));
+                attributeFailure(batch, completedJob);
+            } else {
+                LoadStatistics stats = completedJob.getStatistics();
+                metrics.recordLoad(bytesSent, stats);
+                long rows = stats.getOutputRows() == null ? 0 : stats.getOutputRows();
+                log.info("Loaded {} sources, {} rows into table {} with job {}", batch.size(), rows, tableId.getTable(), jobId.getJob());
+                for (Source source : batch) {
+                    source.result.complete(new Receipt(source.name, jobId, batch.size(), rows));
+                }
+            }
+        } catch (BigQueryException e) {
+            metrics.error("coalescedLoad", e);
+            fail(batch, e);
+        } catch (IOException e) {
+            fail(batch, new BigQueryException(BigQueryException.UNKNOWN_CODE, "Upload failed, reason: " + e.getMessage(), e));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(batch, new BigQueryException(BigQueryException.UNKNOWN_CODE, "Interrupted while loading", e));
+        }
+    }
+
+    // Every source is written without its leading rows and ends with a line break, its byte range is kept
+    private void concatenate(List<Source> batch, OutputStream out) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long offset = 0;
+        for (Source source : batch) {
+            source.start = offset;
+            try (InputStream in = source.open()) {
+                long skipped = 0;
+                int last = '\n';
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    int from = 0;
+                    while (skipped < leadingRows && from < read) {
+                        if (buffer[from++] == '\n') {
+                            skipped++;
+                        }
+                    }
+                    if (from < read) {
+                        out.write(buffer, from, read - from);
+                        offset += read - from;
+                        last = buffer[read - 1];
+                    }
+                }
+                if (last != '\n') {
+                    out.write('\n');
+                    offset++;
+                }
+            }
+            source.end = offset;
+        }
+    }
+
+    private void attributeFailure(List<Source> batch, Job completedJob) {
+        List<BigQueryError> errors = completedJob.getStatus().getExecutionErrors() == null
+                ? Collections.singletonList(completedJob.getStatus().getError())
+                : completedJob.getStatus().getExecutionErrors();
+        List<Source> innocent = new ArrayList<>();
+        for (Source source : batch) {
+            BigQueryError cause = null;
+            for (BigQueryError error : errors) {
+                Matcher location = error.getMessage() == null ? null : ERROR_LOCATION.matcher(error.getMessage());
+                if (location != null && location.find()) {
+                    long position = Long.parseLong(location.group(1));
+                    if (position >= source.start && position < source.end) {
+                        cause = error;
+                    }
+                }
+            }
+            if (cause != null) {
+                log.info("Source {} rejected by load job {}, reason: {}", source.name, completedJob.getJobId().getJob(), cause.getMessage());
+                source.result.completeExceptionally(new BigQueryException(BigQueryException.UNKNOWN_CODE, cause.getMessage(), cause));
+            } else {
+                innocent.add(source);
+            }
+        }
+
+        if (innocent.size() == batch.size()) {
+            // Nothing points to a source, it is no use trying the same batch again
+            fail(batch, new BigQueryException(BigQueryException.UNKNOWN_CODE, "Load failed", completedJob.getStatus().getError()));
+            return;
+        }
+        for (Source source : innocent) {
+            if (source.requeued) {
+                source.result.completeExceptionally(new BigQueryException(BigQueryException.UNKNOWN_CODE, "Load failed again in another batch", completedJob.getStatus().getError()));
+            } else {
+                source.requeued = true;
+                submit(source);
+            }
+        }
+    }
+
+    private void failUnfinished() {
+        List<Source> sources = new ArrayList<>(unfinished);
+        if (sources.isEmpty()) {
+            return;
+        }
+        log.info("Closed with {} sources of table {} not loaded", sources.size(), tableId.getTable());
+        BigQueryException e = new BigQueryException(BigQueryException.UNKNOWN_CODE, "Loader closed before the source was loaded");
+        for (Source source : sources) {
+            source.result.completeExceptionally(e);
+        }
+    }
+
+    private static void fail(List<Source> batch, BigQueryException e) {
+        log.info("Load of {} sources failed, reason: {}", batch.size(), e.getMessage());
+        for (Source source : batch) {
+            source.result.completeExceptionally(e);
+        }
+    }
+
+    private static final class Source {
+        private final String name;
+        private final long size;
+        private final Path path;
+        private final byte[] data;
+        private final CompletableFuture<Receipt> result = new CompletableFuture<>();
+        // Byte range in the upload of its current batch
+        private long start;
+        private long end;
+        private boolean requeued;
+
+        private Source(String name, long size, Path path, byte[] data) {
+            this.name = name;
+            this.size = size;
+            this.path = path;
+            this.data = data;
+        }
+
+        private InputStream open() throws IOException {
+            return path != null ? Files.newInputStream(path) : new ByteArrayInputStream(data);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package io.github.soufianeodf.bigquerypoc.upload;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * How much of a growing file a table already holds, kept as labels of the table so that it lives and dies with
+ * the data. Besides the byte offset and line count, the checksum of the bytes right before the offset tells an
+ * appended file from a rewritten one.
+ */
+public final class IncrementalWatermark {
+
+    private static final String OFFSET_LABEL = "incremental_offset";
+    private static final String LINES_LABEL = "incremental_lines";
+    private static final String CHECKSUM_LABEL = "incremental_crc";
+    private static final int CHECKSUM_WINDOW = 4096;
+
+    private final long offset;
+    private final long lines;
+    private final String checksum;
+
+    public IncrementalWatermark(long offset, long lines, String checksum) {
+        this.offset = offset;
+        this.lines = lines;
+        this.checksum = checksum;
+    }
+
+    /**
+     * Returns null when the labels hold no watermark.
+     */
+    public static IncrementalWatermark fromLabels(Map<String, String> labels) {
+        if (labels == null || !labels.containsKey(OFFSET_LABEL) || !labels.containsKey(CHECKSUM_LABEL)) {
+            return null;
+        }
+        try {
+            return new IncrementalWatermark(
+                    Long.parseLong(labels.get(OFFSET_LABEL)),
+                    labels.containsKey(LINES_LABEL) ? Long.parseLong(labels.get(LINES_LABEL)) : 0,
+                    labels.get(CHECKSUM_LABEL));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public static IncrementalWatermark at(FileChannel fileChannel, long offset, long lines) throws IOException {
+        return new IncrementalWatermark(offset, lines, checksum(fileChannel, offset));
+    }
+
+    /**
+     * The labels of the table with this watermark set, the other labels are kept.
+     */
+    public Map<String, String> toLabels(Map<String, String> labels) {
+        Map<String, String> merged = labels == null ? new HashMap<>() : new HashMap<>(labels);
+        merged.put(OFFSET_LABEL, Long.toString(offset));
+        merged.put(LINES_LABEL, Long.toString(lines));
+        merged.put(CHECKSUM_LABEL, checksum);
+        return merged;
+    }
+
+    /**
+     * True when the file still starts with the bytes this watermark was taken on.
+     */
+    public boolean matches(FileChannel fileChannel) throws IOException {
+        return offset <= fileChannel.size() && checksum.equals(checksum(fileChannel, offset));
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    private static String checksum(FileChannel fileChannel, long offset) throws IOException {
+        long start = Math.max(0, offset - CHECKSUM_WINDOW);
+        CRC32 crc = new CRC32();
+        if (offset > start) {
+            crc.update(fileChannel.map(FileChannel.MapMode.READ_ONLY, start, offset - start));
+        }
+        return Long.toHexString(crc.getValue());
+    }
+}
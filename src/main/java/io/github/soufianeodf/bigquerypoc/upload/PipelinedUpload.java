@@ -0,0 +1,163 @@
+package io.github.soufianeodf.bigquerypoc.upload;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a {@link Transcoder} on a background thread and uploads its output from the calling thread, so encoding
+ * and network transfer overlap. The two sides exchange a fixed pool of blocks: memory stays bounded to
+ * {@code blockSize * blocksInFlight} and the blocks are recycled instead of reallocated.
+ */
+public final class PipelinedUpload {
+
+    private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+
+    private PipelinedUpload() {
+    }
+
+    /**
+     * Writes the encoded bytes to the channel.
+     */
+    @FunctionalInterface
+    public interface Transcoder {
+        void transcode(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Returns the number of bytes written to the channel, once the transcoder is done and all of them are sent.
+     */
+    public static long transfer(Transcoder transcoder, WritableByteChannel channel, int blockSize, int blocksInFlight)
+            throws IOException, InterruptedException {
+        // Every filled block comes from the pool, so the queue always has room left for the end marker
+        BlockingQueue<ByteBuffer> filled = new ArrayBlockingQueue<>(blocksInFlight + 1);
+        BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(blocksInFlight);
+        for (int i = 0; i < blocksInFlight; i++) {
+            free.add(new byte[blockSize]);
+        }
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread producer = new Thread(() -> {
+            try (BlockOutputStream out = new BlockOutputStream(filled, free)) {
+                transcoder.transcode(out);
+            } catch (Throwable e) {
+                failure.set(e);
+            } finally {
+                filled.offer(END_OF_STREAM);
+            }
+        }, "upload-transcoder");
+        producer.setDaemon(true);
+        producer.start();
+
+        long bytesSent = 0;
+        try {
+            ByteBuffer block;
+            while ((block = filled.take()) != END_OF_STREAM) {
+                bytesSent += block.remaining();
+                while (block.hasRemaining()) {
+                    channel.write(block);
+                }
+                free.put(block.array());
+            }
+        } finally {
+            // Stops the transcoder if the upload failed, it is blocked waiting for a free block
+            producer.interrupt();
+            producer.join();
+        }
+
+        Throwable e = failure.get();
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        } else if (e != null) {
+            throw new IOException("Transcoding failed", e);
+        }
+        return bytesSent;
+    }
+
+    /**
+     * Same as {@link #transfer}, then closes the channel. Closing a {@code TableDataWriteChannel} commits the upload
+     * and starts its load job, so when the transfer fails the channel is left open instead: the upload is never
+     * committed and no job loads the part of the data that was sent.
+     */
+    public static long transferAndClose(Transcoder transcoder, WritableByteChannel channel, int blockSize, int blocksInFlight)
+            throws IOException, InterruptedException {
+        long bytesSent = transfer(transcoder, channel, blockSize, blocksInFlight);
+        channel.close();
+        return bytesSent;
+    }
+
+    private static final class BlockOutputStream extends OutputStream {
+
+        private final BlockingQueue<ByteBuffer> filled;
+        private final BlockingQueue<byte[]> free;
+        private byte[] block;
+        private int position;
+        private boolean closed;
+
+        private BlockOutputStream(BlockingQueue<ByteBuffer> filled, BlockingQueue<byte[]> free) {
+            this.filled = filled;
+            this.free = free;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureBlock();
+            block[position++] = (byte) b;
+            if (position == block.length) {
+                hand();
+            }
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                ensureBlock();
+                int count = Math.min(length, block.length - position);
+                System.arraycopy(bytes, offset, block, position, count);
+                position += count;
+                offset += count;
+                length -= count;
+                if (position == block.length) {
+                    hand();
+                }
+            }
+        }
+
+        // Encoders close their output when they finish, the pipeline closes it again
+        @Override
+        public void close() throws IOException {
+            if (!closed && block != null && position > 0) {
+                hand();
+            }
+            closed = true;
+        }
+
+        private void ensureBlock() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (block == null) {
+                try {
+                    block = free.take();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Upload stopped");
+                }
+                position = 0;
+            }
+        }
+
+        private void hand() throws IOException {
+            try {
+                filled.put(ByteBuffer.wrap(block, 0, position));
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Upload stopped");
+            }
+            block = null;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package io.github.soufianeodf.bigquerypoc.cache;
+
+import com.google.cloud.NoCredentials;
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryOptions;
+import com.google.cloud.bigquery.DatasetId;
+import com.google.cloud.bigquery.DatasetInfo;
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.InsertAllRequest;
+import com.google.cloud.bigquery.QueryJobConfiguration;
+import com.google.cloud.bigquery.QueryParameterValue;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.StandardSQLTypeName;
+import com.google.cloud.bigquery.StandardTableDefinition;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.TableInfo;
+import com.google.cloud.bigquery.spi.v2.BigQueryRpc;
+import io.github.soufianeodf.bigquerypoc.local.LocalBigQueryRpc;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QueryResultCacheTest {
+
+    private static final TableId TABLE = TableId.of("dataset", "people");
+    private static final String QUERY = "SELECT name FROM dataset.people";
+
+    private BigQuery bigquery;
+
+    @BeforeEach
+    void createTable() {
+        BigQueryRpc rpc = new LocalBigQueryRpc("project", 0, 0, 0).asRpc();
+        bigquery = BigQueryOptions.newBuilder()
+                .setProjectId("project")
+                .setCredentials(NoCredentials.getInstance())
+                .setServiceRpcFactory(options -> rpc)
+                .build()
+                .getService();
+        bigquery.create(DatasetInfo.of(TABLE.getDataset()));
+        bigquery.create(TableInfo.of(TABLE, StandardTableDefinition.of(Schema.of(Field.of("name", StandardSQLTypeName.STRING)))));
+        insert("ada");
+    }
+
+    @Test
+    void normalizeCollapsesWhitespaceOutsideOfQuotes() {
+        assertThat(QueryResultCache.normalize("  SELECT\n  name\tFROM  t  WHERE name = 'a  b' AND `x  y` = \"c\\\"  d\" ;;"))
+                .isEqualTo("SELECT name FROM t WHERE name = 'a  b' AND `x  y` = \"c\\\"  d\"");
+    }
+
+    @Test
+    void sameQueryWithOtherWhitespaceIsAHit() throws Exception {
+        QueryResultCache cache = cache(60_000, 60_000);
+
+        CachedQueryResult first = cache.get(bigquery, QueryJobConfiguration.of(QUERY));
+        CachedQueryResult second = cache.get(bigquery, QueryJobConfiguration.of("  SELECT name\n FROM dataset.people;"));
+
+        assertThat(second).isSameAs(first);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    void parametersArePartOfTheKey() throws Exception {
+        QueryResultCache cache = cache(60_000, 60_000);
+
+        cache.get(bigquery, withParameter("ada"));
+        cache.get(bigquery, withParameter("grace"));
+        cache.get(bigquery, withParameter("ada"));
+
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(2);
+    }
+
+    @Test
+    void defaultDatasetIsPartOfTheKey() throws Exception {
+        QueryResultCache cache = cache(60_000, 60_000);
+
+        cache.get(bigquery, withDefaultDataset("dataset"));
+        cache.get(bigquery, withDefaultDataset("staging"));
+        cache.get(bigquery, withDefaultDataset("dataset"));
+
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(2);
+    }
+
+    @Test
+    void expiredEntryIsLoadedAgain() throws Exception {
+        QueryResultCache cache = cache(50, 60_000);
+
+        cache.get(bigquery, QueryJobConfiguration.of(QUERY));
+        Thread.sleep(100);
+        cache.get(bigquery, QueryJobConfiguration.of(QUERY));
+
+        assertThat(cache.getHitCount()).isZero();
+        assertThat(cache.getMissCount()).isEqualTo(2);
+    }
+
+    @Test
+    void modifiedTableIsReadAgain() throws Exception {
+        QueryResultCache cache = cache(60_000, 0);
+
+        CachedQueryResult first = cache.get(bigquery, QueryJobConfiguration.of(QUERY));
+        insert("grace");
+        Thread.sleep(5);
+        CachedQueryResult second = cache.get(bigquery, QueryJobConfiguration.of(QUERY));
+
+        assertThat(first.getRows()).hasSize(1);
+        assertThat(second.getRows()).hasSize(2);
+        assertThat(cache.getMissCount()).isEqualTo(2);
+    }
+
+    @Test
+    void invalidatedTableIsReadAgain() throws Exception {
+        QueryResultCache cache = cache(60_000, 60_000);
+
+        cache.get(bigquery, QueryJobConfiguration.of(QUERY));
+        cache.invalidate(TABLE);
+        cache.get(bigquery, QueryJobConfiguration.of(QUERY));
+
+        assertThat(cache.getHitCount()).isZero();
+        assertThat(cache.getMissCount()).isEqualTo(2);
+        assertThat(cache.getMemoryBytes()).isPositive();
+    }
+
+    private static QueryResultCache cache(long ttlMillis, long freshnessCheckMillis) {
+        return new QueryResultCache(1024 * 1024, 1024 * 1024, ttlMillis, freshnessCheckMillis, null, 0);
+    }
+
+    // The local engine ignores the parameter, it only tells the keys apart
+    private static QueryJobConfiguration withParameter(String name) {
+        return QueryJobConfiguration.newBuilder(QUERY)
+                .addNamedParameter("name", QueryParameterValue.string(name))
+                .build();
+    }
+
+    // The query names its dataset, the local engine runs it the same way for both
+    private static QueryJobConfiguration withDefaultDataset(String dataset) {
+        return QueryJobConfiguration.newBuilder(QUERY)
+                .setDefaultDataset(DatasetId.of(dataset))
+                .build();
+    }
+
+    private void insert(String name) {
+        bigquery.insertAll(InsertAllRequest.newBuilder(TABLE)
+                .addRow(Collections.<String, Object>singletonMap("name", name))
+                .build());
+    }
+}
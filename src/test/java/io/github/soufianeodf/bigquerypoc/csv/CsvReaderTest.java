@@ -0,0 +1,126 @@
+package io.github.soufianeodf.bigquerypoc.csv;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CsvReaderTest {
+
+    @Test
+    void quotedFieldsKeepCommasQuotesAndLineBreaks() throws IOException {
+        List<List<String>> records = readAll("a,\"b,c\",\"say \"\"hi\"\"\"\r\n\"two\nlines\",,\n");
+
+        assertThat(records).containsExactly(
+                Arrays.asList("a", "b,c", "say \"hi\""),
+                Arrays.asList("two\nlines", "", ""));
+    }
+
+    @Test
+    void lineEndingsAreCrLfLfOrCr() throws IOException {
+        assertThat(readAll("a\r\nb\nc\rd")).containsExactly(
+                Arrays.asList("a"), Arrays.asList("b"), Arrays.asList("c"), Arrays.asList("d"));
+    }
+
+    @Test
+    void unterminatedQuoteIsAnError() {
+        assertThatThrownBy(() -> readAll("a,\"b\n")).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void recordsLargerThanTheInitialBuffersAreRead() throws IOException {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            csv.append(i == 0 ? "" : ",").append(String.format("%040d", i));
+        }
+        CsvReader reader = reader(csv.toString());
+
+        assertThat(reader.next()).isTrue();
+        assertThat(reader.getFieldCount()).isEqualTo(100);
+        assertThat(reader.getLong(99)).isEqualTo(99);
+        assertThat(reader.next()).isFalse();
+    }
+
+    @Test
+    void longsAreParsedFromTheRecord() throws IOException {
+        CsvReader reader = reader("42,-7,+3,123456789012345678,1234567890123456789,1.5,");
+        reader.next();
+
+        assertThat(reader.getLong(0)).isEqualTo(42);
+        assertThat(reader.getLong(1)).isEqualTo(-7);
+        assertThat(reader.getLong(2)).isEqualTo(3);
+        assertThat(reader.isLong(3)).isTrue();
+        assertThat(reader.getLong(3)).isEqualTo(123456789012345678L);
+        // Past 18 digits a value may not fit, it is no longer a long for inference
+        assertThat(reader.isLong(4)).isFalse();
+        assertThat(reader.isLong(5)).isFalse();
+        assertThat(reader.isLong(6)).isFalse();
+        assertThatThrownBy(() -> reader.getLong(5)).isInstanceOf(NumberFormatException.class);
+    }
+
+    @Test
+    void doublesMatchTheJdkParser() throws IOException {
+        String[] values = {"0.1", "-12.5", "+3", "1e3", "2.5E-4", "123456789.123456789", "0.30000000000000004", ".5"};
+        CsvReader reader = reader(String.join(",", values));
+        reader.next();
+
+        for (int i = 0; i < values.length; i++) {
+            assertThat(reader.isDouble(i)).as(values[i]).isTrue();
+            assertThat(reader.getDouble(i)).as(values[i]).isEqualTo(Double.parseDouble(values[i]));
+        }
+    }
+
+    @Test
+    void nonNumbersAreNotDoubles() throws IOException {
+        CsvReader reader = reader("abc,1.2.3,1e,e5,.,-");
+        reader.next();
+
+        for (int i = 0; i < reader.getFieldCount(); i++) {
+            assertThat(reader.isDouble(i)).as(reader.getString(i)).isFalse();
+        }
+    }
+
+    @Test
+    void booleansIgnoreCase() throws IOException {
+        CsvReader reader = reader("TRUE,false,yes");
+        reader.next();
+
+        assertThat(reader.getBoolean(0)).isTrue();
+        assertThat(reader.getBoolean(1)).isFalse();
+        assertThat(reader.isBoolean(2)).isFalse();
+    }
+
+    @Test
+    void fieldComparisonsMatchTheString() throws IOException {
+        CsvReader reader = reader("\"hé,llo\",x");
+        reader.next();
+
+        assertThat(reader.hashField(0)).isEqualTo("hé,llo".hashCode());
+        assertThat(reader.fieldEquals(0, "hé,llo")).isTrue();
+        assertThat(reader.fieldEquals(1, "y")).isFalse();
+    }
+
+    private static CsvReader reader(String csv) {
+        return new CsvReader(new StringReader(csv));
+    }
+
+    private static List<List<String>> readAll(String csv) throws IOException {
+        List<List<String>> records = new ArrayList<>();
+        try (CsvReader reader = reader(csv)) {
+            while (reader.next()) {
+                List<String> record = new ArrayList<>();
+                for (int i = 0; i < reader.getFieldCount(); i++) {
+                    record.add(reader.getString(i));
+                }
+                records.add(record);
+            }
+        }
+        return records;
+    }
+}
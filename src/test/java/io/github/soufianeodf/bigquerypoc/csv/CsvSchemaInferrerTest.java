@@ -0,0 +1,72 @@
+package io.github.soufianeodf.bigquerypoc.csv;
+
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.StandardSQLTypeName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CsvSchemaInferrerTest {
+
+    @Test
+    void typeIsTheNarrowestEveryValueParsesAs() throws IOException {
+        Schema schema = infer("id,price,active,name,mixed\n"
+                + "1,2.5,true,ada,1\n"
+                + "2,3,FALSE,grace,1.5\n", 100);
+
+        assertThat(schema.getFields()).extracting(Field::getName).containsExactly("id", "price", "active", "name", "mixed");
+        assertThat(types(schema)).containsExactly(
+                StandardSQLTypeName.INT64, StandardSQLTypeName.FLOAT64, StandardSQLTypeName.BOOL,
+                StandardSQLTypeName.STRING, StandardSQLTypeName.FLOAT64);
+        assertThat(schema.getFields()).extracting(Field::getMode).containsOnly(Field.Mode.NULLABLE);
+    }
+
+    @Test
+    void emptyValuesDontDecideTheType() throws IOException {
+        Schema schema = infer("count,never\n,\n7,\n,\n", 100);
+
+        assertThat(types(schema)).containsExactly(StandardSQLTypeName.INT64, StandardSQLTypeName.STRING);
+    }
+
+    @Test
+    void onlyTheSampleIsRead() throws IOException {
+        Schema schema = infer("value\n1\n2\nthree\n", 2);
+
+        assertThat(types(schema)).containsExactly(StandardSQLTypeName.INT64);
+    }
+
+    @Test
+    void shortRecordsLeaveTheMissingColumnsAlone() throws IOException {
+        Schema schema = infer("a,b\n1\n2,x\n", 100);
+
+        assertThat(types(schema)).containsExactly(StandardSQLTypeName.INT64, StandardSQLTypeName.STRING);
+    }
+
+    @Test
+    void headersAreMadeValidColumnNames() throws IOException {
+        Schema schema = infer(" unit price ,2019,,prix_é\n", 100);
+
+        assertThat(schema.getFields()).extracting(Field::getName)
+                .containsExactly("unit_price", "_2019", "string_field_2", "prix__");
+    }
+
+    @Test
+    void emptyInputHasNoSchema() {
+        assertThatThrownBy(() -> infer("", 100)).isInstanceOf(IOException.class);
+    }
+
+    private static Schema infer(String csv, int sampleRows) throws IOException {
+        return CsvSchemaInferrer.infer(new CsvReader(new StringReader(csv)), sampleRows);
+    }
+
+    private static StandardSQLTypeName[] types(Schema schema) {
+        return schema.getFields().stream()
+                .map(field -> field.getType().getStandardType())
+                .toArray(StandardSQLTypeName[]::new);
+    }
+}
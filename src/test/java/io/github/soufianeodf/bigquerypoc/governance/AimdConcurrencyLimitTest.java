@@ -0,0 +1,83 @@
+package io.github.soufianeodf.bigquerypoc.governance;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class AimdConcurrencyLimitTest {
+
+    @Test
+    void successRaisesTheLimitByItsInverse() throws Exception {
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit(4, 1, 100, 0.5);
+
+        limit.release(limit.acquire(), false);
+
+        assertThat(limit.getLimit()).isCloseTo(4.25, within(1e-9));
+        assertThat(limit.getInFlight()).isZero();
+    }
+
+    @Test
+    void throttledCallsStartedBeforeTheCutDontCutAgain() throws Exception {
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit(8, 1, 100, 0.5);
+        Thread.sleep(1);
+        long first = limit.acquire();
+        long second = limit.acquire();
+
+        limit.release(first, true);
+        limit.release(second, true);
+        assertThat(limit.getLimit()).isEqualTo(4);
+
+        Thread.sleep(1);
+        limit.release(limit.acquire(), true);
+        assertThat(limit.getLimit()).isEqualTo(2);
+    }
+
+    @Test
+    void limitStaysWithinItsBounds() throws Exception {
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit(2, 1.5, 2.2, 0.1);
+
+        for (int i = 0; i < 10; i++) {
+            limit.release(limit.acquire(), false);
+        }
+        assertThat(limit.getLimit()).isEqualTo(2.2);
+
+        Thread.sleep(1);
+        limit.release(limit.acquire(), true);
+        assertThat(limit.getLimit()).isEqualTo(1.5);
+    }
+
+    @Test
+    void otherFailuresLeaveTheLimitAlone() throws Exception {
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit(4, 1, 100, 0.5);
+
+        limit.acquire();
+        limit.releaseUnchanged();
+
+        assertThat(limit.getLimit()).isEqualTo(4);
+        assertThat(limit.getInFlight()).isZero();
+    }
+
+    @Test
+    void acquireWaitsForAFreeSlot() throws Exception {
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit(1.9, 1, 100, 0.5);
+        long first = limit.acquire();
+
+        CompletableFuture<Long> second = CompletableFuture.supplyAsync(() -> {
+            try {
+                return limit.acquire();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertThat(second).isNotDone();
+
+        limit.release(first, false);
+        second.get(5, TimeUnit.SECONDS);
+        assertThat(limit.getInFlight()).isEqualTo(1);
+    }
+}
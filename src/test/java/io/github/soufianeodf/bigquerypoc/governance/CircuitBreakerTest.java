@@ -0,0 +1,87 @@
+package io.github.soufianeodf.bigquerypoc.governance;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerTest {
+
+    @Test
+    void opensAfterConsecutiveFailuresOnly() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 60_000);
+
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+        breaker.onFailure();
+        assertThat(breaker.isOpen()).isFalse();
+        assertThat(breaker.tryAcquire()).isTrue();
+
+        breaker.onFailure();
+        assertThat(breaker.isOpen()).isTrue();
+        assertThat(breaker.tryAcquire()).isFalse();
+    }
+
+    @Test
+    void singleTrialCallAfterTheOpenTime() throws Exception {
+        CircuitBreaker breaker = opened(50);
+        assertThat(breaker.tryAcquire()).isFalse();
+
+        Thread.sleep(60);
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.tryAcquire()).isFalse();
+    }
+
+    @Test
+    void successfulTrialCloses() throws Exception {
+        CircuitBreaker breaker = opened(50);
+        Thread.sleep(60);
+        breaker.tryAcquire();
+
+        breaker.onSuccess();
+
+        assertThat(breaker.isOpen()).isFalse();
+        assertThat(breaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void failedTrialOpensForAnotherOpenTime() throws Exception {
+        CircuitBreaker breaker = opened(50);
+        Thread.sleep(60);
+        breaker.tryAcquire();
+
+        breaker.onFailure();
+
+        assertThat(breaker.tryAcquire()).isFalse();
+        Thread.sleep(60);
+        assertThat(breaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void abandonedTrialLetsTheNextCallTry() throws Exception {
+        CircuitBreaker breaker = opened(50);
+        Thread.sleep(60);
+        breaker.tryAcquire();
+
+        breaker.onAbandoned();
+
+        assertThat(breaker.isOpen()).isTrue();
+        assertThat(breaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void abandonedCallLeavesAClosedBreakerClosed() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 60_000);
+
+        breaker.onAbandoned();
+
+        assertThat(breaker.isOpen()).isFalse();
+    }
+
+    private static CircuitBreaker opened(long openMillis) {
+        CircuitBreaker breaker = new CircuitBreaker(1, openMillis);
+        breaker.onFailure();
+        return breaker;
+    }
+}
@@ -0,0 +1,82 @@
+package io.github.soufianeodf.bigquerypoc.governance;
+
+import com.google.cloud.bigquery.BigQueryException;
+import io.github.soufianeodf.bigquerypoc.config.BigQueryClientProperties;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RequestGovernorTest {
+
+    private final RequestGovernor governor = new RequestGovernor(settings());
+
+    @Test
+    void throttlingCutsTheLimitWithoutOpeningTheBreaker() throws Exception {
+        Thread.sleep(1);
+        assertThatThrownBy(() -> governor.attempt(OperationType.JOB, () -> {
+            throw new BigQueryException(429, "Too many requests");
+        })).isInstanceOf(BigQueryException.class);
+
+        assertThat(governor.getConcurrencyLimit()).isEqualTo(4);
+        assertThat(governor.getThrottledCalls()).isEqualTo(1);
+        assertThat(governor.isCircuitOpen()).isFalse();
+        assertThat(governor.getInFlight()).isZero();
+    }
+
+    @Test
+    void serverErrorOpensTheBreaker() {
+        serverError();
+
+        assertThat(governor.isCircuitOpen()).isTrue();
+        assertThatThrownBy(() -> governor.attempt(OperationType.JOB, () -> "never called"))
+                .isInstanceOf(CircuitOpenException.class);
+        assertThat(governor.getRejectedCalls()).isEqualTo(1);
+    }
+
+    @Test
+    void interruptedTrialDoesNotLeaveTheBreakerHalfOpen() throws Exception {
+        serverError();
+        Thread.sleep(60);
+
+        assertThatThrownBy(() -> governor.attempt(OperationType.JOB, () -> {
+            throw new InterruptedException();
+        })).isInstanceOf(InterruptedException.class);
+
+        assertThat(governor.getInFlight()).isZero();
+        assertThat(governor.attempt(OperationType.JOB, () -> "answered")).isEqualTo("answered");
+        assertThat(governor.isCircuitOpen()).isFalse();
+    }
+
+    @Test
+    void trialEndingWithAnErrorDoesNotLeaveTheBreakerHalfOpen() throws Exception {
+        serverError();
+        Thread.sleep(60);
+
+        assertThatThrownBy(() -> governor.attempt(OperationType.JOB, () -> {
+            throw new OutOfMemoryError();
+        })).isInstanceOf(OutOfMemoryError.class);
+
+        assertThat(governor.getInFlight()).isZero();
+        assertThat(governor.attempt(OperationType.JOB, () -> "answered")).isEqualTo("answered");
+        assertThat(governor.isCircuitOpen()).isFalse();
+    }
+
+    private void serverError() {
+        assertThatThrownBy(() -> governor.attempt(OperationType.JOB, () -> {
+            throw new BigQueryException(503, "Backend error");
+        })).isInstanceOf(BigQueryException.class);
+    }
+
+    private static BigQueryClientProperties.Governance settings() {
+        BigQueryClientProperties.Governance settings = new BigQueryClientProperties.Governance();
+        settings.setEnabled(true);
+        settings.setJobsPerSecond(0);
+        settings.setMetadataPerSecond(0);
+        settings.setInitialConcurrency(8);
+        settings.setDecreaseFactor(0.5);
+        settings.setBreakerFailureThreshold(1);
+        settings.setBreakerOpenMillis(50);
+        return settings;
+    }
+}
@@ -0,0 +1,199 @@
+package io.github.soufianeodf.bigquerypoc.read;
+
+import com.google.cloud.NoCredentials;
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryOptions;
+import com.google.cloud.bigquery.DatasetInfo;
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.InsertAllRequest;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.StandardSQLTypeName;
+import com.google.cloud.bigquery.StandardTableDefinition;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.TableInfo;
+import com.google.cloud.bigquery.spi.v2.BigQueryRpc;
+import io.github.soufianeodf.bigquerypoc.local.LocalBigQueryRpc;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TableRangeReaderTest {
+
+    private static final TableId TABLE = TableId.of("dataset", "numbers");
+    private static final int ROWS = 100;
+
+    private final SlowRanges rpc = new SlowRanges(new LocalBigQueryRpc("project", 0, 0, 0).asRpc());
+    private BigQuery bigquery;
+
+    @BeforeEach
+    void createTable() {
+        BigQueryRpc proxy = rpc.asRpc();
+        bigquery = BigQueryOptions.newBuilder()
+                .setProjectId("project")
+                .setCredentials(NoCredentials.getInstance())
+                .setServiceRpcFactory(options -> proxy)
+                .build()
+                .getService();
+        bigquery.create(DatasetInfo.of(TABLE.getDataset()));
+        bigquery.create(TableInfo.of(TABLE, StandardTableDefinition.of(Schema.of(Field.of("id", StandardSQLTypeName.INT64)))));
+        InsertAllRequest.Builder rows = InsertAllRequest.newBuilder(TABLE);
+        for (long id = 0; id < ROWS; id++) {
+            rows.addRow(Collections.<String, Object>singletonMap("id", id));
+        }
+        bigquery.insertAll(rows.build());
+    }
+
+    @Test
+    void orderedReadKeepsTableOrderWhenPagesArriveOutOfOrder() {
+        rpc.slowDown(0);
+
+        List<Long> ids = readAll(10, 4, Long.MAX_VALUE, true);
+
+        assertThat(ids).isEqualTo(range(0, ROWS));
+    }
+
+    @Test
+    void unorderedReadHandsOutPagesAsTheyArrive() {
+        rpc.slowDown(0);
+
+        List<Long> ids = readAll(10, 4, Long.MAX_VALUE, false);
+
+        assertThat(ids).containsExactlyInAnyOrderElementsOf(range(0, ROWS));
+        assertThat(ids.get(0)).isNotZero();
+        // Rows of a page stay together and in order
+        assertThat(ids.subList(0, 10)).isEqualTo(range(ids.get(0), ids.get(0) + 10));
+    }
+
+    @Test
+    void rangeLargerThanAResponseTakesSeveralCalls() {
+        rpc.capResponses(3);
+
+        List<Long> ids = readAll(10, 4, Long.MAX_VALUE, true);
+
+        assertThat(ids).isEqualTo(range(0, ROWS));
+        // 10 ranges of 10 rows, each read in 4 calls of at most 3 rows
+        assertThat(rpc.getCalls()).isEqualTo(40);
+    }
+
+    @Test
+    void bufferedBytesBoundThePagesFetchedAhead() {
+        List<Long> ids = readAll(10, 4, 1, true);
+
+        assertThat(ids).isEqualTo(range(0, ROWS));
+        assertThat(rpc.getMaxInFlight()).isEqualTo(1);
+    }
+
+    @Test
+    void emptyTableHasNoRows() {
+        TableId empty = TableId.of(TABLE.getDataset(), "empty");
+        bigquery.create(TableInfo.of(empty, StandardTableDefinition.of(Schema.of(Field.of("id", StandardSQLTypeName.INT64)))));
+
+        try (TableRangeReader reader = new TableRangeReader(bigquery, bigquery.getTable(empty), 10, 4, Long.MAX_VALUE, true)) {
+            assertThat(reader.hasNext()).isFalse();
+            assertThat(reader.getTotalRows()).isZero();
+        }
+        assertThat(rpc.getCalls()).isZero();
+    }
+
+    private List<Long> readAll(int pageRows, int parallelism, long maxBufferedBytes, boolean ordered) {
+        List<Long> ids = new ArrayList<>();
+        try (TableRangeReader reader = new TableRangeReader(bigquery, bigquery.getTable(TABLE), pageRows, parallelism, maxBufferedBytes, ordered)) {
+            assertThat(reader.getTotalRows()).isEqualTo(ROWS);
+            reader.forEachRemaining(row -> ids.add(row.get("id").getLongValue()));
+        }
+        return ids;
+    }
+
+    private static List<Long> range(long from, long to) {
+        List<Long> range = new ArrayList<>();
+        for (long i = from; i < to; i++) {
+            range.add(i);
+        }
+        return range;
+    }
+
+    /**
+     * Sits in front of the local BigQuery to delay the page starting at a given row, cap the rows of a response,
+     * and count the {@code tabledata.list} calls.
+     */
+    private static final class SlowRanges implements InvocationHandler {
+
+        private final BigQueryRpc local;
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+        private volatile long slowStart = -1;
+        private volatile long maxResults = Long.MAX_VALUE;
+
+        private SlowRanges(BigQueryRpc local) {
+            this.local = local;
+        }
+
+        BigQueryRpc asRpc() {
+            return (BigQueryRpc) Proxy.newProxyInstance(
+                    BigQueryRpc.class.getClassLoader(), new Class<?>[]{BigQueryRpc.class}, this);
+        }
+
+        void slowDown(long start) {
+            slowStart = start;
+        }
+
+        void capResponses(long rows) {
+            maxResults = rows;
+        }
+
+        int getCalls() {
+            return calls.get();
+        }
+
+        int getMaxInFlight() {
+            return maxInFlight.get();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (!"listTableData".equals(method.getName())) {
+                return delegate(method, args);
+            }
+            calls.incrementAndGet();
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Map<BigQueryRpc.Option, Object> options = new HashMap<>((Map<BigQueryRpc.Option, ?>) args[3]);
+                Object startIndex = options.get(BigQueryRpc.Option.START_INDEX);
+                if (startIndex != null && ((Number) startIndex).longValue() == slowStart) {
+                    Thread.sleep(300);
+                }
+                Object pageSize = options.get(BigQueryRpc.Option.MAX_RESULTS);
+                if (pageSize != null && ((Number) pageSize).longValue() > maxResults) {
+                    options.put(BigQueryRpc.Option.MAX_RESULTS, maxResults);
+                }
+                Object[] capped = args.clone();
+                capped[3] = options;
+                return delegate(method, capped);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        private Object delegate(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(local, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
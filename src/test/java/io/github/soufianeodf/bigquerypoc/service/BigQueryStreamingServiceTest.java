@@ -0,0 +1,288 @@
+package io.github.soufianeodf.bigquerypoc.service;
+
+import io.github.soufianeodf.bigquerypoc.streaming.StreamAppender;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BigQueryStreamingServiceTest {
+
+    // Every row is estimated at 8 bytes, a batch of 5 rows at 40
+    private static final int BATCH_SIZE = 5;
+    private static final long BATCH_BYTES = 40;
+
+    private final BigQueryStreamingService service = new BigQueryStreamingService();
+    private final ExecutorService producer = Executors.newSingleThreadExecutor();
+
+    @AfterEach
+    void shutdown() {
+        producer.shutdownNow();
+    }
+
+    @Test
+    void rowsAreCommittedInOrderOverEveryStream() throws Exception {
+        FakeStreamAppender first = new FakeStreamAppender("first");
+        FakeStreamAppender second = new FakeStreamAppender("second");
+
+        long committed = service.appendRows(Arrays.asList(first, second), rows(0, 40), BATCH_SIZE, 10 * BATCH_BYTES);
+
+        assertThat(committed).isEqualTo(40);
+        // Batches go round robin: the first stream gets the even batches, the second one the odd batches
+        List<Map<String, Object>> expectedFirst = new ArrayList<>();
+        List<Map<String, Object>> expectedSecond = new ArrayList<>();
+        for (int batch = 0; batch < 8; batch++) {
+            (batch % 2 == 0 ? expectedFirst : expectedSecond).addAll(toList(rows(batch * BATCH_SIZE, batch * BATCH_SIZE + BATCH_SIZE)));
+        }
+        assertThat(first.getCommitted()).isEqualTo(expectedFirst);
+        assertThat(second.getCommitted()).isEqualTo(expectedSecond);
+    }
+
+    @Test
+    void failedOffsetsAreResentInOrder() throws Exception {
+        FakeStreamAppender stream = new FakeStreamAppender("stream");
+        stream.failAfter(2);
+
+        long committed = service.appendRows(Collections.singletonList(stream), rows(0, 30), BATCH_SIZE, 10 * BATCH_BYTES);
+
+        assertThat(committed).isEqualTo(30);
+        assertThat(stream.getCommitted()).isEqualTo(toList(rows(0, 30)));
+        assertThat(stream.getReconnects()).isEqualTo(1);
+    }
+
+    @Test
+    void producerWaitsOnceInflightBytesReachTheLimit() throws Exception {
+        FakeStreamAppender stream = new FakeStreamAppender("stream");
+        stream.hold();
+
+        Future<Long> committed = producer.submit(() ->
+                service.appendRows(Collections.singletonList(stream), rows(0, 30), BATCH_SIZE, 2 * BATCH_BYTES));
+
+        stream.awaitAppends(2);
+        Thread.sleep(200);
+        assertThat(stream.getAppends()).isEqualTo(2);
+
+        stream.release();
+        assertThat(committed.get(5, TimeUnit.SECONDS)).isEqualTo(30);
+        assertThat(stream.getCommitted()).isEqualTo(toList(rows(0, 30)));
+    }
+
+    @Test
+    void failedAppendOfAnotherStreamDoesNotBlockTheProducer() throws Exception {
+        FakeStreamAppender first = new FakeStreamAppender("first");
+        FakeStreamAppender second = new FakeStreamAppender("second");
+        first.hold();
+
+        // Room for a single batch: the second batch waits for the bytes of the first one, sent on the first stream
+        Future<Long> committed = producer.submit(() ->
+                service.appendRows(Arrays.asList(first, second), rows(0, 20), BATCH_SIZE, BATCH_BYTES));
+        first.awaitAppends(1);
+        first.failHeld();
+
+        assertThat(committed.get(5, TimeUnit.SECONDS)).isEqualTo(20);
+        assertThat(first.getCommitted()).isEqualTo(concat(rows(0, 5), rows(10, 15)));
+        assertThat(second.getCommitted()).isEqualTo(concat(rows(5, 10), rows(15, 20)));
+    }
+
+    @Test
+    void failureArrivingAfterTheFailedCheckDoesNotBlockTheProducer() throws Exception {
+        FakeStreamAppender stream = new FakeStreamAppender("stream");
+        stream.hold();
+
+        // The stream isn't failed yet when the second batch waits for the bytes of the first one
+        Future<Long> committed = producer.submit(() ->
+                service.appendRows(Collections.singletonList(stream), rows(0, 15), BATCH_SIZE, BATCH_BYTES));
+        stream.awaitAppends(1);
+        Thread.sleep(100);
+        stream.failHeld();
+
+        assertThat(committed.get(5, TimeUnit.SECONDS)).isEqualTo(15);
+        assertThat(stream.getCommitted()).isEqualTo(toList(rows(0, 15)));
+    }
+
+    private static Iterator<Map<String, Object>> rows(int from, int to) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            rows.add(Collections.singletonMap("id", String.format("%02d", i)));
+        }
+        return rows.iterator();
+    }
+
+    private static List<Map<String, Object>> toList(Iterator<Map<String, Object>> rows) {
+        List<Map<String, Object>> list = new ArrayList<>();
+        rows.forEachRemaining(list::add);
+        return list;
+    }
+
+    private static List<Map<String, Object>> concat(Iterator<Map<String, Object>> first, Iterator<Map<String, Object>> second) {
+        List<Map<String, Object>> list = toList(first);
+        list.addAll(toList(second));
+        return list;
+    }
+
+    /**
+     * In-process stand-in of a Write API stream: rows are committed at the next offset only, a failed append breaks
+     * the stream until it reconnects, and appends can be held to be completed later.
+     */
+    private static final class FakeStreamAppender implements StreamAppender {
+
+        private final String name;
+        private final List<Map<String, Object>> committed = new ArrayList<>();
+        private final List<Append> held = new ArrayList<>();
+        private boolean holding;
+        private boolean broken;
+        private int appendsBeforeFailure = -1;
+        private int appends;
+        private int reconnects;
+
+        private FakeStreamAppender(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getStreamName() {
+            return name;
+        }
+
+        @Override
+        public CompletableFuture<Void> append(List<Map<String, Object>> rows, long offset) {
+            Append append = new Append(rows, offset);
+            synchronized (this) {
+                appends++;
+                notifyAll();
+                if (holding) {
+                    held.add(append);
+                    return append.result;
+                }
+            }
+            complete(append);
+            return append.result;
+        }
+
+        @Override
+        public boolean isAlreadyCommitted(Throwable failure) {
+            Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+            return cause instanceof AlreadyCommittedException;
+        }
+
+        @Override
+        public synchronized void reconnect() {
+            broken = false;
+            reconnects++;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        synchronized void failAfter(int appends) {
+            this.appendsBeforeFailure = appends;
+        }
+
+        synchronized void hold() {
+            holding = true;
+        }
+
+        /**
+         * Completes the held appends and no longer holds the next ones.
+         */
+        void release() {
+            List<Append> appends;
+            synchronized (this) {
+                holding = false;
+                appends = new ArrayList<>(held);
+                held.clear();
+            }
+            appends.forEach(this::complete);
+        }
+
+        /**
+         * Fails the held appends and no longer holds the next ones.
+         */
+        void failHeld() {
+            List<Append> appends;
+            synchronized (this) {
+                holding = false;
+                broken = true;
+                appends = new ArrayList<>(held);
+                held.clear();
+            }
+            appends.forEach(append -> append.result.completeExceptionally(new IllegalStateException("Stream " + name + " failed")));
+        }
+
+        synchronized void awaitAppends(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (appends < count && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+            assertThat(appends).isGreaterThanOrEqualTo(count);
+        }
+
+        synchronized int getAppends() {
+            return appends;
+        }
+
+        synchronized int getReconnects() {
+            return reconnects;
+        }
+
+        synchronized List<Map<String, Object>> getCommitted() {
+            return new ArrayList<>(committed);
+        }
+
+        private void complete(Append append) {
+            Exception failure = null;
+            synchronized (this) {
+                if (appendsBeforeFailure == 0) {
+                    broken = true;
+                }
+                if (appendsBeforeFailure >= 0) {
+                    appendsBeforeFailure--;
+                }
+                if (broken) {
+                    failure = new IllegalStateException("Stream " + name + " is broken");
+                } else if (append.offset < committed.size()) {
+                    failure = new AlreadyCommittedException();
+                } else if (append.offset > committed.size()) {
+                    broken = true;
+                    failure = new IllegalStateException("Offset " + append.offset + " is past the end " + committed.size());
+                } else {
+                    committed.addAll(append.rows);
+                }
+            }
+            // Completed outside the lock, the callbacks of the service run on this thread
+            if (failure == null) {
+                append.result.complete(null);
+            } else {
+                append.result.completeExceptionally(failure);
+            }
+        }
+    }
+
+    private static final class Append {
+        private final List<Map<String, Object>> rows;
+        private final long offset;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        private Append(List<Map<String, Object>> rows, long offset) {
+            this.rows = rows;
+            this.offset = offset;
+        }
+    }
+
+    private static final class AlreadyCommittedException extends RuntimeException {
+    }
+}
@@ -0,0 +1,56 @@
+package io.github.soufianeodf.bigquerypoc.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BigQueryTableServiceTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void tailEndsAfterTheLastCompleteLine() throws IOException {
+        assertThat(lastLineEnd("id\n1\n2\n", 0)).isEqualTo(7);
+        // A partially written last line waits for the next call
+        assertThat(lastLineEnd("id\n1\n2", 0)).isEqualTo(5);
+        assertThat(lastLineEnd("id\r\n1\r\n", 0)).isEqualTo(7);
+    }
+
+    @Test
+    void tailWithoutCompleteLineIsEmpty() throws IOException {
+        assertThat(lastLineEnd("id\n1\n2", 5)).isEqualTo(5);
+        assertThat(lastLineEnd("id\n1\n", 5)).isEqualTo(5);
+        assertThat(lastLineEnd("", 0)).isZero();
+    }
+
+    @Test
+    void newlineBeforeTheStartIsIgnored() throws IOException {
+        assertThat(lastLineEnd("id\n12345", 3)).isEqualTo(3);
+    }
+
+    @Test
+    void lineLongerThanTheScanWindowIsFound() throws IOException {
+        StringBuilder csv = new StringBuilder("id\n");
+        for (int i = 0; i < 200_000; i++) {
+            csv.append('x');
+        }
+        assertThat(lastLineEnd(csv.toString(), 0)).isEqualTo(3);
+        assertThat(lastLineEnd(csv.append('\n').append("partial").toString(), 0)).isEqualTo(200_004);
+    }
+
+    private long lastLineEnd(String content, long from) throws IOException {
+        Path file = Files.write(Files.createTempFile(directory, "tail", ".csv"), content.getBytes(StandardCharsets.UTF_8));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return BigQueryTableService.lastLineEnd(channel, from, channel.size());
+        }
+    }
+}
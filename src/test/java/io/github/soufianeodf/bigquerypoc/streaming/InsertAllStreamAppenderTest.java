@@ -0,0 +1,132 @@
+package io.github.soufianeodf.bigquerypoc.streaming;
+
+import com.google.cloud.NoCredentials;
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryOptions;
+import com.google.cloud.bigquery.DatasetInfo;
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.FieldValueList;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.StandardSQLTypeName;
+import com.google.cloud.bigquery.StandardTableDefinition;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.TableInfo;
+import com.google.cloud.bigquery.spi.v2.BigQueryRpc;
+import io.github.soufianeodf.bigquerypoc.local.LocalBigQueryRpc;
+import io.github.soufianeodf.bigquerypoc.service.BigQueryStreamingService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class InsertAllStreamAppenderTest {
+
+    private static final TableId TABLE = TableId.of("dataset", "events");
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private BigQuery bigquery;
+
+    @BeforeEach
+    void createTable() {
+        BigQueryRpc rpc = new LocalBigQueryRpc("project", 0, 0, 0).asRpc();
+        bigquery = BigQueryOptions.newBuilder()
+                .setProjectId("project")
+                .setCredentials(NoCredentials.getInstance())
+                .setServiceRpcFactory(options -> rpc)
+                .build()
+                .getService();
+        bigquery.create(DatasetInfo.of(TABLE.getDataset()));
+        bigquery.create(TableInfo.of(TABLE, StandardTableDefinition.of(Schema.of(Field.of("id", StandardSQLTypeName.STRING)))));
+    }
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void appendedRowsAreInTheTable() throws Exception {
+        InsertAllStreamAppender appender = new InsertAllStreamAppender(bigquery, TABLE, executor);
+
+        appender.append(rows(0, 3), 0).get();
+        appender.append(rows(3, 5), 3).get();
+
+        assertThat(ids()).containsExactly("00", "01", "02", "03", "04");
+    }
+
+    @Test
+    void rowsSentAgainAtTheSameOffsetAreNotDuplicated() throws Exception {
+        InsertAllStreamAppender appender = new InsertAllStreamAppender(bigquery, TABLE, executor);
+
+        appender.append(rows(0, 3), 0).get();
+        // A retry after a lost response sends the same rows at the same offset
+        appender.append(rows(0, 3), 0).get();
+
+        assertThat(ids()).containsExactly("00", "01", "02");
+    }
+
+    @Test
+    void streamsDoNotDeduplicateEachOther() throws Exception {
+        InsertAllStreamAppender first = new InsertAllStreamAppender(bigquery, TABLE, executor);
+        InsertAllStreamAppender second = new InsertAllStreamAppender(bigquery, TABLE, executor);
+
+        first.append(rows(0, 2), 0).get();
+        second.append(rows(2, 4), 0).get();
+
+        assertThat(ids()).containsExactlyInAnyOrder("00", "01", "02", "03");
+    }
+
+    @Test
+    void streamingServiceCommitsEveryRowOnce() throws Exception {
+        List<StreamAppender> appenders = Arrays.asList(
+                new InsertAllStreamAppender(bigquery, TABLE, executor),
+                new InsertAllStreamAppender(bigquery, TABLE, executor));
+
+        long committed = new BigQueryStreamingService().appendRows(appenders, rows(0, 23).iterator(), 5, 1024);
+
+        assertThat(committed).isEqualTo(23);
+        assertThat(ids()).containsExactlyInAnyOrderElementsOf(ids(rows(0, 23)));
+    }
+
+    @Test
+    void appendToAMissingTableFails() {
+        InsertAllStreamAppender appender = new InsertAllStreamAppender(bigquery, TableId.of("dataset", "missing"), executor);
+
+        assertThatThrownBy(() -> appender.append(rows(0, 1), 0).get()).isInstanceOf(ExecutionException.class);
+    }
+
+    private static List<Map<String, Object>> rows(int from, int to) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            rows.add(Collections.singletonMap("id", String.format("%02d", i)));
+        }
+        return rows;
+    }
+
+    private static List<String> ids(List<Map<String, Object>> rows) {
+        List<String> ids = new ArrayList<>();
+        for (Map<String, Object> row : rows) {
+            ids.add((String) row.get("id"));
+        }
+        return ids;
+    }
+
+    private List<String> ids() {
+        List<String> ids = new ArrayList<>();
+        for (FieldValueList row : bigquery.listTableData(TABLE).iterateAll()) {
+            ids.add(row.get(0).getStringValue());
+        }
+        return ids;
+    }
+}
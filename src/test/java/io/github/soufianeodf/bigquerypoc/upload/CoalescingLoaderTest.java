@@ -0,0 +1,310 @@
+package io.github.soufianeodf.bigquerypoc.upload;
+
+import com.google.api.services.bigquery.model.ErrorProto;
+import com.google.api.services.bigquery.model.Job;
+import com.google.api.services.bigquery.model.JobStatistics;
+import com.google.api.services.bigquery.model.JobStatistics3;
+import com.google.api.services.bigquery.model.JobStatus;
+import com.google.cloud.NoCredentials;
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.BigQueryOptions;
+import com.google.cloud.bigquery.CsvOptions;
+import com.google.cloud.bigquery.DatasetInfo;
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.FieldValueList;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.StandardSQLTypeName;
+import com.google.cloud.bigquery.StandardTableDefinition;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.TableInfo;
+import com.google.cloud.bigquery.spi.v2.BigQueryRpc;
+import io.github.soufianeodf.bigquerypoc.cache.MetadataCache;
+import io.github.soufianeodf.bigquerypoc.cache.QueryResultCache;
+import io.github.soufianeodf.bigquerypoc.client.BigQueryClientFactory;
+import io.github.soufianeodf.bigquerypoc.config.BigQueryClientProperties;
+import io.github.soufianeodf.bigquerypoc.local.LocalBigQueryRpc;
+import io.github.soufianeodf.bigquerypoc.metrics.BigQueryMetrics;
+import io.github.soufianeodf.bigquerypoc.telemetry.JobTelemetry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CoalescingLoaderTest {
+
+    private static final TableId TABLE = TableId.of("dataset", "events");
+    private static final CsvOptions CSV = CsvOptions.newBuilder().setSkipLeadingRows(1).build();
+
+    private final RejectingRpc rpc = new RejectingRpc(new LocalBigQueryRpc("project", 0, 0, 0).asRpc());
+    private BigQuery bigquery;
+    private BigQueryClientFactory clientFactory;
+    private BigQueryMetrics metrics;
+
+    @BeforeEach
+    void createTable() {
+        BigQueryRpc proxy = rpc.asRpc();
+        bigquery = BigQueryOptions.newBuilder()
+                .setProjectId("project")
+                .setCredentials(NoCredentials.getInstance())
+                .setServiceRpcFactory(options -> proxy)
+                .build()
+                .getService();
+        clientFactory = new BigQueryClientFactory("project", NoCredentials.getInstance(), Collections.emptyMap(),
+                new BigQueryClientProperties.Governance(), options -> proxy);
+        JobTelemetry telemetry = new JobTelemetry(100, 100, 5, 2.0, 1000);
+        metrics = new BigQueryMetrics(new SimpleMeterRegistry(), new QueryResultCache(0, 0, 0, 0, null, 0),
+                new MetadataCache(10, 0, 0), clientFactory, telemetry);
+        bigquery.create(DatasetInfo.of(TABLE.getDataset()));
+        bigquery.create(TableInfo.of(TABLE, StandardTableDefinition.of(Schema.of(Field.of("id", StandardSQLTypeName.INT64)))));
+    }
+
+    @Test
+    void sourcesAreLoadedWithOneJob() throws Exception {
+        CoalescingLoader loader = loader();
+        CompletableFuture<CoalescingLoader.Receipt> first = loader.submit("first", csv("id\n1\n2\n"));
+        CompletableFuture<CoalescingLoader.Receipt> second = loader.submit("second", csv("id\n3"));
+        loader.close(10);
+
+        assertThat(first.get().getJobId()).isEqualTo(second.get().getJobId());
+        assertThat(first.get().getBatchSources()).isEqualTo(2);
+        assertThat(first.get().getBatchRows()).isEqualTo(3);
+        assertThat(ids()).containsExactlyInAnyOrder(1L, 2L, 3L);
+    }
+
+    @Test
+    void sourceTheErrorPointsToFailsAndTheOthersAreLoadedAgain() throws Exception {
+        CoalescingLoader loader = loader();
+        CompletableFuture<CoalescingLoader.Receipt> first = loader.submit("first", csv("id\n1\n2\n"));
+        CompletableFuture<CoalescingLoader.Receipt> bad = loader.submit("bad", csv("id\n3\nbad\n"));
+        CompletableFuture<CoalescingLoader.Receipt> last = loader.submit("last", csv("id\n4\n"));
+        loader.close(10);
+
+        assertThatThrownBy(bad::get).isInstanceOf(ExecutionException.class).hasMessageContaining("'bad'");
+        assertThat(first.get().getJobId()).isEqualTo(last.get().getJobId());
+        assertThat(first.get().getBatchSources()).isEqualTo(2);
+        assertThat(rpc.getRejectedJobs()).isEqualTo(1);
+        // The failed job loaded nothing, the rows of the source that failed aren't in the table
+        assertThat(ids()).containsExactlyInAnyOrder(1L, 2L, 4L);
+    }
+
+    @Test
+    void errorOnTheLastRowOfASourceIsNotBlamedOnTheNextOne() throws Exception {
+        CoalescingLoader loader = loader();
+        // Without a line break at its end, the bad row is completed with one in the upload
+        CompletableFuture<CoalescingLoader.Receipt> bad = loader.submit("bad", csv("id\n3\nbad"));
+        CompletableFuture<CoalescingLoader.Receipt> next = loader.submit("next", csv("id\n5\n"));
+        loader.close(10);
+
+        assertThatThrownBy(bad::get).isInstanceOf(ExecutionException.class);
+        assertThat(next.get().getBatchSources()).isEqualTo(1);
+        assertThat(ids()).containsExactly(5L);
+    }
+
+    @Test
+    void errorWithoutLocationFailsTheWholeBatch() throws Exception {
+        rpc.withoutLocation();
+        CoalescingLoader loader = loader();
+        CompletableFuture<CoalescingLoader.Receipt> first = loader.submit("first", csv("id\n1\n"));
+        CompletableFuture<CoalescingLoader.Receipt> bad = loader.submit("bad", csv("id\nbad\n"));
+        loader.close(10);
+
+        assertThatThrownBy(first::get).isInstanceOf(ExecutionException.class);
+        assertThatThrownBy(bad::get).isInstanceOf(ExecutionException.class);
+        // Nothing tells which source is wrong, the batch isn't tried again
+        assertThat(rpc.getRejectedJobs()).isEqualTo(1);
+        assertThat(ids()).isEmpty();
+    }
+
+    @Test
+    void closeFailsTheSourcesNotLoadedInTime() throws Exception {
+        rpc.holdUploads();
+        CoalescingLoader loader = loader();
+        CompletableFuture<CoalescingLoader.Receipt> uploading = loader.submit("uploading", csv("id\n1\n"));
+        loader.flush();
+        CompletableFuture<CoalescingLoader.Receipt> buffered = loader.submit("buffered", csv("id\n2\n"));
+
+        loader.close(1);
+
+        assertThatThrownBy(() -> uploading.get(1, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class);
+        // Dropped from the queue of the loader, only close completes its future
+        assertThatThrownBy(() -> buffered.get(1, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class)
+                .hasMessageContaining("closed before");
+    }
+
+    @Test
+    void failedUploadIsNotCommitted(@TempDir Path directory) throws Exception {
+        StringBuilder large = new StringBuilder("id\n");
+        for (int i = 0; i < 300_000; i++) {
+            large.append(i).append('\n');
+        }
+        Path missing = Files.write(directory.resolve("missing.csv"), csv("id\n1\n"));
+        CoalescingLoader loader = loader();
+        // Larger than an upload block, part of the batch is sent before the missing file is read
+        CompletableFuture<CoalescingLoader.Receipt> sent = loader.submit("sent", csv(large.toString()));
+        CompletableFuture<CoalescingLoader.Receipt> deleted = loader.submit(missing);
+        Files.delete(missing);
+        loader.close(10);
+
+        assertThatThrownBy(sent::get).isInstanceOf(ExecutionException.class).hasMessageContaining("Upload failed");
+        assertThatThrownBy(deleted::get).isInstanceOf(ExecutionException.class);
+        assertThat(rpc.getCommittedUploads()).isZero();
+        assertThat(ids()).isEmpty();
+    }
+
+    private CoalescingLoader loader() {
+        return new CoalescingLoader(bigquery, clientFactory, metrics, new JobTelemetry(100, 100, 5, 2.0, 1000),
+                TABLE, CSV, null, Long.MAX_VALUE, 60_000);
+    }
+
+    private static byte[] csv(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private List<Long> ids() {
+        List<Long> ids = new ArrayList<>();
+        for (FieldValueList row : bigquery.listTableData(TABLE).iterateAll()) {
+            ids.add(row.get(0).getLongValue());
+        }
+        return ids;
+    }
+
+    /**
+     * Sits in front of the local BigQuery and fails the load jobs whose upload has a row that isn't an INT64, with
+     * errors worded like the ones of BigQuery, pointing to the byte offset of the row.
+     */
+    private static final class RejectingRpc implements InvocationHandler {
+
+        private final BigQueryRpc local;
+        private final Map<String, Job> openedJobs = new ConcurrentHashMap<>();
+        private final Map<String, ByteArrayOutputStream> uploads = new ConcurrentHashMap<>();
+        private final Map<String, Job> rejectedJobs = new ConcurrentHashMap<>();
+        private final CountDownLatch held = new CountDownLatch(1);
+        private final AtomicInteger committedUploads = new AtomicInteger();
+        private volatile boolean withLocation = true;
+        private volatile boolean holding;
+
+        private RejectingRpc(BigQueryRpc local) {
+            this.local = local;
+        }
+
+        BigQueryRpc asRpc() {
+            return (BigQueryRpc) Proxy.newProxyInstance(
+                    BigQueryRpc.class.getClassLoader(), new Class<?>[]{BigQueryRpc.class}, this);
+        }
+
+        void withoutLocation() {
+            withLocation = false;
+        }
+
+        // Uploads never end, they fail once the thread uploading is interrupted
+        void holdUploads() {
+            holding = true;
+        }
+
+        int getRejectedJobs() {
+            return rejectedJobs.size();
+        }
+
+        int getCommittedUploads() {
+            return committedUploads.get();
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "open":
+                    String uploadId = (String) delegate(method, args);
+                    openedJobs.put(uploadId, (Job) args[0]);
+                    uploads.put(uploadId, new ByteArrayOutputStream());
+                    return uploadId;
+                case "write":
+                    return write(method, args);
+                case "getJob":
+                    Job rejected = rejectedJobs.get((String) args[1]);
+                    return rejected != null ? rejected.clone() : delegate(method, args);
+                default:
+                    return delegate(method, args);
+            }
+        }
+
+        private Object write(Method method, Object[] args) throws Throwable {
+            String uploadId = (String) args[0];
+            uploads.get(uploadId).write((byte[]) args[1], (Integer) args[2], (Integer) args[4]);
+            if (!(Boolean) args[5]) {
+                return delegate(method, args);
+            }
+            committedUploads.incrementAndGet();
+            if (holding) {
+                try {
+                    held.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new BigQueryException(BigQueryException.UNKNOWN_CODE, "Upload interrupted");
+                }
+            }
+
+            List<ErrorProto> errors = errorsOf(uploads.remove(uploadId).toByteArray());
+            if (errors.isEmpty()) {
+                return delegate(method, args);
+            }
+            Job job = openedJobs.remove(uploadId);
+            long now = System.currentTimeMillis();
+            Job rejected = job.clone()
+                    .setStatus(new JobStatus().setState("DONE").setErrorResult(errors.get(0)).setErrors(errors))
+                    .setStatistics(new JobStatistics().setCreationTime(now).setStartTime(now).setEndTime(now)
+                            .setLoad(new JobStatistics3().setOutputRows(0L)));
+            rejectedJobs.put(job.getJobReference().getJobId(), rejected);
+            return rejected.clone();
+        }
+
+        private List<ErrorProto> errorsOf(byte[] upload) {
+            List<ErrorProto> errors = new ArrayList<>();
+            int lineStart = 0;
+            for (int i = 0; i <= upload.length; i++) {
+                if (i < upload.length && upload[i] != '\n') {
+                    continue;
+                }
+                String line = new String(upload, lineStart, i - lineStart, StandardCharsets.UTF_8);
+                if (!line.isEmpty() && !line.matches("-?\\d+")) {
+                    errors.add(new ErrorProto().setReason("invalid").setMessage("Error while reading data, error message: "
+                            + "Could not parse '" + line + "' as INT64 for field id (position 0)"
+                            + (withLocation ? " starting at location " + lineStart : "")
+                            + " with message 'Unable to parse'"));
+                }
+                lineStart = i + 1;
+            }
+            return errors;
+        }
+
+        private Object delegate(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(local, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
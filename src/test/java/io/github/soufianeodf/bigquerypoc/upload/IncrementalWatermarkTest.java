@@ -0,0 +1,128 @@
+package io.github.soufianeodf.bigquerypoc.upload;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IncrementalWatermarkTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void appendedFileStillMatches() throws IOException {
+        Path file = write("id,name\n1,ada\n");
+        IncrementalWatermark watermark = at(file, Files.size(file), 2);
+
+        append(file, "2,grace\n");
+
+        assertThat(matches(watermark, file)).isTrue();
+    }
+
+    @Test
+    void rewrittenFileNoLongerMatches() throws IOException {
+        Path file = write("id,name\n1,ada\n");
+        IncrementalWatermark watermark = at(file, Files.size(file), 2);
+
+        // Same size, other bytes before the offset
+        write(file, "id,name\n1,bob\n2,grace\n");
+
+        assertThat(matches(watermark, file)).isFalse();
+    }
+
+    @Test
+    void truncatedFileNoLongerMatches() throws IOException {
+        Path file = write("id,name\n1,ada\n");
+        IncrementalWatermark watermark = at(file, Files.size(file), 2);
+
+        write(file, "id,name\n");
+
+        assertThat(matches(watermark, file)).isFalse();
+    }
+
+    @Test
+    void onlyTheBytesRightBeforeTheOffsetAreChecked() throws IOException {
+        StringBuilder csv = new StringBuilder("id\n");
+        for (int i = 0; i < 2000; i++) {
+            csv.append(i).append('\n');
+        }
+        Path file = write(csv.toString());
+        IncrementalWatermark watermark = at(file, Files.size(file), 2001);
+
+        // Outside of the 4 KiB checksum window
+        write(file, "ID" + csv.substring(2));
+
+        assertThat(matches(watermark, file)).isTrue();
+    }
+
+    @Test
+    void labelsRoundTripAndKeepTheOtherLabels() throws IOException {
+        Path file = write("id\n1\n");
+        IncrementalWatermark watermark = at(file, Files.size(file), 2);
+
+        Map<String, String> labels = watermark.toLabels(Collections.singletonMap("owner", "etl"));
+        IncrementalWatermark read = IncrementalWatermark.fromLabels(labels);
+
+        assertThat(labels).containsEntry("owner", "etl");
+        assertThat(read.getOffset()).isEqualTo(watermark.getOffset());
+        assertThat(read.getLines()).isEqualTo(2);
+        assertThat(matches(read, file)).isTrue();
+    }
+
+    @Test
+    void missingOrInvalidLabelsHoldNoWatermark() {
+        Map<String, String> labels = new HashMap<>();
+        labels.put("incremental_offset", "12");
+
+        assertThat(IncrementalWatermark.fromLabels(null)).isNull();
+        assertThat(IncrementalWatermark.fromLabels(labels)).isNull();
+        labels.put("incremental_crc", "abc");
+        labels.put("incremental_offset", "twelve");
+        assertThat(IncrementalWatermark.fromLabels(labels)).isNull();
+    }
+
+    @Test
+    void watermarkAtTheStartMatchesAnyFile() throws IOException {
+        Path file = write("");
+        IncrementalWatermark watermark = at(file, 0, 0);
+
+        write(file, "id\n1\n");
+
+        assertThat(matches(watermark, file)).isTrue();
+    }
+
+    private Path write(String content) throws IOException {
+        return write(Files.createTempFile(directory, "source", ".csv"), content);
+    }
+
+    private static Path write(Path file, String content) throws IOException {
+        return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void append(Path file, String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    }
+
+    private static IncrementalWatermark at(Path file, long offset, long lines) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return IncrementalWatermark.at(channel, offset, lines);
+        }
+    }
+
+    private static boolean matches(IncrementalWatermark watermark, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return watermark.matches(channel);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package io.github.soufianeodf.bigquerypoc.upload;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PipelinedUploadTest {
+
+    private static final int BLOCK_SIZE = 16;
+
+    @Test
+    void completeTransferIsClosed() throws Exception {
+        RecordingChannel channel = new RecordingChannel();
+
+        long bytesSent = PipelinedUpload.transferAndClose(out -> out.write(bytes(40)), channel, BLOCK_SIZE, 2);
+
+        assertThat(bytesSent).isEqualTo(40);
+        assertThat(channel.written.toByteArray()).isEqualTo(bytes(40));
+        assertThat(channel.isOpen()).isFalse();
+    }
+
+    @Test
+    void transcoderFailingAfterTheFirstBlockLeavesTheChannelOpen() {
+        RecordingChannel channel = new RecordingChannel();
+
+        assertThatThrownBy(() -> PipelinedUpload.transferAndClose(out -> {
+            out.write(bytes(BLOCK_SIZE));
+            out.flush();
+            throw new IOException("Bad value in row 2");
+        }, channel, BLOCK_SIZE, 2)).isInstanceOf(IOException.class).hasMessage("Bad value in row 2");
+
+        // The first block was sent, but the upload was not committed
+        assertThat(channel.written.size()).isEqualTo(BLOCK_SIZE);
+        assertThat(channel.isOpen()).isTrue();
+    }
+
+    @Test
+    void failingChannelIsNotClosed() {
+        RecordingChannel channel = new RecordingChannel();
+        channel.failAfter = BLOCK_SIZE;
+
+        assertThatThrownBy(() -> PipelinedUpload.transferAndClose(out -> out.write(bytes(4 * BLOCK_SIZE)), channel, BLOCK_SIZE, 2))
+                .isInstanceOf(IOException.class);
+
+        assertThat(channel.isOpen()).isTrue();
+    }
+
+    private static byte[] bytes(int count) {
+        byte[] bytes = new byte[count];
+        Arrays.fill(bytes, (byte) 'x');
+        return bytes;
+    }
+
+    private static final class RecordingChannel implements WritableByteChannel {
+
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private int failAfter = Integer.MAX_VALUE;
+        private boolean open = true;
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            if (written.size() >= failAfter) {
+                throw new IOException("Connection reset");
+            }
+            int count = source.remaining();
+            byte[] bytes = new byte[count];
+            source.get(bytes);
+            written.write(bytes, 0, count);
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+}